@@ -14,5 +14,9 @@
 #
 # Now the this script can be executed from the AT installation directory
 #
+# While the migration is running it can be monitored, paused, stopped, and the number of
+# client threads changed using jconsole (MBean org.archiviststoolkit.plugin:type=MigrationControl).
+# To connect from another machine add the com.sun.management.jmxremote.* options to the java command
+#
 
 java -Xmx1024m -cp "plugins/scriptAT.zip:lib/*" org.archiviststoolkit.plugin.dbCopyCLI
\ No newline at end of file
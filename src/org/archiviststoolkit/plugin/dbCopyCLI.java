@@ -3,6 +3,8 @@ package org.archiviststoolkit.plugin;
 import org.archiviststoolkit.plugin.dbdialog.RemoteDBConnectDialogLight;
 import org.archiviststoolkit.plugin.utils.aspace.ASpaceClient;
 import org.archiviststoolkit.plugin.utils.aspace.ASpaceCopyUtil;
+import org.archiviststoolkit.plugin.utils.aspace.DryRunConverter;
+import org.archiviststoolkit.plugin.utils.aspace.MigrationCoordinator;
 import org.hibernate.Session;
 
 import java.io.*;
@@ -27,8 +29,19 @@ public class dbCopyCLI {
 
     private int clientThreads = 1;
 
+    private boolean virtualThreads = false;
+
+    private boolean asyncTransport = false;
+    private int asyncMaxRequests = 32;
+
+    private int recordBatchSize = 0;
+    private long resourceBatchBytes = 0;
+    private int resourceBatchRecords = 0;
+
     private boolean continueFromResources = false;
 
+    private boolean deltaMigration = false;
+
     private String resetPassword = "archive";
 
     private boolean simulateRESTCalls = false;
@@ -41,13 +54,37 @@ public class dbCopyCLI {
 
     private boolean checkISODates = false;
 
+    private boolean dryRun = false;
+    private int dryRunThreads = 0;
+    private double dryRunRecordsPerSecond = 25;
+
     private String resourcesToCopy = null;
 
+    private String logLevel = "info";
+
+    // the file the backend requests are recorded to, so they can be replayed
+    private String trafficCaptureFile = "";
+    private boolean trafficCaptureBodies = false;
+
+    // the directory the records are exported to instead of being posted to the backend
+    private String exportDirectory = "";
+    private int exportChunkRecords = 10000;
+    private int exportChunkMB = 64;
+
     private String databaseType = "";
     private String atUrl = "";
     private String atUsername = "";
     private String atPassword = "";
 
+    // used to split the copying of the resources across several worker processes. The shard directory
+    // is only set in the properties the coordinator starts each worker with
+    private int shardWorkers = 0;
+    private String shardBy = MigrationCoordinator.SHARD_BY_REPOSITORY;
+    private String workerHosts = "";
+    private String workerCommand = "";
+    private int shardAttempts = 3;
+    private String shardDirectory = "";
+
     private String aspaceHost = "http://localhost:8089";
     private String aspaceAdmin = "admin";
     private String aspacePassword = "admin";
@@ -81,17 +118,29 @@ public class dbCopyCLI {
     private boolean checkRepositoryMismatch = false;
     private HashMap<String, String> repositoryMismatchMap = null;
 
+    // the properties this was started with, which the shard workers are also started with
+    private Properties properties;
+
     /**
      * The main constructor which takes a properties object
      *
      * @param properties
      */
     public dbCopyCLI(Properties properties) throws Exception {
+        this.properties = properties;
+
         useTracer = new Boolean(properties.getProperty("useTracer"));
         tracerDatabase = properties.getProperty("tracerDatabase");
         clientThreads = new Integer(properties.getProperty("clientThreads"));
+        virtualThreads = new Boolean(properties.getProperty("virtualThreads", "false"));
+        asyncTransport = new Boolean(properties.getProperty("asyncTransport", "false"));
+        asyncMaxRequests = new Integer(properties.getProperty("asyncMaxRequests", "32"));
+        recordBatchSize = new Integer(properties.getProperty("recordBatchSize", "0"));
+        resourceBatchBytes = new Long(properties.getProperty("resourceBatchBytes", "0"));
+        resourceBatchRecords = new Integer(properties.getProperty("resourceBatchRecords", "2000"));
         checkRepositoryMismatch = new Boolean(properties.getProperty("checkRepositoryMismatch"));
         continueFromResources = new Boolean(properties.getProperty("continueFromResources"));
+        deltaMigration = new Boolean(properties.getProperty("deltaMigration", "false"));
         resetPassword = properties.getProperty("resetPassword");
         simulateRESTCalls = new Boolean(properties.getProperty("simulateRESTCalls"));
         ignoreUnlinkedNames = new Boolean(properties.getProperty("ignoreUnlinkedNames"));
@@ -103,7 +152,22 @@ public class dbCopyCLI {
         publishResources = new Boolean(properties.getProperty("publishResources"));
         copyOnlyResources = new Boolean(properties.getProperty("copyOnlyResources"));
         checkISODates = new Boolean(properties.getProperty("checkISODates"));
+        dryRun = new Boolean(properties.getProperty("dryRun", "false"));
+        dryRunThreads = new Integer(properties.getProperty("dryRunThreads", "0"));
+        dryRunRecordsPerSecond = new Double(properties.getProperty("dryRunRecordsPerSecond", "25"));
         resourcesToCopy = properties.getProperty("resourcesToCopy");
+        logLevel = properties.getProperty("logLevel", "info");
+        trafficCaptureFile = properties.getProperty("trafficCaptureFile", "");
+        trafficCaptureBodies = new Boolean(properties.getProperty("trafficCaptureBodies", "false"));
+        exportDirectory = properties.getProperty("exportDirectory", "");
+        exportChunkRecords = new Integer(properties.getProperty("exportChunkRecords", "10000"));
+        exportChunkMB = new Integer(properties.getProperty("exportChunkMB", "64"));
+        shardWorkers = new Integer(properties.getProperty("shardWorkers", "0"));
+        shardBy = properties.getProperty("shardBy", MigrationCoordinator.SHARD_BY_REPOSITORY);
+        workerHosts = properties.getProperty("workerHosts", "");
+        workerCommand = properties.getProperty("workerCommand", "");
+        shardAttempts = new Integer(properties.getProperty("shardAttempts", "3"));
+        shardDirectory = properties.getProperty("shardDirectory", "");
         databaseType = properties.getProperty("databaseType");
         atUrl = properties.getProperty("atUrl");
         atUsername = properties.getProperty("atUsername");
@@ -149,6 +213,16 @@ public class dbCopyCLI {
     private void copyToASpace() {
         Session sourceSession = getDatabaseSession();
         if (sourceSession != null) {
+            if(!shardDirectory.isEmpty()) {
+                startShardCopyProcess();
+                return;
+            }
+
+            if(dryRun) {
+                startDryRunProcess();
+                return;
+            }
+
             if(checkRepositoryMismatch) {
                 startRepositoryCheckProcess();
             }
@@ -171,12 +245,8 @@ public class dbCopyCLI {
             ascopyREC = new ASpaceCopyUtil(rcd, aspaceHost, aspaceAdmin, aspacePassword);
             ascopyREC.setCheckRepositoryMismatch();
 
-            // get the number of resources to copy here to allow it to be reset while the migration
-            // has been started, but migration of resources has not yet started
-            int resourcesToCopy = 1000000;
-            int threads = 1;
-
-            ascopyREC.copyResourceRecords(resourcesToCopy, threads);
+            // find the mismatches with queries of the AT database, instead of checking every resource record
+            ascopyREC.findRepositoryMismatches();
 
             repositoryMismatchMap = ascopyREC.getRepositoryMismatchMap();
 
@@ -200,6 +270,38 @@ public class dbCopyCLI {
         }
     }
 
+    /**
+     * Method to convert all the AT records without saving them in ASpace, and report on them
+     */
+    private void startDryRunProcess() {
+        try {
+            System.out.println("Starting dry run\n\n");
+
+            HashMap<String, Boolean> publishMap = new HashMap<String, Boolean>();
+            publishMap.put("names", publishNames);
+            publishMap.put("subjects", publishSubjects);
+            publishMap.put("accessions", publishAccessions);
+            publishMap.put("digitalObjects", publishDigitalObjects);
+            publishMap.put("resources", publishResources);
+
+            ascopy = new ASpaceCopyUtil(rcd, aspaceHost, aspaceAdmin, aspacePassword);
+            ascopy.setLogLevel(logLevel);
+            ascopy.setPublishHashMap(publishMap);
+            ascopy.setSimulateRESTCalls(true);
+            ascopy.setCheckISODates(checkISODates);
+            ascopy.setExtentPortionInParts(false);
+
+            DryRunConverter dryRunConverter = new DryRunConverter(ascopy, rcd.getSessionFactory(), dryRunThreads);
+            dryRunConverter.setLoadEstimate(clientThreads, dryRunRecordsPerSecond);
+
+            String summary = dryRunConverter.run(new File(System.getProperty("user.dir") + "/logs/dryrun_report.tsv"));
+            saveLogFile("dryrun_summary.txt", summary);
+        } catch (Exception e) {
+            System.out.println("Unrecoverable exception, dry run stopped ...\n\n");
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Method to start copy the AT records into ASpace
      */
@@ -217,9 +319,23 @@ public class dbCopyCLI {
             publishMap.put("resources", publishResources);
 
             ascopy = new ASpaceCopyUtil(rcd, aspaceHost, aspaceAdmin, aspacePassword);
+            ascopy.setLogLevel(logLevel);
+            ascopy.setLogFile(new File(System.getProperty("user.dir") + "/logs/migration_output.txt"));
+
+            if(!trafficCaptureFile.isEmpty()) {
+                ascopy.setTrafficCaptureFile(new File(trafficCaptureFile), trafficCaptureBodies);
+            }
+
+            if(!exportDirectory.isEmpty()) {
+                ascopy.setExportDirectory(new File(exportDirectory), exportChunkRecords, exportChunkMB * 1048576L);
+            }
             ascopy.setPublishHashMap(publishMap);
             ascopy.setRepositoryMismatchMap(repositoryMismatchMap);
             ascopy.setSimulateRESTCalls(simulateRESTCalls);
+            ascopy.setRecordBatchSize(recordBatchSize);
+            ascopy.setResourceBatchLimits(resourceBatchBytes, resourceBatchRecords);
+            ascopy.setVirtualThreads(virtualThreads);
+            ascopy.setAsyncTransport(asyncTransport ? asyncMaxRequests : 0);
             ascopy.setCheckISODates(checkISODates);
             ascopy.setExtentPortionInParts(false);
             ascopy.setIgnoreUnlinkedRecords(ignoreUnlinkedNames, ignoreUnlinkedSubjects);
@@ -239,7 +355,13 @@ public class dbCopyCLI {
             // first load the notes etc types and resource from the destination database
             ascopy.loadRepositories();
 
-            if (continueFromResources && ascopy.uriMapFileExist()) {
+            // a delta migration goes through all the record types, but only copies the changed records
+            if (deltaMigration && ascopy.uriMapFileExist()) {
+                ascopy.loadURIMaps();
+                ascopy.setDeltaMigration();
+            }
+
+            if (continueFromResources && !deltaMigration && ascopy.uriMapFileExist()) {
                 ascopy.loadURIMaps();
             } else {
                 if(!copyOnlyResources) {
@@ -266,7 +388,13 @@ public class dbCopyCLI {
 
             ascopy.setUseBatchImport(true);
 
-            ascopy.copyResourceRecords(numberOfResourcesToCopy, clientThreads);
+            // exporting writes the records to a single set of chunk files, so it can't be split up
+            String shardErrors = "";
+            if(shardWorkers > 1 && exportDirectory.isEmpty()) {
+                shardErrors = copyResourcesInShards();
+            } else {
+                ascopy.copyResourceRecords(numberOfResourcesToCopy, clientThreads);
+            }
 
             // DEBUG code which checks to see that all ISO dates are valid
             if(checkISODates) {
@@ -277,7 +405,7 @@ public class dbCopyCLI {
 
             // set the number of errors and message now
             String errorCount = "" + ascopy.getSaveErrorCount();
-            migrationErrors = ascopy.getSaveErrorMessages() + "\n\nTotal errors: " + errorCount;
+            migrationErrors = ascopy.getSaveErrorMessages() + "\n\nTotal errors: " + errorCount + shardErrors;
 
             // now save the migration log
             saveLogFile("migration_log.txt", migrationErrors);
@@ -291,6 +419,125 @@ public class dbCopyCLI {
         }
     }
 
+    /**
+     * Method to split the resources into shards, and copy them using a worker process for each shard
+     *
+     * @return the migration logs of the workers
+     * @throws Exception
+     */
+    private String copyResourcesInShards() throws Exception {
+        MigrationCoordinator coordinator = new MigrationCoordinator(
+                new File(System.getProperty("user.dir") + "/shards"), properties, shardWorkers);
+        coordinator.setShardBy(shardBy);
+        coordinator.setWorkerCommand(workerCommand);
+        coordinator.setMaxAttempts(shardAttempts);
+
+        if(!workerHosts.trim().isEmpty()) {
+            coordinator.setWorkerHosts(workerHosts.trim().split("\\s*,\\s*"));
+        }
+
+        // pick up the resources copied by the workers of a run which was stopped, so they aren't copied again
+        int merged = coordinator.mergeResults(ascopy);
+        if(merged != 0) {
+            System.out.println("Added " + merged + " resources copied by the last set of workers ...\n");
+        }
+
+        // the workers start from the saved URI maps
+        ascopy.saveURIMaps();
+
+        int shards = coordinator.createShards(rcd.getResources(), rcd.getResourceComponentCounts(), ascopy.getURIMapFile());
+        System.out.println("Copying resources using " + shards + " workers ...\n");
+
+        boolean completed = coordinator.run();
+
+        merged = coordinator.mergeResults(ascopy);
+        ascopy.saveURIMaps();
+
+        System.out.println("Added " + merged + " resources copied by the workers ...\n");
+
+        // so the migration isn't marked as completed for the next delta migration
+        if(!completed) {
+            System.out.println("Not all the shards were copied ...\n");
+            ascopy.stopCopy();
+        }
+
+        return coordinator.getShardLogs();
+    }
+
+    /**
+     * Method to copy the resources in a shard, when this is one of the workers started by the coordinator
+     */
+    private void startShardCopyProcess() {
+        File shardDir = new File(shardDirectory);
+
+        try {
+            System.out.println("Starting shard copy: " + shardDir.getName() + "\n\n");
+
+            HashMap<String, Boolean> publishMap = new HashMap<String, Boolean>();
+            publishMap.put("names", publishNames);
+            publishMap.put("subjects", publishSubjects);
+            publishMap.put("accessions", publishAccessions);
+            publishMap.put("digitalObjects", publishDigitalObjects);
+            publishMap.put("resources", publishResources);
+
+            ascopy = new ASpaceCopyUtil(rcd, aspaceHost, aspaceAdmin, aspacePassword);
+            ascopy.setWorkDirectory(shardDir);
+            ascopy.setLogLevel(logLevel);
+            ascopy.setLogFile(new File(shardDir, MigrationCoordinator.SHARD_OUTPUT_FILENAME));
+
+            if(!trafficCaptureFile.isEmpty()) {
+                ascopy.setTrafficCaptureFile(new File(trafficCaptureFile), trafficCaptureBodies);
+            }
+
+            ascopy.setPublishHashMap(publishMap);
+            ascopy.setSimulateRESTCalls(simulateRESTCalls);
+            ascopy.setResourceBatchLimits(resourceBatchBytes, resourceBatchRecords);
+            ascopy.setVirtualThreads(virtualThreads);
+            ascopy.setAsyncTransport(asyncTransport ? asyncMaxRequests : 0);
+            ascopy.setCheckISODates(checkISODates);
+            ascopy.setExtentPortionInParts(false);
+            ascopy.setIgnoreUnlinkedRecords(ignoreUnlinkedNames, ignoreUnlinkedSubjects);
+            ascopy.setCopying(true);
+
+            if (!ascopy.getSession()) {
+                System.out.println("No session, nothing to do ...\n");
+                return;
+            }
+
+            ascopy.loadRepositories();
+
+            // the URI maps were copied to the shard directory by the coordinator, and are updated as each resource is copied
+            ascopy.loadURIMaps();
+
+            if(deltaMigration) {
+                ascopy.setDeltaMigration();
+            }
+
+            ascopy.setResourceShard(MigrationCoordinator.readShardResources(shardDir));
+            ascopy.setResourcesToCopyList(getResourcesToCopy());
+            ascopy.setUseBatchImport(true);
+
+            ascopy.copyResourceRecords(1000000, clientThreads);
+
+            ascopy.cleanUp();
+
+            String errorCount = "" + ascopy.getSaveErrorCount();
+            migrationErrors = ascopy.getSaveErrorMessages() + "\n\nTotal errors: " + errorCount;
+
+            saveLogFile(new File(shardDir, MigrationCoordinator.SHARD_LOG_FILENAME), migrationErrors);
+
+            // let the coordinator know this shard doesn't need to be copied again
+            MigrationCoordinator.markShardDone(shardDir, "Total errors: " + errorCount);
+        } catch (Exception e) {
+            System.out.println("Unrecoverable exception, shard copy stopped ...\n\n");
+
+            if (ascopy != null) {
+                System.out.println(ascopy.getCurrentRecordInfo() + "\n\n");
+            }
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Method to save the log file to the log directory of the AT
      *
@@ -298,8 +545,16 @@ public class dbCopyCLI {
      * @param logText
      */
     private void saveLogFile(String logfileName, String logText) {
-        File selectedFile = new File(System.getProperty("user.dir") + "/logs/" + logfileName);
+        saveLogFile(new File(System.getProperty("user.dir") + "/logs/" + logfileName), logText);
+    }
 
+    /**
+     * Method to save a log file
+     *
+     * @param selectedFile
+     * @param logText
+     */
+    private void saveLogFile(File selectedFile, String logText) {
         try {
             FileWriter fileWriter = new FileWriter(selectedFile);
             BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
@@ -374,5 +629,9 @@ public class dbCopyCLI {
 			    }
 		    }
 	    }
+
+        // the AT connection dialog can leave the AWT thread running, so make sure the process ends
+        // since the shard coordinator waits on it
+        System.exit(0);
     }
 }
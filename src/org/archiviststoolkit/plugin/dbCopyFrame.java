@@ -467,16 +467,9 @@ public class dbCopyFrame extends JFrame {
                     // set the progress bar from doing it's thing since the ascopy class is going to take over
                     copyProgressBar.setIndeterminate(false);
 
-                    // get the number of resources to copy here to allow it to be reset while the migration
-                    // has been started, but migration of resources has not yet started
-                    int resourcesToCopy = 1000000;
-                    int threads = 1;
-
-                    ArrayList<String> resourcesIDsList = new ArrayList<String>();
-
+                    // find the mismatches with queries of the AT database, instead of checking every resource record
                     if(!copyStopped) {
-                        ascopyREC.setResourcesToCopyList(resourcesIDsList);
-                        ascopyREC.copyResourceRecords(resourcesToCopy, threads);
+                        ascopyREC.findRepositoryMismatches();
                     }
 
                     repositoryMismatchMap = ascopyREC.getRepositoryMismatchMap();
@@ -0,0 +1,100 @@
+package org.archiviststoolkit.plugin;
+
+import org.archiviststoolkit.plugin.utils.aspace.ExportLoader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * A class which allows records exported by running dbCopyCLI with an export directory to be
+ * loaded into ASpace from the command line. It uses the same properties file as dbCopyCLI
+ */
+public class dbLoadCLI {
+    private String exportDirectory = "";
+
+    private int loaderThreads = 4;
+    private boolean virtualThreads = false;
+
+    private String aspaceHost = "http://localhost:8089";
+    private String aspaceAdmin = "admin";
+    private String aspacePassword = "admin";
+
+    /**
+     * The main constructor which takes a properties object
+     *
+     * @param properties
+     */
+    public dbLoadCLI(Properties properties) {
+        exportDirectory = properties.getProperty("exportDirectory", "");
+        loaderThreads = new Integer(properties.getProperty("loaderThreads", "4"));
+        virtualThreads = new Boolean(properties.getProperty("virtualThreads", "false"));
+        aspaceHost = properties.getProperty("aspaceHost");
+        aspaceAdmin = properties.getProperty("aspaceAdmin");
+        aspacePassword = properties.getProperty("aspacePassword");
+    }
+
+    /**
+     * Method to load the exported records into ASpace
+     *
+     * @return true if all the records were loaded
+     */
+    public boolean loadIntoASpace() {
+        if(exportDirectory.isEmpty()) {
+            System.out.println("No export directory specified, nothing to load ...");
+            return false;
+        }
+
+        try {
+            System.out.println("Starting record load\n\n");
+
+            ExportLoader loader = new ExportLoader(new File(exportDirectory), aspaceHost, aspaceAdmin, aspacePassword, loaderThreads);
+            loader.setVirtualThreads(virtualThreads);
+            return loader.load();
+        } catch (Exception e) {
+            System.out.println("Unrecoverable exception, load stopped ...\n\n");
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    /**
+     * Main method for running the load from the command line
+     */
+    public static void main(String[] args) {
+        System.out.println("Starting " + dbCopyFrame.VERSION + "\n");
+
+        // load the properties from the file which contains connection information
+        String propertyFilename = System.getProperty("user.dir") + "/dbcopy.properties";
+        if(args.length == 1) {
+            propertyFilename = args[0];
+        }
+
+        Properties prop = new Properties();
+        InputStream input = null;
+        boolean loaded = false;
+
+        try {
+            input = new FileInputStream(propertyFilename);
+            prop.load(input);
+
+            dbLoadCLI dbloadCLI = new dbLoadCLI(prop);
+            loaded = dbloadCLI.loadIntoASpace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        System.exit(loaded ? 0 : 1);
+    }
+}
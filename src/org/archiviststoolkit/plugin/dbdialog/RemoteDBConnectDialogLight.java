@@ -23,6 +23,7 @@ import org.archiviststoolkit.util.DatabaseConnectionInformation;
 import org.archiviststoolkit.util.DatabaseConnectionUtils;
 import org.hibernate.*;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
@@ -68,6 +69,9 @@ public class RemoteDBConnectDialogLight extends JDialog implements DomainAccessL
 
     private String connectionMessage = "";
 
+    // the deepest level of resource components counted when estimating the size of the resources
+    private final int MAX_COMPONENT_DEPTH = 30;
+
     /**
      * Constructor that doesn't take a parent owner used when running on the command line
      */
@@ -725,6 +729,291 @@ public class RemoteDBConnectDialogLight extends JDialog implements DomainAccessL
         return recordList;
     }
 
+    /**
+     * Method to return the ids of the records of a class. For digital objects only the ids of the parent
+     * digital objects are returned, since the children are copied along with them
+     *
+     * @param clazz
+     * @param modifiedSince if not null, only the records created or modified after this date are returned.
+     *                      For resources and digital objects, this includes the ones with a modified component
+     * @return
+     */
+    public HashSet<Long> getRecordIds(Class clazz, Date modifiedSince) {
+        Transaction tx = null;
+        HashSet<Long> ids = new HashSet<Long>();
+
+        try {
+            tx = session.beginTransaction();
+
+            Criteria criteria = session.createCriteria(clazz);
+            criteria.setProjection(Projections.id());
+
+            if(modifiedSince != null) {
+                criteria.add(getModifiedRestriction(modifiedSince));
+            }
+
+            if(clazz == DigitalObjects.class) {
+                criteria.add(Restrictions.isNull("parent"));
+            }
+
+            for(Object id: criteria.list()) {
+                ids.add(((Number)id).longValue());
+            }
+
+            if(modifiedSince != null && clazz == Resources.class) {
+                ids.addAll(getModifiedRootIds("ResourcesComponents", "resourceComponentId",
+                        "parentResourceComponentId", "resourceId", modifiedSince));
+            } else if(modifiedSince != null && clazz == DigitalObjects.class) {
+                ids.addAll(getModifiedRootIds("DigitalObjects", "digitalObjectId",
+                        "parentDigitalObjectId", null, modifiedSince));
+            }
+
+            tx.commit();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+
+            try {
+                tx.rollback();
+            } catch (HibernateException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Method to return the restriction which selects the records created or modified after a date.
+     * Plain sql is used since the audit info is stored in a custom hibernate type
+     *
+     * @param modifiedSince
+     * @return
+     */
+    private Criterion getModifiedRestriction(Date modifiedSince) {
+        return Restrictions.sqlRestriction("({alias}.lastUpdated > ? or {alias}.created > ?)",
+                new Object[]{modifiedSince, modifiedSince}, new org.hibernate.type.Type[]{Hibernate.TIMESTAMP, Hibernate.TIMESTAMP});
+    }
+
+    /**
+     * Method to find the top level records containing the child records which were created or modified
+     * after a date, by walking up the parent links a level at a time
+     *
+     * @param table the table of the child records
+     * @param idColumn
+     * @param parentColumn the column linking a child to its parent
+     * @param rootColumn the column linking a top level child to the record, or null if the children and
+     *                   the top level records are in the same table
+     * @param modifiedSince
+     * @return
+     */
+    private HashSet<Long> getModifiedRootIds(String table, String idColumn, String parentColumn,
+                                             String rootColumn, Date modifiedSince) {
+        HashSet<Long> rootIds = new HashSet<Long>();
+
+        String columns = idColumn + ", " + parentColumn + (rootColumn != null ? ", " + rootColumn : "");
+
+        SQLQuery query = session.createSQLQuery("select " + columns + " from " + table +
+                " where (lastUpdated > ? or created > ?)");
+        query.setTimestamp(0, modifiedSince);
+        query.setTimestamp(1, modifiedSince);
+
+        java.util.List rows = query.list();
+        HashSet<Long> seenIds = new HashSet<Long>();
+
+        while(!rows.isEmpty()) {
+            ArrayList<Long> parentIds = new ArrayList<Long>();
+
+            for(Object row: rows) {
+                Object[] values = (Object[])row;
+
+                if(rootColumn != null && values[2] != null) {
+                    rootIds.add(((Number)values[2]).longValue());
+                } else if(values[1] != null) {
+                    Long parentId = ((Number)values[1]).longValue();
+
+                    if(seenIds.add(parentId)) {
+                        parentIds.add(parentId);
+                    }
+                } else if(rootColumn == null) {
+                    rootIds.add(((Number)values[0]).longValue());
+                }
+            }
+
+            rows = new ArrayList();
+
+            // load the parents of this level in groups, to keep the in clause a reasonable size
+            for(int i = 0; i < parentIds.size(); i += 500) {
+                java.util.List<Long> group = parentIds.subList(i, Math.min(i + 500, parentIds.size()));
+
+                SQLQuery parentQuery = session.createSQLQuery("select " + columns + " from " + table +
+                        " where " + idColumn + " in (:ids)");
+                parentQuery.setParameterList("ids", group);
+
+                rows.addAll(parentQuery.list());
+            }
+        }
+
+        return rootIds;
+    }
+
+    /**
+     * Method to return the number of components in each resource, used to estimate how long each one will
+     * take to copy. Since only the top level components are linked to the resource, the components are
+     * counted a level at a time, using the ids of the level above to find the children
+     *
+     * @return the number of components keyed by the resource id. Resources without components are left out
+     */
+    public HashMap<Long, Long> getResourceComponentCounts() {
+        Transaction tx = null;
+        HashMap<Long, Long> counts = new HashMap<Long, Long>();
+
+        try {
+            tx = session.beginTransaction();
+
+            // the resource of each component in the level being counted
+            HashMap<Long, Long> levelResourceIds = new HashMap<Long, Long>();
+
+            java.util.List rows = session.createSQLQuery("select resourceComponentId, resourceId from ResourcesComponents " +
+                    "where resourceId is not null and parentResourceComponentId is null").list();
+
+            for(Object row: rows) {
+                Object[] values = (Object[])row;
+                levelResourceIds.put(((Number)values[0]).longValue(), ((Number)values[1]).longValue());
+            }
+
+            for(int depth = 0; depth < MAX_COMPONENT_DEPTH && !levelResourceIds.isEmpty(); depth++) {
+                for(Long resourceId: levelResourceIds.values()) {
+                    Long count = counts.get(resourceId);
+                    counts.put(resourceId, (count == null ? 0 : count) + 1);
+                }
+
+                ArrayList<Long> parentIds = new ArrayList<Long>(levelResourceIds.keySet());
+                HashMap<Long, Long> childResourceIds = new HashMap<Long, Long>();
+
+                // load the children of this level in groups, to keep the in clause a reasonable size
+                for(int i = 0; i < parentIds.size(); i += 500) {
+                    java.util.List<Long> group = parentIds.subList(i, Math.min(i + 500, parentIds.size()));
+
+                    SQLQuery childQuery = session.createSQLQuery("select resourceComponentId, parentResourceComponentId " +
+                            "from ResourcesComponents where parentResourceComponentId in (:ids)");
+                    childQuery.setParameterList("ids", group);
+
+                    for(Object row: childQuery.list()) {
+                        Object[] values = (Object[])row;
+                        Long parentId = ((Number)values[1]).longValue();
+
+                        childResourceIds.put(((Number)values[0]).longValue(), levelResourceIds.get(parentId));
+                    }
+                }
+
+                levelResourceIds = childResourceIds;
+            }
+
+            tx.commit();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+
+            try {
+                tx.rollback();
+            } catch (HibernateException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Method to return the accessions linked to a resource in a different repository. Each row holds the
+     * accession and the resource
+     *
+     * @return
+     */
+    public ArrayList<Object[]> getAccessionRepositoryMismatches() {
+        return getRepositoryMismatches("select ar.accession, ar.resource from AccessionsResources ar " +
+                "where ar.accession.repository.repositoryId <> ar.resource.repository.repositoryId");
+    }
+
+    /**
+     * Method to return the digital objects linked by an instance to a resource, or one of its components,
+     * in a different repository. Each row holds the digital object and the resource
+     *
+     * @return
+     */
+    public ArrayList<Object[]> getDigitalObjectRepositoryMismatches() {
+        ArrayList<Object[]> mismatches = getRepositoryMismatches("select d, i.parentResource from DigitalObjects d " +
+                "join d.digitalInstance i where i.parentResource is not null " +
+                "and d.repository.repositoryId <> i.parentResource.repository.repositoryId");
+
+        // older instances may only be linked to the resource they were added to
+        mismatches.addAll(getRepositoryMismatches("select d, i.resource from DigitalObjects d " +
+                "join d.digitalInstance i where i.parentResource is null and i.resource is not null " +
+                "and d.repository.repositoryId <> i.resource.repository.repositoryId"));
+
+        return mismatches;
+    }
+
+    /**
+     * Method to run one of the repository mismatch queries
+     *
+     * @param hql
+     * @return
+     */
+    private ArrayList<Object[]> getRepositoryMismatches(String hql) {
+        Transaction tx = null;
+        ArrayList<Object[]> mismatches = new ArrayList<Object[]>();
+
+        try {
+            tx = session.beginTransaction();
+
+            for(Object row: session.createQuery(hql).list()) {
+                mismatches.add((Object[])row);
+            }
+
+            tx.commit();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+
+            try {
+                tx.rollback();
+            } catch (HibernateException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return mismatches;
+    }
+
+    /**
+     * Method to return the records of a class with the given ids
+     *
+     * @param clazz
+     * @param ids
+     * @return
+     */
+    public ArrayList getRecords(Class clazz, Collection<Long> ids) {
+        Transaction tx = null;
+        ArrayList recordList = new ArrayList();
+        ArrayList<Long> idList = new ArrayList<Long>(ids);
+
+        try {
+            tx = session.beginTransaction();
+
+            // load the records in groups, to keep the in clause a reasonable size
+            for(int i = 0; i < idList.size(); i += 500) {
+                Criteria criteria = session.createCriteria(clazz);
+                criteria.add(Restrictions.in("id", idList.subList(i, Math.min(i + 500, idList.size()))));
+                recordList.addAll(criteria.list());
+            }
+
+            tx.commit();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+
+        return recordList;
+    }
+
     /**
      * Method to add more extent types to the AT lookup list in case the user made additions
      * to the backend
@@ -0,0 +1,1022 @@
+package org.archiviststoolkit.plugin.utils;
+
+import org.archiviststoolkit.hibernate.SessionFactory;
+import org.archiviststoolkit.model.*;
+import org.archiviststoolkit.mydomain.AuditInfo;
+import org.archiviststoolkit.mydomain.DomainObject;
+import org.archiviststoolkit.structure.NotesEtcTypes;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.MessageDigest;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Class used to populate an AT database with a synthetic dataset, so the migration can be run
+ * against production sized data without access to a production database. The records are saved
+ * through the AT model classes using hibernate, so the database can be an embedded HSQLDB
+ * database (Internal Database) or a MySQL database. The number of records, the size and shape
+ * of the resource hierarchies, and the number of notes, dates, and links per record are all
+ * configurable. The same seed always generates the same dataset.
+ *
+ * Usage: ATDatasetGenerator [properties file]
+ */
+public class ATDatasetGenerator {
+    // the AT database version recorded in the constants table
+    private static final int MAJOR_VERSION = 2;
+    private static final int MINOR_VERSION = 0;
+    private static final int UPDATE_VERSION = 18;
+
+    private static final String USER_NAME = "generator";
+
+    // how often the progress is printed
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    // the values used when creating the records. These are ones the ASpace enum util knows about
+    private static final String[] LANGUAGES = {"English", "eng", "French", "fre", "German", "ger", "Spanish", "spa"};
+
+    private static final String[] NAME_LINK_CREATOR_ROLES = {"Author", "aut", "Collector", "col",
+            "Correspondent", "crp", "Photographer", "pht"};
+
+    private static final String[] NOTE_TYPES = {"Abstract", "Scope and Contents note", "Biographical/Historical note",
+            "Conditions Governing Access note", "Preferred Citation note", "Arrangement note", "General note",
+            "Physical Description", "Existence and Location of Originals note", "Processing Information note"};
+
+    private static final String[] SUBJECT_TERM_TYPES = {"Topical Term", "Geographic Name", "Genre / Form",
+            "Occupation", "Function", "Uniform Title"};
+
+    private static final String[] SUBJECT_SOURCES = {"Library of Congress Subject Headings", "local sources",
+            "Art & Architecture Thesaurus", "Thesaurus for graphic materials"};
+
+    private static final String[] NAME_SOURCES = {"local", "NACO Authority File", "NAD / ARK II Name Authority Database"};
+
+    private static final String[] EXTENT_TYPES = {"Linear feet", "Cubic feet", "Items"};
+
+    private static final String[] CONTAINER_TYPES = {"Box", "Folder", "Carton", "Reel", "Volume"};
+
+    private static final String[] ACQUISITION_TYPES = {"Gift", "Purchase", "Deposit", "Transfer"};
+
+    private static final String[] DIGITAL_OBJECT_TYPES = {"still image", "text", "sound recording", "moving image"};
+
+    private static final String[] SURNAMES = {"Adams", "Baker", "Carter", "Davis", "Evans", "Foster", "Garcia",
+            "Hughes", "Ingram", "Jones", "Kelly", "Lopez", "Miller", "Nguyen", "Owens", "Patel", "Quinn", "Reed",
+            "Smith", "Turner", "Underwood", "Vance", "Walker", "Young", "Zimmerman"};
+
+    private static final String[] FORENAMES = {"Anne", "Bernard", "Clara", "David", "Edith", "Frank", "Grace",
+            "Henry", "Irene", "James", "Louise", "Martin", "Nora", "Oscar", "Ruth", "Samuel", "Violet", "William"};
+
+    private static final String[] WORDS = {"correspondence", "diaries", "photographs", "printed", "material",
+            "family", "business", "records", "minutes", "reports", "scrapbooks", "drawings", "maps", "ledgers",
+            "collection", "series", "arranged", "chronologically", "alphabetically", "including", "letters",
+            "from", "the", "of", "and", "to", "with", "relating", "society", "committee", "university", "estate"};
+
+    // the database connection information
+    private String databaseType = SessionFactory.DATABASE_TYPE_INTERNAL;
+    private String databaseUrl = "jdbc:hsqldb:file:atdataset/at";
+    private String databaseUsername = "sa";
+    private String databasePassword = "";
+
+    // whether to create the AT tables. This drops any existing tables
+    private boolean createSchema = true;
+
+    private long seed = 42;
+
+    // the number of records saved in each transaction
+    private int batchSize = 500;
+
+    // the number of records to create
+    private int repositoryCount = 1;
+    private int nameCount = 10000;
+    private int subjectCount = 10000;
+    private int locationCount = 1000;
+    private int accessionCount = 5000;
+    private int digitalObjectCount = 5000;
+    private int resourceCount = 1000;
+
+    // the number of components in each normal resource, and in each large resource
+    private int componentsPerResource = 100;
+    private int largeResourceCount = 1;
+    private int componentsPerLargeResource = 50000;
+
+    // the shape of the resource hierarchies. A fan out of 0 means it's calculated from the
+    // number of components so the hierarchy reaches the max depth
+    private int maxDepth = 12;
+    private int fanOut = 0;
+
+    // the average number of notes, dates, name links, subject links, and instances per record.
+    // Fractional values are allowed, so 0.25 means one in four records gets one
+    private double notesPerRecord = 3;
+    private double datesPerRecord = 1;
+    private double namesPerRecord = 1;
+    private double subjectsPerRecord = 2;
+    private double instancesPerRecord = 1;
+    private double accessionsPerResource = 0.5;
+
+    // the average number of words in a note
+    private int wordsPerNote = 60;
+
+    private Random random;
+
+    private org.hibernate.SessionFactory sessionFactory;
+    private Session session;
+    private Transaction tx;
+
+    // the number of records saved in the current transaction
+    private int batchCount = 0;
+
+    // the records every other record is linked to
+    private Repositories[] repositories;
+    private NotesEtcTypes[] noteTypes;
+
+    // the ids of the records which are linked to
+    private long[] nameIds;
+    private long[] subjectIds;
+    private long[] locationIds;
+    private long[] accessionIds;
+
+    // used to create unique identifiers
+    private long persistentIdCount = 0;
+
+    // used to track the number of records created
+    private long recordCount = 0;
+    private long componentCount = 0;
+    private long startTime;
+
+    /**
+     * The main constructor which takes a properties object
+     *
+     * @param properties
+     */
+    public ATDatasetGenerator(Properties properties) {
+        databaseType = properties.getProperty("databaseType", databaseType);
+        databaseUrl = properties.getProperty("databaseUrl", databaseUrl);
+        databaseUsername = properties.getProperty("databaseUsername", databaseUsername);
+        databasePassword = properties.getProperty("databasePassword", databasePassword);
+        createSchema = new Boolean(properties.getProperty("createSchema", "" + createSchema));
+        seed = Long.parseLong(properties.getProperty("seed", "" + seed));
+        batchSize = Integer.parseInt(properties.getProperty("batchSize", "" + batchSize));
+
+        repositoryCount = Integer.parseInt(properties.getProperty("repositories", "" + repositoryCount));
+        nameCount = Integer.parseInt(properties.getProperty("names", "" + nameCount));
+        subjectCount = Integer.parseInt(properties.getProperty("subjects", "" + subjectCount));
+        locationCount = Integer.parseInt(properties.getProperty("locations", "" + locationCount));
+        accessionCount = Integer.parseInt(properties.getProperty("accessions", "" + accessionCount));
+        digitalObjectCount = Integer.parseInt(properties.getProperty("digitalObjects", "" + digitalObjectCount));
+        resourceCount = Integer.parseInt(properties.getProperty("resources", "" + resourceCount));
+
+        componentsPerResource = Integer.parseInt(properties.getProperty("componentsPerResource", "" + componentsPerResource));
+        largeResourceCount = Integer.parseInt(properties.getProperty("largeResources", "" + largeResourceCount));
+        componentsPerLargeResource = Integer.parseInt(properties.getProperty("componentsPerLargeResource", "" + componentsPerLargeResource));
+        maxDepth = Integer.parseInt(properties.getProperty("maxDepth", "" + maxDepth));
+        fanOut = Integer.parseInt(properties.getProperty("fanOut", "" + fanOut));
+
+        notesPerRecord = Double.parseDouble(properties.getProperty("notesPerRecord", "" + notesPerRecord));
+        datesPerRecord = Double.parseDouble(properties.getProperty("datesPerRecord", "" + datesPerRecord));
+        namesPerRecord = Double.parseDouble(properties.getProperty("namesPerRecord", "" + namesPerRecord));
+        subjectsPerRecord = Double.parseDouble(properties.getProperty("subjectsPerRecord", "" + subjectsPerRecord));
+        instancesPerRecord = Double.parseDouble(properties.getProperty("instancesPerRecord", "" + instancesPerRecord));
+        accessionsPerResource = Double.parseDouble(properties.getProperty("accessionsPerResource", "" + accessionsPerResource));
+        wordsPerNote = Integer.parseInt(properties.getProperty("wordsPerNote", "" + wordsPerNote));
+
+        random = new Random(seed);
+    }
+
+    /**
+     * Method to generate the dataset
+     *
+     * @throws Exception
+     */
+    public void generate() throws Exception {
+        startTime = System.currentTimeMillis();
+
+        connect();
+
+        try {
+            tx = session.beginTransaction();
+
+            createConstants();
+            createLookupLists();
+            createNoteTypes();
+            createRepositories();
+
+            createNames();
+            createSubjects();
+            createLocations();
+            createAccessions();
+            createDigitalObjects();
+            createResources();
+
+            commitBatch();
+        } catch (Exception e) {
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            close();
+        }
+
+        print("Finished, " + recordCount + " records (" + componentCount + " resource components) in " +
+                getElapsedSeconds() + "s");
+    }
+
+    /**
+     * Method to build the session factory the same way RemoteDBConnectDialogLight does
+     */
+    private void connect() {
+        String driverClass;
+        String hibernateDialect;
+
+        if (databaseType.equals(SessionFactory.DATABASE_TYPE_MYSQL)) {
+            driverClass = "com.mysql.jdbc.Driver";
+            hibernateDialect = "org.hibernate.dialect.MySQLInnoDBDialect";
+        } else if (databaseType.equals(SessionFactory.DATABASE_TYPE_INTERNAL)) {
+            driverClass = "org.hsqldb.jdbcDriver";
+            hibernateDialect = "org.hibernate.dialect.HSQLDialect";
+        } else {
+            throw new IllegalArgumentException("Unsupported database type : " + databaseType);
+        }
+
+        String url = databaseUrl;
+
+        if (databaseType.equals(SessionFactory.DATABASE_TYPE_MYSQL)) {
+            url += "?useUnicode=yes&characterEncoding=utf8";
+        } else if (!url.contains("default_table_type")) {
+            // use disk based tables so a large dataset doesn't need to fit in memory
+            url += ";hsqldb.default_table_type=cached";
+        }
+
+        print("Connecting to: " + url);
+
+        Configuration config = new Configuration().configure();
+        Properties properties = config.getProperties();
+        properties.setProperty("hibernate.connection.driver_class", driverClass);
+        properties.setProperty("hibernate.connection.url", url);
+        properties.setProperty("hibernate.connection.username", databaseUsername);
+        properties.setProperty("hibernate.connection.password", databasePassword);
+        properties.setProperty("hibernate.dialect", hibernateDialect);
+        properties.setProperty("hibernate.jdbc.batch_size", "" + batchSize);
+
+        if (createSchema) {
+            properties.setProperty("hibernate.hbm2ddl.auto", "create");
+        }
+
+        config.setProperties(properties);
+        sessionFactory = config.buildSessionFactory();
+        session = sessionFactory.openSession();
+    }
+
+    /**
+     * Method to close the session, and shutdown the embedded database so all records are written to disk
+     */
+    private void close() {
+        try {
+            if (databaseType.equals(SessionFactory.DATABASE_TYPE_INTERNAL)) {
+                Statement statement = session.connection().createStatement();
+                statement.execute("SHUTDOWN");
+                statement.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        session.close();
+        sessionFactory.close();
+    }
+
+    /**
+     * Method to save a record, committing the transaction and clearing the session every batchSize
+     * records so the memory used stays constant however large the dataset is
+     *
+     * @param record
+     */
+    private void save(DomainObject record) {
+        session.save(record);
+        recordCount++;
+        batchCount++;
+
+        if (batchCount >= batchSize) {
+            commitBatch();
+        }
+
+        if (recordCount % PROGRESS_INTERVAL == 0) {
+            long seconds = Math.max(1, getElapsedSeconds());
+            print("Saved " + recordCount + " records, " + recordCount/seconds + " records/s");
+        }
+    }
+
+    /**
+     * Method to commit the current transaction and start a new one
+     */
+    private void commitBatch() {
+        session.flush();
+        tx.commit();
+        session.clear();
+
+        tx = session.beginTransaction();
+        batchCount = 0;
+    }
+
+    /**
+     * Method to set the not null audit information on a record
+     *
+     * @param record
+     */
+    private void setAuditInfo(DomainObject record) {
+        Date now = new Date();
+
+        AuditInfo auditInfo = new AuditInfo();
+        auditInfo.setCreated(now);
+        auditInfo.setLastUpdated(now);
+        auditInfo.setCreatedBy(USER_NAME);
+        auditInfo.setLastUpdatedBy(USER_NAME);
+
+        record.setAuditInfo(auditInfo);
+    }
+
+    /**
+     * Method to create the constants record which is used to check the database version
+     */
+    private void createConstants() {
+        Constants constants = new Constants();
+        constants.setMajorVersion(MAJOR_VERSION);
+        constants.setMinorVersion(MINOR_VERSION);
+        constants.setUpdateVersion(UPDATE_VERSION);
+        constants.setDefaultDateFormat("yyyy-MM-dd");
+        setAuditInfo(constants);
+        save(constants);
+    }
+
+    /**
+     * Method to create the lookup lists the migration loads the language and creator role codes from
+     */
+    private void createLookupLists() {
+        createLookupList("Language codes", LANGUAGES);
+        createLookupList("Name link creator / subject role", NAME_LINK_CREATOR_ROLES);
+    }
+
+    /**
+     * Method to create a lookup list with its items
+     *
+     * @param listName
+     * @param itemsAndCodes the list items each followed by its code
+     */
+    private void createLookupList(String listName, String[] itemsAndCodes) {
+        LookupList lookupList = new LookupList();
+        lookupList.setListName(listName);
+        lookupList.setPairedValues(true);
+        lookupList.setRestrictToNmtoken(false);
+        setAuditInfo(lookupList);
+        save(lookupList);
+
+        for (int i = 0; i < itemsAndCodes.length; i += 2) {
+            LookupListItems item = new LookupListItems();
+            item.setLookUpList(lookupList);
+            item.setListItem(itemsAndCodes[i]);
+            item.setCode(itemsAndCodes[i + 1]);
+            item.setEditable(false);
+            item.setAtInitialValue(true);
+            setAuditInfo(item);
+            save(item);
+        }
+    }
+
+    /**
+     * Method to create the note types which are linked to the notes
+     */
+    private void createNoteTypes() {
+        noteTypes = new NotesEtcTypes[NOTE_TYPES.length];
+
+        for (int i = 0; i < NOTE_TYPES.length; i++) {
+            NotesEtcTypes noteType = new NotesEtcTypes();
+            noteType.setNotesEtcName(NOTE_TYPES[i]);
+            noteType.setNotesEtcLabel(NOTE_TYPES[i]);
+            noteType.setClassName(ArchDescriptionNotes.class.getName());
+            noteType.setRepeatingDataType(NotesEtcTypes.DATA_TYPE_NOTE);
+            noteType.setEmbeded(false);
+            noteType.setAllowsMultiPart(true);
+            noteType.setIncludeInDigitalObjects(true);
+            setAuditInfo(noteType);
+            save(noteType);
+
+            noteTypes[i] = noteType;
+        }
+    }
+
+    /**
+     * Method to create the repositories and a user for each one
+     */
+    private void createRepositories() {
+        repositories = new Repositories[repositoryCount];
+
+        for (int i = 0; i < repositoryCount; i++) {
+            Repositories repository = new Repositories();
+            repository.setShortName("REPO" + (i + 1));
+            repository.setRepositoryName("Generated Repository " + (i + 1));
+            repository.setAgencyCode("US-GEN" + (i + 1));
+            repository.setCountryCode("US");
+            repository.setInstitutionName("Generated Institution");
+            setAuditInfo(repository);
+            save(repository);
+
+            Users user = new Users();
+            user.setUserName(USER_NAME + (i + 1));
+            user.setFullName("Generated User " + (i + 1));
+            user.setPassword(new byte[] {0});
+            user.setAccessClass(5);
+            user.setRepository(repository);
+            setAuditInfo(user);
+            save(user);
+
+            repositories[i] = repository;
+        }
+    }
+
+    /**
+     * Method to create the name records, a third of each type
+     */
+    private void createNames() {
+        print("Creating " + nameCount + " names ...");
+
+        nameIds = new long[nameCount];
+
+        for (int i = 0; i < nameCount; i++) {
+            Names name = new Names();
+            String surname = SURNAMES[random.nextInt(SURNAMES.length)];
+
+            if (i % 3 == 0) {
+                String forename = FORENAMES[random.nextInt(FORENAMES.length)];
+                int birthYear = 1800 + random.nextInt(150);
+
+                name.setNameType(Names.PERSON_TYPE);
+                name.setPersonalPrimaryName(surname);
+                name.setPersonalRestOfName(forename + " " + i);
+                name.setPersonalDates(birthYear + "-" + (birthYear + 30 + random.nextInt(60)));
+                name.setPersonalDirectOrder(false);
+                name.setSortName(surname + ", " + forename + " " + i + ", " + name.getPersonalDates());
+            } else if (i % 3 == 1) {
+                name.setNameType(Names.FAMILY_TYPE);
+                name.setFamilyName(surname + " family " + i);
+                name.setSortName(surname + " family " + i);
+            } else {
+                name.setNameType(Names.CORPORATE_BODY_TYPE);
+                name.setCorporatePrimaryName(surname + " Society " + i);
+                name.setCorporateSubordinate1("Archives Committee");
+                name.setSortName(surname + " Society " + i + ". Archives Committee");
+            }
+
+            name.setNameSource(NAME_SOURCES[random.nextInt(NAME_SOURCES.length)]);
+            name.setCreateSortNameAutomatically(false);
+            name.setMd5Hash(md5(name.getNameType() + name.getSortName()));
+
+            if (random.nextDouble() < 0.25) {
+                name.setDescriptionType("Biography");
+                name.setDescriptionNote(createText());
+            }
+
+            setAuditInfo(name);
+            save(name);
+
+            nameIds[i] = name.getIdentifier();
+        }
+    }
+
+    /**
+     * Method to create the subject records
+     */
+    private void createSubjects() {
+        print("Creating " + subjectCount + " subjects ...");
+
+        subjectIds = new long[subjectCount];
+
+        for (int i = 0; i < subjectCount; i++) {
+            Subjects subject = new Subjects();
+            subject.setSubjectTerm(capitalize(randomWord()) + " " + randomWord() + " -- " + i);
+            subject.setSubjectTermType(SUBJECT_TERM_TYPES[random.nextInt(SUBJECT_TERM_TYPES.length)]);
+            subject.setSubjectSource(SUBJECT_SOURCES[random.nextInt(SUBJECT_SOURCES.length)]);
+            setAuditInfo(subject);
+            save(subject);
+
+            subjectIds[i] = subject.getIdentifier();
+        }
+    }
+
+    /**
+     * Method to create the location records
+     */
+    private void createLocations() {
+        print("Creating " + locationCount + " locations ...");
+
+        locationIds = new long[locationCount];
+
+        for (int i = 0; i < locationCount; i++) {
+            Locations location = new Locations();
+            location.setBuilding("Building " + (i/1000 + 1));
+            location.setRoom("Room " + (i/100 % 10 + 1));
+            location.setCoordinate1Label("Range");
+            location.setCoordinate1AlphaNumIndicator("" + (i/10 % 10 + 1));
+            location.setCoordinate2Label("Shelf");
+            location.setCoordinate2AlphaNumIndicator("" + (i % 10 + 1));
+            location.setBarcode("L" + (100000 + i));
+            location.setRepository(randomRepository());
+            setAuditInfo(location);
+            save(location);
+
+            locationIds[i] = location.getIdentifier();
+        }
+    }
+
+    /**
+     * Method to create the accession records
+     */
+    private void createAccessions() {
+        print("Creating " + accessionCount + " accessions ...");
+
+        accessionIds = new long[accessionCount];
+
+        for (int i = 0; i < accessionCount; i++) {
+            int year = 1950 + random.nextInt(60);
+
+            Accessions accession = new Accessions();
+            accession.setTitle(createTitle("Accession"));
+            accession.setAccessionNumber1("" + year);
+            accession.setAccessionNumber2("" + (i + 1));
+            accession.setAccessionDate(new Date());
+            accession.setAcquisitionType(ACQUISITION_TYPES[random.nextInt(ACQUISITION_TYPES.length)]);
+            accession.setResourceType("Papers");
+            accession.setDescription(createText());
+            accession.setRepository(randomRepository());
+            accession.setInternalOnly(false);
+            accession.setRestrictionsApply(false);
+            setExtent(accession);
+            setAuditInfo(accession);
+
+            addDates(accession, year);
+            addNameLinks(accession);
+            addSubjectLinks(accession);
+
+            save(accession);
+
+            accessionIds[i] = accession.getIdentifier();
+        }
+    }
+
+    /**
+     * Method to create the digital object records
+     */
+    private void createDigitalObjects() {
+        print("Creating " + digitalObjectCount + " digital objects ...");
+
+        for (int i = 0; i < digitalObjectCount; i++) {
+            DigitalObjects digitalObject = new DigitalObjects();
+            digitalObject.setTitle(createTitle("Digital object"));
+            digitalObject.setMetsIdentifier("mets." + (i + 1));
+            digitalObject.setObjectType(DIGITAL_OBJECT_TYPES[random.nextInt(DIGITAL_OBJECT_TYPES.length)]);
+            digitalObject.setLanguageCode(randomLanguage());
+            digitalObject.setRestrictionsApply(false);
+            digitalObject.setRepository(randomRepository());
+            setAuditInfo(digitalObject);
+
+            int fileVersions = 1 + random.nextInt(3);
+            for (int j = 0; j < fileVersions; j++) {
+                FileVersions fileVersion = new FileVersions(digitalObject);
+                fileVersion.setUri("http://example.org/objects/" + (i + 1) + "/" + j + ".jpg");
+                fileVersion.setUseStatement("Image-Master");
+                fileVersion.setSequenceNumber(j);
+                setAuditInfo(fileVersion);
+                digitalObject.addFileVersion(fileVersion);
+            }
+
+            addDates(digitalObject, 1900 + random.nextInt(100));
+            addNotes(digitalObject);
+            addNameLinks(digitalObject);
+            addSubjectLinks(digitalObject);
+
+            save(digitalObject);
+        }
+    }
+
+    /**
+     * Method to create the resource records and their component hierarchies. The large resources
+     * are created first
+     */
+    private void createResources() {
+        print("Creating " + resourceCount + " resources (" + largeResourceCount + " large) ...");
+
+        for (int i = 0; i < resourceCount; i++) {
+            int components = (i < largeResourceCount) ? componentsPerLargeResource : componentsPerResource;
+            int year = 1850 + random.nextInt(120);
+
+            Resources resource = new Resources();
+            resource.setTitle(createTitle("Papers"));
+            resource.setResourceIdentifier1("GEN");
+            resource.setResourceIdentifier2("" + (i + 1));
+            resource.setLevel("collection");
+            resource.setLanguageCode(randomLanguage());
+            resource.setDateExpression(year + "-" + (year + 50));
+            resource.setDateBegin(year);
+            resource.setDateEnd(year + 50);
+            resource.setEadFaUniqueIdentifier("gen" + (i + 1));
+            resource.setFindingAidTitle("Guide to the " + resource.getTitle());
+            resource.setFindingAidStatus("Completed");
+            resource.setInternalOnly(false);
+            resource.setRestrictionsApply(false);
+            resource.setRepository(randomRepository());
+            setExtent(resource);
+            setAuditInfo(resource);
+
+            addDates(resource, year);
+            addNotes(resource);
+            addNameLinks(resource);
+            addSubjectLinks(resource);
+            addInstances(resource);
+
+            save(resource);
+
+            addAccessionLinks(resource);
+
+            if (components > 0) {
+                createComponents(resource, null, 1, components - 1, getFanOut(components), year);
+            }
+        }
+    }
+
+    /**
+     * Method to return the fan out of a hierarchy, which when not set is the smallest one
+     * where the hierarchy reaches the max depth
+     *
+     * @param components
+     * @return
+     */
+    private int getFanOut(int components) {
+        if (fanOut > 0) return fanOut;
+
+        return Math.max(2, (int) Math.floor(Math.pow(components, 1.0/maxDepth)));
+    }
+
+    /**
+     * Method to create the components under a resource or a parent component, depth first. The
+     * number of components at each level is the fan out, and the remaining budget is split
+     * between them. Components at the max depth, or with no budget left, are leaves.
+     *
+     * @param resource
+     * @param parent the parent component or null for the top level
+     * @param level the depth of the components being created
+     * @param budget the number of components left to create under the first one at this level
+     * @param fanOut
+     * @param year
+     */
+    private void createComponents(Resources resource, ResourcesComponents parent, int level,
+                                  int budget, int fanOut, int year) {
+        // the components at the last level take up the whole budget
+        int children = (level >= maxDepth) ? budget + 1 : Math.min(budget + 1, fanOut);
+        int remaining = budget + 1 - children;
+
+        for (int i = 0; i < children; i++) {
+            int childBudget = 0;
+
+            if (level < maxDepth) {
+                childBudget = remaining/children + ((i < remaining % children) ? 1 : 0);
+            }
+
+            ResourcesComponents component = createComponent(resource, parent, level, i, childBudget > 0, year);
+
+            if (childBudget > 0) {
+                createComponents(resource, component, level + 1, childBudget - 1, fanOut, year);
+            }
+        }
+    }
+
+    /**
+     * Method to create and save a resource component
+     *
+     * @param resource
+     * @param parent
+     * @param level
+     * @param sequenceNumber
+     * @param hasChild
+     * @param year
+     * @return
+     */
+    private ResourcesComponents createComponent(Resources resource, ResourcesComponents parent, int level,
+                                                int sequenceNumber, boolean hasChild, int year) {
+        ResourcesComponents component = new ResourcesComponents();
+        component.setResource(parent == null ? resource : null);
+        component.setResourceComponentParent(parent);
+        component.setSequenceNumber(sequenceNumber);
+        component.setHasChild(hasChild);
+        component.setPersistentId(nextPersistentId());
+        component.setInternalOnly(false);
+        component.setRestrictionsApply(false);
+
+        if (level == 1) {
+            component.setLevel("series");
+            component.setTitle("Series " + (sequenceNumber + 1) + ": " + capitalize(randomWord()));
+        } else if (level == 2 && hasChild) {
+            component.setLevel("subseries");
+            component.setTitle("Subseries " + (sequenceNumber + 1) + ": " + capitalize(randomWord()));
+        } else {
+            component.setLevel(hasChild ? "file" : "item");
+            component.setTitle(capitalize(randomWord()) + " " + randomWord());
+        }
+
+        int componentYear = year + random.nextInt(50);
+        component.setDateExpression("" + componentYear);
+        component.setDateBegin(componentYear);
+        component.setDateEnd(componentYear);
+        setAuditInfo(component);
+
+        addDates(component, componentYear);
+        addNotes(component);
+        addNameLinks(component);
+        addSubjectLinks(component);
+        addInstances(component);
+
+        component.setHasNotes(!component.getRepeatingData().isEmpty());
+
+        save(component);
+        componentCount++;
+
+        return component;
+    }
+
+    /**
+     * Method to add notes to a record
+     *
+     * @param record
+     */
+    private void addNotes(ArchDescription record) {
+        int count = getCount(notesPerRecord);
+
+        for (int i = 0; i < count; i++) {
+            NotesEtcTypes noteType = noteTypes[random.nextInt(noteTypes.length)];
+
+            ArchDescriptionNotes note = new ArchDescriptionNotes(record);
+            note.setSequenceNumber(i);
+            note.setTitle(noteType.getNotesEtcName());
+            note.setNotesEtcType(noteType);
+            note.setNoteContent(createText());
+            note.setPersistentId(nextPersistentId());
+            note.setInternalOnly(false);
+            note.setMultiPart(false);
+            setAuditInfo(note);
+            record.addRepeatingData(note);
+        }
+    }
+
+    /**
+     * Method to add dates to a record
+     *
+     * @param record
+     * @param year
+     */
+    private void addDates(ArchDescription record, int year) {
+        int count = getCount(datesPerRecord);
+
+        for (int i = 0; i < count; i++) {
+            int beginYear = year + random.nextInt(20);
+            int endYear = beginYear + random.nextInt(20);
+
+            ArchDescriptionDates date = new ArchDescriptionDates(record);
+            date.setDateExpression(beginYear + "-" + endYear);
+            date.setDateType("Inclusive");
+            date.setDateBegin(beginYear);
+            date.setDateEnd(endYear);
+            date.setIsoDateBegin(beginYear + "-01-01");
+            date.setIsoDateEnd(endYear + "-12-31");
+            date.setEra("ce");
+            date.setCalendar("gregorian");
+            setAuditInfo(date);
+            record.addArchdescriptionDate(date);
+        }
+    }
+
+    /**
+     * Method to link names to a record. The first link to a resource is a creator link
+     *
+     * @param record
+     */
+    private void addNameLinks(ArchDescription record) {
+        if (nameIds.length == 0) return;
+
+        int count = getCount(namesPerRecord);
+
+        for (int i = 0; i < count; i++) {
+            Names name = (Names) session.load(Names.class, nameIds[random.nextInt(nameIds.length)]);
+
+            ArchDescriptionNames nameLink = new ArchDescriptionNames(name, record);
+
+            if (i == 0 && !(record instanceof ResourcesComponents)) {
+                nameLink.setNameLinkFunction(ArchDescriptionNames.PROPERTYNAME_FUNCTION_CREATOR);
+                nameLink.setRole(NAME_LINK_CREATOR_ROLES[2 * random.nextInt(NAME_LINK_CREATOR_ROLES.length/2)]);
+            } else {
+                nameLink.setNameLinkFunction(ArchDescriptionNames.PROPERTYNAME_FUNCTION_SUBJECT);
+            }
+
+            setAuditInfo(nameLink);
+            record.getNames().add(nameLink);
+        }
+    }
+
+    /**
+     * Method to link subjects to a record
+     *
+     * @param record
+     */
+    private void addSubjectLinks(ArchDescription record) {
+        if (subjectIds.length == 0) return;
+
+        int count = getCount(subjectsPerRecord);
+
+        for (int i = 0; i < count; i++) {
+            Subjects subject = (Subjects) session.load(Subjects.class, subjectIds[random.nextInt(subjectIds.length)]);
+
+            ArchDescriptionSubjects subjectLink = new ArchDescriptionSubjects(subject, record);
+            setAuditInfo(subjectLink);
+            record.getSubjects().add(subjectLink);
+        }
+    }
+
+    /**
+     * Method to add analog instances, which are linked to a location, to a resource or component
+     *
+     * @param record
+     */
+    private void addInstances(ResourcesCommon record) {
+        if (locationIds.length == 0) return;
+
+        int count = getCount(instancesPerRecord);
+
+        for (int i = 0; i < count; i++) {
+            Locations location = (Locations) session.load(Locations.class, locationIds[random.nextInt(locationIds.length)]);
+
+            ArchDescriptionAnalogInstances instance = new ArchDescriptionAnalogInstances(record);
+            instance.setInstanceType("Mixed materials");
+            instance.setContainer1Type(CONTAINER_TYPES[0]);
+            instance.setContainer1NumericIndicator((double) (1 + random.nextInt(200)));
+            instance.setContainer2Type(CONTAINER_TYPES[1 + random.nextInt(CONTAINER_TYPES.length - 1)]);
+            instance.setContainer2NumericIndicator((double) (1 + random.nextInt(50)));
+            instance.setLocation(location);
+            setAuditInfo(instance);
+            record.addInstance(instance);
+        }
+    }
+
+    /**
+     * Method to link accessions to a resource
+     *
+     * @param resource
+     */
+    private void addAccessionLinks(Resources resource) {
+        if (accessionIds.length == 0) return;
+
+        int count = getCount(accessionsPerResource);
+
+        for (int i = 0; i < count; i++) {
+            Accessions accession = (Accessions) session.load(Accessions.class, accessionIds[random.nextInt(accessionIds.length)]);
+
+            AccessionsResources accessionLink = new AccessionsResources(resource, accession);
+            setAuditInfo(accessionLink);
+            save(accessionLink);
+        }
+    }
+
+    /**
+     * Method to set the extent of an accession or resource
+     *
+     * @param record
+     */
+    private void setExtent(AccessionsResourcesCommon record) {
+        record.setExtentNumber((double) (1 + random.nextInt(100)));
+        record.setExtentType(EXTENT_TYPES[random.nextInt(EXTENT_TYPES.length)]);
+        record.setContainerSummary((1 + random.nextInt(50)) + " boxes");
+    }
+
+    /**
+     * Method to turn an average count into an actual count. The whole part is always used and the
+     * fractional part is the chance of one more
+     *
+     * @param average
+     * @return
+     */
+    private int getCount(double average) {
+        int count = (int) average;
+
+        if (random.nextDouble() < average - count) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Method to return a unique persistent id which fits in the 10 character column
+     *
+     * @return
+     */
+    private String nextPersistentId() {
+        persistentIdCount++;
+        return "g" + Long.toString(persistentIdCount, 36);
+    }
+
+    /**
+     * Method to create a title
+     *
+     * @param type
+     * @return
+     */
+    private String createTitle(String type) {
+        return capitalize(SURNAMES[random.nextInt(SURNAMES.length)]) + " " + randomWord() + " " + type.toLowerCase();
+    }
+
+    /**
+     * Method to create the text of a note. The number of words varies between half and one and a half
+     * times the average
+     *
+     * @return
+     */
+    private String createText() {
+        int words = wordsPerNote/2 + random.nextInt(wordsPerNote + 1);
+
+        StringBuilder sb = new StringBuilder("<p>");
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(" ");
+            sb.append(randomWord());
+        }
+        sb.append(".</p>");
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to return the md5 hash of a string, which is used to stop duplicate names being added
+     *
+     * @param text
+     * @return
+     */
+    private String md5(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(text.getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+
+            return sb.toString();
+        } catch (Exception e) {
+            return text;
+        }
+    }
+
+    private String randomWord() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private String randomLanguage() {
+        return LANGUAGES[2 * random.nextInt(LANGUAGES.length/2)];
+    }
+
+    private Repositories randomRepository() {
+        return repositories[random.nextInt(repositories.length)];
+    }
+
+    private String capitalize(String word) {
+        return word.substring(0, 1).toUpperCase() + word.substring(1);
+    }
+
+    private long getElapsedSeconds() {
+        return (System.currentTimeMillis() - startTime)/1000;
+    }
+
+    private void print(String message) {
+        System.out.println(message);
+    }
+
+    /**
+     * Main method for running the generator from the command line
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        String propertiesFilename = args.length > 0 ? args[0] : "atgenerator.properties";
+        File propertiesFile = new File(propertiesFilename);
+
+        Properties properties = new Properties();
+
+        if (propertiesFile.exists()) {
+            FileInputStream in = new FileInputStream(propertiesFile);
+            properties.load(in);
+            in.close();
+        }
+
+        ATDatasetGenerator generator = new ATDatasetGenerator(properties);
+        generator.generate();
+    }
+}
@@ -189,7 +189,8 @@ public class CodeViewerDialog extends JDialog {
         } catch (JSONException e) {
             messageTextArea.setText("Invalid JSON record");
         } catch (Exception e) {
-            messageTextArea.setText("Error deleting JSON record");
+            // deleteRecord throws with the status code and text when the backend doesn't delete the record
+            messageTextArea.setText("Error deleting JSON record\n" + e.getMessage());
             e.printStackTrace();
         }
     }
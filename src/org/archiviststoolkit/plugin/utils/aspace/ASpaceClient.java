@@ -1,17 +1,22 @@
 package org.archiviststoolkit.plugin.utils.aspace;
 
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.*;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.util.EncodingUtil;
 import org.archiviststoolkit.plugin.utils.StopWatch;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.net.ConnectException;
 import java.util.HashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by IntelliJ IDEA.
@@ -53,8 +58,23 @@ public class ASpaceClient {
     // String that stores the session
     private String session;
 
+    // shared by the clients returned by getAuthenticatedClient, and used to log in again when the session is gone
+    private SessionProvider sessionProvider = null;
+
     // let keep all the errors we encounter so we can have a log
-    private StringBuilder errorBuffer = new StringBuilder();
+    private MigrationErrorStore errorStore = new MigrationErrorStore(null);
+
+    // used to record the latency and throughput of requests
+    private MigrationMetrics metrics = null;
+
+    // used to record every request so the migration traffic can be replayed
+    private TrafficRecorder trafficRecorder = null;
+
+    // used to log in again and resend an asynchronous request, away from the transport's callback thread
+    private static final ThreadFactory reloginThreadFactory = VirtualThreads.getPlatformThreadFactory("aspace-relogin");
+
+    // used to send the batch imports without blocking a thread on each one
+    private AsyncHttpTransport asyncTransport = null;
 
     // a stop watch object to allowing pausing of the indexer
     private String indexerHost = "";
@@ -91,12 +111,48 @@ public class ASpaceClient {
         this.session = session;
     }
 
+    /**
+     * Method to return the url of the backend
+     *
+     * @return
+     */
+    public String getHost() {
+        return host;
+    }
+
     /**
      * Method to get the session using the admin login
      */
     public boolean getSession() {
         boolean haveSession = false;
 
+        String id = login();
+
+        if(!id.isEmpty()) {
+            session = id;
+            haveSession = true;
+
+            // the session is renewed using a separate client, since this one may be in use when it's needed
+            sessionProvider = new SessionProvider(new ASpaceClient(host, username, password), session);
+
+            // set the indexer host here for convenience sake. This assumes that the
+            // default indexer port of 8090 was not changed
+            indexerHost = host.replace("89", "90");
+        }
+
+        // start the stop watch object
+        stopWatch.start();
+
+        // session was generated so return true
+        return haveSession;
+    }
+
+    /**
+     * Method to log in using the admin login
+     *
+     * @return the session id or an empty string if the login failed
+     */
+    String login() {
         // get a session id using the admin login
         Part[] parts = new Part[2];
         parts[0] = new StringPart("password", password);
@@ -110,34 +166,90 @@ public class ASpaceClient {
         if (debug) System.out.println("post: " + fullUrl);
 
         try {
-            String id = executePost(post, "session", "N/A", "N/A");
-
-            if(!id.isEmpty()) {
-                session = id;
-                haveSession = true;
-
-                // set the indexer host here for convenience sake. This assumes that the
-                // default indexer port of 8090 was not changed
-                indexerHost = host.replace("89", "90");
-            }
+            return executePost(post, "session", "N/A", "N/A");
         } catch (Exception e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
         }
 
-        // start the stop watch object
-        stopWatch.start();
+        return "";
+    }
 
-        // session was generated so return true
-        return haveSession;
+    /**
+     * Method to return the session to send with a request, which is the shared one if there is one
+     *
+     * @return
+     */
+    private String getCurrentSession() {
+        return (sessionProvider != null) ? sessionProvider.getSession() : session;
+    }
+
+    /**
+     * Method to check whether a request failed because the session it was sent with is gone, or
+     * because the backend couldn't be reached, which both happen when the backend is restarted
+     *
+     * @param e
+     * @return true if the request can be sent again with a new session
+     */
+    private boolean canRetryWithNewSession(Exception e) {
+        return sessionProvider != null && (e instanceof SessionGoneException || e instanceof ConnectException);
+    }
+
+    /**
+     * Method to get a new session after a request failed with the given one
+     *
+     * @param usedSession
+     * @param e the reason the request failed
+     * @return the new session
+     * @throws Exception if the session couldn't be renewed
+     */
+    private String renewSession(String usedSession, Exception e) throws Exception {
+        System.out.println("Request failed (" + String.valueOf(e.getMessage()).replace("\n", ", ") + "), renewing backend session ...");
+
+        session = sessionProvider.renewSession(usedSession);
+        return session;
     }
 
     /**
-     * Method to do a post to the json
+     * Method to do a post to the json. If the session is gone, a new one is got and the
+     * post is sent again
+     *
      * @param route
      * @param jsonText
      * @return
      */
     public String post(String route, String jsonText, NameValuePair[] params, String atId) throws Exception {
+        String usedSession = getCurrentSession();
+        String newSession;
+
+        try {
+            return post(route, jsonText, params, atId, usedSession);
+        } catch (Exception e) {
+            if(!canRetryWithNewSession(e)) throw e;
+
+            newSession = renewSession(usedSession, e);
+        }
+
+        try {
+            return post(route, jsonText, params, atId, newSession);
+        } catch (SessionGoneException e) {
+            errorStore.addError(MigrationErrorStore.getRecordType(atId), atId, host + route, e.getMessage(),
+                    "Session gone after logging in again");
+            throw e;
+        }
+    }
+
+    /**
+     * Method to do a post to the json using the given session
+     *
+     * @param route
+     * @param jsonText
+     * @param params
+     * @param atId
+     * @param session
+     * @return
+     * @throws Exception
+     */
+    private String post(String route, String jsonText, NameValuePair[] params, String atId, String session) throws Exception {
         // Prepare HTTP post method.
         String fullUrl = host + route;
         PostMethod post = new PostMethod(fullUrl);
@@ -155,6 +267,10 @@ public class ASpaceClient {
 
         if (debug) System.out.println("post: " + fullUrl);
 
+        // store the size of the request before the json text is possibly reset below
+        long requestBytes = jsonText.length();
+        String requestText = jsonText;
+
         // set the idName depending on the type of record being posted
         String idName = "id";
         if(route.contains(BATCH_IMPORT_ENDPOINT)) {
@@ -167,7 +283,72 @@ public class ASpaceClient {
             }
         }
 
-        return executePost(post, idName, atId, jsonText);
+        if(metrics == null && trafficRecorder == null) {
+            return executePost(post, idName, atId, jsonText);
+        }
+
+        long startTime = System.currentTimeMillis();
+        if(metrics != null) metrics.requestStarted();
+
+        try {
+            return executePost(post, idName, atId, jsonText);
+        } finally {
+            long millis = System.currentTimeMillis() - startTime;
+
+            if(metrics != null) {
+                metrics.requestFinished(route, requestBytes, millis);
+            }
+
+            if(trafficRecorder != null) {
+                recordRequest(post, route, requestText, startTime, millis, post.getResponseContentLength());
+            }
+        }
+    }
+
+    /**
+     * Method to record a request with the traffic recorder
+     *
+     * @param method
+     * @param route
+     * @param body
+     * @param startTime
+     * @param millis
+     * @param responseBytes
+     */
+    private void recordRequest(HttpMethodBase method, String route, String body, long startTime,
+                               long millis, long responseBytes) {
+        int statusCode = (method.getStatusLine() != null) ? method.getStatusCode() : 0;
+
+        recordRequest(method.getName(), route, method.getQueryString(), body, startTime, millis, statusCode, responseBytes);
+    }
+
+    /**
+     * Method to record a request with the traffic recorder
+     *
+     * @param methodName
+     * @param route
+     * @param queryString the query string which was sent, or null
+     * @param body
+     * @param startTime
+     * @param millis
+     * @param statusCode 0 if there was no response
+     * @param responseBytes
+     */
+    private void recordRequest(String methodName, String route, String queryString, String body, long startTime,
+                               long millis, int statusCode, long responseBytes) {
+        // the query string may have been replaced by the params, so use the one which was sent
+        int index = route.indexOf('?');
+        if(index != -1) {
+            route = route.substring(0, index);
+        }
+
+        if(queryString != null) {
+            route += "?" + queryString;
+        }
+
+        String phase = (metrics != null) ? metrics.getCurrentPhaseName() : null;
+
+        trafficRecorder.record(phase, methodName, route, body, startTime, millis, statusCode, responseBytes);
     }
 
     /**
@@ -182,85 +363,348 @@ public class ASpaceClient {
      * @throws Exception
      */
     private String executePost(PostMethod post, String idName, String atId, String jsonText) throws Exception {
-        String id = "";
-
         // Execute request
         try {
             int statusCode = httpclient.executeMethod(post);
 
-            // Display status code
-            String statusMessage = "Status code: " + statusCode +
-                    "\nStatus text: " + post.getStatusText();
-
-            if (debug) System.out.println(statusMessage);
-
             // Display response
             String responseBody = post.getResponseBodyAsString();
 
-            if (debug) {
-                System.out.println("Response body: ");
-                System.out.println(responseBody);
+            return getPostId(statusCode, post.getStatusText(), responseBody, post.getURI().toString(), idName, atId);
+        } finally {
+            // Release current connection to the server
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Method to get the id from the response to a post, which is shared by the blocking and asynchronous posts
+     *
+     * @param statusCode
+     * @param statusText
+     * @param responseBody
+     * @param uri the uri which was posted to
+     * @param idName used to specify what the name of the id is in json text
+     * @param atId A quick way to identify the record that generated any errors
+     * @return The id or session
+     *
+     * @throws Exception
+     */
+    private String getPostId(int statusCode, String statusText, String responseBody, String uri,
+                             String idName, String atId) throws Exception {
+        String id;
+
+        // Display status code
+        String statusMessage = "Status code: " + statusCode +
+                "\nStatus text: " + statusText;
+
+        if (debug) System.out.println(statusMessage);
+
+        if (debug) {
+            System.out.println("Response body: ");
+            System.out.println(responseBody);
+        }
+
+        // the session is gone, so don't record an error since the post will be sent again
+        if (isSessionGone(statusCode, responseBody)) {
+            throw new SessionGoneException(statusMessage);
+        }
+
+        // if status code doesn't equal to success throw exception
+        if (statusCode == HttpStatus.SC_OK) {
+            JSONObject response;
+
+            if (responseBody.contains("\"errors\":[")) {
+                JSONArray responseJA = new JSONArray(responseBody);
+                response = responseJA.getJSONObject(responseJA.length() -1);
+
+                errorStore.addError(MigrationErrorStore.getRecordType(atId), atId, uri,
+                        statusMessage, response.toString(2));
+
+                throw new Exception(response.toString(2));
+            } else if(responseBody.contains("{\"saved\":")) {
+                JSONArray responseJA = new JSONArray(responseBody);
+                response = responseJA.getJSONObject(responseJA.length() -1);
+            } else {
+                response = new JSONObject(responseBody);
+            }
+
+            id = response.getString(idName);
+
+            if(id == null || id.trim().isEmpty()) {
+                errorStore.addError(MigrationErrorStore.getRecordType(atId), atId, uri,
+                        statusMessage, response.toString(2));
+
+                throw new Exception(response.toString(2));
+            }
+
+            if (debug) System.out.println(response.toString(2));
+        } else {
+            // if it a 500 error the ASpace then we may need to add the JSON text
+            if(statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                if(responseBody.contains("PoolTimeout")) {
+                    responseBody = "Error: Sequel Pool Timeout ...";
+                } else if(responseBody.contains("OutOfMemory")) {
+                    responseBody = "Fatal Error: ArchivesSpace Backend Crashed (OutOfMemoryError)\nPlease Restart ...";
+                } else if(responseBody.contains("ThreadError")) {
+                    responseBody = "Fatal Error: ArchivesSpace Backend Crashed (OutOfStackSpaceError)\nPlease Restart ...";
+                }
             }
 
-            // now check to make sure the id is not null or empty
-            //System.out.println(post.getURI() + "\nBody Text: " + responseBody + "\n");
+            errorStore.addError(MigrationErrorStore.getRecordType(atId), atId, uri,
+                    statusMessage, responseBody);
+
+            throw new Exception(statusMessage);
+        }
+
+        return id;
+    }
+
+    /**
+     * Method to check whether the backend rejected a request because of the session. The backend returns a
+     * 412 error with the code SESSION_GONE or SESSION_EXPIRED, for example after it's been restarted
+     *
+     * @param statusCode
+     * @param responseBody
+     * @return
+     */
+    private boolean isSessionGone(int statusCode, String responseBody) {
+        if(statusCode == HttpStatus.SC_OK || sessionProvider == null) return false;
+
+        return statusCode == HttpStatus.SC_PRECONDITION_FAILED ||
+                (responseBody != null && (responseBody.contains("SESSION_GONE") || responseBody.contains("SESSION_EXPIRED")));
+    }
+
+    /**
+     * Exception thrown when the backend rejected a request because the session is gone
+     */
+    public static class SessionGoneException extends Exception {
+        public SessionGoneException(String message) {
+            super(message);
+        }
+    }
 
-            // if status code doesn't equal to success throw exception
-            if (statusCode == HttpStatus.SC_OK) {
-                JSONObject response;
+    /**
+     * Method to post a record using the asynchronous transport. The method returns once the request is
+     * queued, and the callback is given the id, or the exception thrown by a failed post. Errors are added
+     * to the error store the same way as for a blocking post, and if the session is gone the post is sent
+     * again with a new one
+     *
+     * @param route
+     * @param jsonText
+     * @param params
+     * @param atId
+     * @param callback told when the post has finished, or null
+     * @throws Exception if there is no asynchronous transport, or the post couldn't be queued. The
+     * callback isn't told in that case, since nothing was sent
+     */
+    public void postAsync(String route, String jsonText, NameValuePair[] params, String atId,
+                          AsyncHttpTransport.Callback<String> callback) throws Exception {
+        final String idName = route.contains(BATCH_IMPORT_ENDPOINT) ? "saved" : "id";
 
-                if (responseBody.contains("\"errors\":[")) {
-                    JSONArray responseJA = new JSONArray(responseBody);
-                    response = responseJA.getJSONObject(responseJA.length() -1);
+        AsyncResult postResult = new AsyncResult() {
+            public String getResult(AsyncHttpTransport.Response response, String uri, String atId) throws Exception {
+                return getPostId(response.statusCode, response.statusText, response.body, uri, idName, atId);
+            }
+        };
 
-                    errorBuffer.append("Endpoint: ").append(post.getURI()).append("\n").
-                        append("AT Identifier:").append(atId).append("\n").
-                        append(statusMessage).append("\n\n").append(response.toString(2)).append("\n");
+        executeAsync("POST", route, jsonText, params, atId, postResult, callback, getCurrentSession(), true);
+    }
 
-                    throw new Exception(response.toString(2));
-                } else if(responseBody.contains("{\"saved\":")) {
-                    JSONArray responseJA = new JSONArray(responseBody);
-                    response = responseJA.getJSONObject(responseJA.length() -1);
+    /**
+     * Method to do a get using the asynchronous transport. The callback is given the response body,
+     * or null if the backend returned an error, like a blocking get
+     *
+     * @param endpoint
+     * @param params
+     * @param callback told when the get has finished, or null
+     * @throws Exception if there is no asynchronous transport, or the get couldn't be queued
+     */
+    public void getAsync(String endpoint, NameValuePair[] params, AsyncHttpTransport.Callback<String> callback) throws Exception {
+        AsyncResult getResult = new AsyncResult() {
+            public String getResult(AsyncHttpTransport.Response response, String uri, String atId) throws Exception {
+                String statusMessage = "Status code: " + response.statusCode + "\nStatus text: " + response.statusText;
+
+                if(response.statusCode == HttpStatus.SC_OK) {
+                    return response.body;
+                } else if(isSessionGone(response.statusCode, response.body)) {
+                    throw new SessionGoneException(statusMessage);
                 } else {
-                    response = new JSONObject(responseBody);
+                    errorStore.addError(null, null, uri, statusMessage, "");
+                    return null;
+                }
+            }
+        };
+
+        executeAsync("GET", endpoint, null, params, null, getResult, callback, getCurrentSession(), true);
+    }
+
+    /**
+     * Method to delete a record using the asynchronous transport. The callback is given the status message,
+     * or the exception if the record couldn't be deleted. A record which is already gone counts as deleted
+     *
+     * @param route
+     * @param callback told when the delete has finished, or null
+     * @throws Exception if there is no asynchronous transport, or the delete couldn't be queued
+     */
+    public void deleteRecordAsync(String route, AsyncHttpTransport.Callback<String> callback) throws Exception {
+        AsyncResult deleteResult = new AsyncResult() {
+            public String getResult(AsyncHttpTransport.Response response, String uri, String atId) throws Exception {
+                String statusMessage = "Status code: " + response.statusCode + "\nStatus text: " + response.statusText;
+
+                if(isSessionGone(response.statusCode, response.body)) {
+                    throw new SessionGoneException(statusMessage);
+                } else if(response.statusCode != HttpStatus.SC_OK && response.statusCode != HttpStatus.SC_NOT_FOUND) {
+                    throw new Exception(statusMessage);
                 }
 
-                id = response.getString(idName);
+                return statusMessage;
+            }
+        };
+
+        executeAsync("DELETE", route, null, null, null, deleteResult, callback, getCurrentSession(), true);
+    }
+
+    /**
+     * Interface used to turn the response to an asynchronous request into its result, the same way as
+     * the blocking request does
+     */
+    private interface AsyncResult {
+        public String getResult(AsyncHttpTransport.Response response, String uri, String atId) throws Exception;
+    }
+
+    /**
+     * Method to send a request using the asynchronous transport and the given session
+     *
+     * @param method
+     * @param route
+     * @param body the json text, or null if there isn't one
+     * @param params
+     * @param atId
+     * @param asyncResult used to get the result from the response
+     * @param callback
+     * @param session
+     * @param retry whether to send the request again if the session is gone
+     * @throws Exception
+     */
+    private void executeAsync(final String method, final String route, final String body, final NameValuePair[] params,
+                              final String atId, final AsyncResult asyncResult,
+                              final AsyncHttpTransport.Callback<String> callback, final String session,
+                              final boolean retry) throws Exception {
+        if(asyncTransport == null) {
+            throw new Exception("No asynchronous transport set");
+        }
+
+        // the params replace any query string, like they do for a blocking request
+        String fullUrl = host + route;
+        String queryString = null;
+
+        if(params != null) {
+            int index = fullUrl.indexOf('?');
+            if(index != -1) {
+                fullUrl = fullUrl.substring(0, index);
+            }
+
+            queryString = EncodingUtil.formUrlEncode(params, "UTF-8");
+            fullUrl += "?" + queryString;
+        } else if(route.indexOf('?') != -1) {
+            queryString = route.substring(route.indexOf('?') + 1);
+        }
+
+        final String uri = fullUrl;
+        final String recordedQuery = queryString;
+        final long bodyLength = (body != null) ? body.length() : 0;
+
+        HashMap<String, String> headers = new HashMap<String, String>();
+        if(session != null) {
+            headers.put("X-ArchivesSpace-Session", session);
+        }
+
+        if (debug) System.out.println("async " + method.toLowerCase() + ": " + fullUrl);
+
+        final long startTime = System.currentTimeMillis();
+
+        final AtomicBoolean haveResponse = new AtomicBoolean(false);
+
+        if(metrics != null) metrics.requestStarted();
+
+        AsyncHttpTransport.ResponseHandler<String> handler = new AsyncHttpTransport.ResponseHandler<String>() {
+            public String handle(AsyncHttpTransport.Response response) throws Exception {
+                haveResponse.set(true);
 
-                if(id == null || id.trim().isEmpty()) {
-                    errorBuffer.append("Endpoint: ").append(post.getURI()).append("\n").
-                        append("AT Identifier:").append(atId).append("\n").
-                        append(statusMessage).append("\n\n").append(response.toString(2)).append("\n");
+                long millis = System.currentTimeMillis() - startTime;
 
-                    throw new Exception(response.toString(2));
+                if(metrics != null) {
+                    metrics.requestFinished(route, bodyLength, millis);
                 }
 
-                if (debug) System.out.println(response.toString(2));
-            } else {
-                // if it a 500 error the ASpace then we may need to add the JSON text
-                if(statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR) {
-                    if(responseBody.contains("PoolTimeout")) {
-                        responseBody = "Error: Sequel Pool Timeout ...";
-                    } else if(responseBody.contains("OutOfMemory")) {
-                        responseBody = "Fatal Error: ArchivesSpace Backend Crashed (OutOfMemoryError)\nPlease Restart ...";
-                    } else if(responseBody.contains("ThreadError")) {
-                        responseBody = "Fatal Error: ArchivesSpace Backend Crashed (OutOfStackSpaceError)\nPlease Restart ...";
+                if(trafficRecorder != null) {
+                    recordRequest(method, route, recordedQuery, body, startTime, millis,
+                            response.statusCode, response.bodyBytes);
+                }
+
+                return asyncResult.getResult(response, uri, atId);
+            }
+        };
+
+        // a request which never got a response still needs to be counted
+        AsyncHttpTransport.Callback<String> transportCallback = new AsyncHttpTransport.Callback<String>() {
+            public void completed(String result) {
+                if(callback != null) callback.completed(result);
+            }
+
+            public void failed(Exception e) {
+                if(!haveResponse.get()) {
+                    long millis = System.currentTimeMillis() - startTime;
+
+                    if(metrics != null) {
+                        metrics.requestFinished(route, bodyLength, millis);
+                    }
+
+                    if(trafficRecorder != null) {
+                        recordRequest(method, route, recordedQuery, body, startTime, millis, 0, -1);
                     }
                 }
 
-                errorBuffer.append("Endpoint: ").append(post.getURI()).append("\n").
-                        append("AT Identifier:").append(atId).append("\n").
-                        append(statusMessage).append("\n").append(responseBody).append("\n\n");
+                if(retry && canRetryWithNewSession(e)) {
+                    // logging in again can take minutes while the backend restarts, so it's done in another
+                    // thread instead of holding up the responses to all the other requests
+                    final Exception cause = e;
+
+                    reloginThreadFactory.newThread(new Runnable() {
+                        public void run() {
+                            try {
+                                executeAsync(method, route, body, params, atId, asyncResult, callback,
+                                        renewSession(session, cause), false);
+                            } catch (Exception re) {
+                                requestFailed(re);
+                            }
+                        }
+                    }).start();
+
+                    return;
+                }
 
-                post.releaseConnection();
-                throw new Exception(statusMessage);
+                requestFailed(e);
             }
-        } finally {
-            // Release current connection to the server
-            post.releaseConnection();
-        }
 
-        return id;
+            private void requestFailed(Exception e) {
+                // errors returned by the backend were already added, apart from the session being gone
+                if(!haveResponse.get() || e instanceof SessionGoneException) {
+                    errorStore.addError(MigrationErrorStore.getRecordType(atId), atId, uri,
+                            "Status code: 0\nStatus text: " + e.getMessage(), "");
+                }
+
+                if(callback != null) callback.failed(e);
+            }
+        };
+
+        try {
+            asyncTransport.execute(method, fullUrl, headers, body, handler, transportCallback);
+        } catch (Exception e) {
+            if(metrics != null) metrics.requestNotSent();
+            throw e;
+        }
     }
 
     /**
@@ -271,6 +715,35 @@ public class ASpaceClient {
      * @throws Exception
      */
     public String get(String endpoint, NameValuePair[] params) throws Exception {
+        String usedSession = getCurrentSession();
+        String newSession;
+
+        try {
+            return get(endpoint, params, usedSession);
+        } catch (Exception e) {
+            if(!canRetryWithNewSession(e)) throw e;
+
+            newSession = renewSession(usedSession, e);
+        }
+
+        try {
+            return get(endpoint, params, newSession);
+        } catch (SessionGoneException e) {
+            errorStore.addError(null, null, host + endpoint, e.getMessage(), "Session gone after logging in again");
+            return null;
+        }
+    }
+
+    /**
+     * Method to return a JSON object from the call a get method using the given session
+     *
+     * @param endpoint
+     * @param params
+     * @param session
+     * @return
+     * @throws Exception
+     */
+    private String get(String endpoint, NameValuePair[] params, String session) throws Exception {
         String fullUrl = host + endpoint;
         GetMethod get = new GetMethod(fullUrl);
 
@@ -287,10 +760,13 @@ public class ASpaceClient {
 		// set the token in the header
 		//get.setRequestHeader("Authorization", "OAuth " + accessToken);
         String responseBody = null;
+        long startTime = System.currentTimeMillis();
 
 		try {
             if (debug) System.out.println("get: " + fullUrl);
 
+            if(metrics != null) metrics.requestStarted();
+
             int statusCode = httpclient.executeMethod(get);
 
             String statusMessage = "Status code: " + statusCode +
@@ -302,27 +778,61 @@ public class ASpaceClient {
 
                     if (debug) System.out.println("response: " + responseBody);
 				} catch (Exception e) {
-                    errorBuffer.append(statusMessage).append("\n\n").append(responseBody).append("\n");
+                    errorStore.addError(null, null, fullUrl, statusMessage, responseBody);
 					e.printStackTrace();
 					throw e;
 				}
-			} else {
-                errorBuffer.append(statusMessage).append("\n");
+			} else if (isSessionGone(statusCode, get.getResponseBodyAsString())) {
+                throw new SessionGoneException(statusMessage);
+            } else {
+                errorStore.addError(null, null, fullUrl, statusMessage, "");
             }
 		} finally {
 			get.releaseConnection();
+
+            long millis = System.currentTimeMillis() - startTime;
+
+            if(metrics != null) {
+                metrics.requestFinished(endpoint, 0, millis);
+            }
+
+            if(trafficRecorder != null) {
+                recordRequest(get, endpoint, null, startTime, millis, responseBody == null ? -1 : responseBody.length());
+            }
 		}
 
         return responseBody;
     }
 
     /**
-     * Method to delete a record on the aspace backend. Mainly useful for testing purposes
+     * Method to delete a record on the aspace backend. Mainly useful for testing purposes. A record
+     * which is already gone counts as deleted
      *
      * @param route
      * @return
+     * @throws Exception if the record couldn't be deleted
      */
     public String deleteRecord(String route) throws Exception {
+        String usedSession = getCurrentSession();
+
+        try {
+            return deleteRecord(route, usedSession);
+        } catch (Exception e) {
+            if(!canRetryWithNewSession(e)) throw e;
+
+            return deleteRecord(route, renewSession(usedSession, e));
+        }
+    }
+
+    /**
+     * Method to delete a record on the aspace backend using the given session
+     *
+     * @param route
+     * @param session
+     * @return
+     * @throws Exception
+     */
+    private String deleteRecord(String route, String session) throws Exception {
         String fullUrl = host + route;
         DeleteMethod delete = new DeleteMethod(fullUrl);
 
@@ -331,7 +841,23 @@ public class ASpaceClient {
             delete.setRequestHeader("X-ArchivesSpace-Session", session);
         }
 
-        int statusCode = httpclient.executeMethod(delete);
+        long startTime = System.currentTimeMillis();
+        if(metrics != null) metrics.requestStarted();
+
+        int statusCode;
+        try {
+            statusCode = httpclient.executeMethod(delete);
+        } finally {
+            long millis = System.currentTimeMillis() - startTime;
+
+            if(metrics != null) {
+                metrics.requestFinished(route, 0, millis);
+            }
+
+            if(trafficRecorder != null) {
+                recordRequest(delete, route, null, startTime, millis, delete.getResponseContentLength());
+            }
+        }
 
         String statusMessage = "Status code: " + statusCode +
                     "\nStatus text: " + delete.getStatusText();
@@ -340,8 +866,17 @@ public class ASpaceClient {
             System.out.println("delete: " + fullUrl + "\n" + statusMessage);
         }
 
+        if (isSessionGone(statusCode, delete.getResponseBodyAsString())) {
+            delete.releaseConnection();
+            throw new SessionGoneException(statusMessage);
+        }
+
         delete.releaseConnection();
 
+        if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_NOT_FOUND) {
+            throw new Exception(statusMessage);
+        }
+
         return statusMessage;
     }
 
@@ -434,7 +969,27 @@ public class ASpaceClient {
      * @return String containing error messages
      */
     public String getErrorMessages() {
-        return errorBuffer.toString();
+        return errorStore.getText();
+    }
+
+    /**
+     * Method to get the most recent error messages. This is cheap to call while a
+     * migration is running
+     *
+     * @return String containing the most recent error messages
+     */
+    public String getRecentErrorMessages() {
+        return errorStore.getTail();
+    }
+
+    /**
+     * Method to set the store used to record errors. Any clients returned by
+     * getAuthenticatedClient share this store
+     *
+     * @param errorStore
+     */
+    public void setErrorStore(MigrationErrorStore errorStore) {
+        this.errorStore = errorStore;
     }
 
     /**
@@ -483,7 +1038,7 @@ public class ASpaceClient {
                 }
             }
         } catch (Exception e) {
-            errorBuffer.append(e.toString());
+            errorStore.add(null, e.toString());
         }
 
         return null;
@@ -523,15 +1078,79 @@ public class ASpaceClient {
      * @return
      */
     public synchronized ASpaceClient getAuthenticatedClient() {
-        return new ASpaceClient(host, session);
+        ASpaceClient client = new ASpaceClient(host, getCurrentSession());
+        client.setSessionProvider(sessionProvider);
+        client.setErrorStore(errorStore);
+        client.setMetrics(metrics);
+        client.setTrafficRecorder(trafficRecorder);
+        client.setAsyncTransport(asyncTransport);
+        return client;
+    }
+
+    /**
+     * Method to set the object used to record the latency and throughput of requests.
+     * Any clients returned by getAuthenticatedClient share this object
+     *
+     * @param metrics
+     */
+    public void setMetrics(MigrationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Method to set the object used to record every request made to the backend.
+     * Any clients returned by getAuthenticatedClient share this object
+     *
+     * @param trafficRecorder
+     */
+    public void setTrafficRecorder(TrafficRecorder trafficRecorder) {
+        this.trafficRecorder = trafficRecorder;
+    }
+
+    /**
+     * Method to set the object which holds the shared session, and logs in again when it's gone.
+     * Any clients returned by getAuthenticatedClient share this object
+     *
+     * @param sessionProvider
+     */
+    public void setSessionProvider(SessionProvider sessionProvider) {
+        this.sessionProvider = sessionProvider;
+    }
+
+    /**
+     * Method to return the object which holds the shared session
+     *
+     * @return the session provider or null if this client wasn't logged in with a username and password
+     */
+    public SessionProvider getSessionProvider() {
+        return sessionProvider;
+    }
+
+    /**
+     * Method to set the transport used by postAsync, getAsync and deleteRecordAsync. Any clients returned
+     * by getAuthenticatedClient share this object
+     *
+     * @param asyncTransport
+     */
+    public void setAsyncTransport(AsyncHttpTransport asyncTransport) {
+        this.asyncTransport = asyncTransport;
+    }
+
+    /**
+     * Method to return the transport used by the asynchronous requests
+     *
+     * @return the transport or null if there isn't one
+     */
+    public AsyncHttpTransport getAsyncTransport() {
+        return asyncTransport;
     }
 
     /**
      * Method to allow child aspace clients to append error messages
      * @param errorMessage
      */
-    public synchronized void appendToErrorBuffer(String errorMessage) {
-        errorBuffer.append(errorMessage);
+    public void appendToErrorBuffer(String errorMessage) {
+        errorStore.add(null, errorMessage);
     }
 
     /**
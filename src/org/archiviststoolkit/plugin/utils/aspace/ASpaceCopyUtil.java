@@ -12,10 +12,20 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.swing.*;
-import java.io.File;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by IntelliJ IDEA.
@@ -92,10 +102,21 @@ public class ASpaceCopyUtil {
 
     private int totalASpaceClients = 0;
 
-    // These fields are used to track of the number of messages posted to the output console
-    // in order to prevent memory usage errors
-    private int messageCount = 0;
-    private final int MAX_MESSAGES = 100;
+    // used to output messages to the console and log file without blocking the copy threads
+    private MigrationLogger logger = new MigrationLogger();
+
+    // used to keep the memory used by batch payloads and the hibernate session within a budget
+    private MemoryBudget memoryBudget = new MemoryBudget();
+
+    // the estimated size in bytes of a record graph loaded by hibernate. Used by the memory budget
+    private final long ESTIMATED_RECORD_BYTES = 4096;
+
+    // used to track the throughput, latency and estimated time remaining of each phase
+    private MigrationMetrics metrics = new MigrationMetrics();
+    private long lastETAUpdate = 0;
+
+    // used to record the requests made to the backend so they can be replayed
+    private TrafficRecorder trafficRecorder = null;
 
     // hashmap that maps the lookup list values currently in the destination database
     private HashMap<String, String> lookupListMap = new HashMap<String, String>();
@@ -114,7 +135,20 @@ public class ASpaceCopyUtil {
     private JLabel errorCountLabel;
 
     // used to specify the stop the copying process. Only get checked when copying resources
-    private boolean stopCopy = false;
+    private volatile boolean stopCopy = false;
+
+    // used to pause the copying process. Checked before each main record is copied
+    private volatile boolean pauseCopy = false;
+
+    // the maximum number of aspace clients used to copy resource records. This can be changed
+    // while the resources are being copied
+    private volatile int maxClients = 1;
+
+    // creates the threads the resources are copied in, which can be virtual threads
+    private ThreadFactory clientThreadFactory = VirtualThreads.getPlatformThreadFactory("aspace-client");
+
+    // used to post the resource batch imports without a thread waiting on each one
+    private AsyncHttpTransport asyncTransport = null;
 
     // used to specified the the copying process is running
     private boolean copying = false;
@@ -130,6 +164,9 @@ public class ASpaceCopyUtil {
     // file where the uri maps is saved
     private static File uriMapFile = null;
 
+    // directory the error files are kept in
+    private File errorDirectory = new File(System.getProperty("user.home"));
+
     // keys use to store objects in hash map
     private final String REPOSITORY_KEY = "repositoryURIMap";
     private final String LOCATION_KEY = "locationURIMap";
@@ -141,6 +178,16 @@ public class ASpaceCopyUtil {
     private final String RESOURCE_KEY = "resourceURIMap";
     private final String REPOSITORY_MISMATCH_KEY = "repositoryMismatchMap";
     private final String RECORD_TOTAL_KEY = "copyProgress";
+    private final String DELTA_WATERMARK_KEY = "deltaWatermark";
+
+    // file where the resources deleted since the uri maps were last saved are recorded, and the number
+    // of times to try deleting each resource
+    private final String DELETE_JOURNAL_FILENAME = "resourceDeletes.txt";
+    private final int DELETE_ATTEMPTS = 3;
+
+    // the number of records in a batch import, including the linked ones, after which no more main
+    // records are added to it. Keeps a batch of records with large trees to a reasonable size
+    private final int MAX_BATCH_ENTRIES = 1000;
 
     // An Array List for storing the total number of main records transferred
     ArrayList<String> recordTotals = new ArrayList<String>();
@@ -148,15 +195,39 @@ public class ASpaceCopyUtil {
     // Specifies whether or not to simulate the REST calls
     private boolean simulateRESTCalls = false;
 
+    // used to only copy the records created or modified since the last migration. The watermark is the
+    // time the last completed migration started, and is saved along with the uri maps
+    private boolean deltaMigration = false;
+    private Date deltaWatermark = null;
+    private Date migrationStartTime = new Date();
+
+    // used to export the records to disk instead of posting them to the backend
+    private RecordExporter recordExporter = null;
+
+    // whether a session was made with the backend. When exporting the records this is optional
+    private boolean haveSession = false;
+
     // Specifies whether to use the batch import functionality of aspace
     private boolean useBatchImport = false;
 
+    // the number of name, subject, location, accession and digital object records to save in each batch import.
+    // Only used if more than one
+    private int recordBatchSize = 0;
+
+    // the maximum size and number of records of a resource batch import. Small resources are packed into
+    // one batch up to these, and larger ones are split into several batches. Not used if zero
+    private long resourceBatchBytes = 0;
+    private int resourceBatchRecords = 0;
+
     // Specifies whether to delete the previously saved resource records. Useful for testing purposes
     private boolean deleteSavedResources = false;
 
     // this list is used to copy a specific resource
     private ArrayList<String> resourcesIDsList;
 
+    // the ids of the resources to copy when this is one of the workers of a sharded migration
+    private HashSet<Long> resourceShard = null;
+
     // Booleans to specify whether to copy over unlinked Names and Subject records
     private boolean ignoreNames = false;
     private boolean ignoreSubjects = false;
@@ -165,8 +236,13 @@ public class ASpaceCopyUtil {
     // loaded by the user
     private int mapperScriptRejects = 0;
 
-    // A string builder object to track errors
-    private StringBuilder errorBuffer = new StringBuilder();
+    // used to store the record conversion errors and warnings. The save errors are stored
+    // in a separate store which is shared by all aspace clients
+    private MigrationErrorStore errorStore;
+    private MigrationErrorStore saveErrorStore;
+
+    // used by the dry run to collect the warnings of the record being converted in each thread
+    private ThreadLocal<ArrayList<String>> recordWarnings = new ThreadLocal<ArrayList<String>>();
 
     // String which specifies how ref_ids are to be handled. The options are below
     public static final String REFID_ORIGINAL = "-refid_original";
@@ -202,6 +278,33 @@ public class ASpaceCopyUtil {
         init();
     }
 
+    /**
+     * Constructor used when records are only converted and not saved, so there is no source
+     * database or ASpace backend i.e. when benchmarking the mapper. Errors are only kept in memory
+     *
+     * @param languageCodes
+     * @param nameLinkCreatorCodes
+     */
+    public ASpaceCopyUtil(HashMap<String, String> languageCodes, HashMap<String, String> nameLinkCreatorCodes) {
+        this.aspaceClient = new ASpaceClient("", "", "");
+        this.simulateRESTCalls = true;
+
+        mapper = new ASpaceMapper(this);
+
+        errorStore = new MigrationErrorStore(null);
+        saveErrorStore = new MigrationErrorStore(null);
+        aspaceClient.setErrorStore(saveErrorStore);
+
+        this.languageCodes = languageCodes;
+        this.nameLinkCreatorCodes = nameLinkCreatorCodes;
+
+        mapper.setLanguageCodes(languageCodes);
+        mapper.setNameLinkCreatorCodes(nameLinkCreatorCodes);
+
+        enumUtil.setLanguageCodes(languageCodes);
+        enumUtil.setNameLinkCreatorCodes(nameLinkCreatorCodes);
+    }
+
     /**
      * Method to initiate certain variables that are needed to work
      */
@@ -214,6 +317,18 @@ public class ASpaceCopyUtil {
         // set the file that contains the record map
         uriMapFile = new File(System.getProperty("user.home") + File.separator + "uriMaps.bin");
 
+        // set the files where the errors get stored
+        errorStore = new MigrationErrorStore(getErrorFile("conversionErrors.txt"));
+        saveErrorStore = new MigrationErrorStore(getErrorFile("saveErrors.txt"));
+        aspaceClient.setErrorStore(saveErrorStore);
+
+        // start recording metrics and writing them to the log periodically
+        aspaceClient.setMetrics(metrics);
+        metrics.startReporting(logger);
+
+        // allow the migration to be monitored and controlled with jconsole
+        MigrationControl.register(this);
+
         // first add the admin repo to the repository URI map
         repositoryURIMap.put("adminRepo", ASpaceClient.ADMIN_REPOSITORY_ENDPOINT);
 
@@ -235,6 +350,34 @@ public class ASpaceCopyUtil {
         startWatch();
     }
 
+    /**
+     * Method to return a file in the user home directory used to store errors
+     *
+     * @param name
+     * @return
+     */
+    private File getErrorFile(String name) {
+        return new File(errorDirectory, "aspaceMigration_" + name);
+    }
+
+    /**
+     * Method to keep the URI maps and error files in the given directory instead of the user's home
+     * directory, so more than one migration can run on the same machine
+     *
+     * @param workDirectory
+     */
+    public void setWorkDirectory(File workDirectory) {
+        uriMapFile = new File(workDirectory, "uriMaps.bin");
+        errorDirectory = workDirectory;
+
+        errorStore.close();
+        saveErrorStore.close();
+
+        errorStore = new MigrationErrorStore(getErrorFile("conversionErrors.txt"));
+        saveErrorStore = new MigrationErrorStore(getErrorFile("saveErrors.txt"));
+        aspaceClient.setErrorStore(saveErrorStore);
+    }
+
     /**
      * Method to set the hash map used for testing when records should be published or not
      * @param publishHashMap
@@ -314,6 +457,62 @@ public class ASpaceCopyUtil {
      */
     public void setOutputConsole(JTextArea outputConsole) {
         this.outputConsole = outputConsole;
+        logger.setOutputConsole(outputConsole);
+    }
+
+    /**
+     * Method to set the logging level i.e. error, warn, info, or debug. Per record
+     * messages are only output at the debug level
+     *
+     * @param logLevel
+     */
+    public void setLogLevel(String logLevel) {
+        logger.setLevel(logLevel);
+    }
+
+    /**
+     * Method to set the file the output messages are also written to
+     *
+     * @param logFile
+     */
+    public void setLogFile(File logFile) {
+        logger.setLogFile(logFile);
+    }
+
+    /**
+     * Method to record every request made to the backend to a file, so the traffic of
+     * this migration can be replayed against the stub server with TrafficReplay
+     *
+     * @param captureFile
+     * @param recordBodies whether to store the request bodies or just their size and hash
+     */
+    public void setTrafficCaptureFile(File captureFile, boolean recordBodies) {
+        try {
+            trafficRecorder = new TrafficRecorder(captureFile, recordBodies);
+            aspaceClient.setTrafficRecorder(trafficRecorder);
+
+            print("Recording backend requests to " + captureFile.getAbsolutePath());
+        } catch (IOException e) {
+            printWarning("Unable to record backend requests: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to export the records to chunked NDJSON files in the given directory, instead of posting them to
+     * the backend. The URI map file is also saved there, since the URIs are only placeholders
+     *
+     * @param exportDirectory
+     * @param chunkRecords the maximum number of records in each chunk
+     * @param chunkBytes the maximum size of each chunk before compression
+     * @throws IOException
+     */
+    public void setExportDirectory(File exportDirectory, int chunkRecords, long chunkBytes) throws IOException {
+        recordExporter = new RecordExporter(exportDirectory);
+        recordExporter.setChunkSize(chunkRecords, chunkBytes);
+
+        uriMapFile = new File(exportDirectory, "uriMaps.bin");
+
+        print("Exporting records to " + exportDirectory.getAbsolutePath());
     }
 
     public void setProgressIndicators(JProgressBar progressBar, JLabel errorCountLabel) {
@@ -343,10 +542,19 @@ public class ASpaceCopyUtil {
         if(simulateRESTCalls) return true;
 
         boolean connected = aspaceClient.getSession();
+        haveSession = connected;
 
         if(connected) {
             aspaceInformation = aspaceClient.getArchivesSpaceInformation();
-            aspaceClient.pauseIndexer();
+
+            // nothing is posted when exporting, so leave the indexer running
+            if(recordExporter == null) {
+                aspaceClient.pauseIndexer();
+            }
+        } else if(recordExporter != null) {
+            // the backend is only used for it's enums when exporting, so carry on without it
+            print("No ASpace session, exporting records using the AT lookup list values ...");
+            return true;
         }
 
         return connected;
@@ -357,7 +565,7 @@ public class ASpaceCopyUtil {
      * user defined values to be migrated to ASpace.
      */
     public void copyLookupList() throws Exception {
-        if(simulateRESTCalls) return;
+        if(simulateRESTCalls || (recordExporter != null && !haveSession)) return;
 
         // first load the dynamic enums current is ASpace
         HashMap<String, JSONObject> dynamicEnums = aspaceClient.loadDynamicEnums();
@@ -406,7 +614,7 @@ public class ASpaceCopyUtil {
                 String id = saveRecord(endpoint, jsonText, "LookupList->" + lookupList.getListName());
 
                 if (!id.equalsIgnoreCase(NO_ID)) {
-                    print("Copied Lookup List Values: " + lookupList.getListName() + " :: " + id);
+                    printDebug("Copied Lookup List Values: " + lookupList.getListName() + " :: " + id);
                     success++;
                 }
             }
@@ -428,7 +636,7 @@ public class ASpaceCopyUtil {
      * @return
      */
     public void loadRepositories() {
-        if(simulateRESTCalls) return;
+        if(simulateRESTCalls || (recordExporter != null && !haveSession)) return;
 
         HashMap<String, String> repos = aspaceClient.loadRepositories();
 
@@ -453,6 +661,7 @@ public class ASpaceCopyUtil {
         int success = 0;
 
         for (Repositories repository : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             String shortName = repository.getShortName();
@@ -478,10 +687,10 @@ public class ASpaceCopyUtil {
                     repositoryURIMap.put(shortName, uri);
                     repositoryAgentURIMap.put(uri, agentURI);
 
-                    print("Copied Repository: " + repository.getShortName() + " :: " + id);
+                    printDebug("Copied Repository: " + repository.getShortName() + " :: " + id);
                     success++;
                 } else {
-                    print("Fail -- Repository: " + repository.getShortName());
+                    printError("Fail -- Repository: " + repository.getShortName());
                 }
             } else {
                 print("Repository already in database " + shortName);
@@ -502,6 +711,12 @@ public class ASpaceCopyUtil {
     public void mapRepositoryGroups() {
         if(simulateRESTCalls) return;
 
+        // the groups are only created by the backend when the repositories are loaded
+        if(recordExporter != null) {
+            print("Repository groups can't be mapped when exporting, users will be exported without groups ...");
+            return;
+        }
+
         print("Mapping repository user group records ...");
 
         // these are used to update the progress bar
@@ -544,14 +759,17 @@ public class ASpaceCopyUtil {
      */
     public void copyLocationRecords() throws Exception {
         print("Copying locations records ...");
-        ArrayList<Locations> records = sourceRCD.getLocations();
+        ArrayList<Locations> records = deltaMigration ? getDeltaRecords(Locations.class, locationURIMap) : sourceRCD.getLocations();
 
         // these are used to update the progress bar and import log
         int total = records.size();
         int count = 0;
         int success = 0;
 
+        RecordBatch batch = createRecordBatch("Location", locationURIMap);
+
         for (Locations location : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             // check to see if we are using a mapper script to filter some records
@@ -563,24 +781,38 @@ public class ASpaceCopyUtil {
             String jsonText = (String) mapper.convert(location);
             if (jsonText != null) {
                 String uri = ASpaceClient.LOCATION_ENDPOINT;
-                String id = saveRecord(uri, jsonText, "Location->" + location.getSortString());
+                String existingURI = getExistingURI(locationURIMap, location.getIdentifier());
+
+                if (batch != null && existingURI == null) {
+                    success += batch.add(location.getIdentifier(), uri, "location", jsonText, "Location->" + location.getSortString());
+
+                    count++;
+                    updateProgress("Locations", total, count);
+                    continue;
+                }
+
+                String id = saveOrUpdateRecord(uri, existingURI, jsonText, "Location->" + location.getSortString());
 
                 if (!id.equalsIgnoreCase(NO_ID)) {
                     uri = uri + "/" + id;
                     locationURIMap.put(location.getIdentifier(), uri);
-                    print("Copied Location: " + location.getSortString() + " :: " + id);
+                    printDebug("Copied Location: " + location.getSortString() + " :: " + id);
                     success++;
                 } else {
-                    print("Fail -- Location: " + location.getSortString());
+                    printError("Fail -- Location: " + location.getSortString());
                 }
             } else {
-                print("Fail -- Location to JSON: " + location.getSortString());
+                printError("Fail -- Location to JSON: " + location.getSortString());
             }
 
             count++;
             updateProgress("Locations", total, count);
         }
 
+        if (batch != null) {
+            success += batch.flush();
+        }
+
         updateRecordTotals("Locations", total, success);
 
         // refresh the database connection to prevent heap space error
@@ -603,6 +835,7 @@ public class ASpaceCopyUtil {
         int success = 0;
 
         for (Users user : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             // check to see if we are using a mapper script to filter some records
@@ -611,6 +844,12 @@ public class ASpaceCopyUtil {
                 continue;
             }
 
+            // users aren't kept in the uri maps, so only the new ones are copied by a delta migration
+            if(deltaMigration && deltaWatermark != null && user.getCreated() != null &&
+                    !user.getCreated().after(deltaWatermark)) {
+                continue;
+            }
+
             // first get the group the user belongs too
             ArrayList<String> groupURIs = getUserGroupURIs(user);
 
@@ -625,10 +864,10 @@ public class ASpaceCopyUtil {
             String id = saveRecord(ASpaceClient.USER_ENDPOINT, jsonText, params, "User->" + user.getUserName());
 
             if (!id.equalsIgnoreCase(NO_ID)) {
-                print("Copied User: " + user.toString() + " :: " + id);
+                printDebug("Copied User: " + user.toString() + " :: " + id);
                 success++;
             } else {
-                print("Fail -- User: " + user.toString());
+                printError("Fail -- User: " + user.toString());
             }
 
             count++;
@@ -718,7 +957,7 @@ public class ASpaceCopyUtil {
     public void copyNameRecords() throws Exception {
         print("Copying Name records ...");
 
-        ArrayList<Names> records = sourceRCD.getNames();
+        ArrayList<Names> records = deltaMigration ? getDeltaRecords(Names.class, nameURIMap) : sourceRCD.getNames();
 
         // these are used to update the progress bar
         int total = records.size();
@@ -726,7 +965,10 @@ public class ASpaceCopyUtil {
         int success = 0;
         int unlinkedCount = 0;
 
+        RecordBatch batch = createRecordBatch("Name", nameURIMap);
+
         for (Names name : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             // check to see if to ignore this record if it has no links
@@ -748,24 +990,39 @@ public class ASpaceCopyUtil {
                 // based on the type of name copy to the correct location
                 String id = "";
                 String uri = "";
+                String existingURI = getExistingURI(nameURIMap, name.getIdentifier());
+
+                if(batch != null && existingURI == null) {
+                    if(type.equals(Names.PERSON_TYPE)) {
+                        success += batch.add(name.getIdentifier(), ASpaceClient.AGENT_PEOPLE_ENDPOINT, "agent_person", jsonText, "Name_Person->" + name.getSortName());
+                    } else if(type.equals(Names.FAMILY_TYPE)) {
+                        success += batch.add(name.getIdentifier(), ASpaceClient.AGENT_FAMILY_ENDPOINT, "agent_family", jsonText, "Name_Family->" + name.getSortName());
+                    } else {
+                        success += batch.add(name.getIdentifier(), ASpaceClient.AGENT_CORPORATE_ENTITY_ENDPOINT, "agent_corporate_entity", jsonText, "Name_Corporate->" + name.getSortName());
+                    }
+
+                    count++;
+                    updateProgress("Names", total, count);
+                    continue;
+                }
 
                 if(type.equals(Names.PERSON_TYPE)) {
-                    id = saveRecord(ASpaceClient.AGENT_PEOPLE_ENDPOINT, jsonText, "Name_Person->" + name.getSortName());
+                    id = saveOrUpdateRecord(ASpaceClient.AGENT_PEOPLE_ENDPOINT, existingURI, jsonText, "Name_Person->" + name.getSortName());
                     uri = ASpaceClient.AGENT_PEOPLE_ENDPOINT + "/" + id;
                 } else if(type.equals(Names.FAMILY_TYPE)) {
-                    id = saveRecord(ASpaceClient.AGENT_FAMILY_ENDPOINT, jsonText, "Name_Family->" + name.getSortName());
+                    id = saveOrUpdateRecord(ASpaceClient.AGENT_FAMILY_ENDPOINT, existingURI, jsonText, "Name_Family->" + name.getSortName());
                     uri = ASpaceClient.AGENT_FAMILY_ENDPOINT + "/" + id;
                 } else { // must be a corporate name
-                    id = saveRecord(ASpaceClient.AGENT_CORPORATE_ENTITY_ENDPOINT, jsonText, "Name_Corporate->" + name.getSortName());
+                    id = saveOrUpdateRecord(ASpaceClient.AGENT_CORPORATE_ENTITY_ENDPOINT, existingURI, jsonText, "Name_Corporate->" + name.getSortName());
                     uri = ASpaceClient.AGENT_CORPORATE_ENTITY_ENDPOINT + "/" + id;
                 }
 
                 if(!id.equalsIgnoreCase(NO_ID)) {
                     nameURIMap.put(name.getIdentifier(), uri);
-                    print("Copied Name: " + name + " :: " + id);
+                    printDebug("Copied Name: " + name + " :: " + id);
                     success++;
                 } else {
-                    print("Failed -- Name: " + name);
+                    printError("Failed -- Name: " + name);
                 }
             } else {
                 print("null json object when copying name: " + name);
@@ -775,6 +1032,10 @@ public class ASpaceCopyUtil {
             updateProgress("Names", total, count);
         }
 
+        if (batch != null) {
+            success += batch.flush();
+        }
+
         updateRecordTotals("Names", total, success);
 
         // add error message indicating any records that were not copied because they
@@ -796,7 +1057,7 @@ public class ASpaceCopyUtil {
     public void copySubjectRecords() throws Exception {
         print("Copying Subject records ...");
 
-        ArrayList<Subjects> records = sourceRCD.getSubjects();
+        ArrayList<Subjects> records = deltaMigration ? getDeltaRecords(Subjects.class, subjectURIMap) : sourceRCD.getSubjects();
 
         // these are used to update the progress bar
         int total = records.size();
@@ -804,7 +1065,10 @@ public class ASpaceCopyUtil {
         int success = 0;
         int unlinkedCount = 0;
 
+        RecordBatch batch = createRecordBatch("Subject", subjectURIMap);
+
         for (Subjects subject : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             // check to see if to ignore this record if it has no links
@@ -822,24 +1086,38 @@ public class ASpaceCopyUtil {
 
             String jsonText = (String) mapper.convert(subject);
             if (jsonText != null) {
-                String id = saveRecord(ASpaceClient.SUBJECT_ENDPOINT, jsonText, "Subject->" + subject.getSubjectTerm());
+                String existingURI = getExistingURI(subjectURIMap, subject.getIdentifier());
+
+                if (batch != null && existingURI == null) {
+                    success += batch.add(subject.getIdentifier(), ASpaceClient.SUBJECT_ENDPOINT, "subject", jsonText, "Subject->" + subject.getSubjectTerm());
+
+                    count++;
+                    updateProgress("Subjects", total, count);
+                    continue;
+                }
+
+                String id = saveOrUpdateRecord(ASpaceClient.SUBJECT_ENDPOINT, existingURI, jsonText, "Subject->" + subject.getSubjectTerm());
 
                 if(!id.equalsIgnoreCase(NO_ID)) {
                     String uri = ASpaceClient.SUBJECT_ENDPOINT + "/" + id;
                     subjectURIMap.put(subject.getIdentifier(), uri);
-                    print("Copied Subject: " + subject + " :: " + id);
+                    printDebug("Copied Subject: " + subject + " :: " + id);
                     success++;
                 } else {
-                    print("Fail -- Subject: " + subject);
+                    printError("Fail -- Subject: " + subject);
                 }
             } else {
-                print("Fail -- Subject to JSON: " + subject);
+                printError("Fail -- Subject to JSON: " + subject);
             }
 
             count++;
             updateProgress("Subjects", total, count);
         }
 
+        if (batch != null) {
+            success += batch.flush();
+        }
+
         updateRecordTotals("Subjects", total, success);
 
         // add error message indicating any records that were not copied because they
@@ -861,14 +1139,18 @@ public class ASpaceCopyUtil {
     public void copyAccessionRecords() throws Exception {
         print("Copying Accession records ...");
 
-        ArrayList<Accessions> records = sourceRCD.getAccessions();
+        ArrayList<Accessions> records = deltaMigration ? getDeltaRecords(Accessions.class, accessionURIMap) : sourceRCD.getAccessions();
 
         // these are used to update the progress bar
         int total = records.size();
         int count = 0;
         int success = 0;
 
+        // accessions are saved in batches for each repository, along with their events
+        HashMap<String, RecordBatch> batches = new HashMap<String, RecordBatch>();
+
         for (Accessions accession : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             // check to see if we are using a mapper script to filter some records
@@ -891,28 +1173,53 @@ public class ASpaceCopyUtil {
 
                 String repoURI = getRemappedRepositoryURI("accession", accession.getIdentifier(), accession.getRepository());
                 String uri = repoURI + ASpaceClient.ACCESSION_ENDPOINT;
-                String id = saveRecord(uri, accessionJS.toString(), "Accession->" + accession.getAccessionNumber());
+                String existingURI = getExistingURI(accessionURIMap, accession.getIdentifier());
+
+                RecordBatch batch = batches.get(repoURI);
+                if(batch == null && !batches.containsKey(repoURI)) {
+                    batch = createRecordBatch("Accession", accessionURIMap, repoURI + ASpaceClient.BATCH_IMPORT_ENDPOINT);
+                    batches.put(repoURI, batch);
+                }
+
+                if(batch != null && existingURI == null) {
+                    success += batch.add(accession.getIdentifier(), uri, "accession", accessionJS.toString(), "Accession->" + accession.getAccessionNumber());
+                    addEvents(accession, repoURI, batch.getTempURI(accession.getIdentifier(), uri), batch);
+
+                    count++;
+                    updateProgress("Accessions", total, count);
+                    continue;
+                }
+
+                String id = saveOrUpdateRecord(uri, existingURI, accessionJS.toString(), "Accession->" + accession.getAccessionNumber());
 
                 if (!id.equalsIgnoreCase(NO_ID)) {
                     uri = uri + "/" + id;
 
-                    // now add the event objects
-                    addEvents(accession, repoURI, uri);
+                    // now add the event objects, unless they were added when the accession was first copied
+                    if(!uri.equals(existingURI)) {
+                        addEvents(accession, repoURI, uri);
+                    }
 
                     accessionURIMap.put(accession.getIdentifier(), uri);
-                    print("Copied Accession: " + accession.getTitle() + " :: " + id);
+                    printDebug("Copied Accession: " + accession.getTitle() + " :: " + id);
                     success++;
                 } else {
-                    print("Fail -- Accession: " + accession.getTitle());
+                    printError("Fail -- Accession: " + accession.getTitle());
                 }
             } else {
-                print("Fail -- Accession to JSON: " + accession.getTitle());
+                printError("Fail -- Accession to JSON: " + accession.getTitle());
             }
 
             count++;
             updateProgress("Accessions", total, count);
         }
 
+        for(RecordBatch batch: batches.values()) {
+            if(batch != null) {
+                success += batch.flush();
+            }
+        }
+
         updateRecordTotals("Accessions", total, success);
 
         // refresh the database connection to prevent heap space error
@@ -927,11 +1234,33 @@ public class ASpaceCopyUtil {
      * @param accessionURI
      */
     private void addEvents(Accessions accession, String repoURI, String accessionURI) throws Exception {
+        addEvents(accession, repoURI, accessionURI, null);
+    }
+
+    /**
+     * Method to add events object to an accession object, either by saving them, or adding
+     * them to the batch the accession is in
+     *
+     * @param accession
+     * @param repoURI
+     * @param accessionURI the uri of the accession, or it's temporary uri in the batch
+     * @param batch
+     */
+    private void addEvents(Accessions accession, String repoURI, String accessionURI, RecordBatch batch) throws Exception {
         String uri = repoURI + ASpaceClient.EVENT_ENDPOINT;
         String agentURI = repositoryAgentURIMap.get(repoURI);
 
         ArrayList<JSONObject> eventList = mapper.getAccessionEvents(accession, agentURI, accessionURI);
 
+        if (batch != null) {
+            for (int i = 0; i < eventList.size(); i++) {
+                String eventURI = uri + "/import_" + accession.getIdentifier() + "_" + i;
+                batch.addLinked(eventURI, uri, "event", eventList.get(i), "Accession Event->" + accession.getAccessionNumber(), accessionURI);
+            }
+
+            return;
+        }
+
         for (JSONObject eventJS: eventList) {
             String id = saveRecord(uri, eventJS.toString(), "Accession Event->" + accession.getAccessionNumber());
             //System.out.println("Aspace Event ID:" + id);
@@ -974,14 +1303,18 @@ public class ASpaceCopyUtil {
     public void copyDigitalObjectRecords() throws Exception {
         print("Copying Digital Object records ...");
 
-        ArrayList<DigitalObjects> records = sourceRCD.getDigitalObjects();
+        ArrayList<DigitalObjects> records = deltaMigration ? getDeltaRecords(DigitalObjects.class, digitalObjectURIMap) : sourceRCD.getDigitalObjects();
 
         // these are used to update the progress bar
         int total = records.size();
         int count = 0;
         int success = 0;
 
+        // digital objects are saved in batches for each repository, along with their components
+        HashMap<String, RecordBatch> batches = new HashMap<String, RecordBatch>();
+
         for (DigitalObjects digitalObject : records) {
+            waitWhilePaused();
             if(stopCopy) return;
 
             // check to see if we are using a mapper script to filter some records
@@ -1003,12 +1336,36 @@ public class ASpaceCopyUtil {
 
                 String repoURI = getRemappedRepositoryURI("digitalObject", digitalObject.getIdentifier(), digitalObject.getRepository());
                 String uri = repoURI + ASpaceClient.DIGITAL_OBJECT_ENDPOINT;
-                String id = saveRecord(uri, digitalObjectJS.toString(), "DigitalObject->" + digitalObject.getMetsIdentifier());
+                String existingURI = getExistingURI(digitalObjectURIMap, digitalObject.getDigitalObjectId());
+
+                RecordBatch batch = batches.get(repoURI);
+                if(batch == null && !batches.containsKey(repoURI)) {
+                    batch = createRecordBatch("Digital Object", digitalObjectURIMap, repoURI + ASpaceClient.BATCH_IMPORT_ENDPOINT);
+                    batches.put(repoURI, batch);
+                }
+
+                if(batch != null && existingURI == null) {
+                    success += batch.add(digitalObject.getDigitalObjectId(), uri, "digital_object", digitalObjectJS.toString(), "DigitalObject->" + atId);
+
+                    String tempURI = batch.getTempURI(digitalObject.getDigitalObjectId(), uri);
+                    addDigitalObjectChildren(batch, repoURI + ASpaceClient.DIGITAL_OBJECT_COMPONENT_ENDPOINT, tempURI, null, digitalObject, atId);
+
+                    count++;
+                    updateProgress("Digital Objects", total, count);
+                    continue;
+                }
+
+                String id = saveOrUpdateRecord(uri, existingURI, digitalObjectJS.toString(), "DigitalObject->" + digitalObject.getMetsIdentifier());
 
                 if (!id.equalsIgnoreCase(NO_ID)) {
                     String digitalObjectURI = uri + "/" + id;
                     digitalObjectURIMap.put(digitalObject.getDigitalObjectId(), digitalObjectURI);
 
+                    // the components of an updated digital object are copied again, since they may have changed
+                    if(digitalObjectURI.equals(existingURI)) {
+                        deleteDigitalObjectComponents(digitalObjectURI);
+                    }
+
                     // add all the child records now
                     // set the resource URI and archival object endpoint
                     String docEndpoint = repoURI + ASpaceClient.DIGITAL_OBJECT_COMPONENT_ENDPOINT;
@@ -1038,31 +1395,39 @@ public class ASpaceCopyUtil {
                             if (!cid.equalsIgnoreCase(NO_ID)) {
                                 String digitalObjectChildURI = docEndpoint + "/" + cid;
 
-                                print("Copied Digital Object Child: " + digitalObjectChild.getTitle() + " :: " + cid + "\n");
+                                if(logger.isDebugEnabled()) {
+                                    printDebug("Copied Digital Object Child: " + digitalObjectChild.getTitle() + " :: " + cid + "\n");
+                                }
 
                                 // call the recursive method to add child components
                                 copyDigitalObjectChildren(docEndpoint, digitalObjectURI, digitalObjectChildURI, digitalObjectChild, atId);
                             } else {
-                                print("Fail -- Digital Object Child: " + digitalObjectChild.getTitle() + "\n");
+                                printError("Fail -- Digital Object Child: " + digitalObjectChild.getTitle() + "\n");
                             }
                         } else {
-                            print("Fail -- Digital Object Child to JSON: " + digitalObjectChild.getTitle());
+                            printError("Fail -- Digital Object Child to JSON: " + digitalObjectChild.getTitle());
                         }
                     }
 
-                    print("Copied Digital Object: " + digitalObject.getTitle() + " :: " + id);
+                    printDebug("Copied Digital Object: " + digitalObject.getTitle() + " :: " + id);
                     success++;
                 } else {
-                    print("Fail -- Digital Object: " + digitalObject.getTitle());
+                    printError("Fail -- Digital Object: " + digitalObject.getTitle());
                 }
             } else {
-                print("Fail -- Digital Object to JSON: " + digitalObject.getTitle());
+                printError("Fail -- Digital Object to JSON: " + digitalObject.getTitle());
             }
 
             count++;
             updateProgress("Digital Objects", total, count);
         }
 
+        for(RecordBatch batch: batches.values()) {
+            if(batch != null) {
+                success += batch.flush();
+            }
+        }
+
         updateRecordTotals("Digital Objects", total, success);
 
         // refresh the database connection to prevent heap space error
@@ -1106,16 +1471,73 @@ public class ASpaceCopyUtil {
                     if (!cid.equals(NO_ID)) {
                         String digitalObjectChildURI = endpoint + "/" + cid;
 
-                        print("Copied Digital Object Child: " + digitalObjectChild.getTitle() + " :: " + cid + "\n");
+                        if(logger.isDebugEnabled()) {
+                            printDebug("Copied Digital Object Child: " + digitalObjectChild.getTitle() + " :: " + cid + "\n");
+                        }
 
                         // call the recursive method to add child components
                         copyDigitalObjectChildren(endpoint, digitalObjectURI, digitalObjectChildURI, digitalObjectChild, atId);
                     } else {
-                        print("Fail -- Digital Object Child: " + digitalObjectChild.getTitle() + "\n");
+                        printError("Fail -- Digital Object Child: " + digitalObjectChild.getTitle() + "\n");
                     }
                 } else {
-                    print("Fail -- Digital Object Child to JSON: " + digitalObjectChild.getTitle());
+                    printError("Fail -- Digital Object Child to JSON: " + digitalObjectChild.getTitle());
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to do a recursion to add all the digital object children to the batch the digital
+     * object is in, linked by their temporary uris
+     *
+     * @param batch
+     * @param endpoint
+     * @param digitalObjectURI the temporary uri of the digital object
+     * @param parentURI the temporary uri of the parent component, or null for the top level ones
+     * @param digitalObject
+     * @param atId
+     */
+    private void addDigitalObjectChildren(RecordBatch batch, String endpoint, String digitalObjectURI, String parentURI,
+                                          DigitalObjects digitalObject, String atId) throws Exception {
+        if (stopCopy) return;
+
+        Set<DigitalObjects> digitalObjectChildren = digitalObject.getDigitalObjectChildren();
+        if (digitalObjectChildren == null) return;
+
+        for (DigitalObjects digitalObjectChild : digitalObjectChildren) {
+            JSONObject digitalObjectChildJS = mapper.convertToDigitalObjectComponent(digitalObjectChild);
+
+            if (digitalObjectChildJS != null) {
+                digitalObjectChildJS.put("digital_object", mapper.getReferenceObject(digitalObjectURI));
+
+                if (parentURI != null) {
+                    digitalObjectChildJS.put("parent", mapper.getReferenceObject(parentURI));
+                }
+
+                // set the position
+                digitalObjectChildJS.put("position", digitalObjectChild.getObjectOrder());
+
+                // add the subjects now
+                addSubjects(digitalObjectChildJS, digitalObjectChild);
+
+                // add the linked agents aka Names records
+                addNames(digitalObjectChildJS, digitalObjectChild);
+
+                String childURI = endpoint + "/" + digitalObjectChild.getIdentifier();
+
+                if (parentURI != null) {
+                    batch.addLinked(childURI, endpoint, "digital_object_component", digitalObjectChildJS,
+                            "DigitalObjectChild->" + atId, digitalObjectURI, parentURI);
+                } else {
+                    batch.addLinked(childURI, endpoint, "digital_object_component", digitalObjectChildJS,
+                            "DigitalObject->" + atId, digitalObjectURI);
                 }
+
+                // call the recursive method to add child components
+                addDigitalObjectChildren(batch, endpoint, digitalObjectURI, childURI, digitalObjectChild, atId);
+            } else {
+                printError("Fail -- Digital Object Child to JSON: " + digitalObjectChild.getTitle());
             }
         }
     }
@@ -1130,15 +1552,37 @@ public class ASpaceCopyUtil {
     public void copyResourceRecords(int max, int threads) throws Exception {
         currentRecordType = "Resource Record";
 
+        // the number of threads can be changed while the resources are being copied
+        setMaxClients(threads);
+
         // first delete previously saved resource records if that option was selected by user
         if(deleteSavedResources) {
             deleteSavedResources();
         }
 
-        ArrayList<Resources> records = sourceRCD.getResources();
+        ArrayList<Resources> records = deltaMigration ? getDeltaRecords(Resources.class, resourceURIMap) : sourceRCD.getResources();
+
+        // only copy the resources in this worker's shard
+        if(resourceShard != null) {
+            ArrayList<Resources> shardRecords = new ArrayList<Resources>();
+
+            for(Resources resource: records) {
+                if(resourceShard.contains(resource.getIdentifier())) {
+                    shardRecords.add(resource);
+                }
+            }
+
+            records = shardRecords;
+        }
 
         print("Copying " + records.size() + " Resource records ...");
 
+        // when copying with more than one client, start with the largest resources so they
+        // aren't left running on their own after the rest have been copied
+        if(threads > 1 && recordExporter == null) {
+            scheduleLargestFirst(records, threads);
+        }
+
         copyCount = 0; // keep track of the number of resource records copied
 
         // these are used to update the progress bar
@@ -1148,18 +1592,26 @@ public class ASpaceCopyUtil {
         // if we in debug mode, then set total to max
         if(debug && max < total) total = max;
 
+        // the small resources waiting to be sent in a single batch import
+        ResourcePack resourcePack = null;
+
         for (Resources resource : records) {
             // we need to update the progress bar here
             updateProgress("Resource Records", total, count);
 
             count++;
 
-            // check if to stop copy process
+            // check if to pause or stop copy process
+            waitWhilePaused();
             if(stopCopy) {
                 updateRecordTotals("Resource Records", total, copyCount);
                 return;
             }
 
+            // get the current number of threads in case it was changed. The records are written out
+            // one at a time when exporting, so there is no point in using more than one thread
+            threads = (recordExporter != null) ? 1 : maxClients;
+
             // check to see if we are using a mapper script to filter some records
             if(mapper.runResourceMapperScript && !mapper.canCopyRecord(resource)) {
                 print("Mapper Script -- Not Copying Resource: " + resource.getTitle());
@@ -1184,6 +1636,11 @@ public class ASpaceCopyUtil {
                 continue;
             }
 
+            // a batch import can only create records, so a modified resource is deleted and imported again
+            if (deltaMigration && resourceURIMap.containsKey(resource.getIdentifier()) && !simulateRESTCalls) {
+                deleteModifiedResource(resource.getIdentifier());
+            }
+
             if (resourceURIMap.containsKey(resource.getIdentifier())) {
                 incrementCopyCount();
                 print("Not Copied: Resource already in database " + resource);
@@ -1272,15 +1729,17 @@ public class ASpaceCopyUtil {
                             if (!cid.equals(NO_ID)) {
                                 String componentURI = aoEndpoint + "/" + cid;
 
-                                print("Copied Resource Component: " + component.getTitle() + " :: " + cid + "\n");
+                                if(logger.isDebugEnabled()) {
+                                    printDebug("Copied Resource Component: " + component.getTitle() + " :: " + cid + "\n");
+                                }
 
                                 // call the recursive method to add child components
                                 copyResourceComponents(aoEndpoint, resourceURI, componentURI, component, batchJA, "ResourceComponent->" + atId + " :: " + component.getPersistentId(), repository, repoURI + "/");
                             } else {
-                                print("Fail -- Resource Component: " + component.getTitle());
+                                printError("Fail -- Resource Component: " + component.getTitle());
                             }
                         } else {
-                            print("Fail -- Resource Component to JSON: " + component.getTitle());
+                            printError("Fail -- Resource Component to JSON: " + component.getTitle());
                         }
                     }
 
@@ -1289,57 +1748,72 @@ public class ASpaceCopyUtil {
                         String resourceTitle = resource.getTitle();
                         Long dbId = resource.getIdentifier();
 
-                        // release the hibernate connection now since we no longer need it
-                        // in order to free the memory
-                        freeMemory();
+                        // release the hibernate session now if the records loaded into it are using
+                        // too much memory, since we no longer need them
+                        checkSessionMemory(batchJA.length());
+
+                        PackedResource packedResource = new PackedResource(dbId, resourceURI, resourceTitle, atId, batchJA.length());
+
+                        // the batch is only split when posting to the backend, since the loader doesn't
+                        // replace the temporary URIs of records in an earlier batch
+                        if(resourceBatchBytes > 0 && recordExporter == null) {
+                            packedResource.parts = splitResourceBatch(batchJA);
+                        } else {
+                            packedResource.parts.add((recordExporter != null) ? batchJA.toString() : batchJA.toString(2));
+                        }
+
+                        batchJA = null;
 
                         print("Batch Copying Resource # " + count + " || Title: " + resourceTitle);
 
-                        if(threads == 1) {
-                            String bids = saveRecord(batchEndpoint, batchJA.toString(2), atId);
+                        // send the resources packed so far if this one can't be added to them
+                        if(resourcePack != null && !resourcePack.canAdd(batchEndpoint, packedResource)) {
+                            sendResourcePack(resourcePack, threads, total);
+                            resourcePack = null;
+                        }
 
-                            if(!bids.equals(NO_ID)) {
-                                if(!simulateRESTCalls) {
-                                    JSONObject bidsJS = new JSONObject(bids);
-                                    resourceURI = (new JSONArray(bidsJS.getString(resourceURI))).getString(0);
-                                }
+                        if(resourcePack == null) {
+                            resourcePack = new ResourcePack(batchEndpoint);
+                        }
 
-                                print("Batch Copied Resource: " + resourceTitle + " :: " + resourceURI);
+                        resourcePack.add(packedResource);
 
-                            } else {
-                                print("Batch Copy Fail -- Resource: " + resourceTitle);
-                                continue;
-                            }
-                        } else {
-                            // copy this in a separate thread
-                            copyResourceRecordInThread(batchEndpoint, resourceURI, resourceTitle, batchJA.toString(2), atId, dbId, threads, total);
+                        // resources which were split, or which can't be packed, are sent right away
+                        if(resourceBatchBytes <= 0 || packedResource.parts.size() > 1) {
+                            sendResourcePack(resourcePack, threads, total);
+                            resourcePack = null;
                         }
                     } else {
                         print("Copied Resource: " + resource.getTitle() + " :: " + id);
-                    }
 
-                    // save the record information to the URI map
-                    if(threads == 1) {
-                        updateResourceURIMap(resource.getIdentifier(), resourceURI);
-                        incrementCopyCount();
-                        updateRecordTotals("Resource Records", total, copyCount);
+                        // save the record information to the URI map
+                        if(threads == 1) {
+                            updateResourceURIMap(resource.getIdentifier(), resourceURI);
+                            incrementCopyCount();
+                            updateRecordTotals("Resource Records", total, copyCount);
+                        }
                     }
                 } else {
-                    print("Fail -- Resource: " + resource.getTitle());
+                    printError("Fail -- Resource: " + resource.getTitle());
                 }
             } else {
-                print("Fail -- Resource to JSON: " + resource.getTitle());
+                printError("Fail -- Resource to JSON: " + resource.getTitle());
             }
 
             if (debug && copyCount >= max) break;
 
-            // refresh the database connection to prevent heap space error now, if we not doing batch
-            // processing of records
+            // refresh the database connection if needed to prevent heap space error now, if we not
+            // doing batch processing of records
             if(!useBatchImport) {
-                freeMemory();
+                checkSessionMemory(1);
             }
         }
 
+        // send the last of the packed resources
+        if(resourcePack != null && !stopCopy) {
+            sendResourcePack(resourcePack, threads, total);
+        }
+
         // wait for any threads to finish before returning if we running more than one
         // thread to copy
         while(getTotalASpaceClients() != 0 && !stopCopy) {
@@ -1351,6 +1825,89 @@ public class ASpaceCopyUtil {
         //updateRecordTotals("Resource Records", total, copyCount);
     }
 
+    /**
+     * Method to sort the resources so the ones with the most components are copied first, and print
+     * out how long the copy is estimated to take with the given number of clients, in records
+     *
+     * @param records
+     * @param threads
+     */
+    private void scheduleLargestFirst(ArrayList<Resources> records, int threads) {
+        if(records.isEmpty()) return;
+
+        final HashMap<Long, Long> componentCounts = sourceRCD.getResourceComponentCounts();
+
+        if(componentCounts.isEmpty()) return;
+
+        Collections.sort(records, new Comparator<Resources>() {
+            public int compare(Resources resource1, Resources resource2) {
+                Long cost1 = getResourceCost(componentCounts, resource1);
+                Long cost2 = getResourceCost(componentCounts, resource2);
+
+                return cost2.compareTo(cost1);
+            }
+        });
+
+        ArrayList<Long> costs = new ArrayList<Long>();
+        long totalCost = 0;
+
+        for(Resources resource: records) {
+            long cost = getResourceCost(componentCounts, resource);
+            costs.add(cost);
+            totalCost += cost;
+        }
+
+        long criticalPath = getCriticalPath(costs, threads);
+
+        Resources largest = records.get(0);
+
+        print("Copying largest resources first -- total: " + totalCost + " records, largest: " + largest.getTitle() +
+                " (" + getResourceCost(componentCounts, largest) + " records)");
+
+        print("Estimated critical path: " + criticalPath + " records on " + threads + " clients (" +
+                (criticalPath * 100 / Math.max(1, totalCost)) + "% of copying them one at a time)");
+    }
+
+    /**
+     * Method to assign each resource in turn to the least busy client, to get the time the last one finishes
+     *
+     * @param costs the cost of each resource, largest first
+     * @param threads the number of clients
+     * @return the cost copied by the busiest client
+     */
+    public static long getCriticalPath(ArrayList<Long> costs, int threads) {
+        long[] clientLoads = new long[Math.max(1, threads)];
+
+        for(Long cost: costs) {
+            int client = 0;
+
+            for(int i = 1; i < clientLoads.length; i++) {
+                if(clientLoads[i] < clientLoads[client]) client = i;
+            }
+
+            clientLoads[client] += cost;
+        }
+
+        long criticalPath = 0;
+        for(long clientLoad: clientLoads) {
+            criticalPath = Math.max(criticalPath, clientLoad);
+        }
+
+        return criticalPath;
+    }
+
+    /**
+     * Method to return the estimated cost of copying a resource, which is the number of records in it
+     *
+     * @param componentCounts
+     * @param resource
+     * @return
+     */
+    private Long getResourceCost(HashMap<Long, Long> componentCounts, Resources resource) {
+        Long componentCount = componentCounts.get(resource.getIdentifier());
+        return (componentCount == null) ? 1L : componentCount + 1;
+    }
+
     /**
      * Method to do recursive copy of resource components
      *
@@ -1400,15 +1957,17 @@ public class ASpaceCopyUtil {
                     if(!id.equals(NO_ID)) {
                         String componentURI = endpoint + "/" + id;
 
-                        print("Copied Resource Component: " + childComponent.getTitle() + " :: " + id  + "\n");
+                        if(logger.isDebugEnabled()) {
+                            printDebug("Copied Resource Component: " + childComponent.getTitle() + " :: " + id  + "\n");
+                        }
 
                         // call the recursive method to add child components
                         copyResourceComponents(endpoint, resourceURI, componentURI, childComponent, batchJA, "ResourceComponent->" + atId + " :: " + childComponent.getPersistentId(), parentRepository, repoURI);
                     } else {
-                        print("Fail -- Resource Component: " + childComponent.getTitle());
+                        printError("Fail -- Resource Component: " + childComponent.getTitle());
                     }
                 } else {
-                    print("Fail -- Resource Component to JSON: " + childComponent.getTitle());
+                    printError("Fail -- Resource Component to JSON: " + childComponent.getTitle());
                 }
             }
         }
@@ -1432,7 +1991,9 @@ public class ASpaceCopyUtil {
             if (subjectURI != null) {
                 subjectsJA.put(mapper.getReferenceObject(subjectURI));
 
-                if (debug) print("Added subject to " + record.getTitle());
+                if(logger.isDebugEnabled()) {
+                    printDebug("Added subject to " + record.getTitle());
+                }
             } else {
                 print("No mapped subject found ...");
             }
@@ -1540,9 +2101,11 @@ public class ASpaceCopyUtil {
 
                 if(instanceJS != null) {
                     instancesJA.put(instanceJS);
-                    if (debug) print("Added analog instance to " + recordTitle);
+                    if(logger.isDebugEnabled()) {
+                        printDebug("Added analog instance to " + recordTitle);
+                    }
                 } else if(debug) {
-                    print("Failed to add analog instance to " + recordTitle);
+                    printError("Failed to add analog instance to " + recordTitle);
                 }
             } else {
                 // must be a digital instance
@@ -1571,7 +2134,9 @@ public class ASpaceCopyUtil {
                     } else if (instanceJS != null) {
                         if (digitalObjectURI.contains(parentRepoURI)) {
                             instancesJA.put(instanceJS);
-                            if (debug) print("Added Digital Object Instance to " + recordTitle);
+                            if(logger.isDebugEnabled()) {
+                                printDebug("Added Digital Object Instance to " + recordTitle);
+                            }
                         } else {
                             String message = "Repository Mismatch between Resource Record -- Digital Object Instance: " +
                                     recordTitle + " [ " + resourceRepo + " ] / " +
@@ -1620,7 +2185,7 @@ public class ASpaceCopyUtil {
                     String key = "accession_" + accession.getIdentifier();
                     String fixMessage = "\nMismatch corrected ...\n";
 
-                    if(repositoryURIMap.containsKey(key) &&
+                    if(repositoryMismatchMap.containsKey(key) &&
                             !repositoryMismatchMap.get(key).equals(resourceRepo)) {
                         fixMessage = "\nMismatch correction failed ...\n";
                         mismatchesNotFixed++;
@@ -1637,7 +2202,7 @@ public class ASpaceCopyUtil {
             } else if(accessionURI != null) {
                 if(accessionURI.contains(recordRepoURI)) {
                     accessionsJA.put(mapper.getReferenceObject(accessionURI));
-                    if (debug) print("Added Accession to Resource: " + record.getResourceIdentifier());
+                    printDebug("Added Accession to Resource: " + record.getResourceIdentifier());
                 } else {
                     message = "Repository Mismatch Between Resource -- Accession: " +
                             record.getResourceIdentifier() + " [ "+ resourceRepo + " ] / " +
@@ -1656,70 +2221,328 @@ public class ASpaceCopyUtil {
     }
 
     /**
-     * Method to copy resource records in a different thread
-     * in order to increase performance?
+     * Method to send the resources in a pack, either right away or in a separate thread
      *
+     * @param pack
+     * @param threads
+     * @param totalRecords
      * @throws Exception
-     * @param endpoint
-     * @param jsonText
-     * @param atId
-     * @param dbId
      */
-    public void copyResourceRecordInThread(final String endpoint, final String tempResourceURI,
-                                           final String resourceTitle, final String jsonText,
-                                           final String atId, final Long dbId, int maxClients, final int totalRecords) throws Exception {
+    private void sendResourcePack(ResourcePack pack, int threads, int totalRecords) throws Exception {
+        if(threads == 1) {
+            saveResourcePack(pack, null, "", totalRecords);
+        } else {
+            copyResourceRecordInThread(pack, totalRecords);
+        }
+    }
 
-        // start the controller thread that goe through list of records
-        Thread performer = new Thread(new Runnable() {
-            public void run() {
-                ASpaceClient asc = aspaceClient.getAuthenticatedClient();
-                int clientNumber = getTotalASpaceClients();
+    /**
+     * Method to split the records of a resource into batches no larger than the resource batch
+     * limits. The records are in the order they were added, so a component's parent is always
+     * in the same or an earlier batch
+     *
+     * @param batchJA the resource followed by its components
+     * @return the batch imports as json text
+     * @throws Exception
+     */
+    private ArrayList<String> splitResourceBatch(JSONArray batchJA) throws Exception {
+        ArrayList<String> parts = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder("[");
+        int partRecords = 0;
+
+        for(int i = 0; i < batchJA.length(); i++) {
+            String recordJSON = batchJA.get(i).toString();
+
+            if(partRecords > 0 && (sb.length() + recordJSON.length() + 1 > resourceBatchBytes ||
+                    partRecords >= resourceBatchRecords)) {
+                parts.add(sb.append("]").toString());
+                sb = new StringBuilder("[");
+                partRecords = 0;
+            }
 
-                String bids = "";
-                try {
-                    print("Route: " + endpoint + "\nBatch Record Length: " + jsonText.length() + " bytes");
+            if(partRecords > 0) sb.append(",");
+            sb.append(recordJSON);
+            partRecords++;
+        }
 
-                    if(simulateRESTCalls) {
-                        bids = "/repositories/2/resource/10001";
-                        Thread.sleep(2);
-                    } else {
-                        bids = asc.post(endpoint, jsonText, null, atId);
-                    }
-                } catch (Exception e) {
-                    print("Error saving batch import record: " + atId);
+        parts.add(sb.append("]").toString());
+
+        return parts;
+    }
+
+    /**
+     * Method to save the resources in a pack. If the batch import of a pack of several resources
+     * fails, each resource is saved on it's own so only the bad ones are lost
+     *
+     * @param pack
+     * @param client the client to use, or null to use the main one
+     * @param clientLabel added to the front of the messages
+     * @param totalRecords
+     */
+    private void saveResourcePack(ResourcePack pack, ASpaceClient client, String clientLabel, int totalRecords) {
+        if(pack.resources.size() == 1) {
+            saveResourceParts(pack.resources.get(0), pack.batchEndpoint, client, clientLabel, totalRecords);
+            return;
+        }
+
+        printDebug("Batch Copying " + pack.resources.size() + " packed resources, " + pack.byteCount + " bytes");
+
+        String bids = postResourceBatch(client, pack.batchEndpoint, pack.getJSON(), pack.getAtId());
 
-                    // get the error message and add it to the parent aspace client object
-                    aspaceClient.appendToErrorBuffer(asc.getErrorMessages());
+        if(!bids.equals(NO_ID)) {
+            packSaved(pack, bids, clientLabel, totalRecords);
+        } else {
+            savePackedResourcesSeparately(pack, client, clientLabel, totalRecords);
+        }
+    }
+
+    /**
+     * Method to record the resources saved by the batch import of a pack
+     *
+     * @param pack
+     * @param bids the saved records returned by the batch import
+     * @param clientLabel
+     * @param totalRecords
+     */
+    private void packSaved(ResourcePack pack, String bids, String clientLabel, int totalRecords) {
+        try {
+            JSONObject bidsJS = (simulateRESTCalls || recordExporter != null) ? null : new JSONObject(bids);
+
+            for(PackedResource packedResource: pack.resources) {
+                String resourceURI = packedResource.tempURI;
 
-                    incrementErrorCount();
-                    incrementASpaceErrorCount();
+                if(bidsJS != null) {
+                    JSONArray savedJA = bidsJS.optJSONArray(packedResource.tempURI);
+                    resourceURI = (savedJA != null) ? savedJA.getString(0) : null;
                 }
 
-                if(!bids.equals(NO_ID)) {
-                    try {
-                        String resourceURI;
+                if(resourceURI != null) {
+                    resourceSaved(packedResource, resourceURI, clientLabel, totalRecords);
+                } else {
+                    printError(clientLabel + "Batch Copy Fail -- Resource not in batch import response: " + packedResource.title);
+                }
+            }
+        } catch(Exception e) {
+            System.out.println("Batch IDS JSON Object: "  + bids);
+            e.printStackTrace();
+        }
+    }
 
-                        if(simulateRESTCalls) {
-                            resourceURI = bids;
-                        } else {
-                            JSONObject bidsJS = new JSONObject(bids);
-                            resourceURI = (new JSONArray(bidsJS.getString(tempResourceURI))).getString(0);
-                        }
+    /**
+     * Method to save each resource in a pack on it's own, after the batch import of the pack failed
+     *
+     * @param pack
+     * @param client the client to use, or null to use the main one
+     * @param clientLabel
+     * @param totalRecords
+     */
+    private void savePackedResourcesSeparately(ResourcePack pack, ASpaceClient client, String clientLabel, int totalRecords) {
+        printWarning(clientLabel + "Batch Copy Fail -- saving " + pack.resources.size() + " packed resources one at a time");
+
+        for(PackedResource packedResource: pack.resources) {
+            if(stopCopy) return;
+            saveResourceParts(packedResource, pack.batchEndpoint, client, clientLabel, totalRecords);
+        }
+    }
+
+    /**
+     * Method to save a resource in one or more batch imports. The components in the later batches
+     * refer to their resource and parents by the URIs they were given in the earlier ones. If one of
+     * the later batches fails, the partly saved resource is deleted so it can be copied again
+     *
+     * @param packedResource
+     * @param batchEndpoint
+     * @param client the client to use, or null to use the main one
+     * @param clientLabel
+     * @param totalRecords
+     * @return whether the resource was saved
+     */
+    private boolean saveResourceParts(PackedResource packedResource, String batchEndpoint, ASpaceClient client,
+                                      String clientLabel, int totalRecords) {
+        boolean tempURIsKept = simulateRESTCalls || recordExporter != null;
+        int partCount = packedResource.parts.size();
+
+        // the URIs given to the records saved so far
+        HashMap<String, String> savedURIs = new HashMap<String, String>();
+
+        for(int i = 0; i < partCount; i++) {
+            String bids = NO_ID;
+
+            try {
+                String partJSON = packedResource.parts.get(i);
+                packedResource.parts.set(i, null);
+
+                if(i > 0 && !tempURIsKept) {
+                    partJSON = replaceBatchReferences(partJSON, savedURIs);
+                }
 
-                        updateResourceURIMap(dbId, resourceURI);
-                        incrementCopyCount();
-                        updateRecordTotals("Resource Records", totalRecords, copyCount);
+                if(partCount > 1 && logger.isDebugEnabled()) {
+                    printDebug("Batch Copying Resource Part " + (i + 1) + " of " + partCount + ": " + packedResource.title);
+                }
+
+                bids = postResourceBatch(client, batchEndpoint, partJSON, packedResource.atId);
 
-                        print("Thread Client # " + clientNumber + " -- Batch Copied Resource: " + resourceTitle + " :: " + resourceURI);
-                    } catch(Exception e) {
-                        System.out.println("Batch IDS JSON Object: "  + bids);
-                        e.printStackTrace();
+                if(!bids.equals(NO_ID) && !tempURIsKept) {
+                    JSONObject bidsJS = new JSONObject(bids);
+
+                    Iterator keys = bidsJS.keys();
+                    while(keys.hasNext()) {
+                        String tempURI = (String) keys.next();
+                        savedURIs.put(tempURI, bidsJS.getJSONArray(tempURI).getString(0));
                     }
-                } else {
-                    print("Thread Client # " + clientNumber + " -- Batch Copy Fail -- Resource: " + resourceTitle);
                 }
+            } catch(Exception e) {
+                System.out.println("Batch IDS JSON Object: "  + bids);
+                e.printStackTrace();
+                bids = NO_ID;
+            }
+
+            if(bids.equals(NO_ID)) {
+                printError(clientLabel + "Batch Copy Fail -- Resource: " + packedResource.title);
+
+                // the resource was saved by the first batch, so remove it along with it's components
+                String resourceURI = savedURIs.get(packedResource.tempURI);
+                if(resourceURI != null) {
+                    deletePartialResource(client, resourceURI);
+                }
+
+                return false;
+            }
+        }
+
+        String resourceURI = tempURIsKept ? packedResource.tempURI : savedURIs.get(packedResource.tempURI);
+
+        if(resourceURI == null) {
+            printError(clientLabel + "Batch Copy Fail -- Resource not in batch import response: " + packedResource.title);
+            return false;
+        }
+
+        resourceSaved(packedResource, resourceURI, clientLabel, totalRecords);
+        return true;
+    }
+
+    /**
+     * Method to replace the temporary resource and parent URIs of the components in a batch
+     * with the ones given to them when they were saved in an earlier batch
+     *
+     * @param batchJSON
+     * @param savedURIs
+     * @return
+     * @throws Exception
+     */
+    private String replaceBatchReferences(String batchJSON, HashMap<String, String> savedURIs) throws Exception {
+        JSONArray batchJA = new JSONArray(batchJSON);
+
+        for(int i = 0; i < batchJA.length(); i++) {
+            JSONObject recordJS = batchJA.getJSONObject(i);
+
+            for(String key: new String[]{"resource", "parent"}) {
+                JSONObject refJS = recordJS.optJSONObject(key);
+                if(refJS == null) continue;
+
+                String savedURI = savedURIs.get(refJS.optString("ref"));
+                if(savedURI != null) {
+                    refJS.put("ref", savedURI);
+                }
+            }
+        }
+
+        return batchJA.toString();
+    }
+
+    /**
+     * Method to post a resource batch import using the given client
+     *
+     * @param client the client to use, or null to save the record using the main one
+     * @param batchEndpoint
+     * @param jsonText
+     * @param atId
+     * @return the saved records or NO_ID if the batch import failed
+     */
+    private String postResourceBatch(ASpaceClient client, String batchEndpoint, String jsonText, String atId) {
+        if(client == null) {
+            return saveRecord(batchEndpoint, jsonText, atId);
+        }
+
+        try {
+            printDebug("Route: " + batchEndpoint + "\nBatch Record Length: " + jsonText.length() + " bytes");
+
+            if(simulateRESTCalls) {
+                Thread.sleep(2);
+                return "10000001";
+            } else {
+                return client.post(batchEndpoint, jsonText, null, atId);
+            }
+        } catch (Exception e) {
+            printError("Error saving batch import record: " + atId);
+
+            // the error message was already added to the error store shared with the parent client
+            incrementErrorCount();
+            incrementASpaceErrorCount();
+        }
+
+        return NO_ID;
+    }
+
+    /**
+     * Method to delete a resource which was only partly saved
+     *
+     * @param client the client to use, or null to use the main one
+     * @param resourceURI
+     */
+    private void deletePartialResource(ASpaceClient client, String resourceURI) {
+        try {
+            print("Deleting Partly Copied Resource: " + resourceURI);
+
+            if(client != null) {
+                client.deleteRecord(resourceURI);
+            } else {
+                aspaceClient.deleteRecord(resourceURI);
+            }
+        } catch(Exception e) {
+            addErrorMessage("Unable to delete partly copied resource: " + resourceURI + "\n");
+        }
+    }
+
+    /**
+     * Method to record that a resource was saved
+     *
+     * @param packedResource
+     * @param resourceURI
+     * @param clientLabel
+     * @param totalRecords
+     */
+    private void resourceSaved(PackedResource packedResource, String resourceURI, String clientLabel, int totalRecords) {
+        updateResourceURIMap(packedResource.dbId, resourceURI);
+        incrementCopyCount();
+        updateRecordTotals("Resource Records", totalRecords, copyCount);
+
+        print(clientLabel + "Batch Copied Resource: " + packedResource.title + " :: " + resourceURI);
+    }
+
+    /**
+     * Method to copy resource records in a different thread
+     * in order to increase performance?
+     *
+     * @throws Exception
+     * @param pack the resources to save in the thread
+     * @param totalRecords
+     */
+    private void copyResourceRecordInThread(final ResourcePack pack, final int totalRecords) throws Exception {
+        // the estimated memory used by the payload while it's waiting on the backend
+        final long payloadBytes = pack.byteCount*2L;
+        final String atId = pack.getAtId();
+
+        // start the controller thread that goe through list of records
+        Thread performer = clientThreadFactory.newThread(new Runnable() {
+            public void run() {
+                ASpaceClient asc = aspaceClient.getAuthenticatedClient();
+                int clientNumber = getTotalASpaceClients();
+
+                saveResourcePack(pack, asc, "Thread Client # " + clientNumber + " -- ", totalRecords);
 
-                // reduce the number of clients and set
+                // reduce the number of clients and set, and release the memory used by the payload
+                memoryBudget.release(payloadBytes);
                 decrementTotalASpaceClients();
             }
         });
@@ -1727,7 +2550,9 @@ public class ASpaceCopyUtil {
         // wait for the client count to be less than max before trying to copy
         int timeCount = 0;
         try {
-            while (totalASpaceClients >= maxClients && !stopCopy) {
+            while (!acquireASpaceClient(20000)) {
+                if(stopCopy) return;
+
                 timeCount++;
 
                 if(timeCount <= 30) {
@@ -1735,33 +2560,143 @@ public class ASpaceCopyUtil {
                 } else {
                     // if waiting more than ten minuets then inform user to
                     // check ASpace backend
-                    print("Waiting over 10 minutes for response from backend to copy: " + atId + "\n");
-                    print("Make sure the backend has not crashed ...\n");
+                    printWarning("Waiting over 10 minutes for response from backend to copy: " + atId + "\n");
+                    printWarning("Make sure the backend has not crashed ...\n");
                 }
+            }
 
-                Thread.sleep(20000); // wait 20 seconds before checking again
+            // now wait for the payloads already in-flight to be under the memory budget
+            while (!memoryBudget.tryAcquire(payloadBytes, 20000)) {
+                if(stopCopy) {
+                    decrementTotalASpaceClients();
+                    return;
+                }
+
+                print("Waiting for memory to copy: " + atId + " -- " + memoryBudget.getHeapUsageMessage() + "\n");
             }
 
-            // start the thread now
-            incrementTotalASpaceClients();
-            performer.start();
+            // post the pack without a thread waiting on the response, or start the thread now
+            if(canPostAsync(pack)) {
+                postResourcePackAsync(pack, payloadBytes, totalRecords);
+            } else {
+                performer.start();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * increment the number of aspace clients
+     * Method to check whether a pack can be posted using the asynchronous transport. Resources split into
+     * several batch imports need each batch to finish before the next one is sent, so they are saved in a
+     * client thread instead
+     *
+     * @param pack
+     * @return
+     */
+    private boolean canPostAsync(ResourcePack pack) {
+        if(asyncTransport == null || simulateRESTCalls || recordExporter != null || stopCopy) return false;
+
+        for(PackedResource packedResource: pack.resources) {
+            if(packedResource.parts.size() > 1) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to post a pack of resources using the asynchronous transport. The client taken for the pack, and
+     * the memory used by it's payload, are given back when the response has been handled. If the batch import
+     * fails, the resources are saved one at a time in a client thread, like they are by saveResourcePack
+     *
+     * @param pack
+     * @param payloadBytes
+     * @param totalRecords
+     */
+    private void postResourcePackAsync(final ResourcePack pack, final long payloadBytes, final int totalRecords) {
+        final ASpaceClient asc = aspaceClient.getAuthenticatedClient();
+        asc.setAsyncTransport(asyncTransport);
+
+        final String clientLabel = "Async Client -- ";
+        String atId = pack.getAtId();
+
+        printDebug("Route: " + pack.batchEndpoint + "\nBatch Record Length: " + pack.byteCount + " bytes");
+
+        AsyncHttpTransport.Callback<String> callback = new AsyncHttpTransport.Callback<String>() {
+            public void completed(String bids) {
+                packSaved(pack, bids, clientLabel, totalRecords);
+                packDone();
+            }
+
+            public void failed(Exception e) {
+                printError("Error saving batch import record: " + pack.getAtId());
+
+                // the error message was already added to the error store shared with the parent client
+                incrementErrorCount();
+                incrementASpaceErrorCount();
+
+                if(pack.resources.size() == 1 || stopCopy) {
+                    printError(clientLabel + "Batch Copy Fail -- Resource: " + pack.resources.get(0).title);
+                    packDone();
+                    return;
+                }
+
+                // don't block the transport's callback thread while saving the resources one at a time
+                clientThreadFactory.newThread(new Runnable() {
+                    public void run() {
+                        savePackedResourcesSeparately(pack, asc, clientLabel, totalRecords);
+                        packDone();
+                    }
+                }).start();
+            }
+
+            private void packDone() {
+                memoryBudget.release(payloadBytes);
+                decrementTotalASpaceClients();
+            }
+        };
+
+        try {
+            asc.postAsync(pack.batchEndpoint, pack.getJSON(), null, atId, callback);
+        } catch (Exception e) {
+            // nothing was sent, so save the pack in a client thread instead
+            printWarning(clientLabel + "Unable to post " + atId + " asynchronously, using a client thread: " + e.getMessage());
+
+            clientThreadFactory.newThread(new Runnable() {
+                public void run() {
+                    saveResourcePack(pack, asc, "Thread Client -- ", totalRecords);
+
+                    memoryBudget.release(payloadBytes);
+                    decrementTotalASpaceClients();
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * Method to take one of the aspace clients, waiting for one to finish if they are all in use
+     *
+     * @param timeout how long to wait in milliseconds
+     * @return true if a client was taken, false if none finished before the timeout
+     * @throws InterruptedException
      */
-    private synchronized void incrementTotalASpaceClients() {
+    private synchronized boolean acquireASpaceClient(long timeout) throws InterruptedException {
+        if(totalASpaceClients >= maxClients) {
+            wait(timeout);
+        }
+
+        if(totalASpaceClients >= maxClients) return false;
+
         totalASpaceClients++;
+        return true;
     }
 
     /**
-     * Method to decrement the total number of asapce client
+     * Method to decrement the total number of asapce client, and wake up the copy waiting on one
      */
     private synchronized void decrementTotalASpaceClients() {
         totalASpaceClients--;
+        notifyAll();
     }
 
     /**
@@ -1769,10 +2704,280 @@ public class ASpaceCopyUtil {
      *
      * @return current number of aspace client
      */
-    private synchronized int getTotalASpaceClients() {
+    public synchronized int getTotalASpaceClients() {
         return totalASpaceClients;
     }
 
+    /**
+     * Class used to pack records into batch imports. Each main record is given a temporary uri of it's
+     * endpoint and AT id, like the resource records, which the backend replaces with the real one. Records
+     * linked to a main record, such as the events of an accession, are saved in the same batch and refer
+     * to it by the temporary uri. If a batch fails, the records in it are saved one at a time so only the
+     * bad records are lost
+     */
+    private class RecordBatch {
+        private String recordType;
+        private HashMap<Long, String> uriMap;
+        private String batchEndpoint;
+
+        private JSONArray batchJA = new JSONArray();
+        private ArrayList<BatchEntry> entries = new ArrayList<BatchEntry>();
+        private int recordCount = 0;
+
+        public RecordBatch(String recordType, HashMap<Long, String> uriMap, String batchEndpoint) {
+            this.recordType = recordType;
+            this.uriMap = uriMap;
+            this.batchEndpoint = batchEndpoint;
+        }
+
+        /**
+         * Method to add a main record to the batch. If the batch is already full it's saved first, so
+         * any linked records added after this go in the same batch as the record
+         *
+         * @param id the AT id of the record
+         * @param endpoint the endpoint the record would be posted to
+         * @param jsonModelType
+         * @param jsonText
+         * @param atId
+         * @return the number of main records saved
+         * @throws Exception
+         */
+        public int add(Long id, String endpoint, String jsonModelType, String jsonText, String atId) throws Exception {
+            int success = (recordCount >= recordBatchSize || entries.size() >= MAX_BATCH_ENTRIES) ? flush() : 0;
+
+            addEntry(id, endpoint + "/" + id, endpoint, jsonModelType, jsonText, atId, new String[0]);
+            recordCount++;
+
+            return success;
+        }
+
+        /**
+         * Method to add a record linked to a main record in the batch
+         *
+         * @param tempURI the temporary uri of the record
+         * @param endpoint the endpoint the record would be posted to
+         * @param jsonModelType
+         * @param recordJS
+         * @param atId
+         * @param refURIs the temporary uris of the records in the batch this record refers to
+         * @throws Exception
+         */
+        public void addLinked(String tempURI, String endpoint, String jsonModelType, JSONObject recordJS,
+                              String atId, String... refURIs) throws Exception {
+            addEntry(null, tempURI, endpoint, jsonModelType, recordJS.toString(), atId, refURIs);
+        }
+
+        /**
+         * Method to return the temporary uri for a main record
+         *
+         * @param id
+         * @param endpoint
+         * @return
+         */
+        public String getTempURI(Long id, String endpoint) {
+            return endpoint + "/" + id;
+        }
+
+        private void addEntry(Long id, String tempURI, String endpoint, String jsonModelType, String jsonText,
+                              String atId, String[] refURIs) throws Exception {
+            JSONObject recordJS = new JSONObject(jsonText);
+            recordJS.put("uri", tempURI);
+            recordJS.put("jsonmodel_type", jsonModelType);
+            batchJA.put(recordJS);
+
+            BatchEntry entry = new BatchEntry();
+            entry.id = id;
+            entry.tempURI = tempURI;
+            entry.endpoint = endpoint;
+            entry.jsonText = jsonText;
+            entry.atId = atId;
+            entry.refURIs = refURIs;
+            entries.add(entry);
+        }
+
+        /**
+         * Method to save the records in the batch
+         *
+         * @return the number of main records saved
+         * @throws Exception
+         */
+        public int flush() throws Exception {
+            if(entries.isEmpty()) return 0;
+
+            int success = 0;
+            String bids = saveRecord(batchEndpoint, batchJA.toString(),
+                    recordType + "->Batch of " + recordCount);
+
+            if(!bids.equals(NO_ID)) {
+                JSONObject bidsJS = simulateRESTCalls ? null : new JSONObject(bids);
+
+                for(BatchEntry entry: entries) {
+                    if(entry.id == null) continue;
+
+                    String uri = entry.tempURI;
+
+                    if(bidsJS != null) {
+                        JSONArray savedJA = bidsJS.optJSONArray(entry.tempURI);
+                        uri = (savedJA != null) ? savedJA.getString(0) : null;
+                    }
+
+                    if(uri != null) {
+                        uriMap.put(entry.id, uri);
+                        success++;
+                    } else {
+                        printError("Fail -- " + recordType + " not in batch import response: " + entry.atId);
+                    }
+                }
+
+                printDebug("Batch Copied " + success + " " + recordType + " records");
+            } else {
+                printWarning("Batch Copy Fail -- saving " + recordCount + " " + recordType + " records one at a time");
+
+                // the uris of the records saved so far, so the records linked to them can refer to the real ones
+                HashMap<String, String> savedURIs = new HashMap<String, String>();
+
+                for(BatchEntry entry: entries) {
+                    String jsonText = entry.jsonText;
+                    boolean linksSaved = true;
+
+                    for(String refURI: entry.refURIs) {
+                        String savedURI = savedURIs.get(refURI);
+
+                        if(savedURI != null) {
+                            jsonText = jsonText.replace("\"" + refURI + "\"", "\"" + savedURI + "\"");
+                        } else {
+                            linksSaved = false;
+                        }
+                    }
+
+                    String id = linksSaved ? saveRecord(entry.endpoint, jsonText, entry.atId) : NO_ID;
+
+                    if(!id.equalsIgnoreCase(NO_ID)) {
+                        String uri = entry.endpoint + "/" + id;
+                        savedURIs.put(entry.tempURI, uri);
+
+                        if(entry.id != null) {
+                            uriMap.put(entry.id, uri);
+                            success++;
+                        }
+                    } else {
+                        printError("Fail -- " + recordType + ": " + entry.atId);
+                    }
+                }
+            }
+
+            batchJA = new JSONArray();
+            entries.clear();
+            recordCount = 0;
+
+            return success;
+        }
+    }
+
+    /**
+     * A record waiting to be saved in a batch import
+     */
+    private static class BatchEntry {
+        Long id;
+        String tempURI;
+        String endpoint;
+        String jsonText;
+        String atId;
+        String[] refURIs;
+    }
+
+    /**
+     * Class used to pack small resources into a single batch import, up to the resource batch limits.
+     * A resource which was split into several batches is always sent on it's own
+     */
+    private class ResourcePack {
+        private String batchEndpoint;
+        private ArrayList<PackedResource> resources = new ArrayList<PackedResource>();
+        private long byteCount = 0;
+        private int recordCount = 0;
+
+        public ResourcePack(String batchEndpoint) {
+            this.batchEndpoint = batchEndpoint;
+        }
+
+        /**
+         * Method to check whether a resource can be added to the pack. Only resources from the same
+         * repository, which weren't split, can be packed together
+         *
+         * @param batchEndpoint
+         * @param packedResource
+         * @return
+         */
+        public boolean canAdd(String batchEndpoint, PackedResource packedResource) {
+            if(resourceBatchBytes <= 0 || packedResource.parts.size() > 1) return false;
+
+            return this.batchEndpoint.equals(batchEndpoint) &&
+                    byteCount + packedResource.parts.get(0).length() <= resourceBatchBytes &&
+                    recordCount + packedResource.recordCount <= resourceBatchRecords;
+        }
+
+        public void add(PackedResource packedResource) {
+            resources.add(packedResource);
+            recordCount += packedResource.recordCount;
+
+            for(String part: packedResource.parts) {
+                byteCount += part.length();
+            }
+        }
+
+        /**
+         * Method to return the batch import of all the resources in the pack
+         *
+         * @return
+         */
+        public String getJSON() {
+            if(resources.size() == 1) return resources.get(0).parts.get(0);
+
+            StringBuilder sb = new StringBuilder((int) byteCount + 2);
+            sb.append("[");
+
+            for(PackedResource packedResource: resources) {
+                String partJSON = packedResource.parts.get(0);
+
+                if(sb.length() > 1) sb.append(",");
+                sb.append(partJSON, 1, partJSON.length() - 1);
+            }
+
+            return sb.append("]").toString();
+        }
+
+        /**
+         * Method to return the id used in the messages for the pack
+         *
+         * @return
+         */
+        public String getAtId() {
+            if(resources.size() == 1) return resources.get(0).atId;
+
+            return "Resource->Batch of " + resources.size();
+        }
+    }
+
+    /**
+     * A resource waiting to be saved, along with the batch imports of it's records
+     */
+    private static class PackedResource {
+        Long dbId;
+        String tempURI;
+        String title;
+        String atId;
+        int recordCount;
+        ArrayList<String> parts = new ArrayList<String>();
+
+        public PackedResource(Long dbId, String tempURI, String title, String atId, int recordCount) {
+            this.dbId = dbId;
+            this.tempURI = tempURI;
+            this.title = title;
+            this.atId = atId;
+            this.recordCount = recordCount;
+        }
+    }
+
     /**
      * Method to add to resource map in a thread safe manner
      *
@@ -1786,6 +2991,24 @@ public class ASpaceCopyUtil {
         }
     }
 
+    /**
+     * Method to delete a resource copied by the last migration, so the modified one can be copied
+     *
+     * @param oldIdentifier
+     */
+    private synchronized void deleteModifiedResource(Long oldIdentifier) {
+        String uri = resourceURIMap.get(oldIdentifier);
+
+        try {
+            print("Deleting Modified Resource: " + uri);
+            aspaceClient.deleteRecord(uri);
+
+            resourceURIMap.remove(oldIdentifier);
+        } catch (Exception e) {
+            printError("Error deleting modified resource " + uri + " ...\n" + e.getMessage());
+        }
+    }
+
     /**
      * Method to increment the number of resource records copied
      */
@@ -1795,40 +3018,179 @@ public class ASpaceCopyUtil {
 
     /**
      * Method to delete any previously saved resource records on the ASpace backend.
-     * Useful for testing purposes, but not much else
+     * Useful for testing purposes, but not much else. The resources are deleted in parallel using up
+     * to the maximum number of aspace clients, and each delete is journaled so a stopped purge
+     * carries on where it left off the next time the uri maps are loaded
      */
     private void deleteSavedResources() {
-        print("\nNumber of Resources to Delete: " + resourceURIMap.size());
-        ArrayList<Long> deletedKeys = new ArrayList<Long>();
+        final ArrayList<Long> keys = new ArrayList<Long>(resourceURIMap.keySet());
+        final int total = keys.size();
+
+        print("\nNumber of Resources to Delete: " + total + " using " + maxClients + " client(s)");
 
         // initialize the progress bar
-        updateProgress("Resource", resourceURIMap.size(), -1);
+        updateProgress("Resource", total, -1);
 
-        int count = 1;
-        for(Long key: resourceURIMap.keySet()) {
-            try {
-                String uri = resourceURIMap.get(key);
-                print("Deleting Resource: " + uri);
+        final PrintWriter journal;
+        try {
+            journal = new PrintWriter(new BufferedWriter(new FileWriter(getDeleteJournalFile(), true)));
+        } catch (IOException e) {
+            printError("Unable to open delete journal, resources not deleted ...\n" + e.getMessage());
+            return;
+        }
 
-                String message = aspaceClient.deleteRecord(uri);
-                print(message + "\n");
-                deletedKeys.add(key);
+        // each thread uses its own client, since a client can only send one request at a time
+        final ThreadLocal<ASpaceClient> threadClient = new ThreadLocal<ASpaceClient>() {
+            protected ASpaceClient initialValue() {
+                return aspaceClient.getAuthenticatedClient();
+            }
+        };
 
-                // update the progress bar
-                updateProgress("Resource", 0, count);
-                count++;
+        final AtomicInteger count = new AtomicInteger(0);
+        final AtomicInteger failedCount = new AtomicInteger(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(maxClients, clientThreadFactory);
+
+        for(final Long key: keys) {
+            final String uri = resourceURIMap.get(key);
+
+            pool.execute(new Runnable() {
+                public void run() {
+                    if(stopCopy) return;
+
+                    if(deleteResource(threadClient.get(), uri)) {
+                        removeDeletedResource(key, uri, journal);
+                    } else {
+                        failedCount.incrementAndGet();
+                    }
+
+                    // update the progress bar
+                    updateProgress("Resource", 0, count.incrementAndGet());
+                }
+            });
+        }
+
+        pool.shutdown();
+
+        try {
+            pool.awaitTermination(7, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+        }
+
+        journal.close();
+
+        print("Deleted " + (total - resourceURIMap.size()) + " Resources, " + failedCount.get() + " failed");
+
+        // the uri maps now have the deletes, so the journal is no longer needed
+        synchronized (this) {
+            if(saveURIMaps()) {
+                getDeleteJournalFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Method to delete a resource, trying again with an increasing delay if the backend returns an error
+     *
+     * @param client
+     * @param uri
+     * @return whether the resource was deleted
+     */
+    private boolean deleteResource(ASpaceClient client, String uri) {
+        for(int attempt = 1; attempt <= DELETE_ATTEMPTS; attempt++) {
+            try {
+                client.deleteRecord(uri);
+                printDebug("Deleted Resource: " + uri);
+                return true;
             } catch (Exception e) {
-                e.printStackTrace();
-                print("Error deleting ... \n" + e.getMessage());
+                if(attempt == DELETE_ATTEMPTS || stopCopy) {
+                    printError("Error deleting " + uri + " ...\n" + e.getMessage());
+                    break;
+                }
+
+                try {
+                    Thread.sleep(1000L * attempt);
+                } catch (InterruptedException ie) {
+                    break;
+                }
             }
         }
 
-        // remove the deleted keys now, since we can't modify a
-        // hashmap while we still iterating over it
-        for(Long key: deletedKeys) {
-            resourceURIMap.remove(key);
+        return false;
+    }
+
+    /**
+     * Method to record a deleted resource in the journal and remove it from the resource map
+     *
+     * @param key
+     * @param uri
+     * @param journal
+     */
+    private synchronized void removeDeletedResource(Long key, String uri, PrintWriter journal) {
+        journal.println(key + "\t" + uri);
+        journal.flush();
+
+        resourceURIMap.remove(key);
+    }
+
+    /**
+     * Method to remove the resources recorded in the delete journal from the resource map, in case
+     * a purge was stopped before the uri maps were saved. The maps are then saved and the journal
+     * removed, so it's only applied once and resources copied again later aren't removed again
+     */
+    private void replayDeleteJournal() {
+        File journalFile = getDeleteJournalFile();
+        if(!journalFile.exists()) return;
+
+        int count = 0;
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(journalFile));
+            String line;
+
+            while((line = reader.readLine()) != null) {
+                int index = line.indexOf('\t');
+                if(index == -1) continue;
+
+                // a partly written line at the end of the journal just means that resource is deleted again
+                try {
+                    if(resourceURIMap.remove(new Long(line.substring(0, index))) != null) {
+                        count++;
+                    }
+                } catch (NumberFormatException e) {
+                    // ignore it
+                }
+            }
+        } catch (IOException e) {
+            printError("Unable to read delete journal: " + e.getMessage());
+            return;
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
 
+        print("Removed " + count + " previously deleted Resources from the URI maps");
+
+        // keep the journal if the maps couldn't be saved, so the deletes aren't lost
+        if(count == 0 || saveURIMaps()) {
+            journalFile.delete();
+        }
+    }
+
+    /**
+     * Method to return the delete journal file, which is kept next to the uri map file
+     *
+     * @return
+     */
+    private File getDeleteJournalFile() {
+        return new File(uriMapFile.getAbsoluteFile().getParentFile(), DELETE_JOURNAL_FILENAME);
     }
 
     /**
@@ -1849,30 +3211,172 @@ public class ASpaceCopyUtil {
     }
 
     /**
-     * Method to remapped the repository if either an accession or digital object type to that
-     * of the resource record they are linked to.  This is needed because the AT allows linking
-     * of Accession and Digital Objects to Resource from a different repository while Aspace throws
-     * an error.
+     * Method to remapped the repository if either an accession or digital object type to that
+     * of the resource record they are linked to.  This is needed because the AT allows linking
+     * of Accession and Digital Objects to Resource from a different repository while Aspace throws
+     * an error.
+     *
+     * @param recordType
+     * @param atId
+     * @param oldRepository
+     * @return
+     */
+    private synchronized String getRemappedRepositoryURI(String recordType, Long atId, Repositories oldRepository) {
+        if(repositoryMismatchMap == null) {
+            return getRepositoryURI(oldRepository);
+        } else {
+            String key = recordType + "_" + atId;
+            String shortName = oldRepository.getShortName();
+
+            // see if we are remapping this repository
+            if(repositoryMismatchMap.containsKey(key)) {
+                shortName = repositoryMismatchMap.get(key);
+                System.out.println("Remapping repo for " + recordType);
+            }
+
+            return repositoryURIMap.get(shortName);
+        }
+    }
+
+    /**
+     * Method to return a batch used to save records with batch imports, or null if they should be
+     * saved one at a time
+     *
+     * @param recordType
+     * @param uriMap the map the uris of the saved records are added to
+     * @return
+     */
+    private RecordBatch createRecordBatch(String recordType, HashMap<Long, String> uriMap) {
+        return createRecordBatch(recordType, uriMap, getGlobalBatchImportEndpoint());
+    }
+
+    /**
+     * Method to return a batch used to save records with batch imports to the given endpoint, or null if
+     * they should be saved one at a time
+     *
+     * @param recordType
+     * @param uriMap the map the uris of the saved records are added to
+     * @param batchEndpoint
+     * @return
+     */
+    private RecordBatch createRecordBatch(String recordType, HashMap<Long, String> uriMap, String batchEndpoint) {
+        // the loader only replaces the placeholder ids, so the temporary uris can't be used when exporting
+        if(recordBatchSize <= 1 || recordExporter != null) return null;
+
+        return new RecordBatch(recordType, uriMap, batchEndpoint);
+    }
+
+    /**
+     * Method to return the endpoint batch imports of records which don't belong to a repository are posted to
+     *
+     * @return
+     */
+    private String getGlobalBatchImportEndpoint() {
+        for(String repoURI: repositoryURIMap.values()) {
+            if(!repoURI.equals(ASpaceClient.ADMIN_REPOSITORY_ENDPOINT)) {
+                return repoURI + ASpaceClient.BATCH_IMPORT_ENDPOINT;
+            }
+        }
+
+        return "/repositories/2" + ASpaceClient.BATCH_IMPORT_ENDPOINT;
+    }
+
+    /**
+     * Method to return the records to copy when doing a delta migration. These are the records created or
+     * modified since the last migration, and any records not in the uri map, since they failed to copy
+     * or were filtered out the last time
+     *
+     * @param clazz
+     * @param uriMap the uri map for the records from the last migration
+     * @return
+     */
+    private ArrayList getDeltaRecords(Class clazz, HashMap<Long, String> uriMap) {
+        HashSet<Long> ids = sourceRCD.getRecordIds(clazz, deltaWatermark);
+        int modifiedCount = ids.size();
+
+        if(deltaWatermark != null) {
+            for(Long id: sourceRCD.getRecordIds(clazz, null)) {
+                if(!uriMap.containsKey(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+
+        print("Delta migration -- " + modifiedCount + " created or modified, " +
+                (ids.size() - modifiedCount) + " not copied previously");
+
+        return sourceRCD.getRecords(clazz, ids);
+    }
+
+    /**
+     * Method to return the uri a record was copied to by the last migration, or null if it wasn't
+     * or this isn't a delta migration
+     *
+     * @param uriMap
+     * @param identifier
+     * @return
+     */
+    private String getExistingURI(HashMap<Long, String> uriMap, Long identifier) {
+        if(!deltaMigration) return null;
+
+        return uriMap.get(identifier);
+    }
+
+    /**
+     * Method to save a record, or update it if it was copied to the same endpoint by the last migration
+     *
+     * @param endpoint to make post to
+     * @param existingURI the uri of the record in ASpace, or null
+     * @param jsonText record
+     * @param atId
+     * @return the id of the record
+     */
+    private String saveOrUpdateRecord(String endpoint, String existingURI, String jsonText, String atId) {
+        if(existingURI == null || !existingURI.startsWith(endpoint + "/") || simulateRESTCalls) {
+            return saveRecord(endpoint, jsonText, atId);
+        }
+
+        try {
+            // the backend only accepts the update if it has the lock version of the current record
+            String currentJSON = aspaceClient.get(existingURI, null);
+
+            // the record was deleted in ASpace so create it again
+            if(currentJSON == null) {
+                return saveRecord(endpoint, jsonText, atId);
+            }
+
+            JSONObject recordJS = new JSONObject(jsonText);
+            recordJS.put("lock_version", new JSONObject(currentJSON).get("lock_version"));
+
+            return aspaceClient.post(existingURI, recordJS.toString(), null, atId);
+        } catch (Exception e) {
+            printError("Error updating record " + existingURI);
+
+            incrementErrorCount();
+            incrementASpaceErrorCount();
+        }
+
+        return NO_ID;
+    }
+
+    /**
+     * Method to delete the components of a digital object, so the updated ones can be copied
      *
-     * @param recordType
-     * @param atId
-     * @param oldRepository
-     * @return
+     * @param digitalObjectURI
      */
-    private synchronized String getRemappedRepositoryURI(String recordType, Long atId, Repositories oldRepository) {
-        if(repositoryMismatchMap == null) {
-            return getRepositoryURI(oldRepository);
-        } else {
-            String key = recordType + "_" + atId;
-            String shortName = oldRepository.getShortName();
+    private void deleteDigitalObjectComponents(String digitalObjectURI) {
+        try {
+            String treeJSON = aspaceClient.get(digitalObjectURI + "/tree", null);
+            if(treeJSON == null) return;
 
-            // see if we are remapping this repository
-            if(repositoryMismatchMap.containsKey(key)) {
-                shortName = repositoryMismatchMap.get(key);
-                System.out.println("Remapping repo for " + recordType);
-            }
+            // deleting the top level components also deletes their children
+            JSONArray childrenJA = new JSONObject(treeJSON).getJSONArray("children");
 
-            return repositoryURIMap.get(shortName);
+            for(int i = 0; i < childrenJA.length(); i++) {
+                aspaceClient.deleteRecord(childrenJA.getJSONObject(i).getString("record_uri"));
+            }
+        } catch (Exception e) {
+            printError("Error deleting components of " + digitalObjectURI + " ...\n" + e.getMessage());
         }
     }
 
@@ -1900,24 +3404,28 @@ public class ASpaceCopyUtil {
 
         try {
             // Make sure we don't try to print out a batch import record since they can
-            // be thousands of lines long
-            if(endpoint.contains(ASpaceClient.BATCH_IMPORT_ENDPOINT)) {
-                print("Route: " + endpoint + "\nBatch Record Length: " + jsonText.length() + " bytes");
-            } else {
-                print("Route: " + endpoint + "\n" + jsonText);
+            // be thousands of lines long, and only build the message if it's going to be logged
+            if(logger.isDebugEnabled()) {
+                if(endpoint.contains(ASpaceClient.BATCH_IMPORT_ENDPOINT)) {
+                    logger.debug("Route: " + endpoint + "\nBatch Record Length: " + jsonText.length() + " bytes");
+                } else {
+                    logger.debug("Route: " + endpoint + "\n" + jsonText);
+                }
             }
 
             if(simulateRESTCalls) {
                 id = "10000001";
                 Thread.sleep(2);
+            } else if(recordExporter != null) {
+                id = recordExporter.export(endpoint, jsonText, params, atId);
             } else {
                 id = aspaceClient.post(endpoint, jsonText, params, atId);
             }
         } catch (Exception e) {
             if(endpoint.contains(ASpaceClient.BATCH_IMPORT_ENDPOINT)) {
-                print("Error saving batch import record ...");
+                printError("Error saving batch import record ...");
             } else {
-                print("Error saving record " + jsonText);
+                printError("Error saving record " + jsonText);
             }
 
             incrementErrorCount();
@@ -1947,30 +3455,58 @@ public class ASpaceCopyUtil {
     }
 
     /**
-     * Convenient print method for printing string in the text console in the future
+     * Convenient print method for printing string in the text console. The message is
+     * handed off to the logger so this doesn't block
      *
      * @param message
      */
-    public synchronized void print(String message) {
-        if(outputConsole != null) {
-            messageCount++;
-
-            if(messageCount < MAX_MESSAGES) {
-                outputConsole.append(message + "\n");
-            } else {
-                messageCount = 0;
-                outputConsole.setText(message + "\n");
-            }
-        } else {
-            System.out.println(message);
-        }
+    public void print(String message) {
+        logger.info(message);
 
         // now see if to increment the count on the number of records that were rejects
         if(message.contains("Mapper Script --")) {
-            mapperScriptRejects++;
+            incrementMapperScriptRejects();
         }
     }
 
+    /**
+     * Method to print a message about a problem the copy recovered from, i.e. a batch which is being saved
+     * one record at a time instead. It's still output when the log level is warn
+     *
+     * @param message
+     */
+    public void printWarning(String message) {
+        logger.warn(message);
+    }
+
+    /**
+     * Method to print a message about a record which wasn't copied, or something else which failed. It's
+     * output at every log level
+     *
+     * @param message
+     */
+    public void printError(String message) {
+        logger.error(message);
+    }
+
+    /**
+     * Method to print per record messages which are only output at the debug level. Calls made for
+     * each component or instance should check logger.isDebugEnabled() first, so the message isn't
+     * built just to be discarded
+     *
+     * @param message
+     */
+    public void printDebug(String message) {
+        logger.debug(message);
+    }
+
+    /**
+     * Method to increment the number of records rejected by the mapper script
+     */
+    private synchronized void incrementMapperScriptRejects() {
+        mapperScriptRejects++;
+    }
+
     /**
      * Method to update the progress bar if not running in command line mode
      *
@@ -1979,6 +3515,8 @@ public class ASpaceCopyUtil {
      * @param count
      */
     private synchronized void updateProgress(String recordType, int total, int count) {
+        metrics.updateProgress(recordType, total, count);
+
         if(progressBar == null) return;
 
         if(count == -1) {
@@ -1998,6 +3536,14 @@ public class ASpaceCopyUtil {
             } else {
                 progressBar.setString("Copying " + total + " " + recordType);
             }
+        } else if(count > 1 && !checkRepositoryMismatch) {
+            // show the estimated time remaining, but don't update the string too often
+            long now = System.currentTimeMillis();
+
+            if(now - lastETAUpdate > 2000) {
+                lastETAUpdate = now;
+                progressBar.setString("Copying " + progressBar.getMaximum() + " " + recordType + " -- ETA " + metrics.getETA());
+            }
         }
 
         progressBar.setValue(count);
@@ -2021,6 +3567,42 @@ public class ASpaceCopyUtil {
         }
     }
 
+    /**
+     * Method to return the metrics for the migration
+     *
+     * @return
+     */
+    public MigrationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Method to return the logger used to output messages
+     *
+     * @return
+     */
+    public MigrationLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Method to return the number of resource records copied so far
+     *
+     * @return
+     */
+    public int getCopyCount() {
+        return copyCount;
+    }
+
+    /**
+     * Method to return the number of errors that occurred when saving to the backend
+     *
+     * @return
+     */
+    public int getASpaceErrorCount() {
+        return aspaceErrorCount;
+    }
+
     /**
      * Method to return the number of errors when saving records
      *
@@ -2036,17 +3618,46 @@ public class ASpaceCopyUtil {
      * @param message
      */
     public synchronized void addErrorMessage(String message) {
+        ArrayList<String> warnings = recordWarnings.get();
+        if(warnings != null) {
+            warnings.add(message);
+        }
+
         if(checkRepositoryMismatch) {
             if(message.contains("Repository Mismatch")) {
-                errorBuffer.append(message).append("\n");
+                errorStore.add(currentRecordType, message);
                 incrementErrorCount();
             }
         } else {
-            errorBuffer.append(message).append("\n");
+            errorStore.add(currentRecordType, message);
             incrementErrorCount();
         }
     }
 
+    /**
+     * Method to set the list the error messages added by the current thread are also put in, so the
+     * warnings of each record can be reported by the dry run
+     *
+     * @param warnings the list or null to stop collecting them
+     */
+    public void setRecordWarnings(ArrayList<String> warnings) {
+        if(warnings != null) {
+            recordWarnings.set(warnings);
+        } else {
+            recordWarnings.remove();
+        }
+    }
+
+    /**
+     * Method to return a mapper set up like the one used by the copy, so records can be converted
+     * in other threads
+     *
+     * @return
+     */
+    public ASpaceMapper createMapper() {
+        return mapper.copy();
+    }
+
     /**
      * Method to return the error messages that occurred during the transfer process
      *
@@ -2060,17 +3671,19 @@ public class ASpaceCopyUtil {
             mapperScriptMessage = "\n\nMapper Script -- Rejected " + mapperScriptRejects + " records";
         }
 
-        String errorMessage = "RECORD CONVERSION ERRORS/WARNINGS ( " + errorsAndWarnings + " ) ::\n\n" + errorBuffer.toString() + mapperScriptMessage +
+        String errorMessage = "RECORD CONVERSION ERRORS/WARNINGS ( " + errorsAndWarnings + " ) ::\n\n" + errorStore.getText() + mapperScriptMessage +
                 "\n\n\nRECORD SAVE ERRORS ( " + aspaceErrorCount + " ) ::\n\n" + aspaceClient.getErrorMessages() +
                 "\n\nTOTAL COPY TIME: " + stopWatch.getPrettyTime() +
                 "\n\nNUMBER OF RECORDS COPIED: \n" + getTotalRecordsCopiedMessage() +
+                "\n\nTHROUGHPUT AND LATENCY: \n" + metrics.getSummary() +
                 "\n\n" + getSystemInformation();
 
         return errorMessage;
     }
 
     /**
-     * Method to return the current status of the migration
+     * Method to return the current status of the migration. Only the most recent errors
+     * are included, so this is cheap to call while the migration is running
      *
      * @return
      */
@@ -2084,12 +3697,14 @@ public class ASpaceCopyUtil {
 
         String totalRecordsCopied = getTotalRecordsCopiedMessage();
 
-        String errorMessages = "RECORD CONVERSION ERRORS/WARNINGS ( " + errorsAndWarnings + " ) ::\n\n" + errorBuffer.toString() + mapperScriptMessage +
-                "\n\n\nRECORD SAVE ERRORS ( " + aspaceErrorCount + " ) ::\n\n" + aspaceClient.getErrorMessages();
+        String errorMessages = "RECORD CONVERSION ERRORS/WARNINGS ( " + errorsAndWarnings + " ) ::\n\n" + errorStore.getTail() + mapperScriptMessage +
+                "\n\n\nRECORD SAVE ERRORS ( " + aspaceErrorCount + " ) ::\n\n" + aspaceClient.getRecentErrorMessages();
 
         String message = errorMessages +
                 "\n\nRunning for: " + stopWatch.getPrettyTime() +
                 "\n\nCurrent # of Records Copied: \n" + totalRecordsCopied +
+                "\n\n" + metrics.getMetricsLine() +
+                "\n\n" + metrics.getSummary() +
                 "\n\n" + getSystemInformation();
 
         return message;
@@ -2099,7 +3714,7 @@ public class ASpaceCopyUtil {
      * Method to return string with total records copied
      * @return
      */
-    private String getTotalRecordsCopiedMessage() {
+    public String getTotalRecordsCopiedMessage() {
         String totalRecordsCopied = "";
 
         for(String entry: recordTotals) {
@@ -2117,7 +3732,7 @@ public class ASpaceCopyUtil {
     public String getCurrentRecordCheckMessage() {
         int errorsAndWarnings = saveErrorCount - aspaceErrorCount;
 
-        String errorMessages = "REPOSITORY MISMATCH ERRORS ( " + errorsAndWarnings + " ) ::\n\n" + errorBuffer.toString();
+        String errorMessages = "REPOSITORY MISMATCH ERRORS ( " + errorsAndWarnings + " ) ::\n\n" + errorStore.getText();
 
         if(errorsAndWarnings == 0) {
             errorMessages = "No errors/warnings ...";
@@ -2159,6 +3774,38 @@ public class ASpaceCopyUtil {
         }
 
         print("\nNumber of errors/warnings: " + saveErrorCount);
+
+        metrics.stopReporting();
+        metrics.startPhase("Done");
+        print("\nThroughput and latency: \n" + metrics.getSummary());
+
+        if(trafficRecorder != null) {
+            trafficRecorder.close();
+            print("\nNumber of backend requests recorded: " + trafficRecorder.getRequestCount());
+        }
+
+        if(asyncTransport != null) {
+            asyncTransport.close();
+        }
+
+        // the migration finished, so the next delta migration only needs the records changed since it started
+        if(!stopCopy && !checkRepositoryMismatch && !simulateRESTCalls && recordExporter == null) {
+            deltaWatermark = migrationStartTime;
+            saveURIMaps();
+        }
+
+        if(recordExporter != null) {
+            try {
+                recordExporter.close();
+                print("\nNumber of records exported: " + recordExporter.getRecordCount() + " in " +
+                        recordExporter.getChunkCount() + " chunks to " + recordExporter.getDirectory().getAbsolutePath());
+            } catch (IOException e) {
+                printError("Unable to finish the export: " + e.getMessage());
+            }
+        }
+
+        // make sure everything has been written out and the log file is closed
+        logger.close();
     }
 
     /**
@@ -2177,6 +3824,102 @@ public class ASpaceCopyUtil {
         stopCopy = true;
     }
 
+    /**
+     * Method to pause or resume the copying process. The process is paused before the next
+     * main record is copied
+     *
+     * @param pauseCopy
+     */
+    public void setPauseCopy(boolean pauseCopy) {
+        this.pauseCopy = pauseCopy;
+
+        if(pauseCopy) {
+            print("Copy process paused ...");
+        } else {
+            print("Copy process resumed ...");
+        }
+    }
+
+    /**
+     * Method to check if the copying process is paused
+     *
+     * @return
+     */
+    public boolean isPaused() {
+        return pauseCopy;
+    }
+
+    /**
+     * Method to block the copy thread while the copy process is paused
+     */
+    private void waitWhilePaused() {
+        while (pauseCopy && !stopCopy) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method to set the maximum number of aspace clients used to copy resource records
+     *
+     * @param maxClients
+     */
+    public synchronized void setMaxClients(int maxClients) {
+        if(maxClients < 1) maxClients = 1;
+        this.maxClients = maxClients;
+        notifyAll();
+    }
+
+    /**
+     * Method to set whether the resources are copied in virtual threads, so the number of clients can be
+     * raised a lot higher than with platform threads. Only used if the JDK supports them
+     *
+     * @param useVirtualThreads
+     */
+    public void setVirtualThreads(boolean useVirtualThreads) {
+        clientThreadFactory = VirtualThreads.getThreadFactory("aspace-client", useVirtualThreads);
+
+        if(useVirtualThreads && VirtualThreads.isAvailable()) {
+            print("Copying resources using virtual threads");
+        }
+    }
+
+    /**
+     * Method to post the resource batch imports using an asynchronous transport, so a thread isn't
+     * blocked waiting on each response. The number of packs posted at the same time is still limited
+     * by the number of clients, as well as by the maximum number of requests of the transport
+     *
+     * @param maxRequests the maximum number of requests in flight, or 0 to not use the transport
+     */
+    public void setAsyncTransport(int maxRequests) {
+        if(maxRequests < 1) return;
+
+        if(!aspaceClient.getHost().toLowerCase().startsWith("http://")) {
+            printWarning("The asynchronous transport only supports http, using client threads for " + aspaceClient.getHost());
+            return;
+        }
+
+        try {
+            asyncTransport = new AsyncHttpTransport(maxRequests);
+            print("Posting resources using the asynchronous transport, maximum requests: " + maxRequests);
+        } catch (Exception e) {
+            printWarning("Unable to start the asynchronous transport, using client threads ...");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to return the maximum number of aspace clients used to copy resource records
+     *
+     * @return
+     */
+    public int getMaxClients() {
+        return maxClients;
+    }
+
     /**
      * Method to check if the copying process is running
      *
@@ -2196,35 +3939,51 @@ public class ASpaceCopyUtil {
     }
 
     /**
-     * Method to try and free some memory by refreshing the hibernate session and running GC
+     * Method to free some memory at the end of a phase by refreshing the hibernate session. The
+     * garbage collector is left to run when it needs to, since an explicit GC stalls all the
+     * client threads
      */
     private void freeMemory() {
         sourceRCD.refreshSession();
+        memoryBudget.sessionRefreshed();
 
-        if(outputConsole != null) {
-            outputConsole.setText("");
-        }
+        logger.clearConsole();
 
         // we may need to reset the the pause setting on the ASpace Indexer
         aspaceClient.pauseIndexer();
 
-        Runtime runtime = Runtime.getRuntime();
-
-        long freeMem = runtime.freeMemory();
-        System.out.println("\nFree memory before GC: " + freeMem/1048576L + "MB");
+        print(memoryBudget.getHeapUsageMessage() + ", number of client threads: " + getTotalASpaceClients() + "\n");
+    }
 
-        runtime.gc();
+    /**
+     * Method to refresh the hibernate session only if the records loaded into it are
+     * over the memory budget, or the heap usage is high
+     *
+     * @param recordCount the number of records just loaded into the session
+     */
+    private void checkSessionMemory(int recordCount) {
+        memoryBudget.addSessionRecord(recordCount*ESTIMATED_RECORD_BYTES);
 
-        freeMem = runtime.freeMemory();
-        System.out.println("Free memory after GC:  " + freeMem/1048576L + "MB");
+        if(memoryBudget.shouldRefreshSession()) {
+            freeMemory();
+        }
+    }
 
-        System.out.println("Number of client threads: "  + getTotalASpaceClients() + "\n");
+    /**
+     * Method to return the memory budget
+     *
+     * @return
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
     /**
      * Method to save the URI maps to a binary file
+     *
+     * @return whether the maps were saved
      */
-    public void saveURIMaps() {
+    public boolean saveURIMaps() {
         HashMap uriMap = new HashMap();
 
         // only save maps we are going to need,
@@ -2239,6 +3998,10 @@ public class ASpaceCopyUtil {
         // store the record totals array list here also
         uriMap.put(RECORD_TOTAL_KEY, recordTotals);
 
+        if(deltaWatermark != null) {
+            uriMap.put(DELTA_WATERMARK_KEY, deltaWatermark);
+        }
+
         if(repositoryMismatchMap != null) {
             uriMap.put(REPOSITORY_MISMATCH_KEY, repositoryMismatchMap);
         }
@@ -2248,8 +4011,10 @@ public class ASpaceCopyUtil {
 
         try {
             ScriptDataUtils.saveScriptData(uriMapFile, uriMap);
+            return true;
         } catch (Exception e) {
-            print("Unable to save URI map file " + uriMapFile.getName());
+            printError("Unable to save URI map file " + uriMapFile.getName());
+            return false;
         }
     }
 
@@ -2277,10 +4042,65 @@ public class ASpaceCopyUtil {
                 recordTotals = (ArrayList<String>)uriMap.get(RECORD_TOTAL_KEY);
             }
 
+            // load the time of the last completed migration
+            if(uriMap.containsKey(DELTA_WATERMARK_KEY)) {
+                deltaWatermark = (Date)uriMap.get(DELTA_WATERMARK_KEY);
+            }
+
+            // remove any resources deleted after these maps were saved
+            replayDeleteJournal();
+
             print("Loaded URI Maps");
         } catch (Exception e) {
-            print("Unable to load URI map file: " + uriMapFile.getName());
+            printError("Unable to load URI map file: " + uriMapFile.getName());
+        }
+    }
+
+    /**
+     * Method to add the resource URIs saved by one of the workers of a sharded migration to the resource map.
+     * The worker's map is authoritative for the resources in its shard, so any of those it doesn't have,
+     * such as a modified resource which was deleted but couldn't be saved again, are removed
+     *
+     * @param shardURIMapFile the URI map file of the worker
+     * @param shardResourceIds the ids of the resources in the worker's shard, or null if they aren't known
+     * @return the number of resources added
+     * @throws Exception
+     */
+    public synchronized int addResourceURIs(File shardURIMapFile, Set<Long> shardResourceIds) throws Exception {
+        HashMap uriMap  = (HashMap) ScriptDataUtils.getScriptData(shardURIMapFile);
+        HashMap<Long,String> shardResourceURIMap = (HashMap<Long,String>)uriMap.get(RESOURCE_KEY);
+
+        int added = 0;
+        int removed = 0;
+
+        if(shardResourceIds != null) {
+            for(Long id: shardResourceIds) {
+                if(!shardResourceURIMap.containsKey(id) && resourceURIMap.remove(id) != null) {
+                    removed++;
+                }
+            }
+        }
+
+        for(Long id: shardResourceURIMap.keySet()) {
+            if(!shardResourceURIMap.get(id).equals(resourceURIMap.put(id, shardResourceURIMap.get(id)))) {
+                added++;
+            }
+        }
+
+        if(removed != 0) {
+            print("Removed " + removed + " Resources no longer saved by " + shardURIMapFile.getParentFile().getName());
         }
+
+        return added;
+    }
+
+    /**
+     * Method to return the file the URI maps are saved to
+     *
+     * @return
+     */
+    public File getURIMapFile() {
+        return uriMapFile;
     }
 
     /**
@@ -2302,17 +4122,98 @@ public class ASpaceCopyUtil {
         this.simulateRESTCalls = simulateRESTCalls;
     }
 
+    /**
+     * Method to only copy the records created or modified in the AT since the last migration, along with any
+     * records which weren't copied by it. Records already in ASpace are updated instead of created again.
+     * The uri maps from the last migration need to be loaded first
+     */
+    public void setDeltaMigration() {
+        // the records in an export don't have real uris, so there is nothing to update
+        if(recordExporter != null) {
+            print("Delta migration can't be used when exporting records, copying all the records ...");
+            return;
+        }
+
+        deltaMigration = true;
+
+        if(deltaWatermark != null) {
+            print("Copying records created or modified since " + deltaWatermark);
+        } else {
+            print("No previous migration time found, updating all the records ...");
+        }
+    }
+
     /**
      * Method to see whether to check for repository mismatches, or copy the records
      */
     public void setCheckRepositoryMismatch() {
         checkRepositoryMismatch = true;
+        errorStore.close();
+        errorStore = new MigrationErrorStore(getErrorFile("repositoryCheckErrors.txt"));
         simulateRESTCalls = true;
         useBatchImport = true;
         copying = true;
         repositoryMismatchMap = new HashMap<String, String>();
     }
 
+    /**
+     * Method to find the accessions and digital objects linked to resources in a different repository, and map
+     * them to the repository of the resource. This gives the same repository mismatch map as checking the
+     * resource records with copyResourceRecords, but only needs a few queries of the AT database
+     */
+    public void findRepositoryMismatches() {
+        print("Checking for repository mismatches ...");
+
+        // a digital object only has one instance, so it can always be remapped
+        ArrayList<Object[]> mismatches = sourceRCD.getDigitalObjectRepositoryMismatches();
+
+        for(Object[] mismatch: mismatches) {
+            DigitalObjects digitalObject = (DigitalObjects)mismatch[0];
+            Resources resource = (Resources)mismatch[1];
+
+            String resourceRepo = resource.getRepository().getShortName();
+            String digitalObjectRepo = digitalObject.getRepository().getShortName();
+
+            repositoryMismatchMap.put("digitalObject_" + digitalObject.getIdentifier(), resourceRepo);
+            mismatchesFixed++;
+
+            String message = "Repository Mismatch between Resource Record -- Digital Object Instance: " +
+                    resource.getTitle() + " [ " + resourceRepo + " ] / " +
+                    digitalObject.getMetsIdentifier() + " [ " + digitalObjectRepo + " ]\nMismatch corrected ...\n";
+            addErrorMessage(message);
+        }
+
+        // an accession can only be remapped to one repository, so any links to resources in other
+        // repositories can't be fixed
+        mismatches = sourceRCD.getAccessionRepositoryMismatches();
+
+        for(Object[] mismatch: mismatches) {
+            Accessions accession = (Accessions)mismatch[0];
+            Resources resource = (Resources)mismatch[1];
+
+            String resourceRepo = resource.getRepository().getShortName();
+            String accessionRepo = accession.getRepository().getShortName();
+
+            String key = "accession_" + accession.getIdentifier();
+            String fixMessage = "\nMismatch corrected ...\n";
+
+            if(repositoryMismatchMap.containsKey(key) && !repositoryMismatchMap.get(key).equals(resourceRepo)) {
+                fixMessage = "\nMismatch correction failed ...\n";
+                mismatchesNotFixed++;
+            } else {
+                repositoryMismatchMap.put(key, resourceRepo);
+                mismatchesFixed++;
+            }
+
+            String message = "Repository Mismatch Between Resource -- Accession: " +
+                    resource.getResourceIdentifier() + " [ "+ resourceRepo + " ] / " +
+                    accession.getAccessionNumber() + " [ " + accessionRepo + " ]" + fixMessage;
+            addErrorMessage(message);
+        }
+
+        print("Number of repository mismatches found: " + (mismatchesFixed + mismatchesNotFixed));
+    }
+
     /**
      * Method to get the repository mismatch map
      *
@@ -2340,6 +4241,28 @@ public class ASpaceCopyUtil {
         this.useBatchImport = useBatchImport;
     }
 
+    /**
+     * Method to set the number of name, subject, location, accession and digital object records saved in each batch import,
+     * instead of saving them one at a time
+     *
+     * @param recordBatchSize
+     */
+    public void setRecordBatchSize(int recordBatchSize) {
+        this.recordBatchSize = recordBatchSize;
+    }
+
+    /**
+     * Method to set the maximum size of a resource batch import. Resources smaller than this are packed
+     * together into a single batch, while larger ones are split into batches of their components
+     *
+     * @param resourceBatchBytes the maximum size of the batch in bytes, or zero to send each resource in one batch
+     * @param resourceBatchRecords the maximum number of records in the batch
+     */
+    public void setResourceBatchLimits(long resourceBatchBytes, int resourceBatchRecords) {
+        this.resourceBatchBytes = resourceBatchBytes;
+        this.resourceBatchRecords = (resourceBatchRecords > 0) ? resourceBatchRecords : Integer.MAX_VALUE;
+    }
+
     /**
      * Method to specify whether to delete the save resources.
      *
@@ -2349,6 +4272,15 @@ public class ASpaceCopyUtil {
         this.deleteSavedResources = deleteSavedResources;
     }
 
+    /**
+     * Method to set the resources to copy when this is one of the workers of a sharded migration
+     *
+     * @param resourceShard the ids of the resources in the worker's shard
+     */
+    public void setResourceShard(HashSet<Long> resourceShard) {
+        this.resourceShard = resourceShard;
+    }
+
     /**
      * Method to set the resources to copy
      *
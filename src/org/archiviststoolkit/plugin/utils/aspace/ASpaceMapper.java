@@ -43,6 +43,9 @@ public class ASpaceMapper {
     private ArrayList<String> resourceIDs = new ArrayList<String>();
     private ArrayList<String> eadIDs = new ArrayList<String>();
 
+    // used to check the ids one at a time, when the lists are shared by mappers in other threads
+    private Object idLock = new Object();
+
     // variable names in bean shell script that will indicate whether it can override
     // the default mapping operation with itself
     private static final String SUBJECT_MAPPER = "@subject";
@@ -173,6 +176,37 @@ public class ASpaceMapper {
         return "mapper script set ...";
     }
 
+    /**
+     * Method to return a mapper with the same settings as this one, used to convert records in another thread.
+     * The enum util, which is only read once the lookup lists are mapped, and the lists used to check the ids
+     * are unique, are shared with this mapper. The ISO dates aren't checked by the copy
+     *
+     * @return
+     */
+    public ASpaceMapper copy() {
+        ASpaceMapper mapperCopy = new ASpaceMapper(aspaceCopyUtil);
+
+        mapperCopy.enumUtil = enumUtil;
+        mapperCopy.vocabularyURI = vocabularyURI;
+        mapperCopy.publishHashMap = publishHashMap;
+        mapperCopy.makeUnique = makeUnique;
+        mapperCopy.allowTruncation = allowTruncation;
+        mapperCopy.extentPortionInParts = extentPortionInParts;
+        mapperCopy.connectionUrl = connectionUrl;
+
+        mapperCopy.digitalObjectIDs = digitalObjectIDs;
+        mapperCopy.accessionIDs = accessionIDs;
+        mapperCopy.resourceIDs = resourceIDs;
+        mapperCopy.eadIDs = eadIDs;
+        mapperCopy.idLock = idLock;
+
+        if(mapperScript != null) {
+            mapperCopy.setMapperScript(mapperScript);
+        }
+
+        return mapperCopy;
+    }
+
     /**
      * Method to copy an AT record to ASpace record
      *
@@ -2492,6 +2526,20 @@ public class ASpaceMapper {
      * @return
      */
     private String getUniqueID(String endpoint, String id, String[] idParts) {
+        synchronized (idLock) {
+            return checkUniqueID(endpoint, id, idParts);
+        }
+    }
+
+    /**
+     * Method to check the id against the ones already used, and change it if needed
+     *
+     * @param endpoint
+     * @param id
+     * @param idParts
+     * @return
+     */
+    private String checkUniqueID(String endpoint, String id, String[] idParts) {
         // must check to make sure ID is not null
         if(id != null) {
             id = id.trim();
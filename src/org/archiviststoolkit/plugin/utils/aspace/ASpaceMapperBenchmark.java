@@ -0,0 +1,588 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.archiviststoolkit.model.*;
+import org.archiviststoolkit.structure.NotesEtcTypes;
+import org.json.JSONArray;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Class used to benchmark the ASpaceMapper conversion methods without a source database or
+ * ASpace backend. Representative AT records are built in memory and each conversion is run
+ * for a number of timed warmup and measurement iterations, JMH style, reporting the ops/sec
+ * and the bytes allocated per operation so changes to the mapper can be judged with numbers.
+ *
+ * Usage: ASpaceMapperBenchmark [warmup iterations] [measurement iterations] [iteration millis] [name filter]
+ */
+public class ASpaceMapperBenchmark {
+    // the default number of iterations and their length
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_TIME = 1000;
+
+    // the number of notes, dates and extents added to the resource records
+    private static final int NOTES_PER_RECORD = 10;
+    private static final int DATES_PER_RECORD = 3;
+    private static final int EXTENTS_PER_RECORD = 2;
+
+    // the note types used when creating notes. Some are single part in ASpace and some aren't
+    private static final String[] NOTE_TYPES = {"Abstract", "Scope and Contents note", "Biographical/Historical note",
+            "Conditions Governing Access note", "Preferred Citation note", "Arrangement note", "General note",
+            "Physical Description", "Existence and Location of Originals note", "Processing Information note"};
+
+    private static final String NOTE_TEXT = "<p>This collection contains the correspondence, diaries, " +
+            "photographs and printed material of the <emph render='italic'>family</emph> from 1850 to 1950. " +
+            "Material is arranged chronologically within each series, and some items are fragile.</p>";
+
+    // used to stop the JIT from removing the conversion calls
+    public static volatile Object sink;
+
+    private ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private boolean canMeasureAllocation = false;
+
+    private ASpaceCopyUtil aspaceCopyUtil;
+    private HashMap<String, String> languageCodes = new HashMap<String, String>();
+    private HashMap<String, String> nameLinkCreatorCodes = new HashMap<String, String>();
+    private HashMap<String, Boolean> publishHashMap = new HashMap<String, Boolean>();
+
+    // the mapper used by the benchmark, which is replaced every iteration so the lists
+    // used to check id uniqueness don't grow across iterations
+    private ASpaceMapper mapper;
+
+    private NotesEtcTypes[] noteTypes;
+
+    // used to give records unique ids
+    private long idCount = 1;
+
+    /**
+     * The main constructor
+     */
+    public ASpaceMapperBenchmark() {
+        languageCodes.put("English", "eng");
+        languageCodes.put("French", "fre");
+        nameLinkCreatorCodes.put("Author (aut)", "aut");
+
+        publishHashMap.put("names", true);
+        publishHashMap.put("subjects", true);
+        publishHashMap.put("accessions", false);
+        publishHashMap.put("resources", true);
+        publishHashMap.put("digitalObjects", true);
+
+        noteTypes = new NotesEtcTypes[NOTE_TYPES.length];
+        for(int i = 0; i < NOTE_TYPES.length; i++) {
+            noteTypes[i] = new NotesEtcTypes();
+            noteTypes[i].setNotesEtcName(NOTE_TYPES[i]);
+            noteTypes[i].setNotesEtcLabel(NOTE_TYPES[i]);
+        }
+
+        aspaceCopyUtil = new ASpaceCopyUtil(languageCodes, nameLinkCreatorCodes);
+        aspaceCopyUtil.getLogger().setLevel(MigrationLogger.WARN);
+
+        // the allocation rate is only available on hotspot like JVMs
+        if(threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean)threadBean;
+
+            if(sunThreadBean.isThreadAllocatedMemorySupported()) {
+                sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+                canMeasureAllocation = true;
+            }
+        }
+
+        resetMapper();
+    }
+
+    /**
+     * Method to create a new mapper
+     */
+    private void resetMapper() {
+        mapper = new ASpaceMapper(aspaceCopyUtil);
+        mapper.setPublishHashMap(publishHashMap);
+        mapper.setLanguageCodes(languageCodes);
+        mapper.setNameLinkCreatorCodes(nameLinkCreatorCodes);
+        mapper.setConnectionUrl("jdbc:mysql://localhost/benchmark");
+        mapper.setCurrentResourceRecordIdentifier("BENCH.1");
+    }
+
+    /**
+     * Method to return the list of benchmarks
+     *
+     * @return
+     */
+    private ArrayList<Benchmark> getBenchmarks() {
+        ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        final Resources resource = createResource();
+        final ResourcesComponents component = createResourceComponent(resource);
+        final Names person = createName(Names.PERSON_TYPE);
+        final Names family = createName(Names.FAMILY_TYPE);
+        final Names corporate = createName(Names.CORPORATE_BODY_TYPE);
+        final Accessions accession = createAccession();
+        final DigitalObjects digitalObject = createDigitalObject();
+
+        benchmarks.add(new Benchmark("convertResource") {
+            public Object run(long i) throws Exception {
+                resource.setResourceIdentifier2(Long.toString(i));
+                resource.setEadFaUniqueIdentifier("ead" + i);
+                return mapper.convertResource(resource);
+            }
+        });
+
+        benchmarks.add(new Benchmark("convertResourceComponent") {
+            public Object run(long i) throws Exception {
+                return mapper.convert(component);
+            }
+        });
+
+        benchmarks.add(new Benchmark("convertName(person)") {
+            public Object run(long i) throws Exception {
+                return mapper.convertName(person);
+            }
+        });
+
+        benchmarks.add(new Benchmark("convertName(family)") {
+            public Object run(long i) throws Exception {
+                return mapper.convertName(family);
+            }
+        });
+
+        benchmarks.add(new Benchmark("convertName(corporate)") {
+            public Object run(long i) throws Exception {
+                return mapper.convertName(corporate);
+            }
+        });
+
+        benchmarks.add(new Benchmark("convertAccession") {
+            public Object run(long i) throws Exception {
+                accession.setAccessionNumber2(Long.toString(i));
+                return mapper.convertAccession(accession);
+            }
+        });
+
+        benchmarks.add(new Benchmark("convertDigitalObject") {
+            public Object run(long i) throws Exception {
+                digitalObject.setMetsIdentifier("mets." + i);
+                return mapper.convertDigitalObject(digitalObject);
+            }
+        });
+
+        benchmarks.add(new Benchmark("addNotes") {
+            public Object run(long i) throws Exception {
+                JSONArray notesJA = new JSONArray();
+                mapper.addNotes(notesJA, resource);
+                return notesJA;
+            }
+        });
+
+        benchmarks.add(new Benchmark("addDate") {
+            public Object run(long i) throws Exception {
+                JSONArray dateJA = new JSONArray();
+                mapper.addDate(dateJA, resource, "creation", "Resource: BENCH.1");
+                return dateJA;
+            }
+        });
+
+        return benchmarks;
+    }
+
+    /**
+     * Method to run the benchmarks
+     *
+     * @param warmupIterations
+     * @param measurementIterations
+     * @param iterationTime
+     * @param filter only run benchmarks whose name contain this, or all if null
+     * @throws Exception
+     */
+    public void runBenchmarks(int warmupIterations, int measurementIterations, long iterationTime, String filter) throws Exception {
+        System.out.println("Warmup: " + warmupIterations + " x " + iterationTime + "ms, Measurement: " +
+                measurementIterations + " x " + iterationTime + "ms\n");
+
+        System.out.println(String.format("%-28s %14s %12s %14s", "Benchmark", "ops/sec", "error", "bytes/op"));
+
+        for(Benchmark benchmark: getBenchmarks()) {
+            if(filter != null && !benchmark.name.contains(filter)) continue;
+
+            for(int i = 0; i < warmupIterations; i++) {
+                runIteration(benchmark, iterationTime);
+            }
+
+            double[] opsPerSecond = new double[measurementIterations];
+            long totalOps = 0;
+            long totalBytes = 0;
+
+            for(int i = 0; i < measurementIterations; i++) {
+                long[] result = runIteration(benchmark, iterationTime);
+
+                opsPerSecond[i] = result[0]*1000000000.0/result[1];
+                totalOps += result[0];
+                totalBytes += result[2];
+            }
+
+            String bytesPerOp = canMeasureAllocation ? Long.toString(totalBytes/Math.max(1, totalOps)) : "N/A";
+
+            System.out.println(String.format("%-28s %14.1f %12.1f %14s", benchmark.name, mean(opsPerSecond),
+                    error(opsPerSecond), bytesPerOp));
+        }
+
+        System.out.println("\nConversion errors: " + aspaceCopyUtil.getASpaceErrorCount());
+    }
+
+    /**
+     * Method to run a single iteration of a benchmark
+     *
+     * @param benchmark
+     * @param iterationTime
+     * @return the number of operations, the elapsed time in nanoseconds, and the bytes allocated
+     * @throws Exception
+     */
+    private long[] runIteration(Benchmark benchmark, long iterationTime) throws Exception {
+        resetMapper();
+
+        long threadId = Thread.currentThread().getId();
+        long startBytes = getAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        long endTime = startTime + iterationTime*1000000L;
+
+        long ops = 0;
+        long now;
+
+        do {
+            // check the time every few operations so the clock isn't what's being measured
+            for(int i = 0; i < 16; i++) {
+                sink = benchmark.run(idCount++);
+            }
+
+            ops += 16;
+            now = System.nanoTime();
+        } while (now < endTime);
+
+        long bytes = getAllocatedBytes(threadId) - startBytes;
+
+        return new long[]{ops, now - startTime, bytes};
+    }
+
+    /**
+     * Method to return the bytes allocated by a thread
+     *
+     * @param threadId
+     * @return
+     */
+    private long getAllocatedBytes(long threadId) {
+        if(canMeasureAllocation) {
+            return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(threadId);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Method to return the mean of the values
+     *
+     * @param values
+     * @return
+     */
+    private double mean(double[] values) {
+        double total = 0;
+
+        for(double value: values) {
+            total += value;
+        }
+
+        return total/values.length;
+    }
+
+    /**
+     * Method to return the standard deviation of the values
+     *
+     * @param values
+     * @return
+     */
+    private double error(double[] values) {
+        if(values.length < 2) return 0;
+
+        double mean = mean(values);
+        double total = 0;
+
+        for(double value: values) {
+            total += (value - mean)*(value - mean);
+        }
+
+        return Math.sqrt(total/(values.length - 1));
+    }
+
+    /**
+     * Method to return a new unique id for the records
+     *
+     * @return
+     */
+    private Long nextId() {
+        return idCount++;
+    }
+
+    /**
+     * Method to create a resource record with notes, dates, and extents
+     *
+     * @return
+     */
+    private Resources createResource() {
+        Resources record = new Resources();
+        record.setIdentifier(nextId());
+        record.setTitle("Papers of the Benchmark Family");
+        record.setResourceIdentifier1("BENCH");
+        record.setResourceIdentifier2("1");
+        record.setLevel("collection");
+        record.setLanguageCode("English");
+        record.setDateExpression("1850-1950");
+        record.setDateBegin(1850);
+        record.setDateEnd(1950);
+        record.setBulkDateBegin(1880);
+        record.setBulkDateEnd(1920);
+        record.setExtentNumber(12.5);
+        record.setExtentType("Linear feet");
+        record.setContainerSummary("25 boxes");
+        record.setEadFaUniqueIdentifier("bench1");
+        record.setFindingAidTitle("Guide to the Papers of the Benchmark Family");
+        record.setFindingAidSubtitle("");
+        record.setAuthor("Processing Archivist");
+        record.setFindingAidStatus("Completed");
+        record.setDescriptionRules("Describing Archives: A Content Standard");
+        record.setRestrictionsApply(false);
+        record.setInternalOnly(false);
+
+        addNotesAndDates(record);
+
+        for(int i = 0; i < EXTENTS_PER_RECORD; i++) {
+            ArchDescriptionPhysicalDescriptions physicalDescription = new ArchDescriptionPhysicalDescriptions(record);
+            physicalDescription.setIdentifier(nextId());
+            physicalDescription.setExtentNumber(5.0 + i);
+            physicalDescription.setExtentType("Cubic feet");
+            physicalDescription.setContainerSummary((5 + i) + " record cartons");
+            physicalDescription.setPhysicalDetail("Some fading");
+            physicalDescription.setDimensions("15 x 12 x 10 in.");
+            record.addPhysicalDesctiptions(physicalDescription);
+        }
+
+        Deaccessions deaccession = new Deaccessions(record);
+        deaccession.setIdentifier(nextId());
+        deaccession.setDescription("Duplicate printed material");
+        deaccession.setReason("Duplicates");
+        deaccession.setDeaccessionDate(new Date());
+        deaccession.setExtent(1.0);
+        deaccession.setExtentType("Linear feet");
+        deaccession.setNotification(false);
+        record.addDeaccessions(deaccession);
+
+        return record;
+    }
+
+    /**
+     * Method to create a resource component
+     *
+     * @param resource
+     * @return
+     */
+    private ResourcesComponents createResourceComponent(Resources resource) {
+        ResourcesComponents record = new ResourcesComponents(resource);
+        record.setIdentifier(nextId());
+        record.setTitle("Series 1: Correspondence");
+        record.setPersistentId("ref" + record.getIdentifier());
+        record.setLevel("series");
+        record.setSequenceNumber(1);
+        record.setLanguageCode("English");
+        record.setDateExpression("1850-1900");
+        record.setDateBegin(1850);
+        record.setDateEnd(1900);
+        record.setExtentNumber(4.0);
+        record.setExtentType("Linear feet");
+        record.setContainerSummary("8 boxes");
+        record.setComponentUniqueIdentifier("S1");
+        record.setInternalOnly(false);
+        record.setRestrictionsApply(false);
+
+        addNotesAndDates(record);
+
+        return record;
+    }
+
+    /**
+     * Method to add notes and dates to a record
+     *
+     * @param record
+     */
+    private void addNotesAndDates(ArchDescription record) {
+        for(int i = 0; i < NOTES_PER_RECORD; i++) {
+            ArchDescriptionNotes note = new ArchDescriptionNotes(record);
+            note.setIdentifier(nextId());
+            note.setSequenceNumber(i);
+            note.setTitle(NOTE_TYPES[i % NOTE_TYPES.length]);
+            note.setNotesEtcType(noteTypes[i % noteTypes.length]);
+            note.setNoteContent(NOTE_TEXT);
+            note.setInternalOnly(false);
+            note.setMultiPart(false);
+            record.addRepeatingData(note);
+        }
+
+        for(int i = 0; i < DATES_PER_RECORD; i++) {
+            ArchDescriptionDates date = new ArchDescriptionDates(record);
+            date.setIdentifier(nextId());
+            date.setDateExpression("circa " + (1850 + i*10));
+            date.setDateType("Inclusive");
+            date.setIsoDateBegin((1850 + i*10) + "-01-01");
+            date.setIsoDateEnd((1860 + i*10) + "-12-31");
+            date.setEra("ce");
+            date.setCalendar("gregorian");
+            date.setCertainty(true);
+            record.addArchdescriptionDate(date);
+        }
+    }
+
+    /**
+     * Method to create a name record of a certain type
+     *
+     * @param type
+     * @return
+     */
+    private Names createName(String type) {
+        Names record = new Names();
+        record.setIdentifier(nextId());
+        record.setNameType(type);
+        record.setNameSource("Library of Congress Subject Headings");
+        record.setNameRule("Anglo-American Cataloging Rules");
+        record.setSortName("Benchmark, Anne, 1850-1920");
+        record.setPersonalPrimaryName("Benchmark");
+        record.setPersonalRestOfName("Anne");
+        record.setPersonalDates("1850-1920");
+        record.setPersonalDirectOrder(true);
+        record.setFamilyName("Benchmark family");
+        record.setCorporatePrimaryName("Benchmark Society");
+        record.setCorporateSubordinate1("Archives Committee");
+        record.setDescriptionType("Biography");
+        record.setDescriptionNote(NOTE_TEXT);
+        record.setCitation("Benchmark Society Records");
+        record.setContactAddress1("1 Main Street");
+        record.setContactCity("Springfield");
+        record.setContactEmail("archives@example.org");
+
+        return record;
+    }
+
+    /**
+     * Method to create an accession with deaccessions, rights, and dates
+     *
+     * @return
+     */
+    private Accessions createAccession() {
+        Accessions record = new Accessions();
+        record.setIdentifier(nextId());
+        record.setTitle("Benchmark Family Papers, Addition");
+        record.setAccessionNumber1("2014");
+        record.setAccessionNumber2("1");
+        record.setAccessionDate(new Date());
+        record.setDateExpression("1900-1950");
+        record.setDateBegin(1900);
+        record.setDateEnd(1950);
+        record.setExtentNumber(2.0);
+        record.setExtentType("Linear feet");
+        record.setDescription("Correspondence and diaries");
+        record.setAcquisitionType("Gift");
+        record.setResourceType("Papers");
+        record.setRightsTransferred(true);
+        record.setProcessingPriority("High");
+        record.setProcessingStatus("In Progress");
+        record.setInternalOnly(false);
+        record.setRestrictionsApply(false);
+        record.setUserDefinedString1("Donor file 12");
+        record.setUserDefinedInteger1(12);
+
+        for(int i = 0; i < 2; i++) {
+            Deaccessions deaccession = new Deaccessions(record);
+            deaccession.setIdentifier(nextId());
+            deaccession.setDescription("Returned to donor");
+            deaccession.setReason("Out of scope");
+            deaccession.setDeaccessionDate(new Date());
+            deaccession.setExtent(0.5);
+            deaccession.setExtentType("Linear feet");
+            deaccession.setNotification(true);
+            record.addDeaccessions(deaccession);
+        }
+
+        ArchDescriptionDates date = new ArchDescriptionDates(record);
+        date.setIdentifier(nextId());
+        date.setDateExpression("1920s");
+        date.setIsoDateBegin("1920-01-01");
+        date.setIsoDateEnd("1929-12-31");
+        record.addArchdescriptionDate(date);
+
+        return record;
+    }
+
+    /**
+     * Method to create a digital object with file versions
+     *
+     * @return
+     */
+    private DigitalObjects createDigitalObject() {
+        DigitalObjects record = new DigitalObjects();
+        record.setIdentifier(nextId());
+        record.setTitle("Photograph of the Benchmark house");
+        record.setMetsIdentifier("mets.1");
+        record.setObjectType("still image");
+        record.setLanguageCode("English");
+        record.setDateExpression("1901");
+        record.setDateBegin(1901);
+        record.setRestrictionsApply(false);
+
+        for(int i = 0; i < 3; i++) {
+            FileVersions fileVersion = new FileVersions(record);
+            fileVersion.setIdentifier(nextId());
+            fileVersion.setUri("http://example.org/images/house_" + i + ".jpg");
+            fileVersion.setUseStatement("Image-Master");
+            fileVersion.setEadDaoActuate("onRequest");
+            fileVersion.setEadDaoShow("new");
+            record.addFileVersion(fileVersion);
+        }
+
+        return record;
+    }
+
+    /**
+     * A single benchmark
+     */
+    private abstract class Benchmark {
+        private String name;
+
+        public Benchmark(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Method to run a single operation
+         *
+         * @param i a unique value for each operation
+         * @return the result, which must be kept so the operation isn't optimized away
+         * @throws Exception
+         */
+        public abstract Object run(long i) throws Exception;
+    }
+
+    /**
+     * Main method for running the benchmarks
+     *
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        int warmupIterations = args.length > 0 ? Integer.parseInt(args[0]) : WARMUP_ITERATIONS;
+        int measurementIterations = args.length > 1 ? Integer.parseInt(args[1]) : MEASUREMENT_ITERATIONS;
+        long iterationTime = args.length > 2 ? Long.parseLong(args[2]) : ITERATION_TIME;
+        String filter = args.length > 3 ? args[3] : null;
+
+        ASpaceMapperBenchmark benchmark = new ASpaceMapperBenchmark();
+        benchmark.runBenchmarks(warmupIterations, measurementIterations, iterationTime, filter);
+
+        System.exit(0);
+    }
+}
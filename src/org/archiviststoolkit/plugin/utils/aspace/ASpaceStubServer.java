@@ -0,0 +1,799 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the ArchivesSpace backend which implements the endpoints used by ASpaceClient,
+ * returning responses with the same shape as the real backend, so a migration can be benchmarked
+ * end to end on a single machine. The latency of each request, the throughput, the number of
+ * requests the backend can process at once, and the rate of injected errors can all be configured.
+ *
+ * Records posted to the stub are not stored, only assigned ids, so the memory it uses stays flat.
+ */
+public class ASpaceStubServer {
+    // the supported latency distributions
+    public static final String LATENCY_FIXED = "fixed";
+    public static final String LATENCY_UNIFORM = "uniform";
+    public static final String LATENCY_EXPONENTIAL = "exponential";
+    public static final String LATENCY_LOGNORMAL = "lognormal";
+
+    // the types of 500 errors which can be injected, with the text the real backend returns
+    public static final String ERROR_POOL_TIMEOUT = "PoolTimeout";
+    public static final String ERROR_OUT_OF_MEMORY = "OutOfMemory";
+    public static final String ERROR_THREAD = "ThreadError";
+    public static final String ERROR_RANDOM = "random";
+
+    private static final String[] ERROR_TYPES = {ERROR_POOL_TIMEOUT, ERROR_OUT_OF_MEMORY, ERROR_THREAD};
+
+    // the groups created for each repository by the real backend
+    private static final String[] GROUP_CODES = {"administrators", "repository-managers", "repository-archivists",
+            "repository-project-managers", "repository-advanced-data-entry", "repository-basic-data-entry",
+            "repository-viewers"};
+
+    // the enumerations loaded by the migration tool, and some of their default values
+    private static final String[][] ENUMERATIONS = {
+            {"language_iso639_2", "eng", "fre", "ger", "spa", "ita", "lat"},
+            {"agent_contact_salutation", "mr", "mrs", "ms", "madame", "sir"},
+            {"linked_agent_archival_record_roles", "creator", "source", "subject"},
+            {"name_source", "local", "naf", "nad", "ulan", "ingest"},
+            {"name_rule", "local", "aacr", "dacs"},
+            {"name_description_type", "administrative history", "biographical statement"},
+            {"accession_acquisition_type", "deposit", "gift", "purchase", "transfer"},
+            {"accession_resource_type", "collection", "papers", "records"},
+            {"collection_management_processing_priority", "high", "medium", "low"},
+            {"collection_management_processing_status", "new", "in_progress", "completed"},
+            {"date_era", "ce"},
+            {"date_calendar", "gregorian"},
+            {"digital_object_digital_object_type", "cartographic", "mixed_materials", "still_image", "text"},
+            {"event_event_type", "accession", "processed", "processing_started", "processing_completed"},
+            {"extent_extent_type", "cassettes", "cubic_feet", "gigabytes", "leaves", "linear_feet", "photographs"},
+            {"container_type", "box", "carton", "case", "folder", "item", "reel"},
+            {"resource_finding_aid_description_rules", "aacr", "cco", "dacs", "rad", "isadg"},
+            {"resource_finding_aid_status", "completed", "in_progress", "under_revision", "unprocessed"},
+            {"instance_instance_type", "audio", "books", "digital_object", "mixed_materials", "text"},
+            {"subject_source", "aat", "gmgpc", "lcsh", "local", "tgn"},
+            {"file_version_use_statement", "audio-clip", "image-master", "image-service", "text-data"}
+    };
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private int port = 8089;
+
+    // the number of threads used to accept http requests
+    private int httpThreads = 64;
+
+    // the number of requests the backend processes at once, and how long a request waits
+    // for one of them before a PoolTimeout error is returned, like the real backend's database pool
+    private int backendThreads = 8;
+    private long poolTimeout = 5000;
+
+    // the latency of each request, in milliseconds
+    private String latencyDistribution = LATENCY_FIXED;
+    private double latencyMean = 20;
+    private double latencyJitter = 10;
+    private double latencySigma = 0.5;
+
+    // the extra latency for each record in a batch import
+    private double batchLatencyPerRecord = 2;
+
+    // the maximum number of requests per second. Zero or less means there is no cap
+    private double maxRequestsPerSecond = 0;
+    private long nextRequestTime = 0;
+
+    // the fraction of requests which return a 500 error, and the type of error
+    private double errorRate = 0;
+    private String errorType = ERROR_POOL_TIMEOUT;
+
+    // the fraction of record posts which fail validation
+    private double validationErrorRate = 0;
+
+    // whether requests need a session given out by the login, like the real backend
+    private boolean checkSessions = false;
+    private Set<String> sessions = Collections.synchronizedSet(new HashSet<String>());
+
+    private Semaphore backendSlots;
+    private Random random = new Random();
+
+    // used to assign the ids of the records
+    private AtomicLong idSequence = new AtomicLong(100);
+
+    // the repositories created so far, mapped by the repo code. Like the real backend the
+    // admin repository isn't listed
+    private final LinkedHashMap<String, String> repositories = new LinkedHashMap<String, String>();
+
+    // the enumerations, mapped by uri
+    private final LinkedHashMap<String, JSONObject> enumerations = new LinkedHashMap<String, JSONObject>();
+
+    // request statistics
+    private ConcurrentHashMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private AtomicLong totalRequests = new AtomicLong(0);
+    private AtomicLong totalRecords = new AtomicLong(0);
+    private AtomicLong totalBytes = new AtomicLong(0);
+    private AtomicLong injectedErrors = new AtomicLong(0);
+    private AtomicLong poolTimeouts = new AtomicLong(0);
+    private long startTime;
+
+    /**
+     * The main constructor
+     *
+     * @param port
+     */
+    public ASpaceStubServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Method to set the configuration from a properties object. Any property that
+     * isn't set keeps its current value
+     *
+     * @param properties
+     */
+    public void configure(Properties properties) {
+        port = Integer.parseInt(properties.getProperty("port", "" + port));
+        httpThreads = Integer.parseInt(properties.getProperty("httpThreads", "" + httpThreads));
+        backendThreads = Integer.parseInt(properties.getProperty("backendThreads", "" + backendThreads));
+        poolTimeout = Long.parseLong(properties.getProperty("poolTimeout", "" + poolTimeout));
+        latencyDistribution = properties.getProperty("latencyDistribution", latencyDistribution);
+        latencyMean = Double.parseDouble(properties.getProperty("latencyMean", "" + latencyMean));
+        latencyJitter = Double.parseDouble(properties.getProperty("latencyJitter", "" + latencyJitter));
+        latencySigma = Double.parseDouble(properties.getProperty("latencySigma", "" + latencySigma));
+        batchLatencyPerRecord = Double.parseDouble(properties.getProperty("batchLatencyPerRecord", "" + batchLatencyPerRecord));
+        maxRequestsPerSecond = Double.parseDouble(properties.getProperty("maxRequestsPerSecond", "" + maxRequestsPerSecond));
+        errorRate = Double.parseDouble(properties.getProperty("errorRate", "" + errorRate));
+        errorType = properties.getProperty("errorType", errorType);
+        validationErrorRate = Double.parseDouble(properties.getProperty("validationErrorRate", "" + validationErrorRate));
+        checkSessions = Boolean.parseBoolean(properties.getProperty("checkSessions", "" + checkSessions));
+    }
+
+    public void setHttpThreads(int httpThreads) {
+        this.httpThreads = httpThreads;
+    }
+
+    public void setBackendThreads(int backendThreads, long poolTimeout) {
+        this.backendThreads = backendThreads;
+        this.poolTimeout = poolTimeout;
+    }
+
+    /**
+     * Method to set the latency of each request
+     *
+     * @param distribution one of fixed, uniform, exponential or lognormal
+     * @param mean the mean latency in milliseconds
+     * @param jitter for the uniform distribution, the latency is the mean +/- this
+     * @param sigma for the lognormal distribution, the standard deviation of the underlying normal distribution
+     */
+    public void setLatency(String distribution, double mean, double jitter, double sigma) {
+        this.latencyDistribution = distribution;
+        this.latencyMean = mean;
+        this.latencyJitter = jitter;
+        this.latencySigma = sigma;
+    }
+
+    public void setBatchLatencyPerRecord(double batchLatencyPerRecord) {
+        this.batchLatencyPerRecord = batchLatencyPerRecord;
+    }
+
+    public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * Method to set the fraction of requests which return a 500 error
+     *
+     * @param errorRate between 0 and 1
+     * @param errorType PoolTimeout, OutOfMemory, ThreadError or random
+     */
+    public void setErrorRate(double errorRate, String errorType) {
+        this.errorRate = errorRate;
+        this.errorType = errorType;
+    }
+
+    public void setValidationErrorRate(double validationErrorRate) {
+        this.validationErrorRate = validationErrorRate;
+    }
+
+    public void setCheckSessions(boolean checkSessions) {
+        this.checkSessions = checkSessions;
+    }
+
+    /**
+     * Method to forget all the sessions given out, like the real backend does when it's restarted
+     */
+    public void expireSessions() {
+        sessions.clear();
+    }
+
+    /**
+     * Method to return the host to use with ASpaceClient
+     *
+     * @return
+     */
+    public String getHost() {
+        return "http://localhost:" + port;
+    }
+
+    /**
+     * Method to start the server
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        backendSlots = new Semaphore(backendThreads, true);
+        initEnumerations();
+
+        server = HttpServer.create(new InetSocketAddress(port), 256);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+
+        executor = Executors.newFixedThreadPool(httpThreads);
+        server.setExecutor(executor);
+        server.start();
+
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method to stop the server
+     */
+    public void stop() {
+        if(server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Method to create the enumeration records
+     */
+    private void initEnumerations() {
+        enumerations.clear();
+
+        try {
+            for(int i = 0; i < ENUMERATIONS.length; i++) {
+                String uri = ASpaceClient.ENUM_ENDPOINT + "/" + (i + 1);
+
+                JSONObject enumJS = new JSONObject();
+                enumJS.put("lock_version", 0);
+                enumJS.put("name", ENUMERATIONS[i][0]);
+                enumJS.put("editable", true);
+                enumJS.put("uri", uri);
+                enumJS.put("jsonmodel_type", "enumeration");
+
+                JSONArray valuesJA = new JSONArray();
+                for(int j = 1; j < ENUMERATIONS[i].length; j++) {
+                    valuesJA.put(ENUMERATIONS[i][j]);
+                }
+
+                enumJS.put("values", valuesJA);
+                enumerations.put(uri, enumJS);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to process a request. The request waits for a backend slot, the configured
+     * latency is simulated, then the response is routed by the method and path
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String body = readBody(exchange);
+
+        totalRequests.incrementAndGet();
+        totalBytes.addAndGet(body.length());
+        countRequest(method + " " + MigrationMetrics.getEndpointKey(path));
+
+        try {
+            if(checkSessions && !path.endsWith("/login") &&
+                    !sessions.contains(exchange.getRequestHeaders().getFirst("X-ArchivesSpace-Session"))) {
+                countRequest("SESSION_GONE");
+                sendJSON(exchange, 412, "{\"code\":\"SESSION_GONE\",\"error\":\"No session found\"}");
+                return;
+            }
+
+            waitForThroughputCap();
+
+            if(!backendSlots.tryAcquire(poolTimeout, TimeUnit.MILLISECONDS)) {
+                poolTimeouts.incrementAndGet();
+                sendError(exchange, ERROR_POOL_TIMEOUT);
+                return;
+            }
+
+            try {
+                if(errorRate > 0 && random.nextDouble() < errorRate) {
+                    injectedErrors.incrementAndGet();
+                    Thread.sleep(sampleLatency());
+
+                    String type = errorType.equalsIgnoreCase(ERROR_RANDOM) ? ERROR_TYPES[random.nextInt(ERROR_TYPES.length)] : errorType;
+                    sendError(exchange, type);
+                    return;
+                }
+
+                if(method.equals("GET")) {
+                    Thread.sleep(sampleLatency());
+                    handleGet(exchange, path);
+                } else if(method.equals("POST")) {
+                    handlePost(exchange, path, body);
+                } else if(method.equals("DELETE")) {
+                    Thread.sleep(sampleLatency());
+                    sendJSON(exchange, 200, getStatusJSON("Deleted", getIdFromPath(path), path));
+                } else if(method.equals("PUT")) {
+                    sendResponse(exchange, 200, "text/plain", "ok");
+                } else {
+                    sendJSON(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                }
+            } finally {
+                backendSlots.release();
+            }
+        } catch (InterruptedException e) {
+            sendJSON(exchange, 503, "{\"error\":\"Server stopping\"}");
+        } catch (Exception e) {
+            sendJSON(exchange, 500, JSONObject.quote(e.toString()));
+        }
+    }
+
+    /**
+     * Method to process a get request
+     *
+     * @param exchange
+     * @param path
+     * @throws Exception
+     */
+    private void handleGet(HttpExchange exchange, String path) throws Exception {
+        if(path.equals("/") || path.isEmpty()) {
+            JSONObject infoJS = new JSONObject();
+            infoJS.put("databaseProductName", "ASpaceStubServer");
+            infoJS.put("databaseProductVersion", "1.0");
+            infoJS.put("ruby_version", "N/A");
+            infoJS.put("archivesSpaceVersion", "stub");
+            sendJSON(exchange, 200, infoJS.toString());
+        } else if(path.equals(ASpaceClient.REPOSITORY_ENDPOINT)) {
+            sendJSON(exchange, 200, getRepositoriesJSON());
+        } else if(path.startsWith(ASpaceClient.REPOSITORY_ENDPOINT) && path.endsWith(ASpaceClient.GROUP_ENDPOINT)) {
+            String repoURI = path.substring(0, path.length() - ASpaceClient.GROUP_ENDPOINT.length());
+            sendJSON(exchange, 200, getGroupsJSON(repoURI));
+        } else if(path.equals(ASpaceClient.ENUM_ENDPOINT)) {
+            JSONArray enumsJA = new JSONArray();
+
+            synchronized (enumerations) {
+                for(JSONObject enumJS: enumerations.values()) {
+                    enumsJA.put(enumJS);
+                }
+            }
+
+            sendJSON(exchange, 200, enumsJA.toString());
+        } else if(path.endsWith("/tree")) {
+            // records aren't stored, so there are never any children
+            JSONObject treeJS = new JSONObject();
+            treeJS.put("record_uri", path.substring(0, path.length() - "/tree".length()));
+            treeJS.put("children", new JSONArray());
+            sendJSON(exchange, 200, treeJS.toString());
+        } else if(path.matches(".*/\\d+")) {
+            // return just enough of the record for it to be updated
+            JSONObject recordJS = new JSONObject();
+            recordJS.put("lock_version", 0);
+            recordJS.put("uri", path);
+            sendJSON(exchange, 200, recordJS.toString());
+        } else {
+            sendJSON(exchange, 404, "{\"error\":\"Record not found\"}");
+        }
+    }
+
+    /**
+     * Method to process a post request
+     *
+     * @param exchange
+     * @param path
+     * @param body
+     * @throws Exception
+     */
+    private void handlePost(HttpExchange exchange, String path, String body) throws Exception {
+        if(path.startsWith(ASpaceClient.USER_ENDPOINT + "/") && path.endsWith("/login")) {
+            Thread.sleep(sampleLatency());
+
+            String session = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+            sessions.add(session);
+
+            JSONObject sessionJS = new JSONObject();
+            sessionJS.put("session", session);
+            sessionJS.put("user", new JSONObject().put("username", "admin").put("is_admin", true));
+            sendJSON(exchange, 200, sessionJS.toString());
+        } else if(path.endsWith("/batch_imports")) {
+            handleBatchImport(exchange, body);
+        } else if(path.startsWith(ASpaceClient.ENUM_ENDPOINT + "/")) {
+            Thread.sleep(sampleLatency());
+
+            JSONObject enumJS = new JSONObject(body);
+            synchronized (enumerations) {
+                enumerations.put(path, enumJS);
+            }
+
+            sendJSON(exchange, 200, getStatusJSON("Updated", getIdFromPath(path), path));
+        } else if(path.matches(".*/\\d+")) {
+            // posting to the uri of a record updates it
+            Thread.sleep(sampleLatency());
+            totalRecords.incrementAndGet();
+
+            sendJSON(exchange, 200, getStatusJSON("Updated", getIdFromPath(path), path));
+        } else {
+            Thread.sleep(sampleLatency());
+            totalRecords.incrementAndGet();
+
+            if(validationErrorRate > 0 && random.nextDouble() < validationErrorRate) {
+                sendJSON(exchange, 400, "{\"error\":{\"title\":[\"Property is required but was missing\"]}}");
+                return;
+            }
+
+            long id = idSequence.incrementAndGet();
+            String uri = path + "/" + id;
+
+            // keep track of the repositories so they can be listed
+            if(path.equals(ASpaceClient.REPOSITORY_ENDPOINT)) {
+                String repoCode = new JSONObject(body).optString("repo_code", "repo" + id);
+
+                synchronized (repositories) {
+                    repositories.put(repoCode, uri);
+                }
+            }
+
+            sendJSON(exchange, 200, getStatusJSON("Created", id, uri));
+        }
+    }
+
+    /**
+     * Method to process a batch import. Each record in the batch is assigned an id, and the
+     * response is a json array of status messages ending with the map of the temporary uris
+     * to the saved uris, like the real backend
+     *
+     * @param exchange
+     * @param body
+     * @throws Exception
+     */
+    private void handleBatchImport(HttpExchange exchange, String body) throws Exception {
+        JSONArray batchJA = new JSONArray(body);
+        int recordCount = batchJA.length();
+
+        totalRecords.addAndGet(recordCount);
+        Thread.sleep(sampleLatency() + (long)(batchLatencyPerRecord*recordCount));
+
+        JSONArray responseJA = new JSONArray();
+
+        JSONObject startedJS = new JSONObject();
+        startedJS.put("type", "started");
+        startedJS.put("label", "Processing " + recordCount + " records");
+        startedJS.put("id", "batch_" + idSequence.get());
+        responseJA.put(new JSONObject().put("status", new JSONArray().put(startedJS)));
+
+        if(validationErrorRate > 0 && random.nextDouble() < validationErrorRate) {
+            JSONObject errorJS = new JSONObject();
+            errorJS.put("errors", new JSONArray().put("Server error: Problem creating '" +
+                    batchJA.getJSONObject(0).optString("title") + "': id_0 That ID is already in use"));
+            responseJA.put(errorJS);
+
+            sendJSON(exchange, 200, responseJA.toString());
+            return;
+        }
+
+        JSONObject savedJS = new JSONObject();
+
+        for(int i = 0; i < recordCount; i++) {
+            String tempURI = batchJA.getJSONObject(i).optString("uri");
+            if(tempURI.isEmpty()) continue;
+
+            long id = idSequence.incrementAndGet();
+            String savedURI = tempURI.substring(0, tempURI.lastIndexOf('/') + 1) + id;
+
+            savedJS.put(tempURI, new JSONArray().put(savedURI).put(id));
+        }
+
+        responseJA.put(new JSONObject().put("saved", savedJS));
+
+        sendJSON(exchange, 200, responseJA.toString());
+    }
+
+    /**
+     * Method to return the json the backend returns when a record is created, updated or deleted
+     *
+     * @param status
+     * @param id
+     * @param uri
+     * @return
+     * @throws Exception
+     */
+    private String getStatusJSON(String status, long id, String uri) throws Exception {
+        JSONObject statusJS = new JSONObject();
+        statusJS.put("status", status);
+        statusJS.put("id", id);
+        statusJS.put("lock_version", 0);
+        statusJS.put("stale", JSONObject.NULL);
+        statusJS.put("uri", uri);
+        statusJS.put("warnings", new JSONArray());
+
+        return statusJS.toString();
+    }
+
+    /**
+     * Method to return the repositories as a json array
+     *
+     * @return
+     * @throws Exception
+     */
+    private String getRepositoriesJSON() throws Exception {
+        JSONArray reposJA = new JSONArray();
+
+        synchronized (repositories) {
+            for(Map.Entry<String, String> entry: repositories.entrySet()) {
+                JSONObject repoJS = new JSONObject();
+                repoJS.put("repo_code", entry.getKey());
+                repoJS.put("name", entry.getKey());
+                repoJS.put("uri", entry.getValue());
+                repoJS.put("jsonmodel_type", "repository");
+                reposJA.put(repoJS);
+            }
+        }
+
+        return reposJA.toString();
+    }
+
+    /**
+     * Method to return the groups of a repository as a json array
+     *
+     * @param repoURI
+     * @return
+     * @throws Exception
+     */
+    private String getGroupsJSON(String repoURI) throws Exception {
+        JSONArray groupsJA = new JSONArray();
+
+        for(int i = 0; i < GROUP_CODES.length; i++) {
+            JSONObject groupJS = new JSONObject();
+            groupJS.put("group_code", GROUP_CODES[i]);
+            groupJS.put("description", GROUP_CODES[i]);
+            groupJS.put("uri", repoURI + ASpaceClient.GROUP_ENDPOINT + "/" + (i + 1));
+            groupJS.put("member_usernames", new JSONArray());
+            groupJS.put("grants_permissions", new JSONArray());
+            groupJS.put("jsonmodel_type", "group");
+            groupsJA.put(groupJS);
+        }
+
+        return groupsJA.toString();
+    }
+
+    /**
+     * Method to send one of the 500 errors returned by the real backend
+     *
+     * @param exchange
+     * @param type
+     * @throws IOException
+     */
+    private void sendError(HttpExchange exchange, String type) throws IOException {
+        String message;
+
+        if(type.equalsIgnoreCase(ERROR_OUT_OF_MEMORY)) {
+            message = "java.lang.OutOfMemoryError: Java heap space";
+        } else if(type.equalsIgnoreCase(ERROR_THREAD)) {
+            message = "ThreadError: stack level too deep";
+        } else {
+            message = "Sequel::PoolTimeout: timeout: " + (poolTimeout/1000.0) + ", elapsed: " + (poolTimeout/1000.0);
+        }
+
+        sendJSON(exchange, 500, "{\"error\":" + JSONObject.quote(message) + "}");
+    }
+
+    /**
+     * Method to wait until the next request is allowed by the throughput cap
+     *
+     * @throws InterruptedException
+     */
+    private void waitForThroughputCap() throws InterruptedException {
+        if(maxRequestsPerSecond <= 0) return;
+
+        long interval = (long)(1000000000L/maxRequestsPerSecond);
+        long waitTime;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextRequestTime = Math.max(nextRequestTime, now) + interval;
+            waitTime = nextRequestTime - interval - now;
+        }
+
+        if(waitTime > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitTime);
+        }
+    }
+
+    /**
+     * Method to return a random latency from the configured distribution
+     *
+     * @return the latency in milliseconds
+     */
+    private long sampleLatency() {
+        double latency;
+
+        if(latencyDistribution.equalsIgnoreCase(LATENCY_UNIFORM)) {
+            latency = latencyMean + (random.nextDouble()*2 - 1)*latencyJitter;
+        } else if(latencyDistribution.equalsIgnoreCase(LATENCY_EXPONENTIAL)) {
+            latency = -latencyMean*Math.log(1 - random.nextDouble());
+        } else if(latencyDistribution.equalsIgnoreCase(LATENCY_LOGNORMAL)) {
+            // the mean of a lognormal is exp(mu + sigma^2/2), so adjust mu to keep the configured mean
+            double mu = Math.log(latencyMean) - latencySigma*latencySigma/2;
+            latency = Math.exp(mu + latencySigma*random.nextGaussian());
+        } else {
+            latency = latencyMean;
+        }
+
+        return Math.max(0, Math.round(latency));
+    }
+
+    /**
+     * Method to return the id at the end of the path
+     *
+     * @param path
+     * @return
+     */
+    private long getIdFromPath(String path) {
+        try {
+            return Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Method to read the request body
+     *
+     * @param exchange
+     * @return
+     * @throws IOException
+     */
+    private String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        in.close();
+
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Method to send a json response
+     *
+     * @param exchange
+     * @param status
+     * @param json
+     * @throws IOException
+     */
+    private void sendJSON(HttpExchange exchange, int status, String json) throws IOException {
+        sendResponse(exchange, status, "application/json", json);
+    }
+
+    /**
+     * Method to send a response
+     *
+     * @param exchange
+     * @param status
+     * @param contentType
+     * @param text
+     * @throws IOException
+     */
+    private void sendResponse(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * Method to count a request by method and endpoint
+     *
+     * @param key
+     */
+    private void countRequest(String key) {
+        AtomicLong count = requestCounts.get(key);
+
+        if(count == null) {
+            requestCounts.putIfAbsent(key, new AtomicLong(0));
+            count = requestCounts.get(key);
+        }
+
+        count.incrementAndGet();
+    }
+
+    /**
+     * Method to return the statistics of the requests processed so far
+     *
+     * @return
+     */
+    public String getStatistics() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        long requests = totalRequests.get();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Requests: ").append(requests).append(" (").
+                append(String.format("%.1f", requests*1000.0/elapsed)).append("/sec), Records: ").
+                append(totalRecords.get()).append(" (").
+                append(String.format("%.1f", totalRecords.get()*1000.0/elapsed)).append("/sec), Received: ").
+                append(totalBytes.get()/1024).append(" KB, Injected errors: ").append(injectedErrors.get()).
+                append(", Pool timeouts: ").append(poolTimeouts.get()).append("\n");
+
+        TreeMap<String, AtomicLong> sorted = new TreeMap<String, AtomicLong>(requestCounts);
+        for(Map.Entry<String, AtomicLong> entry: sorted.entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(" : ").append(entry.getValue().get()).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Main method for running the stub server. It takes an optional properties file,
+     * and otherwise uses aspacestub.properties in the current directory if it exists
+     *
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        String propertiesFilename = args.length > 0 ? args[0] : "aspacestub.properties";
+        File propertiesFile = new File(propertiesFilename);
+
+        final ASpaceStubServer stubServer = new ASpaceStubServer(8089);
+
+        if(propertiesFile.exists()) {
+            Properties properties = new Properties();
+            FileInputStream in = new FileInputStream(propertiesFile);
+            properties.load(in);
+            in.close();
+
+            stubServer.configure(properties);
+        }
+
+        stubServer.start();
+
+        System.out.println("ASpace stub server running at " + stubServer.getHost() + " ...");
+
+        // print the statistics periodically, and when the server is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                System.out.println(stubServer.getStatistics());
+                stubServer.stop();
+            }
+        });
+
+        while (true) {
+            Thread.sleep(60000);
+            System.out.println(stubServer.getStatistics());
+        }
+    }
+}
@@ -0,0 +1,793 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Class used by ASpaceClient to send requests to the backend without a thread waiting on each one. All the
+ * connections are handled by a single event loop thread using non blocking sockets, and the requests return
+ * a future straight away. The number of requests in flight is limited by a number of permits, and the
+ * connections are kept open and reused. The responses are handed to the callbacks on a separate thread, so
+ * a slow callback, like one saving the URI maps, doesn't hold up the event loop.
+ *
+ * Only plain http is supported, which is how the backend is normally reached from the machine running the
+ * migration. Requests are sent as HTTP/1.1 with the body in UTF-8, and responses with a content length,
+ * chunked, or ending when the connection is closed can be read.
+ *
+ * A request fails if the connection isn't made within the connect timeout, or nothing is sent or read on it
+ * for the read timeout. The read timeout is long, since the backend sends nothing until a large batch import
+ * has been saved.
+ */
+public class AsyncHttpTransport {
+    // the number of bytes read from a connection at a time
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    private static final byte[] LINE_END = {'\r', '\n'};
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    // how long to wait, in milliseconds, for a connection to be made and for a response to a request
+    private long connectTimeout = 30000;
+    private long readTimeout = 1800000;
+
+    // when the requests were last checked for timeouts
+    private long lastTimeoutCheck = 0;
+
+    private Selector selector;
+    private Thread eventLoop;
+    private volatile boolean running = true;
+
+    private Semaphore permits;
+    private int maxRequests;
+
+    // the requests waiting to be started by the event loop
+    private ConcurrentLinkedQueue<Exchange> newExchanges = new ConcurrentLinkedQueue<Exchange>();
+
+    // the open connections not being used, keyed by host and port. Only used by the event loop
+    private HashMap<String, LinkedList<SocketChannel>> idleConnections = new HashMap<String, LinkedList<SocketChannel>>();
+
+    // when each idle connection was last used. A connection idle for longer than MAX_IDLE_TIME isn't reused, since
+    // the backend may be about to close it, and a post which was sent on it can't be sent again
+    private static final long MAX_IDLE_TIME = 5000;
+    private HashMap<SocketChannel, Long> idleSince = new HashMap<SocketChannel, Long>();
+
+    private ExecutorService callbackExecutor;
+
+    /**
+     * Interface used to turn a response into the result of a request. It's run on the callback thread
+     */
+    public interface ResponseHandler<T> {
+        public T handle(Response response) throws Exception;
+    }
+
+    /**
+     * Interface used to be told when a request has finished
+     */
+    public interface Callback<T> {
+        public void completed(T result);
+
+        public void failed(Exception e);
+    }
+
+    /**
+     * The response to a request
+     */
+    public static class Response {
+        public int statusCode;
+        public String statusText = "";
+        public String body = "";
+        public int bodyBytes;
+    }
+
+    /**
+     * The main constructor
+     *
+     * @param maxRequests the maximum number of requests in flight at the same time
+     * @throws IOException
+     */
+    public AsyncHttpTransport(int maxRequests) throws IOException {
+        this.maxRequests = Math.max(1, maxRequests);
+        permits = new Semaphore(this.maxRequests);
+
+        selector = Selector.open();
+
+        callbackExecutor = Executors.newSingleThreadExecutor(VirtualThreads.getPlatformThreadFactory("aspace-callback"));
+
+        eventLoop = new Thread(new Runnable() {
+            public void run() {
+                runEventLoop();
+            }
+        }, "aspace-event-loop");
+
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+    }
+
+    /**
+     * Method to return the maximum number of requests in flight
+     *
+     * @return
+     */
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Method to set how long to wait for a connection to be made, and for a request to make any progress
+     *
+     * @param connectTimeout in milliseconds
+     * @param readTimeout in milliseconds
+     */
+    public void setTimeouts(long connectTimeout, long readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Method to send a request. This only blocks if the maximum number of requests are already in flight
+     *
+     * @param method GET, POST, or DELETE
+     * @param url the full url, including the query string
+     * @param headers any extra headers
+     * @param body the request body or null
+     * @param handler used to turn the response into the result
+     * @param callback told when the request has finished, or null
+     * @return the future result of the request
+     * @throws Exception if the url isn't http, or the transport has been closed
+     */
+    public <T> Future<T> execute(String method, String url, Map<String, String> headers, String body,
+                                 ResponseHandler<T> handler, Callback<T> callback) throws Exception {
+        if(!running) {
+            throw new IOException("Transport closed");
+        }
+
+        URL parsedURL = new URL(url);
+
+        if(!parsedURL.getProtocol().equals("http")) {
+            throw new IOException("Only http is supported by the asynchronous transport: " + url);
+        }
+
+        int port = (parsedURL.getPort() != -1) ? parsedURL.getPort() : 80;
+        String path = parsedURL.getFile().isEmpty() ? "/" : parsedURL.getFile();
+        byte[] bodyBytes = (body != null) ? body.getBytes("UTF-8") : new byte[0];
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(" ").append(path).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(parsedURL.getHost()).append(":").append(port).append("\r\n");
+        sb.append("Connection: keep-alive\r\n");
+
+        if(body != null) {
+            sb.append("Content-Type: application/json; charset=UTF-8\r\n");
+        }
+
+        sb.append("Content-Length: ").append(bodyBytes.length).append("\r\n");
+
+        if(headers != null) {
+            for(Map.Entry<String, String> header: headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+
+        sb.append("\r\n");
+
+        byte[] headerBytes = sb.toString().getBytes("ISO-8859-1");
+        ByteBuffer request = ByteBuffer.allocate(headerBytes.length + bodyBytes.length);
+        request.put(headerBytes).put(bodyBytes);
+        request.flip();
+
+        Exchange<T> exchange = new Exchange<T>(method, parsedURL.getHost(), port, request, handler, callback);
+
+        permits.acquire();
+
+        newExchanges.add(exchange);
+        selector.wakeup();
+
+        return exchange;
+    }
+
+    /**
+     * Method to close the connections and stop the event loop. Any requests in flight fail
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            eventLoop.join(10000);
+        } catch (InterruptedException e) {
+            // just carry on closing
+        }
+
+        callbackExecutor.shutdown();
+    }
+
+    /**
+     * The event loop which sends the requests and reads the responses of all the connections
+     */
+    private void runEventLoop() {
+        while(running) {
+            try {
+                selector.select(1000);
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+
+            Exchange exchange;
+            while((exchange = newExchanges.poll()) != null) {
+                startExchange(exchange, true);
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                handleKey(key);
+            }
+
+            checkTimeouts();
+        }
+
+        // fail anything still in flight
+        for(SelectionKey key: selector.keys()) {
+            if(key.attachment() != null) {
+                failExchange(key, (Exchange) key.attachment(), new IOException("Transport closed"));
+            } else {
+                closeQuietly(key.channel());
+            }
+        }
+
+        Exchange exchange;
+        while((exchange = newExchanges.poll()) != null) {
+            exchange.fail(new IOException("Transport closed"));
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to start sending a request, on an idle connection if there is one
+     *
+     * @param exchange
+     * @param reuseConnection whether an idle connection can be used
+     */
+    private void startExchange(Exchange exchange, boolean reuseConnection) {
+        SocketChannel channel = reuseConnection ? getIdleConnection(exchange.getHostKey()) : null;
+        exchange.lastActivity = System.currentTimeMillis();
+
+        if(channel != null) {
+            try {
+                exchange.reusedConnection = true;
+
+                SelectionKey key = channel.keyFor(selector);
+                key.attach(exchange);
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            } catch (RuntimeException e) {
+                // the connection was closed since it became idle, and nothing has been sent on it
+                channel.keyFor(selector).attach(null);
+                closeQuietly(channel);
+            }
+        }
+
+        exchange.reusedConnection = false;
+        channel = null;
+
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            if(channel.connect(new InetSocketAddress(exchange.host, exchange.port))) {
+                channel.register(selector, SelectionKey.OP_WRITE, exchange);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, exchange);
+            }
+        } catch (Exception e) {
+            // i.e. the host can't be resolved
+            if(channel != null) closeQuietly(channel);
+            exchange.fail(e);
+        }
+    }
+
+    /**
+     * Method to do whatever a connection is ready for
+     *
+     * @param key
+     */
+    private void handleKey(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Exchange exchange = (Exchange) key.attachment();
+
+        // an idle connection closed by the backend
+        if(exchange == null) {
+            closeIdleConnection(key);
+            return;
+        }
+
+        if(!key.isValid()) {
+            failExchange(key, exchange, new IOException("Connection closed"));
+            return;
+        }
+
+        try {
+            if(key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_WRITE);
+                exchange.lastActivity = System.currentTimeMillis();
+            } else if(key.isWritable()) {
+                channel.write(exchange.request);
+                exchange.lastActivity = System.currentTimeMillis();
+
+                if(!exchange.request.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if(key.isReadable()) {
+                ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                int count = channel.read(buffer);
+                exchange.lastActivity = System.currentTimeMillis();
+
+                if(count > 0) {
+                    exchange.responseBytes.write(buffer.array(), 0, count);
+                }
+
+                Response response = exchange.parseResponse(count == -1);
+
+                if(response != null) {
+                    key.attach(null);
+
+                    if(exchange.keepAlive && count != -1) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        addIdleConnection(exchange.getHostKey(), channel);
+                    } else {
+                        key.cancel();
+                        closeQuietly(channel);
+                    }
+
+                    permits.release();
+                    exchange.complete(response);
+                } else if(count == -1) {
+                    throw new IOException("Connection closed before the response was read");
+                }
+            }
+        } catch (IOException e) {
+            // the backend may have closed an idle connection just as it was reused, so try again on a new one.
+            // A post which was all sent may already have been saved though, so it's only sent again if the
+            // connection failed while it was still being written
+            if(exchange.reusedConnection && exchange.responseBytes.size() == 0 &&
+                    (exchange.request.hasRemaining() || !exchange.method.equals("POST"))) {
+                key.attach(null);
+                key.cancel();
+                closeQuietly(channel);
+
+                exchange.request.rewind();
+                startExchange(exchange, false);
+            } else {
+                failExchange(key, exchange, e);
+            }
+        } catch (RuntimeException e) {
+            // i.e. a malformed response, which mustn't stop the event loop used by all the other requests
+            failExchange(key, exchange, new IOException("Request failed: " + e, e));
+        }
+    }
+
+    /**
+     * Method to fail the requests which are taking too long to connect, or have made no progress for the
+     * read timeout. This is only done once a second
+     */
+    private void checkTimeouts() {
+        long now = System.currentTimeMillis();
+        if(now - lastTimeoutCheck < 1000) return;
+
+        lastTimeoutCheck = now;
+
+        for(SelectionKey key: selector.keys().toArray(new SelectionKey[0])) {
+            Exchange exchange = (Exchange) key.attachment();
+            if(exchange == null || !key.isValid()) continue;
+
+            boolean connecting = (key.interestOps() & SelectionKey.OP_CONNECT) != 0;
+            long timeout = connecting ? connectTimeout : readTimeout;
+
+            if(now - exchange.lastActivity > timeout) {
+                String message = connecting ? "Connect timed out after " : "No response after ";
+                failExchange(key, exchange, new SocketTimeoutException(message + timeout/1000 + " seconds"));
+            }
+        }
+    }
+
+    private void failExchange(SelectionKey key, Exchange exchange, Exception e) {
+        key.attach(null);
+        key.cancel();
+        closeQuietly(key.channel());
+
+        exchange.fail(e);
+    }
+
+    private SocketChannel getIdleConnection(String hostKey) {
+        LinkedList<SocketChannel> connections = idleConnections.get(hostKey);
+
+        long now = System.currentTimeMillis();
+
+        // use the most recently used connection, which is the least likely to have been closed
+        while(connections != null && !connections.isEmpty()) {
+            SocketChannel channel = connections.removeLast();
+            Long lastUsed = idleSince.remove(channel);
+            SelectionKey key = channel.keyFor(selector);
+
+            if(channel.isOpen() && key != null && key.isValid() && lastUsed != null && now - lastUsed <= MAX_IDLE_TIME) {
+                return channel;
+            }
+
+            if(key != null) key.cancel();
+            closeQuietly(channel);
+        }
+
+        return null;
+    }
+
+    private void addIdleConnection(String hostKey, SocketChannel channel) {
+        LinkedList<SocketChannel> connections = idleConnections.get(hostKey);
+
+        if(connections == null) {
+            connections = new LinkedList<SocketChannel>();
+            idleConnections.put(hostKey, connections);
+        }
+
+        connections.add(channel);
+        idleSince.put(channel, System.currentTimeMillis());
+    }
+
+    /**
+     * Method to close an idle connection, which only becomes readable when the backend closes it
+     *
+     * @param key
+     */
+    private void closeIdleConnection(SelectionKey key) {
+        for(LinkedList<SocketChannel> connections: idleConnections.values()) {
+            connections.remove(key.channel());
+        }
+
+        idleSince.remove(key.channel());
+
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing more to be done with it
+        }
+    }
+
+    /**
+     * A request and its response. This is also the future returned for the request
+     */
+    private class Exchange<T> implements Future<T> {
+        private String method;
+        private String host;
+        private int port;
+        private ByteBuffer request;
+        private ResponseHandler<T> handler;
+        private Callback<T> callback;
+
+        private boolean reusedConnection = false;
+        private long lastActivity;
+
+        // set once the response has been read or the request has failed. Only used by the event loop
+        private boolean ended = false;
+        private ResponseBuffer responseBytes = new ResponseBuffer();
+        private boolean keepAlive = true;
+
+        // the response once its headers have been read, and where its body starts
+        private Response response;
+        private int bodyStart;
+        private int contentLength = -1;
+        private boolean chunked = false;
+
+        // how far the headers have been searched for their end
+        private int headerSearchPosition = 0;
+
+        // the chunks of a chunked body read so far, and where the next one starts
+        private ByteArrayOutputStream chunkedBody;
+        private int chunkPosition;
+        private boolean lastChunkRead = false;
+
+        private CountDownLatch done = new CountDownLatch(1);
+        private T result;
+        private Exception exception;
+
+        public Exchange(String method, String host, int port, ByteBuffer request, ResponseHandler<T> handler, Callback<T> callback) {
+            this.method = method;
+            this.host = host;
+            this.port = port;
+            this.request = request;
+            this.handler = handler;
+            this.callback = callback;
+        }
+
+        public String getHostKey() {
+            return host + ":" + port;
+        }
+
+        /**
+         * Method to parse the response read so far. The headers are only parsed once, after which only
+         * the bytes not already looked at are checked to see if the body has all been read
+         *
+         * @param closed whether the connection has been closed
+         * @return the response, or null if it hasn't all been read yet
+         * @throws IOException
+         */
+        public Response parseResponse(boolean closed) throws IOException {
+            byte[] bytes = responseBytes.getBuffer();
+            int length = responseBytes.size();
+
+            if(response == null) {
+                int headerEnd = indexOf(bytes, length, HEADER_END, headerSearchPosition);
+
+                if(headerEnd == -1) {
+                    // the end of the headers may be split across two reads
+                    headerSearchPosition = Math.max(0, length - HEADER_END.length + 1);
+                    return null;
+                }
+
+                parseHeaders(bytes, headerEnd);
+            }
+
+            byte[] body;
+
+            if(chunked) {
+                if(!decodeChunks(bytes, length)) return null;
+
+                body = chunkedBody.toByteArray();
+            } else if(contentLength != -1) {
+                if(length - bodyStart < contentLength) return null;
+
+                body = new byte[contentLength];
+                System.arraycopy(bytes, bodyStart, body, 0, contentLength);
+            } else if(response.statusCode == 204 || response.statusCode == 304) {
+                body = new byte[0];
+            } else {
+                // the body ends when the connection is closed
+                if(!closed) return null;
+
+                keepAlive = false;
+                body = new byte[length - bodyStart];
+                System.arraycopy(bytes, bodyStart, body, 0, body.length);
+            }
+
+            response.body = new String(body, "UTF-8");
+            response.bodyBytes = body.length;
+
+            return response;
+        }
+
+        /**
+         * Method to parse the status line and headers
+         *
+         * @param bytes
+         * @param headerEnd where the blank line after the headers starts
+         * @throws IOException
+         */
+        private void parseHeaders(byte[] bytes, int headerEnd) throws IOException {
+            String[] headerLines = new String(bytes, 0, headerEnd, "ISO-8859-1").split("\r\n");
+            String[] statusParts = headerLines[0].split(" ", 3);
+
+            if(statusParts.length < 2 || !statusParts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line: " + headerLines[0]);
+            }
+
+            Response headerResponse = new Response();
+            headerResponse.statusCode = Integer.parseInt(statusParts[1]);
+            headerResponse.statusText = (statusParts.length > 2) ? statusParts[2] : "";
+
+            keepAlive = !statusParts[0].equals("HTTP/1.0");
+
+            for(int i = 1; i < headerLines.length; i++) {
+                int index = headerLines[i].indexOf(':');
+                if(index == -1) continue;
+
+                String name = headerLines[i].substring(0, index).trim().toLowerCase();
+                String value = headerLines[i].substring(index + 1).trim();
+
+                if(name.equals("content-length")) {
+                    contentLength = Integer.parseInt(value);
+                } else if(name.equals("transfer-encoding") && value.toLowerCase().contains("chunked")) {
+                    chunked = true;
+                } else if(name.equals("connection")) {
+                    keepAlive = value.equalsIgnoreCase("keep-alive") || (keepAlive && !value.equalsIgnoreCase("close"));
+                }
+            }
+
+            bodyStart = headerEnd + HEADER_END.length;
+
+            if(chunked) {
+                chunkedBody = new ByteArrayOutputStream();
+                chunkPosition = bodyStart;
+            }
+
+            response = headerResponse;
+        }
+
+        /**
+         * Method to add any chunks read since the last time to the body
+         *
+         * @param bytes
+         * @param length the number of bytes read so far
+         * @return true once the last chunk, and any trailers, have been read
+         * @throws IOException
+         */
+        private boolean decodeChunks(byte[] bytes, int length) throws IOException {
+            while(!lastChunkRead) {
+                int sizeEnd = indexOf(bytes, length, LINE_END, chunkPosition);
+                if(sizeEnd == -1) return false;
+
+                String sizeText = new String(bytes, chunkPosition, sizeEnd - chunkPosition, "ISO-8859-1");
+                int index = sizeText.indexOf(';');
+                if(index != -1) sizeText = sizeText.substring(0, index);
+
+                int size = Integer.parseInt(sizeText.trim(), 16);
+                int dataStart = sizeEnd + LINE_END.length;
+
+                if(size == 0) {
+                    lastChunkRead = true;
+                    chunkPosition = dataStart;
+                } else {
+                    if(length < dataStart + size + LINE_END.length) return false;
+
+                    chunkedBody.write(bytes, dataStart, size);
+                    chunkPosition = dataStart + size + LINE_END.length;
+                }
+            }
+
+            // skip any trailers, up to the blank line at the end
+            if(indexOf(bytes, length, LINE_END, chunkPosition) == chunkPosition) return true;
+
+            return indexOf(bytes, length, HEADER_END, chunkPosition) != -1;
+        }
+
+        private int indexOf(byte[] bytes, int length, byte[] pattern, int start) {
+            for(int i = start; i <= length - pattern.length; i++) {
+                boolean found = true;
+
+                for(int j = 0; j < pattern.length; j++) {
+                    if(bytes[i + j] != pattern[j]) {
+                        found = false;
+                        break;
+                    }
+                }
+
+                if(found) return i;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Method to hand the response to the handler and callback, on the callback thread
+         *
+         * @param response
+         */
+        public void complete(final Response response) {
+            ended = true;
+
+            Runnable handleResponse = new Runnable() {
+                public void run() {
+                    try {
+                        result = handler.handle(response);
+                    } catch (Exception e) {
+                        finish(e);
+                        return;
+                    }
+
+                    finish(null);
+                }
+            };
+
+            try {
+                callbackExecutor.execute(handleResponse);
+            } catch (RejectedExecutionException ree) {
+                handleResponse.run();
+            }
+        }
+
+        /**
+         * Method to fail the request, which happens on the event loop thread
+         *
+         * @param e
+         */
+        public void fail(final Exception e) {
+            if(ended) return;
+
+            ended = true;
+            permits.release();
+
+            try {
+                callbackExecutor.execute(new Runnable() {
+                    public void run() {
+                        finish(e);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                finish(e);
+            }
+        }
+
+        private void finish(Exception e) {
+            exception = e;
+            done.countDown();
+
+            if(callback == null) return;
+
+            try {
+                if(e == null) {
+                    callback.completed(result);
+                } else {
+                    callback.failed(e);
+                }
+            } catch (Exception ce) {
+                ce.printStackTrace();
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if(!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+
+            return getResult();
+        }
+
+        private T getResult() throws ExecutionException {
+            if(exception != null) {
+                throw new ExecutionException(exception);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * The bytes read for a response, which can be looked at without copying them
+     */
+    private static class ResponseBuffer extends ByteArrayOutputStream {
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
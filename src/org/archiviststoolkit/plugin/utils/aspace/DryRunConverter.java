@@ -0,0 +1,673 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.archiviststoolkit.model.*;
+import org.archiviststoolkit.mydomain.DomainObject;
+import org.archiviststoolkit.plugin.utils.StopWatch;
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class used to do a dry run of a migration before the real one. All the main records are loaded and
+ * converted to ASpace JSON using every core, and nothing is posted to the backend. Each thread has its own
+ * hibernate session and mapper, so the records are loaded as well as converted in parallel.
+ *
+ * The converted records are checked for the fields the backend requires, and a report is written with the
+ * payload size, number of components, warnings and problems of each record, followed by a summary with an
+ * estimate of how long loading them into the backend will take.
+ *
+ * The links between records, i.e. the subjects, names and instances of a resource, need the URIs of the
+ * records they link to, so they aren't part of the dry run. The ids which have to be unique are checked
+ * across all the threads, like in a real migration.
+ */
+public class DryRunConverter {
+    // the number of records, other than resources, loaded and converted at a time by each thread
+    private static final int RECORDS_PER_TASK = 200;
+
+    // the record types in the order they are copied
+    private static final String LOCATION = "Location";
+    private static final String SUBJECT = "Subject";
+    private static final String NAME = "Name";
+    private static final String ACCESSION = "Accession";
+    private static final String DIGITAL_OBJECT = "Digital Object";
+    private static final String RESOURCE = "Resource";
+
+    private ASpaceCopyUtil aspaceCopyUtil;
+    private SessionFactory sessionFactory;
+    private int threads;
+
+    // used to estimate how long loading the records will take
+    private int clients = 1;
+    private double recordsPerSecond = 25;
+
+    private ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<Task>();
+
+    // the totals of each record type
+    private LinkedHashMap<String, TypeTotals> typeTotals = new LinkedHashMap<String, TypeTotals>();
+
+    // the number of records in each resource, used to estimate the load time with several clients
+    private ArrayList<Long> resourceCosts = new ArrayList<Long>();
+
+    private BufferedWriter reportWriter;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * The main constructor
+     *
+     * @param aspaceCopyUtil used to create the mappers, so they are set up like the one used by the copy
+     * @param sessionFactory used to open a session for each thread
+     * @param threads the number of threads, or 0 to use one for each core
+     */
+    public DryRunConverter(ASpaceCopyUtil aspaceCopyUtil, SessionFactory sessionFactory, int threads) {
+        this.aspaceCopyUtil = aspaceCopyUtil;
+        this.sessionFactory = sessionFactory;
+        this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+
+        for(String recordType: new String[]{LOCATION, SUBJECT, NAME, ACCESSION, DIGITAL_OBJECT, RESOURCE}) {
+            typeTotals.put(recordType, new TypeTotals());
+        }
+    }
+
+    /**
+     * Method to set what is used to estimate how long loading the records into the backend will take
+     *
+     * @param clients the number of clients used to copy the resources
+     * @param recordsPerSecond the number of records saved each second by one client
+     */
+    public void setLoadEstimate(int clients, double recordsPerSecond) {
+        this.clients = Math.max(1, clients);
+        this.recordsPerSecond = (recordsPerSecond > 0) ? recordsPerSecond : 25;
+    }
+
+    /**
+     * Method to stop the dry run once the tasks being converted are done
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Method to do the dry run
+     *
+     * @param reportFile the file the line for each record is written to
+     * @return the summary of the dry run
+     * @throws Exception
+     */
+    public String run(File reportFile) throws Exception {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        reportWriter = new BufferedWriter(new FileWriter(reportFile));
+        reportWriter.write("Record Type\tDB ID\tRecord\tPayload Bytes\tComponents\tWarnings\tProblems\tMessages\n");
+
+        // the resources take the longest, so they are started first
+        Session session = sessionFactory.openSession();
+
+        try {
+            addTasks(session, Resources.class, RESOURCE, 1);
+            addTasks(session, DigitalObjects.class, DIGITAL_OBJECT, RECORDS_PER_TASK);
+            addTasks(session, Accessions.class, ACCESSION, RECORDS_PER_TASK);
+            addTasks(session, Names.class, NAME, RECORDS_PER_TASK);
+            addTasks(session, Subjects.class, SUBJECT, RECORDS_PER_TASK);
+            addTasks(session, Locations.class, LOCATION, RECORDS_PER_TASK);
+        } finally {
+            session.close();
+        }
+
+        print("Dry run converting " + tasks.size() + " tasks using " + threads + " threads ...");
+
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+
+        for(int i = 0; i < threads; i++) {
+            Thread worker = VirtualThreads.getPlatformThreadFactory("dry-run-" + i).newThread(new Runnable() {
+                public void run() {
+                    convertTasks();
+                }
+            });
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        for(Thread worker: workers) {
+            worker.join();
+        }
+
+        reportWriter.close();
+
+        String summary = getSummary(stopWatch.getPrettyTime());
+        print(summary);
+
+        // make sure the summary is written out before the program exits
+        aspaceCopyUtil.getLogger().flush();
+
+        return summary;
+    }
+
+    /**
+     * Method to add the tasks used to convert the records of a type. Only the ids are loaded here
+     *
+     * @param session
+     * @param clazz
+     * @param recordType
+     * @param recordsPerTask
+     */
+    private void addTasks(Session session, Class clazz, String recordType, int recordsPerTask) {
+        Transaction tx = session.beginTransaction();
+
+        Criteria criteria = session.createCriteria(clazz).setProjection(Projections.id());
+
+        // the digital object children are converted along with their parent
+        if(clazz == DigitalObjects.class) {
+            criteria.add(Restrictions.isNull("parent"));
+        }
+
+        List ids = criteria.list();
+        tx.commit();
+
+        for(int i = 0; i < ids.size(); i += recordsPerTask) {
+            ArrayList<Long> taskIds = new ArrayList<Long>();
+
+            for(Object id: ids.subList(i, Math.min(ids.size(), i + recordsPerTask))) {
+                taskIds.add((Long) id);
+            }
+
+            tasks.add(new Task(clazz, recordType, taskIds));
+        }
+    }
+
+    /**
+     * Method run by each thread to load and convert the records of the tasks, until there are none left.
+     * If the records of a task can't be loaded they are added to the report as problems, and the thread
+     * carries on with the next task
+     */
+    private void convertTasks() {
+        Session session = sessionFactory.openSession();
+        ASpaceMapper mapper = aspaceCopyUtil.createMapper();
+
+        try {
+            Task task;
+            while(!stopped && (task = tasks.poll()) != null) {
+                HashSet<Long> convertedIds = new HashSet<Long>();
+                Transaction tx = null;
+
+                try {
+                    String idName = sessionFactory.getClassMetadata(task.clazz).getIdentifierPropertyName();
+
+                    tx = session.beginTransaction();
+                    List records = session.createCriteria(task.clazz).add(Restrictions.in(idName, task.ids)).list();
+
+                    for(Object record: records) {
+                        convertRecord(mapper, task.recordType, (DomainObject) record);
+                        convertedIds.add(((DomainObject) record).getIdentifier());
+                    }
+
+                    tx.commit();
+
+                    // the records aren't needed any more, so don't keep them in the session
+                    session.clear();
+                } catch (Exception e) {
+                    aspaceCopyUtil.printError("Dry run unable to load " + task.recordType + " records: " + e);
+
+                    if(tx != null) {
+                        try {
+                            tx.rollback();
+                        } catch (Exception re) {
+                            re.printStackTrace();
+                        }
+                    }
+
+                    for(Long id: task.ids) {
+                        if(!convertedIds.contains(id)) {
+                            addNotLoaded(task.recordType, id, e);
+                        }
+                    }
+
+                    // a hibernate session can't be used again after an exception
+                    try {
+                        session.close();
+                    } catch (Exception ce) {
+                        ce.printStackTrace();
+                    }
+
+                    session = sessionFactory.openSession();
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Method to convert a record, along with its components if it's a resource or digital object,
+     * and add it to the report
+     *
+     * @param mapper
+     * @param recordType
+     * @param record
+     */
+    private void convertRecord(ASpaceMapper mapper, String recordType, DomainObject record) {
+        ArrayList<String> warnings = new ArrayList<String>();
+        ArrayList<String> problems = new ArrayList<String>();
+        RecordSize recordSize = new RecordSize();
+
+        aspaceCopyUtil.setRecordWarnings(warnings);
+
+        try {
+            if(record instanceof Resources) {
+                mapper.setCurrentResourceRecordIdentifier(((Resources) record).getResourceIdentifier());
+            }
+
+            if(isRejectedByScript(mapper, record)) {
+                problems.add("Not copied, rejected by the mapper script");
+            } else {
+                Object converted = mapper.convert(record);
+                JSONObject recordJS = getJSONObject(converted);
+
+                if(recordJS == null) {
+                    problems.add("Not converted");
+                } else {
+                    checkRequiredFields(recordType, recordJS, problems);
+                    recordSize.bytes += recordJS.toString().length();
+
+                    if(record instanceof Resources) {
+                        Resources resource = (Resources) record;
+                        addInstancesSize(mapper, resource.getInstances(), recordSize);
+                        convertResourceComponents(mapper, resource.getResourcesComponents(), recordSize, problems);
+                    } else if(record instanceof DigitalObjects) {
+                        convertDigitalObjectChildren(mapper, ((DigitalObjects) record).getDigitalObjectChildren(), recordSize, problems);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            problems.add("Conversion failed: " + e);
+        } finally {
+            aspaceCopyUtil.setRecordWarnings(null);
+        }
+
+        if(record instanceof Resources) {
+            synchronized (resourceCosts) {
+                resourceCosts.add(recordSize.components + 1L);
+            }
+        }
+
+        addToReport(recordType, record, recordSize, warnings, problems);
+    }
+
+    /**
+     * Method to convert the components of a resource, and their children
+     *
+     * @param mapper
+     * @param components
+     * @param recordSize
+     * @param problems
+     * @throws Exception
+     */
+    private void convertResourceComponents(ASpaceMapper mapper, Set<ResourcesComponents> components,
+                                           RecordSize recordSize, ArrayList<String> problems) throws Exception {
+        if(components == null) return;
+
+        for(ResourcesComponents component: components) {
+            if(mapper.runComponentMapperScript && !mapper.canCopyRecord(component)) continue;
+
+            JSONObject componentJS = getJSONObject(mapper.convert(component));
+            recordSize.components++;
+
+            if(componentJS == null) {
+                problems.add("Component not converted: " + component.getTitle());
+                continue;
+            }
+
+            checkRequiredFields("Component", componentJS, problems);
+            recordSize.bytes += componentJS.toString().length();
+
+            addInstancesSize(mapper, component.getInstances(), recordSize);
+
+            if(component.isHasChild()) {
+                convertResourceComponents(mapper, component.getResourcesComponents(), recordSize, problems);
+            }
+        }
+    }
+
+    /**
+     * Method to convert the children of a digital object
+     *
+     * @param mapper
+     * @param children
+     * @param recordSize
+     * @param problems
+     * @throws Exception
+     */
+    private void convertDigitalObjectChildren(ASpaceMapper mapper, Set<DigitalObjects> children,
+                                              RecordSize recordSize, ArrayList<String> problems) throws Exception {
+        if(children == null) return;
+
+        for(DigitalObjects child: children) {
+            JSONObject childJS = mapper.convertToDigitalObjectComponent(child);
+            recordSize.components++;
+
+            if(childJS == null) {
+                problems.add("Digital object component not converted: " + child.getTitle());
+                continue;
+            }
+
+            recordSize.bytes += childJS.toString().length();
+
+            convertDigitalObjectChildren(mapper, child.getDigitalObjectChildren(), recordSize, problems);
+        }
+    }
+
+    /**
+     * Method to add the size of the analog instances, which don't link to other records apart from locations
+     *
+     * @param mapper
+     * @param instances
+     * @param recordSize
+     * @throws Exception
+     */
+    private void addInstancesSize(ASpaceMapper mapper, Set<ArchDescriptionInstances> instances, RecordSize recordSize) throws Exception {
+        if(instances == null) return;
+
+        for(ArchDescriptionInstances instance: instances) {
+            if(instance instanceof ArchDescriptionAnalogInstances) {
+                JSONObject instanceJS = mapper.convertAnalogInstance((ArchDescriptionAnalogInstances) instance, null);
+                recordSize.bytes += instanceJS.toString().length();
+            }
+        }
+    }
+
+    /**
+     * Method to check whether a mapper script says not to copy a record
+     *
+     * @param mapper
+     * @param record
+     * @return
+     * @throws Exception
+     */
+    private boolean isRejectedByScript(ASpaceMapper mapper, DomainObject record) throws Exception {
+        boolean runScript = (record instanceof Locations && mapper.runLocationMapperScript) ||
+                (record instanceof Subjects && mapper.runSubjectMapperScript) ||
+                (record instanceof Names && mapper.runNameMapperScript) ||
+                (record instanceof Accessions && mapper.runAccessionMapperScript) ||
+                (record instanceof DigitalObjects && mapper.runDigitalObjectMapperScript) ||
+                (record instanceof Resources && mapper.runResourceMapperScript);
+
+        return runScript && !mapper.canCopyRecord(record);
+    }
+
+    /**
+     * Method to return a converted record as a json object. Some records are converted to json text
+     *
+     * @param converted
+     * @return the json object or null if the record wasn't converted
+     * @throws Exception
+     */
+    private JSONObject getJSONObject(Object converted) throws Exception {
+        if(converted == null) {
+            return null;
+        } else if(converted instanceof JSONObject) {
+            return (JSONObject) converted;
+        } else {
+            return new JSONObject(converted.toString());
+        }
+    }
+
+    /**
+     * Method to check a converted record has the fields the backend won't save it without
+     *
+     * @param recordType
+     * @param recordJS
+     * @param problems
+     */
+    private void checkRequiredFields(String recordType, JSONObject recordJS, ArrayList<String> problems) {
+        String[] requiredFields;
+
+        if(recordType.equals(RESOURCE)) {
+            requiredFields = new String[]{"title", "id_0", "level", "extents", "dates"};
+        } else if(recordType.equals("Component")) {
+            requiredFields = new String[]{"level"};
+
+            if(isMissing(recordJS, "title") && isMissing(recordJS, "dates")) {
+                problems.add("Component has no title or dates");
+            }
+        } else if(recordType.equals(ACCESSION)) {
+            requiredFields = new String[]{"id_0", "accession_date"};
+        } else if(recordType.equals(DIGITAL_OBJECT)) {
+            requiredFields = new String[]{"title", "digital_object_id"};
+        } else if(recordType.equals(SUBJECT)) {
+            requiredFields = new String[]{"terms", "source"};
+        } else if(recordType.equals(NAME)) {
+            requiredFields = new String[]{"names"};
+        } else if(recordType.equals(LOCATION)) {
+            requiredFields = new String[]{"building"};
+        } else {
+            return;
+        }
+
+        for(String field: requiredFields) {
+            if(isMissing(recordJS, field)) {
+                problems.add(recordType + " missing " + field);
+            }
+        }
+    }
+
+    /**
+     * Method to check whether a field is missing or empty
+     *
+     * @param recordJS
+     * @param field
+     * @return
+     */
+    private boolean isMissing(JSONObject recordJS, String field) {
+        Object value = recordJS.opt(field);
+
+        if(value == null || value == JSONObject.NULL) {
+            return true;
+        } else if(value instanceof JSONArray) {
+            return ((JSONArray) value).length() == 0;
+        } else {
+            return value.toString().trim().isEmpty();
+        }
+    }
+
+    /**
+     * Method to add a record which couldn't be loaded to the report, so it isn't left out
+     *
+     * @param recordType
+     * @param id
+     * @param e the exception thrown when loading it
+     */
+    private void addNotLoaded(String recordType, Long id, Exception e) {
+        ArrayList<String> problems = new ArrayList<String>();
+        problems.add("Not loaded: " + e);
+
+        addToReport(recordType, id, "", new RecordSize(), new ArrayList<String>(), problems);
+    }
+
+    /**
+     * Method to add a record to the report and the totals of its type
+     *
+     * @param recordType
+     * @param record
+     * @param recordSize
+     * @param warnings
+     * @param problems
+     */
+    private void addToReport(String recordType, DomainObject record, RecordSize recordSize,
+                             ArrayList<String> warnings, ArrayList<String> problems) {
+        String label = String.valueOf(record).replaceAll("\\s+", " ").trim();
+
+        addToReport(recordType, record.getIdentifier(), label, recordSize, warnings, problems);
+    }
+
+    /**
+     * Method to add a record to the report and the totals of its type using its id and label
+     *
+     * @param recordType
+     * @param id
+     * @param label
+     * @param recordSize
+     * @param warnings
+     * @param problems
+     */
+    private synchronized void addToReport(String recordType, Long id, String label, RecordSize recordSize,
+                                          ArrayList<String> warnings, ArrayList<String> problems) {
+
+        TypeTotals totals = typeTotals.get(recordType);
+        totals.add(label, recordSize, warnings.size(), problems.size());
+
+        // only the first message is written, the rest are in the conversion error file
+        String message = "";
+        if(!problems.isEmpty()) {
+            message = problems.get(0);
+        } else if(!warnings.isEmpty()) {
+            message = warnings.get(0);
+        }
+
+        try {
+            reportWriter.write(recordType + "\t" + id + "\t" + label + "\t" + recordSize.bytes + "\t" +
+                    recordSize.components + "\t" + warnings.size() + "\t" + problems.size() + "\t" +
+                    message.replaceAll("\\s+", " ").trim() + "\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to return the summary of the dry run
+     *
+     * @param elapsedTime
+     * @return
+     */
+    private synchronized String getSummary(String elapsedTime) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nDry run finished in ").append(elapsedTime).append(" using ").append(threads).append(" threads\n\n");
+
+        long nonResourceRecords = 0;
+        long totalRecords = 0;
+        long totalBytes = 0;
+
+        for(Map.Entry<String, TypeTotals> entry: typeTotals.entrySet()) {
+            String recordType = entry.getKey();
+            TypeTotals totals = entry.getValue();
+
+            if(totals.records == 0) continue;
+
+            sb.append(recordType).append(" Records: ").append(totals.records);
+
+            if(totals.components != 0) {
+                sb.append(", Components: ").append(totals.components);
+            }
+
+            sb.append(", With Warnings: ").append(totals.recordsWithWarnings);
+            sb.append(", With Problems: ").append(totals.recordsWithProblems);
+            sb.append(", Payload: ").append(totals.bytes / 1024).append(" KB");
+            sb.append(" (average ").append(totals.bytes / totals.records).append(" bytes)");
+            sb.append("\n  Largest: ").append(totals.largestRecord).append(" -- ").append(totals.largestBytes).append(" bytes\n");
+
+            if(!recordType.equals(RESOURCE)) {
+                nonResourceRecords += totals.records + totals.components;
+            }
+
+            totalRecords += totals.records + totals.components;
+            totalBytes += totals.bytes;
+        }
+
+        // the resources are copied by the clients, largest first, and the other records one at a time
+        ArrayList<Long> costs = new ArrayList<Long>(resourceCosts);
+        Collections.sort(costs, Collections.reverseOrder());
+
+        long resourceRecords = 0;
+        for(Long cost: costs) {
+            resourceRecords += cost;
+        }
+
+        long criticalPath = ASpaceCopyUtil.getCriticalPath(costs, clients);
+        long nonResourceSeconds = (long) (nonResourceRecords / recordsPerSecond);
+        long resourceSeconds = (long) (criticalPath / recordsPerSecond);
+
+        sb.append("\nTotal Records: ").append(totalRecords).append(", Total Payload: ").append(totalBytes / 1048576).append(" MB\n");
+        sb.append("Estimated load time at ").append(recordsPerSecond).append(" records/sec per client: ");
+        sb.append(getTime(nonResourceSeconds + resourceSeconds));
+        sb.append(" (other records ").append(getTime(nonResourceSeconds));
+        sb.append(", resources ").append(getTime(resourceSeconds)).append(" on ").append(clients).append(" clients");
+        sb.append(", ").append(getTime((long) (resourceRecords / recordsPerSecond))).append(" on one)\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to return a number of seconds as hours, minutes and seconds
+     *
+     * @param seconds
+     * @return
+     */
+    private String getTime(long seconds) {
+        return (seconds / 3600) + "h " + ((seconds % 3600) / 60) + "m " + (seconds % 60) + "s";
+    }
+
+    private void print(String message) {
+        aspaceCopyUtil.print(message);
+    }
+
+    /**
+     * A number of records of one type to load and convert
+     */
+    private static class Task {
+        Class clazz;
+        String recordType;
+        ArrayList<Long> ids;
+
+        public Task(Class clazz, String recordType, ArrayList<Long> ids) {
+            this.clazz = clazz;
+            this.recordType = recordType;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * The size of a converted record and its components
+     */
+    private static class RecordSize {
+        long bytes = 0;
+        int components = 0;
+    }
+
+    /**
+     * The totals of a record type
+     */
+    private static class TypeTotals {
+        int records = 0;
+        long components = 0;
+        long bytes = 0;
+        int recordsWithWarnings = 0;
+        int recordsWithProblems = 0;
+
+        String largestRecord = "";
+        long largestBytes = 0;
+
+        public void add(String label, RecordSize recordSize, int warnings, int problems) {
+            records++;
+            components += recordSize.components;
+            bytes += recordSize.bytes;
+
+            if(warnings > 0) recordsWithWarnings++;
+            if(problems > 0) recordsWithProblems++;
+
+            if(recordSize.bytes > largestBytes) {
+                largestBytes = recordSize.bytes;
+                largestRecord = label;
+            }
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.apache.commons.httpclient.NameValuePair;
+import org.archiviststoolkit.plugin.utils.ScriptDataUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Class used to load the records exported by RecordExporter into ASpace. The chunks are streamed one line
+ * at a time, so only the records being posted are ever in memory, and are posted by a number of worker
+ * threads each with their own ASpaceClient.
+ *
+ * As each record is posted, the real id returned by the backend is stored against its placeholder id,
+ * and the placeholders in later records i.e. "/repositories/export_1/accessions/export_57" are replaced
+ * with these ids before posting. A record is only posted once all the records it refers to have been,
+ * and is skipped if any of them failed. The ids are also appended to a progress file in the export
+ * directory, so if the load is stopped it carries on from where it left off the next time it's run.
+ */
+public class ExportLoader {
+    public static final String PROGRESS_FILENAME = "load-progress.txt";
+    public static final String ERROR_FILENAME = "loadErrors.txt";
+
+    // matches the placeholder ids in the URIs and endpoints
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("/" + RecordExporter.ID_PREFIX + "(\\d+)");
+
+    // separates the record from the other fields of an exported line. It can't appear in the fields
+    // before the record since any quotes in them are escaped
+    private static final String RECORD_FIELD = ",\"record\":";
+
+    // the states of a record, other than the real id once it's been posted
+    private static final int NOT_LOADED = 0;
+    private static final int FAILED = -1;
+    private static final int SKIPPED = -2;
+
+    // the value stored for a batch import, since only the resource URIs in it are needed
+    private static final int BATCH_LOADED = 1;
+
+    // how often to print the progress
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private File directory;
+    private int threads;
+
+    // creates the threads the records are posted in, which can be virtual threads
+    private ThreadFactory threadFactory = VirtualThreads.getPlatformThreadFactory("loader");
+
+    private ASpaceClient aspaceClient;
+    private MigrationMetrics metrics = new MigrationMetrics();
+    private MigrationErrorStore errorStore;
+
+    // the real id of each record, indexed by the number in its placeholder id
+    private int[] recordIds;
+
+    // the real URIs of the resources in each batch import, keyed by their temporary URI
+    private HashMap<String, String> batchURIMap = new HashMap<String, String>();
+
+    private BufferedWriter progressWriter;
+
+    // the client used by each worker thread, since a client can only send one request at a time
+    private ThreadLocal<ASpaceClient> workerClient = new ThreadLocal<ASpaceClient>() {
+        protected ASpaceClient initialValue() {
+            return aspaceClient.getAuthenticatedClient();
+        }
+    };
+
+    // limits the number of records read ahead of the ones being posted
+    private Semaphore queueSlots;
+    private int inFlight = 0;
+
+    private int totalRecords = 0;
+    private int loadedCount = 0;
+    private int previouslyLoadedCount = 0;
+    private int failedCount = 0;
+    private int skippedCount = 0;
+
+    /**
+     * The main constructor
+     *
+     * @param directory the export directory
+     * @param host
+     * @param admin
+     * @param adminPassword
+     * @param threads the number of records to post at the same time
+     */
+    public ExportLoader(File directory, String host, String admin, String adminPassword, int threads) {
+        this.directory = directory;
+        this.threads = Math.max(1, threads);
+
+        aspaceClient = new ASpaceClient(host, admin, adminPassword);
+        errorStore = new MigrationErrorStore(new File(directory, ERROR_FILENAME));
+        aspaceClient.setErrorStore(errorStore);
+        aspaceClient.setMetrics(metrics);
+
+        queueSlots = new Semaphore(this.threads * 2);
+    }
+
+    /**
+     * Method to set whether the records are posted in virtual threads, so a lot more threads can be used
+     *
+     * @param useVirtualThreads
+     */
+    public void setVirtualThreads(boolean useVirtualThreads) {
+        threadFactory = VirtualThreads.getThreadFactory("loader", useVirtualThreads);
+    }
+
+    /**
+     * Method to load the exported records
+     *
+     * @return true if all the records were loaded
+     * @throws Exception
+     */
+    public boolean load() throws Exception {
+        JSONObject manifestJS = readManifest();
+
+        if (!manifestJS.getBoolean("complete")) {
+            print("Warning: the export wasn't completed, only the records exported so far will be loaded ...");
+        }
+
+        JSONArray chunksJA = manifestJS.getJSONArray("chunks");
+        totalRecords = manifestJS.getInt("records");
+        recordIds = new int[getPlaceholderNumber(manifestJS.getString("lastId")) + 1];
+
+        readProgress();
+
+        if (!aspaceClient.getSession()) {
+            print("Unable to get an ASpace session, nothing to load ...");
+            return false;
+        }
+
+        print("Loading " + totalRecords + " records from " + directory.getAbsolutePath() + " using " + threads + " threads");
+
+        if (previouslyLoadedCount != 0) {
+            print("Records already loaded: " + previouslyLoadedCount);
+        }
+
+        aspaceClient.pauseIndexer();
+        metrics.startPhase("Load");
+
+        progressWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(directory, PROGRESS_FILENAME), true), "UTF-8"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, threadFactory);
+
+        try {
+            for (int i = 0; i < chunksJA.length(); i++) {
+                loadChunk(new File(directory, chunksJA.getJSONObject(i).getString("file")), pool);
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.DAYS);
+
+            progressWriter.close();
+            aspaceClient.startIndexer();
+        }
+
+        saveURIMaps();
+
+        metrics.updateProgress("Load", totalRecords - previouslyLoadedCount, loadedCount + failedCount + skippedCount);
+
+        print("\nFinished loading records");
+        print("Records loaded: " + loadedCount + ", previously loaded: " + previouslyLoadedCount +
+                ", failed: " + failedCount + ", skipped because a linked record failed: " + skippedCount);
+        print("\nThroughput and latency: \n" + metrics.getSummary());
+
+        if (errorStore.getEntryCount() != 0) {
+            print("Errors saved to " + new File(directory, ERROR_FILENAME).getAbsolutePath() + "\n" + errorStore.getSummary());
+        }
+
+        errorStore.close();
+
+        return failedCount == 0 && skippedCount == 0;
+    }
+
+    /**
+     * Method to read the manifest written by the exporter
+     *
+     * @return
+     * @throws Exception
+     */
+    private JSONObject readManifest() throws Exception {
+        File manifestFile = new File(directory, RecordExporter.MANIFEST_FILENAME);
+
+        if (!manifestFile.exists()) {
+            throw new IOException("No export found in " + directory.getAbsolutePath());
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+        StringBuilder sb = new StringBuilder();
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line).append("\n");
+            }
+        } finally {
+            reader.close();
+        }
+
+        return new JSONObject(sb.toString());
+    }
+
+    /**
+     * Method to read the ids of the records loaded by a previous run. Failed records are left
+     * out of the progress file, so they are tried again
+     *
+     * @throws IOException
+     */
+    private void readProgress() throws IOException {
+        File progressFile = new File(directory, PROGRESS_FILENAME);
+        if (!progressFile.exists()) return;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(progressFile), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+
+                // the last line may be incomplete if the load was stopped while it was being written
+                if (fields.length < 2) continue;
+
+                try {
+                    int number = Integer.parseInt(fields[0]);
+
+                    if (fields[1].equals("batch")) {
+                        recordIds[number] = BATCH_LOADED;
+
+                        for (int i = 2; i + 1 < fields.length; i += 2) {
+                            batchURIMap.put(fields[i], fields[i + 1]);
+                        }
+                    } else {
+                        recordIds[number] = Integer.parseInt(fields[1]);
+                    }
+
+                    previouslyLoadedCount++;
+                } catch (NumberFormatException e) {
+                    // an incomplete line so ignore it
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Method to stream the records in a chunk to the worker threads
+     *
+     * @param chunkFile
+     * @param pool
+     * @throws Exception
+     */
+    private void loadChunk(File chunkFile, ExecutorService pool) throws Exception {
+        print("Loading chunk: " + chunkFile.getName());
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(chunkFile), 65536), "UTF-8"), 65536);
+
+        boolean previousEnum = false;
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+
+                int index = line.indexOf(RECORD_FIELD);
+                JSONObject headerJS = new JSONObject(line.substring(0, index) + "}");
+                String recordText = line.substring(index + RECORD_FIELD.length(), line.length() - 1);
+                line = null;
+
+                int number = getPlaceholderNumber(headerJS.getString("id"));
+                String endpoint = headerJS.getString("endpoint");
+                String atId = headerJS.getString("atId");
+
+                if (getRecordId(number) > 0) continue;
+
+                // lookup list values have to be in the backend before any records use them
+                boolean isEnum = endpoint.startsWith(ASpaceClient.ENUM_ENDPOINT);
+                if (previousEnum && !isEnum) {
+                    waitForInFlight();
+                }
+                previousEnum = isEnum;
+
+                // wait for the records this one links to, and skip it if any of them weren't loaded
+                if (!waitForLinkedRecords(endpoint, number) || !waitForLinkedRecords(recordText, number)) {
+                    setRecordId(number, SKIPPED, null);
+                    errorStore.addError(MigrationErrorStore.getRecordType(atId), atId, endpoint,
+                            "Not loaded", "A record this record links to failed to load");
+                    continue;
+                }
+
+                NameValuePair[] params = null;
+                if (headerJS.has("params")) {
+                    params = getParams(headerJS.getJSONObject("params"));
+                }
+
+                queueSlots.acquire();
+                incrementInFlight();
+
+                pool.execute(new LoadTask(number, replacePlaceholders(endpoint), replacePlaceholders(recordText), params, atId));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Method to wait for the records linked to in the text to be loaded
+     *
+     * @param text
+     * @param number the placeholder number of the record the text is from
+     * @return false if any of the linked records failed to load
+     * @throws InterruptedException
+     */
+    private synchronized boolean waitForLinkedRecords(String text, int number) throws InterruptedException {
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
+
+        while (matcher.find()) {
+            int linkedNumber = Integer.parseInt(matcher.group(1));
+
+            // records can only link to ones exported before them
+            if (linkedNumber >= number || linkedNumber >= recordIds.length) return false;
+
+            while (recordIds[linkedNumber] == NOT_LOADED) {
+                wait();
+            }
+
+            if (recordIds[linkedNumber] < 0) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to replace the placeholder ids with the real ids
+     *
+     * @param text
+     * @return the text with the placeholders replaced, or null if any of them weren't loaded
+     */
+    private synchronized String replacePlaceholders(String text) {
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
+
+        if (!matcher.find()) return text;
+
+        StringBuffer sb = new StringBuffer(text.length());
+
+        do {
+            int linkedNumber = Integer.parseInt(matcher.group(1));
+            int id = (linkedNumber < recordIds.length) ? recordIds[linkedNumber] : NOT_LOADED;
+
+            if (id <= 0) return null;
+
+            matcher.appendReplacement(sb, "/" + id);
+        } while (matcher.find());
+
+        matcher.appendTail(sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to convert the params of an exported record
+     *
+     * @param paramsJS
+     * @return
+     * @throws Exception
+     */
+    private NameValuePair[] getParams(JSONObject paramsJS) throws Exception {
+        ArrayList<NameValuePair> params = new ArrayList<NameValuePair>();
+
+        Iterator keys = paramsJS.keys();
+        while (keys.hasNext()) {
+            String name = (String) keys.next();
+            params.add(new NameValuePair(name, paramsJS.getString(name)));
+        }
+
+        return params.toArray(new NameValuePair[params.size()]);
+    }
+
+    /**
+     * Method to post a single record using the worker thread's client
+     *
+     * @param number
+     * @param endpoint
+     * @param jsonText
+     * @param params
+     * @param atId
+     */
+    private void postRecord(int number, String endpoint, String jsonText, NameValuePair[] params, String atId) {
+        ASpaceClient client = workerClient.get();
+
+        try {
+            String id = client.post(endpoint, jsonText, params, atId);
+
+            if (endpoint.endsWith(ASpaceClient.BATCH_IMPORT_ENDPOINT)) {
+                // only the resource URIs are kept, since the archival objects are never linked to
+                StringBuilder sb = new StringBuilder();
+                JSONObject savedJS = new JSONObject(id);
+
+                Iterator keys = savedJS.keys();
+                while (keys.hasNext()) {
+                    String tempURI = (String) keys.next();
+
+                    if (tempURI.contains(ASpaceClient.RESOURCE_ENDPOINT + "/")) {
+                        String resourceURI = new JSONArray(savedJS.getString(tempURI)).getString(0);
+                        sb.append("\t").append(tempURI).append("\t").append(resourceURI);
+
+                        synchronized (this) {
+                            batchURIMap.put(tempURI, resourceURI);
+                        }
+                    }
+                }
+
+                setRecordId(number, BATCH_LOADED, number + "\tbatch" + sb.toString());
+            } else {
+                setRecordId(number, Integer.parseInt(id), number + "\t" + id);
+            }
+        } catch (Exception e) {
+            // the backend error was already added to the error store
+            setRecordId(number, FAILED, null);
+            print("Failed to load: " + atId + " -- " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to store the id of a record once it's been posted, and wake up any records waiting on it
+     *
+     * @param number
+     * @param id
+     * @param progressLine the line to add to the progress file, or null if it wasn't loaded
+     */
+    private synchronized void setRecordId(int number, int id, String progressLine) {
+        recordIds[number] = id;
+
+        if (id == FAILED) {
+            failedCount++;
+        } else if (id == SKIPPED) {
+            skippedCount++;
+        } else {
+            loadedCount++;
+
+            try {
+                progressWriter.write(progressLine + "\n");
+                progressWriter.flush();
+            } catch (IOException e) {
+                print("Unable to save load progress: " + e.getMessage());
+            }
+        }
+
+        int count = loadedCount + failedCount + skippedCount;
+        if (count % PROGRESS_INTERVAL == 0) {
+            metrics.updateProgress("Load", totalRecords - previouslyLoadedCount, count);
+            print("Records processed: " + count + " -- " + metrics.getMetricsLine());
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Method to return the id of a record
+     *
+     * @param number
+     * @return
+     */
+    private synchronized int getRecordId(int number) {
+        return recordIds[number];
+    }
+
+    private synchronized void incrementInFlight() {
+        inFlight++;
+    }
+
+    /**
+     * Method called when a worker has finished with a record
+     */
+    private synchronized void decrementInFlight() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Method to wait until all the records given to the workers have been posted
+     *
+     * @throws InterruptedException
+     */
+    private synchronized void waitForInFlight() throws InterruptedException {
+        while (inFlight > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Method to save the URI maps of the export with the real URIs, in the same place as a migration
+     * does, so it can be continued or the resources deleted as if the records were copied directly.
+     * Any records which weren't loaded are left out of the maps
+     */
+    private void saveURIMaps() {
+        File exportMapFile = new File(directory, "uriMaps.bin");
+        if (!exportMapFile.exists()) return;
+
+        try {
+            HashMap uriMap = (HashMap) ScriptDataUtils.getScriptData(exportMapFile);
+
+            for (Object value : uriMap.values()) {
+                if (!(value instanceof HashMap)) continue;
+
+                Iterator<Map.Entry> entries = ((HashMap) value).entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry entry = entries.next();
+                    if (!(entry.getValue() instanceof String)) continue;
+
+                    String uri = replacePlaceholders((String) entry.getValue());
+
+                    if (uri != null && batchURIMap.containsKey(uri)) {
+                        uri = batchURIMap.get(uri);
+                    } else if (uri != null && uri.contains(ASpaceClient.RESOURCE_ENDPOINT + "/")) {
+                        uri = null;
+                    }
+
+                    if (uri != null) {
+                        entry.setValue(uri);
+                    } else {
+                        entries.remove();
+                    }
+                }
+            }
+
+            File uriMapFile = new File(System.getProperty("user.home") + File.separator + "uriMaps.bin");
+            ScriptDataUtils.saveScriptData(uriMapFile, uriMap);
+
+            print("\nSaved URI Maps to " + uriMapFile.getAbsolutePath());
+        } catch (Exception e) {
+            print("Unable to save the URI maps: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to return the number from a placeholder id
+     *
+     * @param id
+     * @return
+     */
+    private static int getPlaceholderNumber(String id) {
+        return Integer.parseInt(id.substring(RecordExporter.ID_PREFIX.length()));
+    }
+
+    /**
+     * Method to print a message
+     *
+     * @param message
+     */
+    private void print(String message) {
+        System.out.println(message);
+    }
+
+    /**
+     * Class used to post a record on one of the worker threads
+     */
+    private class LoadTask implements Runnable {
+        private int number;
+        private String endpoint;
+        private String jsonText;
+        private NameValuePair[] params;
+        private String atId;
+
+        public LoadTask(int number, String endpoint, String jsonText, NameValuePair[] params, String atId) {
+            this.number = number;
+            this.endpoint = endpoint;
+            this.jsonText = jsonText;
+            this.params = params;
+            this.atId = atId;
+        }
+
+        public void run() {
+            try {
+                postRecord(number, endpoint, jsonText, params, atId);
+            } finally {
+                queueSlots.release();
+                decrementInFlight();
+            }
+        }
+    }
+}
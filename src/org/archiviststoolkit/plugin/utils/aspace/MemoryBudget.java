@@ -0,0 +1,151 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Class used to keep the memory used by the migration within a budget without calling System.gc().
+ * It keeps track of the estimated size of the batch payloads waiting on, or being posted to the backend,
+ * and blocks the thread producing them when that is over budget. It also keeps track of the estimated
+ * size of the records loaded in the hibernate session so the session is only cleared when needed.
+ */
+public class MemoryBudget {
+    // the fraction of the max heap which can be used by payloads in-flight
+    private static final double PAYLOAD_FRACTION = 0.25;
+
+    // the fraction of the max heap which can be used by records loaded in the session
+    private static final double SESSION_FRACTION = 0.15;
+
+    // if the heap usage goes above this then the session is cleared
+    private static final double HEAP_THRESHOLD = 0.75;
+
+    // if the heap usage goes above this then producers are throttled even if under budget
+    private static final double HEAP_CRITICAL = 0.90;
+
+    // the maximum number of records loaded in the session before it's cleared
+    private static final int MAX_SESSION_RECORDS = 25;
+
+    private MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+    private long payloadBudget;
+    private long payloadBytes = 0;
+
+    private long sessionBudget;
+    private long sessionBytes = 0;
+    private int sessionRecords = 0;
+
+    /**
+     * The main constructor which sets the budgets based on the max heap size
+     */
+    public MemoryBudget() {
+        long maxHeap = getMaxHeap();
+
+        payloadBudget = (long)(maxHeap*PAYLOAD_FRACTION);
+        sessionBudget = (long)(maxHeap*SESSION_FRACTION);
+    }
+
+    /**
+     * Method to try and reserve memory for a payload. If the payloads in-flight are over budget, this
+     * waits until enough memory is released or the timeout is reached. A payload is always allowed when
+     * nothing else is in-flight so a payload larger than the budget doesn't block forever.
+     *
+     * @param bytes the estimated size of the payload
+     * @param timeout in milliseconds
+     * @return true if the memory was reserved
+     * @throws InterruptedException
+     */
+    public synchronized boolean tryAcquire(long bytes, long timeout) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + timeout;
+
+        while (payloadBytes > 0 && (payloadBytes + bytes > payloadBudget || getHeapUsage() > HEAP_CRITICAL)) {
+            long waitTime = endTime - System.currentTimeMillis();
+            if(waitTime <= 0) return false;
+
+            wait(Math.min(waitTime, 1000));
+        }
+
+        payloadBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Method to release memory reserved for a payload once it has been posted
+     *
+     * @param bytes
+     */
+    public synchronized void release(long bytes) {
+        payloadBytes = Math.max(0, payloadBytes - bytes);
+        notifyAll();
+    }
+
+    /**
+     * Method to return the estimated bytes of the payloads in-flight
+     *
+     * @return
+     */
+    public synchronized long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * Method to record that a record was loaded into the hibernate session
+     *
+     * @param bytes the estimated size of the loaded record graph
+     */
+    public synchronized void addSessionRecord(long bytes) {
+        sessionBytes += bytes;
+        sessionRecords++;
+    }
+
+    /**
+     * Method to check whether the hibernate session should be cleared, based on the estimated
+     * size of the records loaded into it, the number of records and the heap usage
+     *
+     * @return
+     */
+    public synchronized boolean shouldRefreshSession() {
+        return sessionBytes > sessionBudget || sessionRecords >= MAX_SESSION_RECORDS ||
+                getHeapUsage() > HEAP_THRESHOLD;
+    }
+
+    /**
+     * Method to call once the hibernate session has been cleared
+     */
+    public synchronized void sessionRefreshed() {
+        sessionBytes = 0;
+        sessionRecords = 0;
+    }
+
+    /**
+     * Method to return the fraction of the max heap currently used
+     *
+     * @return
+     */
+    public double getHeapUsage() {
+        MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+        return heap.getUsed()/(double)getMaxHeap();
+    }
+
+    /**
+     * Method to return the heap usage as a readable string
+     *
+     * @return
+     */
+    public String getHeapUsageMessage() {
+        MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+
+        return "Heap used: " + heap.getUsed()/1048576L + "MB of " + getMaxHeap()/1048576L +
+                "MB, payloads in-flight: " + getPayloadBytes()/1048576L + "MB";
+    }
+
+    /**
+     * Method to return the max heap, or the committed heap if the max is undefined
+     *
+     * @return
+     */
+    private long getMaxHeap() {
+        MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+        return heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+    }
+}
@@ -0,0 +1,133 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * The MBean which exposes the state of an ASpaceCopyUtil object and allows the copy process
+ * to be paused, resumed, stopped and the number of resource copy threads to be changed.
+ */
+public class MigrationControl implements MigrationControlMBean {
+    public static final String OBJECT_NAME = "org.archiviststoolkit.plugin:type=MigrationControl";
+
+    private ASpaceCopyUtil copyUtil;
+
+    /**
+     * The main constructor
+     *
+     * @param copyUtil
+     */
+    public MigrationControl(ASpaceCopyUtil copyUtil) {
+        this.copyUtil = copyUtil;
+    }
+
+    /**
+     * Method to register the MBean for the copy util, replacing any previously registered one
+     *
+     * @param copyUtil
+     */
+    public static void register(ASpaceCopyUtil copyUtil) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if(mbs.isRegistered(name)) {
+                mbs.unregisterMBean(name);
+            }
+
+            mbs.registerMBean(new MigrationControl(copyUtil), name);
+        } catch (Exception e) {
+            System.out.println("Unable to register migration MBean: " + e.getMessage());
+        }
+    }
+
+    public String getCurrentPhase() {
+        return copyUtil.getMetrics().getCurrentPhaseName();
+    }
+
+    public String getCurrentRecord() {
+        return copyUtil.getCurrentRecordInfo();
+    }
+
+    public String getRecordsCopied() {
+        return copyUtil.getTotalRecordsCopiedMessage();
+    }
+
+    public int getResourceRecordsCopied() {
+        return copyUtil.getCopyCount();
+    }
+
+    public int getSaveErrorCount() {
+        return copyUtil.getSaveErrorCount();
+    }
+
+    public int getBackendErrorCount() {
+        return copyUtil.getASpaceErrorCount();
+    }
+
+    public int getActiveClients() {
+        return copyUtil.getTotalASpaceClients();
+    }
+
+    public int getInFlightRequests() {
+        return copyUtil.getMetrics().getInFlightRequests();
+    }
+
+    public long getPendingLogMessages() {
+        return copyUtil.getLogger().getPendingCount();
+    }
+
+    public long getPayloadBytesInFlight() {
+        return copyUtil.getMemoryBudget().getPayloadBytes();
+    }
+
+    public String getMetrics() {
+        return copyUtil.getMetrics().getMetricsLine();
+    }
+
+    public String getETA() {
+        return copyUtil.getMetrics().getETA();
+    }
+
+    public long getHeapUsedMB() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getUsed()/1048576L;
+    }
+
+    public long getHeapMaxMB() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getMax()/1048576L;
+    }
+
+    public boolean isPaused() {
+        return copyUtil.isPaused();
+    }
+
+    public boolean isCopying() {
+        return copyUtil.isCopying();
+    }
+
+    public int getWorkerCount() {
+        return copyUtil.getMaxClients();
+    }
+
+    public void setWorkerCount(int workerCount) {
+        copyUtil.print("Number of resource copy threads changed to " + workerCount);
+        copyUtil.setMaxClients(workerCount);
+    }
+
+    public void pause() {
+        copyUtil.setPauseCopy(true);
+    }
+
+    public void resume() {
+        copyUtil.setPauseCopy(false);
+    }
+
+    public void stop() {
+        copyUtil.print("Stopping copy process ...");
+        copyUtil.stopCopy();
+    }
+}
@@ -0,0 +1,62 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+/**
+ * The management interface of a running migration. It's registered with the platform MBean
+ * server so a migration, including one running from the command line, can be monitored and
+ * tuned with jconsole.
+ */
+public interface MigrationControlMBean {
+    public String getCurrentPhase();
+
+    public String getCurrentRecord();
+
+    public String getRecordsCopied();
+
+    public int getResourceRecordsCopied();
+
+    /**
+     * Method to return the number of errors and warnings recorded while copying the records, the same
+     * count given as "Number of errors/warnings" at the end of the migration
+     *
+     * @return
+     */
+    public int getSaveErrorCount();
+
+    /**
+     * Method to return the number of those errors which were returned by the ASpace backend when
+     * saving a record
+     *
+     * @return
+     */
+    public int getBackendErrorCount();
+
+    public int getActiveClients();
+
+    public int getInFlightRequests();
+
+    public long getPendingLogMessages();
+
+    public long getPayloadBytesInFlight();
+
+    public String getMetrics();
+
+    public String getETA();
+
+    public long getHeapUsedMB();
+
+    public long getHeapMaxMB();
+
+    public boolean isPaused();
+
+    public boolean isCopying();
+
+    public int getWorkerCount();
+
+    public void setWorkerCount(int workerCount);
+
+    public void pause();
+
+    public void resume();
+
+    public void stop();
+}
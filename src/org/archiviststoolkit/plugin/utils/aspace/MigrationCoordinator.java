@@ -0,0 +1,643 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.archiviststoolkit.model.Resources;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class used to split the copying of the resource records across several worker processes, each with
+ * their own heap and AT database session. The records the resources link to (names, subjects,
+ * accessions, etc.) are copied first by the process running the coordinator, then the resources are
+ * divided into shards, either by repository or into ranges of ids, balanced by the number of components.
+ *
+ * Each shard gets a directory holding the ids of its resources, a copy of the URI maps and the properties
+ * the worker is started with. The worker saves its URI maps, logs and errors there, and marks the shard
+ * as done once it has finished. If a worker stops before then, the shard is started again, on the next
+ * worker host if there is more than one, and carries on from the last resource the worker saved. Once
+ * all the shards are done the resource URIs are merged back into the coordinator's URI maps.
+ *
+ * By default the workers are run on this machine. To run them on other hosts the shards directory has
+ * to be shared between them, and a worker command given, i.e.
+ *
+ * ssh {host} java -Xmx4g -cp "/opt/migration/lib/*" org.archiviststoolkit.plugin.dbCopyCLI {properties}
+ */
+public class MigrationCoordinator {
+    public static final String SHARD_RESOURCES_FILENAME = "resources.txt";
+    public static final String SHARD_PROPERTIES_FILENAME = "shard.properties";
+    public static final String SHARD_LOG_FILENAME = "migration_log.txt";
+    public static final String SHARD_OUTPUT_FILENAME = "migration_output.txt";
+    public static final String SHARD_DONE_FILENAME = "done.txt";
+
+    public static final String SHARD_BY_REPOSITORY = "repository";
+    public static final String SHARD_BY_ID = "id";
+
+    // the class run by the default worker command
+    private static final String WORKER_CLASS = "org.archiviststoolkit.plugin.dbCopyCLI";
+
+    // how long to wait before starting a shard again
+    private static final long RESTART_DELAY = 10000;
+
+    private File shardsDirectory;
+    private int workers;
+    private String shardBy = SHARD_BY_REPOSITORY;
+    private String workerCommand = "";
+    private String[] workerHosts = new String[]{"localhost"};
+    private int maxAttempts = 3;
+
+    // the properties the workers are started with
+    private Properties properties;
+
+    private ArrayList<File> shardDirectories = new ArrayList<File>();
+    private ArrayList<Process> runningWorkers = new ArrayList<Process>();
+    private int failedShards = 0;
+
+    /**
+     * The main constructor
+     *
+     * @param shardsDirectory the directory the shard directories are created in
+     * @param properties the properties of the coordinator, which the worker properties are based on
+     * @param workers the number of shards to split the resources into
+     */
+    public MigrationCoordinator(File shardsDirectory, Properties properties, int workers) {
+        this.shardsDirectory = shardsDirectory;
+        this.properties = properties;
+        this.workers = workers;
+    }
+
+    /**
+     * Method to set whether the resources are split up by repository or into ranges of ids
+     *
+     * @param shardBy
+     */
+    public void setShardBy(String shardBy) {
+        this.shardBy = shardBy;
+    }
+
+    /**
+     * Method to set the command used to start a worker. {host}, {shard} and {properties} are replaced
+     * by the worker host, shard number and the worker properties file
+     *
+     * @param workerCommand the command or an empty string to start the workers on this machine
+     */
+    public void setWorkerCommand(String workerCommand) {
+        this.workerCommand = workerCommand;
+    }
+
+    /**
+     * Method to set the hosts the workers are run on. The shards are given to the hosts in turn, and a shard
+     * which is started again moves on to the next host
+     *
+     * @param workerHosts
+     */
+    public void setWorkerHosts(String[] workerHosts) {
+        if(workerHosts.length > 0) {
+            this.workerHosts = workerHosts;
+        }
+    }
+
+    /**
+     * Method to set the number of times to start a shard before giving up on it
+     *
+     * @param maxAttempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Method to split the resources into shards, and create the directory for each one
+     *
+     * @param resources
+     * @param componentCounts the number of components in each resource, used to balance the shards
+     * @param uriMapFile the URI maps of the records already copied, which are given to each worker
+     * @return the number of shards
+     * @throws IOException
+     */
+    public int createShards(ArrayList<Resources> resources, HashMap<Long, Long> componentCounts,
+                            File uriMapFile) throws IOException {
+        ArrayList<ArrayList<Long>> shards = shardBy.equalsIgnoreCase(SHARD_BY_ID) ?
+                shardByIdRange(resources, componentCounts) : shardByRepository(resources, componentCounts);
+
+        deleteShards();
+
+        for(ArrayList<Long> shard: shards) {
+            if(shard.isEmpty()) continue;
+
+            File shardDirectory = new File(shardsDirectory, String.format("shard-%02d", shardDirectories.size() + 1));
+
+            if(!shardDirectory.mkdirs()) {
+                throw new IOException("Unable to create shard directory: " + shardDirectory.getAbsolutePath());
+            }
+
+            writeShardResources(shardDirectory, shard);
+            copyFile(uriMapFile, new File(shardDirectory, uriMapFile.getName()));
+            writeShardProperties(shardDirectory);
+
+            long shardCost = 0;
+            for(Long id: shard) {
+                shardCost += getResourceCost(componentCounts, id);
+            }
+
+            print("Shard " + shardDirectory.getName() + ": " + shard.size() + " resources, " + shardCost + " records");
+
+            shardDirectories.add(shardDirectory);
+        }
+
+        return shardDirectories.size();
+    }
+
+    /**
+     * Method to give each repository to the shard with the fewest records so far, starting with the largest
+     *
+     * @param resources
+     * @param componentCounts
+     * @return
+     */
+    private ArrayList<ArrayList<Long>> shardByRepository(ArrayList<Resources> resources,
+                                                         final HashMap<Long, Long> componentCounts) {
+        final HashMap<Long, ArrayList<Long>> repositoryResources = new HashMap<Long, ArrayList<Long>>();
+        final HashMap<Long, Long> repositoryCosts = new HashMap<Long, Long>();
+
+        for(Resources resource: resources) {
+            Long repositoryId = resource.getRepository().getIdentifier();
+
+            if(!repositoryResources.containsKey(repositoryId)) {
+                repositoryResources.put(repositoryId, new ArrayList<Long>());
+                repositoryCosts.put(repositoryId, 0L);
+            }
+
+            repositoryResources.get(repositoryId).add(resource.getIdentifier());
+            repositoryCosts.put(repositoryId, repositoryCosts.get(repositoryId) + getResourceCost(componentCounts, resource.getIdentifier()));
+        }
+
+        ArrayList<Long> repositoryIds = new ArrayList<Long>(repositoryResources.keySet());
+
+        Collections.sort(repositoryIds, new Comparator<Long>() {
+            public int compare(Long id1, Long id2) {
+                return repositoryCosts.get(id2).compareTo(repositoryCosts.get(id1));
+            }
+        });
+
+        ArrayList<ArrayList<Long>> shards = createEmptyShards();
+        long[] shardCosts = new long[workers];
+
+        for(Long repositoryId: repositoryIds) {
+            int shard = 0;
+
+            for(int i = 1; i < workers; i++) {
+                if(shardCosts[i] < shardCosts[shard]) shard = i;
+            }
+
+            shards.get(shard).addAll(repositoryResources.get(repositoryId));
+            shardCosts[shard] += repositoryCosts.get(repositoryId);
+        }
+
+        return shards;
+    }
+
+    /**
+     * Method to split the resources into ranges of ids, each with about the same number of records
+     *
+     * @param resources
+     * @param componentCounts
+     * @return
+     */
+    private ArrayList<ArrayList<Long>> shardByIdRange(ArrayList<Resources> resources, HashMap<Long, Long> componentCounts) {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        long totalCost = 0;
+
+        for(Resources resource: resources) {
+            ids.add(resource.getIdentifier());
+            totalCost += getResourceCost(componentCounts, resource.getIdentifier());
+        }
+
+        Collections.sort(ids);
+
+        ArrayList<ArrayList<Long>> shards = createEmptyShards();
+        long cost = 0;
+
+        for(Long id: ids) {
+            int shard = (int) Math.min(workers - 1, cost * workers / Math.max(1, totalCost));
+
+            shards.get(shard).add(id);
+            cost += getResourceCost(componentCounts, id);
+        }
+
+        return shards;
+    }
+
+    private ArrayList<ArrayList<Long>> createEmptyShards() {
+        ArrayList<ArrayList<Long>> shards = new ArrayList<ArrayList<Long>>();
+
+        for(int i = 0; i < workers; i++) {
+            shards.add(new ArrayList<Long>());
+        }
+
+        return shards;
+    }
+
+    /**
+     * Method to return the estimated cost of copying a resource, which is the number of records in it
+     *
+     * @param componentCounts
+     * @param id
+     * @return
+     */
+    private long getResourceCost(HashMap<Long, Long> componentCounts, Long id) {
+        Long componentCount = componentCounts.get(id);
+        return (componentCount == null) ? 1 : componentCount + 1;
+    }
+
+    /**
+     * Method to write out the properties the worker of a shard is started with
+     *
+     * @param shardDirectory
+     * @throws IOException
+     */
+    private void writeShardProperties(File shardDirectory) throws IOException {
+        Properties shardProperties = new Properties();
+        shardProperties.putAll(properties);
+
+        shardProperties.setProperty("shardWorkers", "0");
+        shardProperties.setProperty("shardDirectory", shardDirectory.getAbsolutePath());
+
+        // the coordinator has already done these
+        shardProperties.setProperty("checkRepositoryMismatch", "false");
+        shardProperties.setProperty("continueFromResources", "false");
+        shardProperties.setProperty("copyOnlyResources", "false");
+
+        if(!properties.getProperty("trafficCaptureFile", "").isEmpty()) {
+            shardProperties.setProperty("trafficCaptureFile", new File(shardDirectory, "traffic.gz").getAbsolutePath());
+        }
+
+        OutputStream output = new FileOutputStream(new File(shardDirectory, SHARD_PROPERTIES_FILENAME));
+        try {
+            shardProperties.store(output, "Properties of the worker for " + shardDirectory.getName());
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Method to run the workers for all the shards, and wait for them to finish
+     *
+     * @return true if all the shards were done
+     * @throws InterruptedException
+     */
+    public boolean run() throws InterruptedException {
+        // make sure the workers don't keep running if this process is stopped
+        Thread shutdownHook = new Thread(new Runnable() {
+            public void run() {
+                stopWorkers();
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        ExecutorService executor = Executors.newFixedThreadPool(shardDirectories.size());
+
+        for(int i = 0; i < shardDirectories.size(); i++) {
+            final int shardNumber = i;
+
+            executor.execute(new Runnable() {
+                public void run() {
+                    runShard(shardNumber);
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(365, TimeUnit.DAYS);
+
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+
+        return failedShards == 0;
+    }
+
+    /**
+     * Method to run the worker for a shard until it's done, starting it again if it stops before then
+     *
+     * @param shardNumber
+     */
+    private void runShard(int shardNumber) {
+        File shardDirectory = shardDirectories.get(shardNumber);
+        String shardName = shardDirectory.getName();
+
+        for(int attempt = 0; attempt < maxAttempts; attempt++) {
+            String host = workerHosts[(shardNumber + attempt) % workerHosts.length];
+
+            if(attempt > 0) {
+                print("Starting " + shardName + " again on " + host + " (attempt " + (attempt + 1) + " of " + maxAttempts + ")");
+            }
+
+            try {
+                int exitCode = runWorker(shardNumber, host);
+
+                if(isShardDone(shardDirectory)) {
+                    print(shardName + " done");
+                    return;
+                }
+
+                print(shardName + " worker on " + host + " stopped before it was done, exit code " + exitCode);
+
+                Thread.sleep(RESTART_DELAY);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                print(shardName + " worker on " + host + " couldn't be started: " + e.getMessage());
+            }
+        }
+
+        print(shardName + " failed, it can be carried on by running the migration again with continueFromResources=true");
+
+        synchronized (this) {
+            failedShards++;
+        }
+    }
+
+    /**
+     * Method to start the worker for a shard and wait for it to stop. Its output is printed with the
+     * name of the shard in front of each line
+     *
+     * @param shardNumber
+     * @param host
+     * @return the exit code of the worker
+     * @throws Exception
+     */
+    private int runWorker(int shardNumber, String host) throws Exception {
+        File shardDirectory = shardDirectories.get(shardNumber);
+        String propertiesPath = new File(shardDirectory, SHARD_PROPERTIES_FILENAME).getAbsolutePath();
+
+        ArrayList<String> command = new ArrayList<String>();
+
+        if(workerCommand.trim().isEmpty()) {
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(WORKER_CLASS);
+            command.add(propertiesPath);
+        } else {
+            for(String part: workerCommand.trim().split("\\s+")) {
+                command.add(part.replace("{host}", host).replace("{shard}", "" + (shardNumber + 1)).
+                        replace("{properties}", propertiesPath));
+            }
+        }
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+
+        Process process = processBuilder.start();
+
+        synchronized (runningWorkers) {
+            runningWorkers.add(process);
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+
+            while((line = reader.readLine()) != null) {
+                print("[" + shardDirectory.getName() + "] " + line);
+            }
+
+            return process.waitFor();
+        } finally {
+            synchronized (runningWorkers) {
+                runningWorkers.remove(process);
+            }
+        }
+    }
+
+    /**
+     * Method to stop the workers which are still running
+     */
+    private void stopWorkers() {
+        synchronized (runningWorkers) {
+            for(Process process: runningWorkers) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Method to add the resource URIs saved by the workers to the coordinator's URI maps, removing any of the
+     * resources in a shard which its worker no longer has a URI for. This is also done
+     * before creating new shards, in case the coordinator was stopped before the last shards were merged
+     *
+     * @param ascopy
+     * @return the number of resources added
+     */
+    public int mergeResults(ASpaceCopyUtil ascopy) {
+        int added = 0;
+
+        for(File shardDirectory: getShardDirectories()) {
+            File shardURIMapFile = new File(shardDirectory, ascopy.getURIMapFile().getName());
+            if(!shardURIMapFile.exists()) continue;
+
+            try {
+                // the shard's map is authoritative for its resources, if we know which they are
+                HashSet<Long> shardResourceIds = null;
+                if(new File(shardDirectory, SHARD_RESOURCES_FILENAME).exists()) {
+                    shardResourceIds = readShardResources(shardDirectory);
+                }
+
+                added += ascopy.addResourceURIs(shardURIMapFile, shardResourceIds);
+            } catch (Exception e) {
+                print("Unable to merge the resource URIs of " + shardDirectory.getName() + ": " + e.getMessage());
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Method to return the migration logs of the workers one after the other
+     *
+     * @return
+     */
+    public String getShardLogs() {
+        StringBuilder sb = new StringBuilder();
+
+        for(File shardDirectory: getShardDirectories()) {
+            sb.append("\n\n\n").append(shardDirectory.getName().toUpperCase()).append(" ::\n\n");
+
+            File logFile = new File(shardDirectory, SHARD_LOG_FILENAME);
+
+            if(logFile.exists()) {
+                try {
+                    sb.append(readFile(logFile));
+                } catch (IOException e) {
+                    sb.append("Unable to read ").append(logFile.getAbsolutePath());
+                }
+            } else {
+                sb.append("No migration log, the worker didn't finish");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to return the shard directories, either the ones created, or any left by the last run
+     *
+     * @return
+     */
+    private ArrayList<File> getShardDirectories() {
+        if(!shardDirectories.isEmpty()) return shardDirectories;
+
+        ArrayList<File> directories = new ArrayList<File>();
+        File[] files = shardsDirectory.listFiles();
+
+        if(files != null) {
+            Arrays.sort(files);
+
+            for(File file: files) {
+                if(file.isDirectory() && file.getName().startsWith("shard-")) {
+                    directories.add(file);
+                }
+            }
+        }
+
+        return directories;
+    }
+
+    /**
+     * Method to delete the shard directories left by the last run
+     */
+    private void deleteShards() {
+        for(File shardDirectory: getShardDirectories()) {
+            File[] files = shardDirectory.listFiles();
+
+            if(files != null) {
+                for(File file: files) {
+                    file.delete();
+                }
+            }
+
+            shardDirectory.delete();
+        }
+    }
+
+    private void writeShardResources(File shardDirectory, ArrayList<Long> ids) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(new File(shardDirectory, SHARD_RESOURCES_FILENAME)));
+
+        try {
+            for(Long id: ids) {
+                writer.write(id + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Method used by a worker to read the ids of the resources in its shard
+     *
+     * @param shardDirectory
+     * @return
+     * @throws IOException
+     */
+    public static HashSet<Long> readShardResources(File shardDirectory) throws IOException {
+        HashSet<Long> ids = new HashSet<Long>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(shardDirectory, SHARD_RESOURCES_FILENAME)));
+
+        try {
+            String line;
+
+            while((line = reader.readLine()) != null) {
+                if(!line.trim().isEmpty()) {
+                    ids.add(new Long(line.trim()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Method used by a worker to mark its shard as done
+     *
+     * @param shardDirectory
+     * @param message
+     * @throws IOException
+     */
+    public static void markShardDone(File shardDirectory, String message) throws IOException {
+        FileWriter writer = new FileWriter(new File(shardDirectory, SHARD_DONE_FILENAME));
+
+        try {
+            writer.write(message + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Method to see whether the worker of a shard finished
+     *
+     * @param shardDirectory
+     * @return
+     */
+    public static boolean isShardDone(File shardDirectory) {
+        return new File(shardDirectory, SHARD_DONE_FILENAME).exists();
+    }
+
+    private static void copyFile(File source, File destination) throws IOException {
+        InputStream input = new FileInputStream(source);
+
+        try {
+            OutputStream output = new FileOutputStream(destination);
+
+            try {
+                byte[] buffer = new byte[65536];
+                int length;
+
+                while((length = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, length);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            char[] buffer = new char[8192];
+            int length;
+
+            while((length = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, length);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to print a message, since the workers print at the same time
+     *
+     * @param message
+     */
+    private static synchronized void print(String message) {
+        System.out.println(message);
+    }
+}
@@ -0,0 +1,251 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class used to store the errors and warnings generated during a migration. Every entry is
+ * appended to a file on disk, while only a summary of the counts and a bounded tail of the most
+ * recent entries is kept in memory, so a run with a very large number of errors doesn't exhaust
+ * the heap, and getting the current status doesn't require copying all the errors.
+ */
+public class MigrationErrorStore {
+    // the number of recent entries kept in memory
+    private static final int MAX_TAIL_ENTRIES = 100;
+
+    // the maximum length of an entry kept in memory
+    private static final int MAX_TAIL_ENTRY_LENGTH = 4096;
+
+    // if the error file is smaller than this then the full text is returned by getText
+    private static final long MAX_FULL_TEXT_LENGTH = 1048576*5;
+
+    // the file where all entries are written to. This can be null
+    private File errorFile;
+    private BufferedWriter fileWriter;
+
+    // the bounded tail of recent entries
+    private ArrayDeque<String> tail = new ArrayDeque<String>();
+
+    // the count of entries per record type
+    private TreeMap<String, Integer> recordTypeCounts = new TreeMap<String, Integer>();
+
+    private int entryCount = 0;
+
+    /**
+     * The main constructor
+     *
+     * @param errorFile the file to write entries to, or null to only keep the tail in memory
+     */
+    public MigrationErrorStore(File errorFile) {
+        this.errorFile = errorFile;
+
+        if(errorFile != null) {
+            try {
+                fileWriter = new BufferedWriter(new FileWriter(errorFile, false));
+            } catch (IOException e) {
+                System.out.println("Unable to create error file " + errorFile.getAbsolutePath());
+                this.errorFile = null;
+            }
+        }
+    }
+
+    /**
+     * Method to add an error that occurred when talking to the ASpace backend
+     *
+     * @param recordType
+     * @param atId
+     * @param endpoint
+     * @param status
+     * @param message
+     */
+    public void addError(String recordType, String atId, String endpoint, String status, String message) {
+        StringBuilder sb = new StringBuilder();
+
+        if(endpoint != null) {
+            sb.append("Endpoint: ").append(endpoint).append("\n");
+        }
+
+        if(atId != null) {
+            sb.append("AT Identifier:").append(atId).append("\n");
+        }
+
+        if(status != null) {
+            sb.append(status).append("\n\n");
+        }
+
+        sb.append(message).append("\n");
+
+        add(recordType, sb.toString());
+    }
+
+    /**
+     * Method to add a message to the store
+     *
+     * @param recordType The type of record, used for the summary
+     * @param text The full text of the entry
+     */
+    public synchronized void add(String recordType, String text) {
+        entryCount++;
+
+        if(recordType == null || recordType.isEmpty()) {
+            recordType = "Other";
+        }
+
+        Integer count = recordTypeCounts.get(recordType);
+        recordTypeCounts.put(recordType, count == null ? 1 : count + 1);
+
+        // write the full entry to the file
+        if(fileWriter != null) {
+            try {
+                fileWriter.write(text);
+                fileWriter.write("\n");
+                fileWriter.flush();
+            } catch (IOException e) {
+                System.out.println("Unable to write to error file: " + e.getMessage());
+            }
+        }
+
+        // now keep a possibly truncated copy in memory
+        if(text.length() > MAX_TAIL_ENTRY_LENGTH) {
+            text = text.substring(0, MAX_TAIL_ENTRY_LENGTH) + "\n... (truncated)\n";
+        }
+
+        tail.addLast(text);
+
+        if(tail.size() > MAX_TAIL_ENTRIES) {
+            tail.removeFirst();
+        }
+    }
+
+    /**
+     * Method to return the record type of an AT identifier which are in the form "Resource->MSS 1"
+     *
+     * @param atId
+     * @return
+     */
+    public static String getRecordType(String atId) {
+        if(atId != null && atId.contains("->")) {
+            return atId.substring(0, atId.indexOf("->"));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Method to return the number of entries
+     *
+     * @return
+     */
+    public synchronized int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Method to return a summary of the number of entries per record type
+     *
+     * @return
+     */
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+
+        for(Map.Entry<String, Integer> entry: recordTypeCounts.entrySet()) {
+            sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to return the most recent entries. The amount of text is bounded no matter
+     * how many entries were added, so this is cheap to call when displaying the current status
+     *
+     * @return
+     */
+    public synchronized String getTail() {
+        StringBuilder sb = new StringBuilder();
+
+        if(entryCount > tail.size()) {
+            sb.append("Showing last ").append(tail.size()).append(" of ").append(entryCount).append(" entries");
+
+            if(errorFile != null) {
+                sb.append(", full list in ").append(errorFile.getAbsolutePath());
+            }
+
+            sb.append("\n\n").append(getSummary()).append("\n");
+        }
+
+        Iterator<String> iterator = tail.iterator();
+        while (iterator.hasNext()) {
+            sb.append(iterator.next()).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to return the text of all the entries if it's small enough to safely load into
+     * memory, otherwise the summary and tail is returned. The text is read from the file even when
+     * every entry is in the tail, since long entries are truncated in the tail
+     *
+     * @return
+     */
+    public synchronized String getText() {
+        if(errorFile == null || errorFile.length() > MAX_FULL_TEXT_LENGTH) {
+            return getTail();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        BufferedReader reader = null;
+
+        try {
+            if(fileWriter != null) fileWriter.flush();
+
+            reader = new BufferedReader(new FileReader(errorFile));
+            char[] buffer = new char[8192];
+            int read;
+
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            return getTail();
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to return the file the entries are written to
+     *
+     * @return
+     */
+    public File getErrorFile() {
+        return errorFile;
+    }
+
+    /**
+     * Method to close the error file
+     */
+    public synchronized void close() {
+        if(fileWriter != null) {
+            try {
+                fileWriter.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            fileWriter = null;
+        }
+    }
+}
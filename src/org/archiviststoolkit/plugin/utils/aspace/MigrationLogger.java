@@ -0,0 +1,358 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import javax.swing.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A levelled logger used by the migration code. Messages are placed in a lock free ring
+ * buffer by the worker threads and are written out in batches by a single flusher thread,
+ * so the cost of logging on the copy threads is just a CAS and an array write. The batched
+ * output goes to the output console (on the EDT) or stdout, and optionally to a log file.
+ */
+public class MigrationLogger {
+    // the logging levels, in increasing order of verbosity
+    public static final int ERROR = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+
+    private static final String[] LEVEL_NAMES = {"error", "warn", "info", "debug"};
+
+    // the size of the ring buffer. Must be a power of 2
+    private static final int BUFFER_SIZE = 8192;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    // how often the buffer gets flushed to the sinks in milliseconds
+    private static final long FLUSH_INTERVAL = 250;
+
+    // the maximum number of lines written to the output console on each flush. Anything over
+    // this still goes to the log file, but is only counted for the output console
+    private static final int MAX_CONSOLE_LINES_PER_FLUSH = 50;
+
+    // the maximum number of characters to keep in the output console text area
+    private static final int MAX_CONSOLE_CHARS = 50000;
+
+    private final AtomicReferenceArray<String> buffer = new AtomicReferenceArray<String>(BUFFER_SIZE);
+
+    // the next slot to be claimed by a producer, and the next slot to be read by the flusher
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // the number of messages dropped because the buffer was full
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    // the number of dropped messages already reported in the output
+    private long reportedDropCount = 0;
+
+    private volatile int level = INFO;
+
+    // the sinks
+    private volatile JTextArea outputConsole;
+    private BufferedWriter fileWriter;
+
+    // set when the console should be cleared on the next flush
+    private volatile boolean clearConsole = false;
+
+    private Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * The main constructor
+     */
+    public MigrationLogger() {
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                while (running) {
+                    try {
+                        Thread.sleep(FLUSH_INTERVAL);
+                    } catch (InterruptedException e) {
+                        // just flush what we have
+                    }
+
+                    flush();
+                }
+            }
+        }, "MigrationLogger");
+
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Method to set the output console. If it's null then messages are written to stdout
+     *
+     * @param outputConsole
+     */
+    public void setOutputConsole(JTextArea outputConsole) {
+        this.outputConsole = outputConsole;
+    }
+
+    /**
+     * Method to set the file where all messages at or below the current level are written
+     *
+     * @param logFile
+     */
+    public synchronized void setLogFile(File logFile) {
+        closeLogFile();
+
+        try {
+            fileWriter = new BufferedWriter(new FileWriter(logFile, true));
+        } catch (IOException e) {
+            System.out.println("Unable to open log file " + logFile.getAbsolutePath());
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Method to set the logging level
+     *
+     * @param level
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Method to set the logging level from it's name i.e. error, warn, info, or debug
+     *
+     * @param levelName
+     */
+    public void setLevel(String levelName) {
+        if(levelName == null) return;
+
+        for(int i = 0; i < LEVEL_NAMES.length; i++) {
+            if(LEVEL_NAMES[i].equalsIgnoreCase(levelName.trim())) {
+                level = i;
+                return;
+            }
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Method to see if a message at a certain level would be logged. Callers should
+     * use this to avoid building expensive messages which are just going to be discarded
+     *
+     * @param messageLevel
+     * @return
+     */
+    public boolean isEnabled(int messageLevel) {
+        return messageLevel <= level;
+    }
+
+    public boolean isDebugEnabled() {
+        return DEBUG <= level;
+    }
+
+    public void error(String message) {
+        log(ERROR, message);
+    }
+
+    public void warn(String message) {
+        log(WARN, message);
+    }
+
+    public void info(String message) {
+        log(INFO, message);
+    }
+
+    public void debug(String message) {
+        log(DEBUG, message);
+    }
+
+    /**
+     * Method to place a message in the ring buffer. If the buffer is full the message is
+     * dropped rather than blocking the caller
+     *
+     * @param messageLevel
+     * @param message
+     */
+    public void log(int messageLevel, String message) {
+        if(messageLevel > level) return;
+        if(message == null) message = "null";
+
+        long slot;
+        while (true) {
+            slot = head.get();
+
+            if(slot - tail.get() >= BUFFER_SIZE) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+
+            if(head.compareAndSet(slot, slot + 1)) {
+                break;
+            }
+        }
+
+        buffer.set((int) (slot & BUFFER_MASK), message);
+
+        // the flusher thread has stopped, so write late messages out straight away
+        if(!running) {
+            flush();
+        }
+    }
+
+    /**
+     * Method to request that the output console be cleared on the next flush
+     */
+    public void clearConsole() {
+        clearConsole = true;
+    }
+
+    /**
+     * Method to return the number of messages waiting to be written out
+     *
+     * @return
+     */
+    public long getPendingCount() {
+        return head.get() - tail.get();
+    }
+
+    /**
+     * Method to return the number of messages dropped because the buffer was full
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Method to drain the ring buffer and write the messages to the sinks. Only the flusher
+     * thread, or a caller waiting for output to be written, should call this
+     */
+    public synchronized void flush() {
+        StringBuilder fileText = new StringBuilder();
+        StringBuilder consoleText = new StringBuilder();
+        int consoleLines = 0;
+        int suppressed = 0;
+
+        long current = tail.get();
+        long end = head.get();
+
+        while (current < end) {
+            int index = (int) (current & BUFFER_MASK);
+            String message = buffer.get(index);
+
+            // the producer has claimed the slot, but not yet written to it
+            if(message == null) break;
+
+            buffer.set(index, null);
+            current++;
+            tail.set(current);
+
+            if(fileWriter != null) {
+                fileText.append(message).append("\n");
+            }
+
+            if(outputConsole == null || consoleLines < MAX_CONSOLE_LINES_PER_FLUSH) {
+                consoleText.append(message).append("\n");
+                consoleLines++;
+            } else {
+                suppressed++;
+            }
+        }
+
+        if(suppressed > 0) {
+            consoleText.append("... ").append(suppressed).append(" more message(s) not shown\n");
+        }
+
+        // report any messages dropped since the last flush, so the gap shows up where it happened
+        long dropped = droppedCount.get() - reportedDropCount;
+        if(dropped > 0) {
+            reportedDropCount += dropped;
+
+            String message = "Logger dropped " + dropped + " message(s) because the buffer was full\n";
+            if(fileWriter != null) fileText.append(message);
+            consoleText.append(message);
+        }
+
+        writeToFile(fileText);
+        writeToConsole(consoleText);
+    }
+
+    /**
+     * Method to write the text to the log file
+     *
+     * @param text
+     */
+    private void writeToFile(StringBuilder text) {
+        if(fileWriter == null || text.length() == 0) return;
+
+        try {
+            fileWriter.write(text.toString());
+            fileWriter.flush();
+        } catch (IOException e) {
+            System.out.println("Unable to write to log file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to write the text to the console, making sure that the JTextArea is only
+     * updated on the EDT
+     *
+     * @param text
+     */
+    private void writeToConsole(StringBuilder text) {
+        final JTextArea console = outputConsole;
+        final boolean clear = clearConsole;
+        clearConsole = false;
+
+        if(console == null) {
+            if(text.length() != 0) System.out.print(text);
+            return;
+        }
+
+        if(text.length() == 0 && !clear) return;
+
+        final String consoleText = text.toString();
+
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if(clear || console.getDocument().getLength() > MAX_CONSOLE_CHARS) {
+                    console.setText(consoleText);
+                } else {
+                    console.append(consoleText);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to close the log file
+     */
+    private void closeLogFile() {
+        if(fileWriter != null) {
+            try {
+                fileWriter.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Method to flush any remaining messages, stop the flusher thread and close the log file.
+     * Any messages logged after this are written straight to the output console
+     */
+    public void close() {
+        running = false;
+        flusher.interrupt();
+
+        synchronized (this) {
+            flush();
+            closeLogFile();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.archiviststoolkit.plugin.dbdialog.RemoteDBConnectDialogLight;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * Class used to check that the memory used by the migration hasn't regressed. Each phase of the
+ * migration is run against an AT database (normally one made by ATDatasetGenerator) and the ASpace
+ * stub server, while the PhaseMemoryMonitor records the peak heap, steady state heap, bytes allocated
+ * and GC pause time of the phase. These are compared to a baseline file and the harness fails, with an
+ * exit code of 1, if any of them is more than the tolerance over the baseline.
+ *
+ * The AT connection information is read from the same properties as dbCopyCLI.
+ *
+ * Usage: MigrationMemoryHarness [properties file] [record]
+ *
+ * If record is given, the results are saved as the new baseline instead of being checked.
+ */
+public class MigrationMemoryHarness {
+    // the differences below these are just noise, so they never fail the check
+    private static final long MIN_HEAP_DIFFERENCE = 8 * 1048576L;
+    private static final long MIN_ALLOCATED_DIFFERENCE = 32 * 1048576L;
+    private static final long MIN_GC_PAUSE_DIFFERENCE = 100;
+
+    private Properties properties;
+
+    private File baselineFile;
+    private double tolerance = 0.10;
+    private boolean recordBaseline = false;
+
+    private ASpaceStubServer stubServer;
+    private RemoteDBConnectDialogLight rcd;
+    private ASpaceCopyUtil ascopy;
+
+    private PhaseMemoryMonitor monitor = new PhaseMemoryMonitor();
+    private ArrayList<PhaseMemoryMonitor.PhaseResult> results = new ArrayList<PhaseMemoryMonitor.PhaseResult>();
+
+    /**
+     * The main constructor
+     *
+     * @param properties
+     * @param recordBaseline
+     */
+    public MigrationMemoryHarness(Properties properties, boolean recordBaseline) {
+        this.properties = properties;
+        this.recordBaseline = recordBaseline;
+
+        baselineFile = new File(properties.getProperty("memoryBaseline", "memory_baseline.properties"));
+        tolerance = Double.parseDouble(properties.getProperty("memoryTolerance", "" + tolerance));
+        monitor.setSampleInterval(Long.parseLong(properties.getProperty("memorySampleInterval", "50")));
+    }
+
+    /**
+     * Method to run the migration phases and check the results against the baseline
+     *
+     * @return true if none of the phases went over the baseline
+     * @throws Exception
+     */
+    public boolean run() throws Exception {
+        String host = startBackend();
+
+        rcd = new RemoteDBConnectDialogLight();
+        rcd.connectToDatabase(properties.getProperty("databaseType"), properties.getProperty("atUrl"),
+                properties.getProperty("atUsername"), properties.getProperty("atPassword"));
+
+        if (rcd.getSession() == null) {
+            System.out.println("Source AT connection doesn't exist ...");
+            return false;
+        }
+
+        try {
+            runPhases(host);
+        } finally {
+            rcd.closeSession();
+            monitor.close();
+
+            if (stubServer != null) stubServer.stop();
+        }
+
+        System.out.println("\nMemory used by each phase (max heap " +
+                Runtime.getRuntime().maxMemory() / 1048576L + "MB):");
+
+        for (PhaseMemoryMonitor.PhaseResult result : results) {
+            System.out.println(result);
+        }
+
+        if (recordBaseline) {
+            saveBaseline();
+            return true;
+        } else {
+            return checkBaseline();
+        }
+    }
+
+    /**
+     * Method to start the stub server, unless a backend to use was given
+     *
+     * @return the host to migrate to
+     * @throws Exception
+     */
+    private String startBackend() throws Exception {
+        if (!new Boolean(properties.getProperty("startStubServer", "true"))) {
+            return properties.getProperty("aspaceHost");
+        }
+
+        stubServer = new ASpaceStubServer(Integer.parseInt(properties.getProperty("stubPort", "8089")));
+
+        // by default there is no latency, since only the memory used by the migration matters here
+        stubServer.setLatency(ASpaceStubServer.LATENCY_FIXED, 0, 0, 0);
+        stubServer.setBatchLatencyPerRecord(0);
+
+        String stubProperties = properties.getProperty("stubProperties");
+        if (stubProperties != null && new File(stubProperties).exists()) {
+            Properties stubConfig = new Properties();
+            FileInputStream in = new FileInputStream(stubProperties);
+            stubConfig.load(in);
+            in.close();
+
+            stubServer.configure(stubConfig);
+        }
+
+        stubServer.start();
+
+        return stubServer.getHost();
+    }
+
+    /**
+     * Method to run each phase of the migration in the same order as dbCopyCLI
+     *
+     * @param host
+     * @throws Exception
+     */
+    private void runPhases(String host) throws Exception {
+        HashMap<String, Boolean> publishMap = new HashMap<String, Boolean>();
+        publishMap.put("names", false);
+        publishMap.put("subjects", false);
+        publishMap.put("accessions", false);
+        publishMap.put("digitalObjects", false);
+        publishMap.put("resources", true);
+
+        ascopy = new ASpaceCopyUtil(rcd, host, properties.getProperty("aspaceAdmin", "admin"),
+                properties.getProperty("aspacePassword", "admin"));
+        ascopy.setLogLevel(properties.getProperty("logLevel", "warn"));
+        ascopy.setPublishHashMap(publishMap);
+        ascopy.setExtentPortionInParts(false);
+        ascopy.setResetPassword("archive");
+        ascopy.setCopying(true);
+
+        if (!ascopy.getSession()) {
+            throw new Exception("Unable to get an ASpace session from " + host);
+        }
+
+        ascopy.loadRepositories();
+
+        final int threads = Integer.parseInt(properties.getProperty("clientThreads", "1"));
+
+        runPhase(new Phase("LookupLists") {
+            public void run() throws Exception {
+                ascopy.copyLookupList();
+            }
+        });
+
+        runPhase(new Phase("Repositories") {
+            public void run() throws Exception {
+                ascopy.copyRepositoryRecords();
+                ascopy.mapRepositoryGroups();
+            }
+        });
+
+        runPhase(new Phase("Locations") {
+            public void run() throws Exception {
+                ascopy.copyLocationRecords();
+            }
+        });
+
+        runPhase(new Phase("Users") {
+            public void run() throws Exception {
+                ascopy.copyUserRecords();
+            }
+        });
+
+        runPhase(new Phase("Subjects") {
+            public void run() throws Exception {
+                ascopy.copySubjectRecords();
+            }
+        });
+
+        runPhase(new Phase("Names") {
+            public void run() throws Exception {
+                ascopy.copyNameRecords();
+            }
+        });
+
+        runPhase(new Phase("Accessions") {
+            public void run() throws Exception {
+                ascopy.copyAccessionRecords();
+            }
+        });
+
+        runPhase(new Phase("DigitalObjects") {
+            public void run() throws Exception {
+                ascopy.copyDigitalObjectRecords();
+            }
+        });
+
+        runPhase(new Phase("Resources") {
+            public void run() throws Exception {
+                ascopy.setUseBatchImport(true);
+                ascopy.copyResourceRecords(1000000, threads);
+            }
+        });
+
+        ascopy.cleanUp();
+    }
+
+    /**
+     * Method to run a single phase while monitoring the memory it uses
+     *
+     * @param phase
+     * @throws Exception
+     */
+    private void runPhase(Phase phase) throws Exception {
+        System.out.println("\nRunning phase: " + phase.name);
+
+        monitor.startPhase(phase.name);
+
+        try {
+            phase.run();
+        } finally {
+            PhaseMemoryMonitor.PhaseResult result = monitor.stopPhase();
+            results.add(result);
+
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Method to save the results as the new baseline
+     *
+     * @throws Exception
+     */
+    private void saveBaseline() throws Exception {
+        Properties baseline = new Properties();
+
+        for (PhaseMemoryMonitor.PhaseResult result : results) {
+            result.addToProperties(baseline);
+        }
+
+        FileOutputStream out = new FileOutputStream(baselineFile);
+        baseline.store(out, "Migration memory baseline, max heap " + Runtime.getRuntime().maxMemory() / 1048576L + "MB");
+        out.close();
+
+        System.out.println("\nBaseline saved to " + baselineFile.getAbsolutePath());
+    }
+
+    /**
+     * Method to check the results against the baseline
+     *
+     * @return true if no stat is more than the tolerance over the baseline
+     * @throws Exception
+     */
+    private boolean checkBaseline() throws Exception {
+        if (!baselineFile.exists()) {
+            System.out.println("\nNo baseline found at " + baselineFile.getAbsolutePath() + ", run with record to create one");
+            return false;
+        }
+
+        Properties baseline = new Properties();
+        FileInputStream in = new FileInputStream(baselineFile);
+        baseline.load(in);
+        in.close();
+
+        boolean passed = true;
+
+        System.out.println("\nChecking against baseline " + baselineFile.getAbsolutePath() +
+                " (tolerance " + Math.round(tolerance * 100) + "%):");
+
+        for (PhaseMemoryMonitor.PhaseResult result : results) {
+            for (String stat : PhaseMemoryMonitor.PhaseResult.STATS) {
+                String value = baseline.getProperty(result.getName() + "." + stat);
+                long current = result.getStat(stat);
+
+                // the stat can't be measured on this JVM, or wasn't recorded
+                if (value == null || current < 0) continue;
+
+                long expected = Long.parseLong(value);
+                long limit = Math.max((long) (expected * (1 + tolerance)), expected + getMinDifference(stat));
+
+                if (current > limit) {
+                    System.out.println("FAILED " + result.getName() + "." + stat + ": " + current +
+                            " is over the baseline " + expected + " (limit " + limit + ")");
+                    passed = false;
+                }
+            }
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    /**
+     * Method to return the smallest difference from the baseline which counts as a regression
+     *
+     * @param stat
+     * @return
+     */
+    private long getMinDifference(String stat) {
+        if (stat.equals(PhaseMemoryMonitor.PhaseResult.ALLOCATED_BYTES)) {
+            return MIN_ALLOCATED_DIFFERENCE;
+        } else if (stat.equals(PhaseMemoryMonitor.PhaseResult.GC_PAUSE_TIME)) {
+            return MIN_GC_PAUSE_DIFFERENCE;
+        } else {
+            return MIN_HEAP_DIFFERENCE;
+        }
+    }
+
+    /**
+     * A single phase of the migration
+     */
+    private abstract class Phase {
+        private String name;
+
+        public Phase(String name) {
+            this.name = name;
+        }
+
+        public abstract void run() throws Exception;
+    }
+
+    /**
+     * Main method for running the harness from the command line
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        String propertiesFilename = System.getProperty("user.dir") + "/dbcopy.properties";
+        boolean record = false;
+
+        for (String arg : args) {
+            if (arg.equals("record")) {
+                record = true;
+            } else {
+                propertiesFilename = arg;
+            }
+        }
+
+        boolean passed = false;
+
+        try {
+            Properties properties = new Properties();
+            FileInputStream in = new FileInputStream(propertiesFilename);
+            properties.load(in);
+            in.close();
+
+            MigrationMemoryHarness harness = new MigrationMemoryHarness(properties, record);
+            passed = harness.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+}
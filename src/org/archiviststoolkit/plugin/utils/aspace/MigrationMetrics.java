@@ -0,0 +1,336 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.archiviststoolkit.plugin.utils.StopWatch;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class used to keep track of the throughput and latency of each phase of the migration i.e.
+ * the records copied per second, bytes posted per second, in-flight requests, and a latency
+ * histogram for each endpoint. It's also used to estimate the time remaining for the current phase.
+ */
+public class MigrationMetrics {
+    // the upper bounds, in milliseconds, of the latency histogram buckets. The last bucket holds everything else
+    private static final long[] BUCKET_BOUNDS = {5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+            10000, 30000, 60000, 120000, 300000, 600000};
+
+    // how often the metrics line is written to the log in milliseconds
+    private static final long REPORT_INTERVAL = 60000;
+
+    // the phases that have been completed, and the current one
+    private ArrayList<Phase> phases = new ArrayList<Phase>();
+    private volatile Phase currentPhase;
+
+    // the number of requests currently being processed by the backend
+    private AtomicInteger inFlightRequests = new AtomicInteger(0);
+
+    // used to write the metrics line periodically
+    private Timer reportTimer;
+    private MigrationLogger logger;
+
+    private StopWatch stopWatch = new StopWatch();
+
+    /**
+     * The main constructor
+     */
+    public MigrationMetrics() {
+        startPhase("Initializing");
+    }
+
+    /**
+     * Method to start writing the metrics line to the log at a fixed interval
+     *
+     * @param logger
+     */
+    public synchronized void startReporting(MigrationLogger logger) {
+        this.logger = logger;
+
+        if(reportTimer != null) return;
+
+        reportTimer = new Timer("MigrationMetrics", true);
+        reportTimer.scheduleAtFixedRate(new TimerTask() {
+            public void run() {
+                MigrationMetrics.this.logger.info(getMetricsLine());
+            }
+        }, REPORT_INTERVAL, REPORT_INTERVAL);
+    }
+
+    /**
+     * Method to stop writing the metrics line to the log
+     */
+    public synchronized void stopReporting() {
+        if(reportTimer != null) {
+            reportTimer.cancel();
+            reportTimer = null;
+        }
+    }
+
+    /**
+     * Method to start a new phase. If the phase is the same as the current one nothing is done
+     *
+     * @param name
+     */
+    public synchronized void startPhase(String name) {
+        if(currentPhase != null) {
+            if(currentPhase.name.equals(name)) return;
+            currentPhase.finish();
+        }
+
+        currentPhase = new Phase(name);
+        phases.add(currentPhase);
+    }
+
+    /**
+     * Method to update the progress of the current phase
+     *
+     * @param phaseName
+     * @param total
+     * @param count
+     */
+    public void updateProgress(String phaseName, int total, int count) {
+        Phase phase = currentPhase;
+
+        if(!phase.name.equals(phaseName)) {
+            startPhase(phaseName);
+            phase = currentPhase;
+        }
+
+        if(total > 0) phase.total = total;
+        if(count > 0) phase.done = count;
+    }
+
+    /**
+     * Method to call just before a request is sent to the backend
+     */
+    public void requestStarted() {
+        inFlightRequests.incrementAndGet();
+    }
+
+    /**
+     * Method to call when a request was started, but couldn't be sent to the backend
+     */
+    public void requestNotSent() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    /**
+     * Method to call once a request to the backend has completed
+     *
+     * @param route the endpoint the request was made to
+     * @param bytes the number of bytes sent
+     * @param millis how long the request took
+     */
+    public void requestFinished(String route, long bytes, long millis) {
+        inFlightRequests.decrementAndGet();
+        currentPhase.recordRequest(getEndpointKey(route), bytes, millis);
+    }
+
+    /**
+     * Method to return the number of in-flight requests
+     *
+     * @return
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    /**
+     * Method to return the name of the current phase
+     *
+     * @return
+     */
+    public String getCurrentPhaseName() {
+        return currentPhase.name;
+    }
+
+    /**
+     * Method to return the estimated time remaining in the current phase as a readable string
+     *
+     * @return
+     */
+    public String getETA() {
+        long eta = currentPhase.getETA();
+
+        if(eta < 0) {
+            return "N/A";
+        } else {
+            return stopWatch.getPrettyTime(eta);
+        }
+    }
+
+    /**
+     * Method to return a single line with the metrics of the current phase
+     *
+     * @return
+     */
+    public String getMetricsLine() {
+        Phase phase = currentPhase;
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = (runtime.totalMemory() - runtime.freeMemory())/1048576L;
+
+        return "METRICS " + phase.name + " :: " + phase.done + "/" + phase.total +
+                " records, " + String.format("%.2f", phase.getRecordsPerSecond()) + " records/sec, " +
+                String.format("%.1f", phase.getBytesPerSecond()/1024.0) + " KB/sec, " +
+                inFlightRequests.get() + " in-flight, ETA " + getETA() + ", heap " + usedMemory + "MB";
+    }
+
+    /**
+     * Method to return a summary of all the phases, including the latency percentiles for each endpoint
+     *
+     * @return
+     */
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+
+        for(Phase phase: phases) {
+            if(phase.done == 0 && phase.requestCount.get() == 0) continue;
+
+            sb.append(phase.name).append(" :: ").append(phase.done).append(" records in ").
+                    append(stopWatch.getPrettyTime(phase.getElapsedTime())).append(", ").
+                    append(String.format("%.2f", phase.getRecordsPerSecond())).append(" records/sec, ").
+                    append(String.format("%.1f", phase.getBytesPerSecond()/1024.0)).append(" KB/sec\n");
+
+            TreeMap<String, LatencyHistogram> sorted = new TreeMap<String, LatencyHistogram>(phase.histograms);
+            for(Map.Entry<String, LatencyHistogram> entry: sorted.entrySet()) {
+                sb.append("  ").append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to convert a route into a key used for the latency histograms by removing the
+     * query string and replacing the record ids, so "/repositories/2/resources/10" becomes
+     * "/repositories/:id/resources/:id"
+     *
+     * @param route
+     * @return
+     */
+    public static String getEndpointKey(String route) {
+        if(route == null) return "";
+
+        int index = route.indexOf('?');
+        if(index != -1) {
+            route = route.substring(0, index);
+        }
+
+        return route.replaceAll("/\\d+", "/:id");
+    }
+
+    /**
+     * Class to keep track of a single phase of the migration
+     */
+    private static class Phase {
+        private String name;
+        private long startTime = System.currentTimeMillis();
+        private volatile long endTime = 0;
+        private volatile int total = 0;
+        private volatile int done = 0;
+        private AtomicLong bytes = new AtomicLong(0);
+        private AtomicLong requestCount = new AtomicLong(0);
+        private ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+        public Phase(String name) {
+            this.name = name;
+        }
+
+        public void finish() {
+            endTime = System.currentTimeMillis();
+        }
+
+        public long getElapsedTime() {
+            long end = endTime != 0 ? endTime : System.currentTimeMillis();
+            return Math.max(1, end - startTime);
+        }
+
+        public double getRecordsPerSecond() {
+            return done*1000.0/getElapsedTime();
+        }
+
+        public double getBytesPerSecond() {
+            return bytes.get()*1000.0/getElapsedTime();
+        }
+
+        public long getETA() {
+            if(done == 0 || total == 0) return -1;
+            return (long)((total - done)*(getElapsedTime()/(double)done));
+        }
+
+        public void recordRequest(String endpointKey, long requestBytes, long millis) {
+            bytes.addAndGet(requestBytes);
+            requestCount.incrementAndGet();
+
+            LatencyHistogram histogram = histograms.get(endpointKey);
+            if(histogram == null) {
+                histograms.putIfAbsent(endpointKey, new LatencyHistogram());
+                histogram = histograms.get(endpointKey);
+            }
+
+            histogram.record(millis);
+        }
+    }
+
+    /**
+     * A fixed bucket histogram of request latencies
+     */
+    private static class LatencyHistogram {
+        private AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+        private AtomicLong count = new AtomicLong(0);
+        private AtomicLong totalTime = new AtomicLong(0);
+        private AtomicLong maxTime = new AtomicLong(0);
+
+        public void record(long millis) {
+            int i = 0;
+            while (i < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[i]) {
+                i++;
+            }
+
+            buckets.incrementAndGet(i);
+            count.incrementAndGet();
+            totalTime.addAndGet(millis);
+
+            long max = maxTime.get();
+            while (millis > max && !maxTime.compareAndSet(max, millis)) {
+                max = maxTime.get();
+            }
+        }
+
+        /**
+         * Method to return the upper bound of the bucket containing the given percentile
+         *
+         * @param percentile between 0 and 100
+         * @return
+         */
+        public long getPercentile(double percentile) {
+            long target = (long)Math.ceil(count.get()*percentile/100.0);
+            long seen = 0;
+
+            for(int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+
+                if(seen >= target && seen > 0) {
+                    return i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : maxTime.get();
+                }
+            }
+
+            return 0;
+        }
+
+        public String toString() {
+            long n = count.get();
+            long mean = n == 0 ? 0 : totalTime.get()/n;
+
+            return "requests=" + n + " mean=" + mean + "ms p50<=" + getPercentile(50) + "ms p95<=" +
+                    getPercentile(95) + "ms p99<=" + getPercentile(99) + "ms max=" + maxTime.get() + "ms";
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Class used to measure the memory used by each phase of the migration i.e. copying names, resources etc.
+ * The heap is sampled with the MemoryMXBean on a background thread, and GC notifications are used to get
+ * the heap before and after each collection. From these the peak heap, the steady state heap (the average
+ * heap left after each collection), the total bytes allocated, and the GC pause time are worked out.
+ */
+public class PhaseMemoryMonitor implements NotificationListener {
+    // how often the heap is sampled in milliseconds
+    private static final long DEFAULT_SAMPLE_INTERVAL = 50;
+
+    private MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+    // the names of the memory pools which are part of the heap
+    private HashSet<String> heapPools = new HashSet<String>();
+
+    // whether GC notifications are available on this JVM
+    private boolean notificationsSupported = false;
+
+    private long sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    private Thread sampler;
+    private volatile boolean sampling = false;
+
+    // the stats for the phase being monitored
+    private String phaseName;
+    private long startTime;
+    private long startHeap;
+    private long startGCTime;
+    private long peakHeap;
+    private ArrayList<Long> samples = new ArrayList<Long>();
+    private long afterGCTotal;
+    private int gcCount;
+    private long gcPauseTime;
+    private long maxGCPause;
+    private long reclaimedBytes;
+
+    /**
+     * The main constructor
+     */
+    public PhaseMemoryMonitor() {
+        for (MemoryPoolMXBean poolBean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (poolBean.getType() == MemoryType.HEAP) {
+                heapPools.add(poolBean.getName());
+            }
+        }
+
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            if (gcBean instanceof NotificationEmitter) {
+                ((NotificationEmitter) gcBean).addNotificationListener(this, null, null);
+                notificationsSupported = true;
+            }
+        }
+    }
+
+    /**
+     * Method to set how often the heap is sampled
+     *
+     * @param sampleInterval in milliseconds
+     */
+    public void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Method to start monitoring a phase. A full GC is done first so that the phase
+     * starts from the live heap, and not from garbage left by the previous phase
+     *
+     * @param phaseName
+     */
+    public void startPhase(String phaseName) {
+        memoryBean.gc();
+
+        synchronized (this) {
+            this.phaseName = phaseName;
+            startTime = System.currentTimeMillis();
+            startHeap = getHeapUsed();
+            startGCTime = getTotalGCTime();
+            peakHeap = startHeap;
+            samples.clear();
+            afterGCTotal = 0;
+            gcCount = 0;
+            gcPauseTime = 0;
+            maxGCPause = 0;
+            reclaimedBytes = 0;
+        }
+
+        sampling = true;
+
+        sampler = new Thread(new Runnable() {
+            public void run() {
+                while (sampling) {
+                    sample();
+
+                    try {
+                        Thread.sleep(sampleInterval);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }, "PhaseMemoryMonitor");
+
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Method to stop monitoring the current phase and return its memory stats
+     *
+     * @return
+     */
+    public PhaseResult stopPhase() {
+        sampling = false;
+        sampler.interrupt();
+
+        try {
+            sampler.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        sample();
+
+        synchronized (this) {
+            PhaseResult result = new PhaseResult(phaseName);
+            long endHeap = getHeapUsed();
+
+            result.elapsedTime = System.currentTimeMillis() - startTime;
+            result.peakHeap = peakHeap;
+            result.gcCount = gcCount;
+
+            if (notificationsSupported) {
+                // everything that was allocated is either still on the heap or was reclaimed by a collection
+                result.allocatedBytes = Math.max(0, endHeap - startHeap + reclaimedBytes);
+                result.gcPauseTime = gcPauseTime;
+                result.maxGCPause = maxGCPause;
+            } else {
+                result.allocatedBytes = -1;
+                result.gcPauseTime = getTotalGCTime() - startGCTime;
+                result.maxGCPause = -1;
+            }
+
+            // the steady state is the live heap after each collection, or if there weren't any, the
+            // average heap used in the second half of the phase
+            if (gcCount > 0) {
+                result.steadyHeap = afterGCTotal / gcCount;
+            } else if (!samples.isEmpty()) {
+                long total = 0;
+                int start = samples.size() / 2;
+
+                for (int i = start; i < samples.size(); i++) {
+                    total += samples.get(i);
+                }
+
+                result.steadyHeap = total / (samples.size() - start);
+            } else {
+                result.steadyHeap = endHeap;
+            }
+
+            phaseName = null;
+
+            return result;
+        }
+    }
+
+    /**
+     * Method to sample the heap
+     */
+    private void sample() {
+        long used = getHeapUsed();
+
+        synchronized (this) {
+            if (phaseName == null) return;
+
+            samples.add(used);
+            if (used > peakHeap) peakHeap = used;
+        }
+    }
+
+    /**
+     * Method called when a garbage collection has finished. Concurrent cycles don't pause the
+     * application and the heap keeps being allocated while they run, so they are ignored
+     *
+     * @param notification
+     * @param handback
+     */
+    public void handleNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+
+        if (info.getGcName().contains("Concurrent") || info.getGcAction().contains("concurrent")) {
+            return;
+        }
+
+        GcInfo gcInfo = info.getGcInfo();
+        long before = getHeapTotal(gcInfo.getMemoryUsageBeforeGc());
+        long after = getHeapTotal(gcInfo.getMemoryUsageAfterGc());
+
+        synchronized (this) {
+            if (phaseName == null) return;
+
+            gcCount++;
+            gcPauseTime += gcInfo.getDuration();
+            maxGCPause = Math.max(maxGCPause, gcInfo.getDuration());
+            reclaimedBytes += Math.max(0, before - after);
+            afterGCTotal += after;
+
+            // the heap is usually at it's highest just before a collection, so use that in case it was missed
+            if (before > peakHeap) peakHeap = before;
+        }
+    }
+
+    /**
+     * Method to add up the memory used by the heap pools
+     *
+     * @param usageMap
+     * @return
+     */
+    private long getHeapTotal(Map<String, MemoryUsage> usageMap) {
+        long total = 0;
+
+        for (Map.Entry<String, MemoryUsage> entry : usageMap.entrySet()) {
+            if (heapPools.contains(entry.getKey())) {
+                total += entry.getValue().getUsed();
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Method to return the heap currently used
+     *
+     * @return
+     */
+    private long getHeapUsed() {
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Method to return the total time spent in GC by all collectors
+     *
+     * @return
+     */
+    private long getTotalGCTime() {
+        long total = 0;
+
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            total += Math.max(0, gcBean.getCollectionTime());
+        }
+
+        return total;
+    }
+
+    /**
+     * Method to stop listening for GC notifications
+     */
+    public void close() {
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            if (gcBean instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) gcBean).removeNotificationListener(this);
+                } catch (Exception e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * The memory stats for a single phase
+     */
+    public static class PhaseResult {
+        // the stats compared against the baseline
+        public static final String PEAK_HEAP = "peakHeap";
+        public static final String STEADY_HEAP = "steadyHeap";
+        public static final String ALLOCATED_BYTES = "allocatedBytes";
+        public static final String GC_PAUSE_TIME = "gcPauseTime";
+
+        public static final String[] STATS = {PEAK_HEAP, STEADY_HEAP, ALLOCATED_BYTES, GC_PAUSE_TIME};
+
+        private String name;
+
+        public long elapsedTime;
+        public long peakHeap;
+        public long steadyHeap;
+        public long allocatedBytes;
+        public long gcPauseTime;
+        public long maxGCPause;
+        public int gcCount;
+
+        public PhaseResult(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Method to return the value of one of the stats compared against the baseline
+         *
+         * @param stat
+         * @return
+         */
+        public long getStat(String stat) {
+            if (stat.equals(PEAK_HEAP)) {
+                return peakHeap;
+            } else if (stat.equals(STEADY_HEAP)) {
+                return steadyHeap;
+            } else if (stat.equals(ALLOCATED_BYTES)) {
+                return allocatedBytes;
+            } else {
+                return gcPauseTime;
+            }
+        }
+
+        /**
+         * Method to add the stats to a properties object so they can be saved as the baseline
+         *
+         * @param properties
+         */
+        public void addToProperties(Properties properties) {
+            for (String stat : STATS) {
+                properties.setProperty(name + "." + stat, "" + getStat(stat));
+            }
+        }
+
+        public String toString() {
+            return String.format("%-16s %8.1fs  peak %7.1fMB  steady %7.1fMB  allocated %9.1fMB  GC %5d (%6dms, max %5dms)",
+                    name, elapsedTime / 1000.0, toMB(peakHeap), toMB(steadyHeap), toMB(allocatedBytes),
+                    gcCount, gcPauseTime, maxGCPause);
+        }
+
+        private static double toMB(long bytes) {
+            return bytes / 1048576.0;
+        }
+    }
+}
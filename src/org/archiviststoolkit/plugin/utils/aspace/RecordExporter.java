@@ -0,0 +1,300 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import org.apache.commons.httpclient.NameValuePair;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.Date;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class used to export the converted ASpace records to files on disk instead of posting them to the
+ * backend, so the AT records can be extracted at full speed and loaded into ASpace later, without
+ * keeping the AT database session open while the backend works.
+ *
+ * Each record, or resource batch, is written as a single line of JSON to gzipped chunk files:
+ *
+ * {"id":"export_12","endpoint":"/subjects","atId":"Subject->...","params":{...},"record":{...}}
+ *
+ * Since there is no backend to return the record ids, each record is given a placeholder id of
+ * export_[sequence number], so references to it in later records look like "/subjects/export_12". The
+ * loader replaces these with the real URIs as the records are posted. A record only ever refers to
+ * records exported before it. A manifest listing the chunks is rewritten each time a chunk is closed,
+ * and marked complete once the export has finished.
+ */
+public class RecordExporter {
+    // the prefix of the placeholder ids
+    public static final String ID_PREFIX = "export_";
+
+    public static final String MANIFEST_FILENAME = "manifest.json";
+    public static final String CHUNK_FILENAME_FORMAT = "records-%05d.ndjson.gz";
+
+    public static final int DEFAULT_CHUNK_RECORDS = 10000;
+    public static final long DEFAULT_CHUNK_BYTES = 64 * 1048576L;
+
+    private File directory;
+    private int chunkRecords = DEFAULT_CHUNK_RECORDS;
+    private long chunkBytes = DEFAULT_CHUNK_BYTES;
+
+    // the chunk currently being written
+    private Writer writer;
+    private JSONObject chunkJS;
+    private int chunkRecordCount;
+    private long chunkByteCount;
+    private TreeMap<String, Integer> chunkTypeCounts;
+
+    private JSONArray chunksJA = new JSONArray();
+    private long nextId = 1;
+    private long recordCount = 0;
+    private long byteCount = 0;
+    private long createdTime = System.currentTimeMillis();
+
+    /**
+     * The main constructor
+     *
+     * @param directory the directory to write the chunks and manifest to
+     * @throws IOException if the directory already contains an export
+     */
+    public RecordExporter(File directory) throws IOException {
+        this.directory = directory;
+
+        if (new File(directory, MANIFEST_FILENAME).exists()) {
+            throw new IOException("Export directory already contains an export: " + directory.getAbsolutePath());
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create export directory: " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Method to set when a chunk is closed and a new one started
+     *
+     * @param chunkRecords the maximum number of records in a chunk
+     * @param chunkBytes the maximum size of a chunk before compression
+     */
+    public void setChunkSize(int chunkRecords, long chunkBytes) {
+        this.chunkRecords = chunkRecords;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Method to return the directory the records are exported to
+     *
+     * @return
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Method to export a record in place of posting it to the backend
+     *
+     * @param endpoint the endpoint the record would be posted to
+     * @param jsonText the record, or resource batch
+     * @param params any parameters to pass along with the record
+     * @param atId used to identify the record
+     * @return the placeholder id of the record
+     * @throws IOException
+     */
+    public synchronized String export(String endpoint, String jsonText, NameValuePair[] params, String atId) throws IOException {
+        String id = ID_PREFIX + nextId;
+
+        StringBuilder sb = new StringBuilder(jsonText.length() + 256);
+        sb.append("{\"id\":").append(JSONObject.quote(id));
+        sb.append(",\"endpoint\":").append(JSONObject.quote(endpoint));
+        sb.append(",\"atId\":").append(JSONObject.quote(atId == null ? "" : atId));
+
+        if (params != null && params.length > 0) {
+            JSONObject paramsJS = new JSONObject();
+
+            for (NameValuePair param : params) {
+                try {
+                    paramsJS.put(param.getName(), param.getValue());
+                } catch (Exception e) {
+                    // only happens if the name is null
+                }
+            }
+
+            sb.append(",\"params\":").append(paramsJS.toString());
+        }
+
+        // the record is already json so add it as is. Line breaks can only be whitespace between the
+        // tokens, since they are escaped inside strings, so they are just removed for pretty printed records
+        sb.append(",\"record\":");
+
+        if (jsonText.indexOf('\n') != -1) {
+            sb.append(jsonText.replace("\n", ""));
+        } else {
+            sb.append(jsonText);
+        }
+
+        sb.append("}\n");
+
+        if (writer == null) {
+            startChunk();
+        }
+
+        writer.write(sb.toString());
+
+        String type = getRecordType(endpoint);
+        Integer typeCount = chunkTypeCounts.get(type);
+        chunkTypeCounts.put(type, (typeCount == null) ? 1 : typeCount + 1);
+
+        if (chunkRecordCount == 0) {
+            setChunkValue("firstId", id);
+        }
+
+        chunkRecordCount++;
+        chunkByteCount += sb.length();
+        recordCount++;
+        byteCount += sb.length();
+        nextId++;
+
+        setChunkValue("lastId", id);
+
+        if (chunkRecordCount >= chunkRecords || chunkByteCount >= chunkBytes) {
+            closeChunk();
+        }
+
+        return id;
+    }
+
+    /**
+     * Method to start a new chunk file
+     *
+     * @throws IOException
+     */
+    private void startChunk() throws IOException {
+        String filename = String.format(CHUNK_FILENAME_FORMAT, chunksJA.length() + 1);
+
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(new File(directory, filename)), 65536), "UTF-8"), 65536);
+
+        chunkJS = new JSONObject();
+        setChunkValue("file", filename);
+
+        chunkRecordCount = 0;
+        chunkByteCount = 0;
+        chunkTypeCounts = new TreeMap<String, Integer>();
+    }
+
+    /**
+     * Method to close the current chunk and add it to the manifest
+     *
+     * @throws IOException
+     */
+    private void closeChunk() throws IOException {
+        writer.close();
+        writer = null;
+
+        setChunkValue("records", chunkRecordCount);
+        setChunkValue("bytes", chunkByteCount);
+        setChunkValue("types", new JSONObject(chunkTypeCounts));
+
+        chunksJA.put(chunkJS);
+        chunkJS = null;
+
+        writeManifest(false);
+    }
+
+    /**
+     * Method to set a value of the chunk being written
+     *
+     * @param key
+     * @param value
+     */
+    private void setChunkValue(String key, Object value) {
+        try {
+            chunkJS.put(key, value);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to write out the manifest. It's written to a temporary file first so there is always a
+     * complete manifest on disk, even if the export is stopped while it's being written
+     *
+     * @param complete whether the export has finished
+     * @throws IOException
+     */
+    private void writeManifest(boolean complete) throws IOException {
+        JSONObject manifestJS = new JSONObject();
+
+        try {
+            manifestJS.put("format", "aspace-ndjson");
+            manifestJS.put("version", 1);
+            manifestJS.put("created", new Date(createdTime).toString());
+            manifestJS.put("complete", complete);
+            manifestJS.put("records", recordCount);
+            manifestJS.put("bytes", byteCount);
+            manifestJS.put("lastId", ID_PREFIX + (nextId - 1));
+            manifestJS.put("chunks", chunksJA);
+        } catch (Exception e) {
+            throw new IOException("Unable to create manifest: " + e.getMessage());
+        }
+
+        File tempFile = new File(directory, MANIFEST_FILENAME + ".tmp");
+        File manifestFile = new File(directory, MANIFEST_FILENAME);
+
+        Writer manifestWriter = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            manifestWriter.write(manifestJS.toString(2));
+        } catch (Exception e) {
+            throw new IOException("Unable to write manifest: " + e.getMessage());
+        } finally {
+            manifestWriter.close();
+        }
+
+        if (manifestFile.exists()) manifestFile.delete();
+
+        if (!tempFile.renameTo(manifestFile)) {
+            throw new IOException("Unable to rename manifest: " + tempFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Method to return the number of records exported
+     *
+     * @return
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Method to return the number of chunks written so far
+     *
+     * @return
+     */
+    public synchronized int getChunkCount() {
+        return chunksJA.length() + (writer != null ? 1 : 0);
+    }
+
+    /**
+     * Method to close the last chunk and mark the export as complete
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            closeChunk();
+        }
+
+        writeManifest(true);
+    }
+
+    /**
+     * Method to return the type of record from the endpoint, with the ids removed, so
+     * "/repositories/export_2/accessions" becomes "/repositories/:id/accessions"
+     *
+     * @param endpoint
+     * @return
+     */
+    public static String getRecordType(String endpoint) {
+        return MigrationMetrics.getEndpointKey(endpoint.replaceAll("/" + ID_PREFIX + "\\d+", "/:id"));
+    }
+}
@@ -0,0 +1,105 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+/**
+ * Class which holds the backend session shared by an ASpaceClient and all the clients returned by its
+ * getAuthenticatedClient method. When a request fails because the session is gone, which happens when the
+ * backend is restarted, the client asks for a new one. Only the first client to ask logs in again, while the
+ * others wait and then use the new session, so a restart causes a single login instead of one per client.
+ *
+ * While the backend is restarting the login fails, so it's tried a number of times before giving up.
+ */
+public class SessionProvider {
+    // the client used to log in. Only used while holding the lock on this object
+    private ASpaceClient loginClient;
+
+    private volatile String session;
+
+    // the number of times the session has been renewed
+    private int renewCount = 0;
+
+    // how many times to try logging in, and how long to wait between tries, while the backend restarts
+    private int maxLoginAttempts = 30;
+    private long loginRetryDelay = 10000;
+
+    // when logging in last failed, so clients don't each wait through all the attempts again
+    private long lastFailedLogin = 0;
+
+    /**
+     * The main constructor
+     *
+     * @param loginClient the client with the username and password used to log in
+     * @param session the current session
+     */
+    public SessionProvider(ASpaceClient loginClient, String session) {
+        this.loginClient = loginClient;
+        this.session = session;
+    }
+
+    /**
+     * Method to return the current session
+     *
+     * @return
+     */
+    public String getSession() {
+        return session;
+    }
+
+    /**
+     * Method to set how many times to try logging in, and how long to wait between tries
+     *
+     * @param maxLoginAttempts
+     * @param loginRetryDelay in milliseconds
+     */
+    public void setLoginRetry(int maxLoginAttempts, long loginRetryDelay) {
+        this.maxLoginAttempts = Math.max(1, maxLoginAttempts);
+        this.loginRetryDelay = loginRetryDelay;
+    }
+
+    /**
+     * Method to get a new session after a request failed with the given one. If another client already
+     * renewed it, the new session is returned straight away
+     *
+     * @param expiredSession the session the failed request was sent with
+     * @return the new session
+     * @throws Exception if the login failed
+     */
+    public synchronized String renewSession(String expiredSession) throws Exception {
+        if(session != null && !session.equals(expiredSession)) {
+            return session;
+        }
+
+        // a client which just failed to log in already waited through all the attempts
+        if(System.currentTimeMillis() - lastFailedLogin < loginRetryDelay) {
+            throw new Exception("Unable to log in to the backend, session not renewed");
+        }
+
+        for(int i = 1; i <= maxLoginAttempts; i++) {
+            String id = loginClient.login();
+
+            if(!id.isEmpty()) {
+                session = id;
+                renewCount++;
+
+                System.out.println("Backend session renewed after " + i + " login attempt(s)");
+                return session;
+            }
+
+            if(i < maxLoginAttempts) {
+                System.out.println("Unable to log in to the backend, trying again in " + loginRetryDelay/1000 + " seconds ...");
+                Thread.sleep(loginRetryDelay);
+            }
+        }
+
+        lastFailedLogin = System.currentTimeMillis();
+        throw new Exception("Unable to log in to the backend after " + maxLoginAttempts + " attempts, session not renewed");
+    }
+
+    /**
+     * Method to return the number of times the session has been renewed
+     *
+     * @return
+     */
+    public synchronized int getRenewCount() {
+        return renewCount;
+    }
+}
@@ -0,0 +1,284 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class used to record the requests ASpaceClient makes to the backend during a migration, so the same
+ * request stream can later be replayed by TrafficReplay against the stub server. Each request is written
+ * as a line of tab separated fields to a gzipped file:
+ *
+ * offset, thread, phase, method, route, request bytes, request crc32, millis, status code, response bytes, [body]
+ *
+ * where the offset is the number of milliseconds since the recording started. By default only the size
+ * and hash of the request body is stored, since the bodies contain the AT records. If the bodies are
+ * recorded they are escaped so they fit on a single line.
+ */
+public class TrafficRecorder {
+    // the first line of the file, followed by whether the bodies were recorded
+    public static final String HEADER = "#ASpaceTraffic v1 bodies=";
+
+    private BufferedWriter writer;
+    private boolean recordBodies;
+    private long startTime = System.currentTimeMillis();
+    private long requestCount = 0;
+
+    /**
+     * The main constructor
+     *
+     * @param file the file to write the requests to
+     * @param recordBodies whether to store the request bodies
+     * @throws IOException
+     */
+    public TrafficRecorder(File file, boolean recordBodies) throws IOException {
+        this.recordBodies = recordBodies;
+
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file), 65536), "UTF-8"), 65536);
+
+        writer.write(HEADER + recordBodies + "\n");
+    }
+
+    /**
+     * Method to record a request
+     *
+     * @param phase the migration phase or null
+     * @param method GET, POST or DELETE
+     * @param route the route including any query string
+     * @param body the request body or null
+     * @param requestStartTime
+     * @param millis how long the request took
+     * @param statusCode the response status code, or 0 if there was no response
+     * @param responseBytes the size of the response, or -1 if not known
+     */
+    public void record(String phase, String method, String route, String body, long requestStartTime,
+                       long millis, int statusCode, long responseBytes) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(requestStartTime - startTime).append('\t');
+        sb.append(escape(Thread.currentThread().getName())).append('\t');
+        sb.append(phase == null ? "" : escape(phase)).append('\t');
+        sb.append(method).append('\t');
+        sb.append(escape(route)).append('\t');
+        sb.append(body == null ? 0 : body.length()).append('\t');
+        sb.append(body == null ? "" : getHash(body)).append('\t');
+        sb.append(millis).append('\t');
+        sb.append(statusCode).append('\t');
+        sb.append(responseBytes);
+
+        if (recordBodies && body != null) {
+            sb.append('\t').append(escape(body));
+        }
+
+        sb.append('\n');
+
+        synchronized (this) {
+            if (writer == null) return;
+
+            try {
+                writer.write(sb.toString());
+                requestCount++;
+            } catch (IOException e) {
+                System.out.println("Unable to record request: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Method to return the number of requests recorded
+     *
+     * @return
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Method to close the file
+     */
+    public synchronized void close() {
+        if (writer == null) return;
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        writer = null;
+    }
+
+    /**
+     * Method to return the crc32 of the text as a hex string
+     *
+     * @param text
+     * @return
+     */
+    public static String getHash(String text) {
+        CRC32 crc = new CRC32();
+
+        try {
+            crc.update(text.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            crc.update(text.getBytes());
+        }
+
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Method to escape the characters which would break up a line
+     *
+     * @param text
+     * @return
+     */
+    private static String escape(String text) {
+        if (text.indexOf('\\') == -1 && text.indexOf('\t') == -1 &&
+                text.indexOf('\n') == -1 && text.indexOf('\r') == -1) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to reverse the escaping of a field
+     *
+     * @param text
+     * @return
+     */
+    private static String unescape(String text) {
+        if (text.indexOf('\\') == -1) return text;
+
+        StringBuilder sb = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+
+                if (next == 't') {
+                    sb.append('\t');
+                } else if (next == 'n') {
+                    sb.append('\n');
+                } else if (next == 'r') {
+                    sb.append('\r');
+                } else {
+                    sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * A single recorded request
+     */
+    public static class Request {
+        public long offset;
+        public String thread;
+        public String phase;
+        public String method;
+        public String route;
+        public int requestBytes;
+        public String requestHash;
+        public long millis;
+        public int statusCode;
+        public long responseBytes;
+        public String body;
+    }
+
+    /**
+     * Class used to read the requests back one at a time, so a large recording doesn't have to fit in memory
+     */
+    public static class Reader {
+        private BufferedReader reader;
+        private boolean hasBodies = false;
+
+        public Reader(File file) throws IOException {
+            reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(file), 65536), "UTF-8"), 65536);
+
+            String header = reader.readLine();
+
+            if (header == null || !header.startsWith(HEADER)) {
+                reader.close();
+                throw new IOException("Not a traffic recording: " + file.getAbsolutePath());
+            }
+
+            hasBodies = new Boolean(header.substring(HEADER.length()).trim());
+        }
+
+        /**
+         * Method to return whether the request bodies were recorded
+         *
+         * @return
+         */
+        public boolean hasBodies() {
+            return hasBodies;
+        }
+
+        /**
+         * Method to return the next request or null at the end of the file
+         *
+         * @return
+         * @throws IOException
+         */
+        public Request next() throws IOException {
+            String line = reader.readLine();
+
+            while (line != null && line.isEmpty()) {
+                line = reader.readLine();
+            }
+
+            if (line == null) return null;
+
+            String[] fields = line.split("\t", -1);
+
+            Request request = new Request();
+            request.offset = Long.parseLong(fields[0]);
+            request.thread = unescape(fields[1]);
+            request.phase = unescape(fields[2]);
+            request.method = fields[3];
+            request.route = unescape(fields[4]);
+            request.requestBytes = Integer.parseInt(fields[5]);
+            request.requestHash = fields[6];
+            request.millis = Long.parseLong(fields[7]);
+            request.statusCode = Integer.parseInt(fields[8]);
+            request.responseBytes = Long.parseLong(fields[9]);
+
+            if (fields.length > 10) {
+                request.body = unescape(fields[10]);
+            }
+
+            return request;
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class used to replay the requests recorded by TrafficRecorder against the ASpace stub server, or any
+ * other backend, so the client side of the migration can be tuned and compared without needing the
+ * AT database. The requests are sent with the same timing, scaled by the speed, and by default each
+ * recorded thread is replayed on its own thread so the original concurrency and ordering is kept.
+ *
+ * If the request bodies weren't recorded, a body of the same size is made up for each post. These are
+ * good enough for the stub server, but a real backend will reject them.
+ *
+ * Usage: TrafficReplay <capture file> [host] [speed] [threads]
+ *
+ * A speed of 1.0 replays at the recorded rate, 2.0 twice as fast, and 0 as fast as possible. If no host
+ * is given the stub server is started in process. If threads is given, a pool of that many threads is used
+ * instead of one per recorded thread.
+ */
+public class TrafficReplay {
+    // the maximum number of requests read ahead of the ones being sent
+    private static final int MAX_QUEUED = 1000;
+
+    // the size of each record made up for a batch import
+    private static final int BATCH_RECORD_SIZE = 2048;
+
+    private File captureFile;
+    private String host;
+    private double speed = 1.0;
+    private int threads = 0;
+
+    private String username = "admin";
+    private String password = "admin";
+
+    private ASpaceClient client;
+
+    // the client used by each worker thread, since a client can only send one request at a time
+    private ThreadLocal<ASpaceClient> workerClient = new ThreadLocal<ASpaceClient>() {
+        protected ASpaceClient initialValue() {
+            return client.getAuthenticatedClient();
+        }
+    };
+
+    // the metrics for the recorded requests and for the replayed ones
+    private MigrationMetrics recordedMetrics = new MigrationMetrics();
+    private MigrationMetrics replayMetrics = new MigrationMetrics();
+
+    private Semaphore queueSlots = new Semaphore(MAX_QUEUED);
+    private AtomicLong errorCount = new AtomicLong(0);
+    private AtomicLong skippedCount = new AtomicLong(0);
+
+    // how far behind the recorded timing the requests were sent
+    private long totalLag = 0;
+    private long maxLag = 0;
+
+    /**
+     * The main constructor
+     *
+     * @param captureFile the file written by TrafficRecorder
+     * @param host the backend to send the requests to
+     * @param speed how much faster than recorded to send the requests, or 0 for as fast as possible
+     * @param threads the number of threads to use, or 0 for one per recorded thread
+     */
+    public TrafficReplay(File captureFile, String host, double speed, int threads) {
+        this.captureFile = captureFile;
+        this.host = host;
+        this.speed = speed;
+        this.threads = threads;
+    }
+
+    /**
+     * Method to set the login used for the backend
+     *
+     * @param username
+     * @param password
+     */
+    public void setLogin(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Method to replay the recorded requests
+     *
+     * @return the number of requests replayed
+     * @throws Exception
+     */
+    public long run() throws Exception {
+        client = new ASpaceClient(host, username, password);
+
+        if (!client.getSession()) {
+            throw new Exception("Unable to get an ASpace session from " + host);
+        }
+
+        recordedMetrics.startPhase("Recorded");
+        replayMetrics.startPhase("Replay");
+
+        client.setMetrics(replayMetrics);
+
+        TrafficRecorder.Reader reader = new TrafficRecorder.Reader(captureFile);
+
+        // either a single thread for each recorded thread, or a shared pool
+        HashMap<String, ExecutorService> workers = new HashMap<String, ExecutorService>();
+        ExecutorService pool = (threads > 0) ? Executors.newFixedThreadPool(threads) : null;
+
+        long requestCount = 0;
+        long replayStartTime = System.currentTimeMillis();
+
+        try {
+            TrafficRecorder.Request request;
+
+            while ((request = reader.next()) != null) {
+                // the session is already taken care of
+                if (request.route.endsWith("/login")) continue;
+
+                recordedMetrics.requestStarted();
+                recordedMetrics.requestFinished(request.route, request.requestBytes, request.millis);
+
+                waitUntil(replayStartTime, request.offset);
+
+                ExecutorService executor = pool;
+                if (executor == null) {
+                    executor = workers.get(request.thread);
+
+                    if (executor == null) {
+                        executor = Executors.newSingleThreadExecutor();
+                        workers.put(request.thread, executor);
+                    }
+                }
+
+                queueSlots.acquire();
+                executor.execute(new ReplayTask(request));
+                requestCount++;
+            }
+        } finally {
+            reader.close();
+
+            if (pool != null) {
+                shutdown(pool);
+            }
+
+            for (ExecutorService executor : workers.values()) {
+                shutdown(executor);
+            }
+        }
+
+        long elapsedTime = System.currentTimeMillis() - replayStartTime;
+
+        System.out.println("\nRecorded requests:\n" + recordedMetrics.getSummary());
+        System.out.println("Replayed requests:\n" + replayMetrics.getSummary());
+
+        System.out.println(String.format("Replayed %d requests in %.1fs (%.1f requests/sec) using %d threads",
+                requestCount, elapsedTime / 1000.0, requestCount * 1000.0 / Math.max(1, elapsedTime),
+                (pool != null) ? threads : workers.size()));
+
+        System.out.println("Errors: " + errorCount.get() + ", skipped: " + skippedCount.get());
+
+        if (speed > 0 && requestCount > 0) {
+            System.out.println("Scheduling lag: average " + (totalLag / requestCount) + "ms, max " + maxLag + "ms");
+        }
+
+        return requestCount;
+    }
+
+    /**
+     * Method to wait until a request should be sent, based on when it was sent in the recording
+     *
+     * @param replayStartTime
+     * @param offset the milliseconds from the start of the recording
+     * @throws InterruptedException
+     */
+    private void waitUntil(long replayStartTime, long offset) throws InterruptedException {
+        if (speed <= 0) return;
+
+        long scheduledTime = replayStartTime + (long) (offset / speed);
+        long waitTime = scheduledTime - System.currentTimeMillis();
+
+        if (waitTime > 0) {
+            Thread.sleep(waitTime);
+        } else {
+            totalLag -= waitTime;
+            maxLag = Math.max(maxLag, -waitTime);
+        }
+    }
+
+    /**
+     * Method to wait for all the requests given to an executor to finish
+     *
+     * @param executor
+     * @throws InterruptedException
+     */
+    private void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    /**
+     * Method to send a single request to the backend
+     *
+     * @param request
+     * @throws Exception
+     */
+    private void sendRequest(TrafficRecorder.Request request) throws Exception {
+        ASpaceClient client = workerClient.get();
+
+        if (request.method.equals("POST")) {
+            String body = request.body;
+
+            if (body == null) {
+                body = makeBody(request.route, request.requestBytes);
+            }
+
+            client.post(request.route, body, null, "replay");
+        } else if (request.method.equals("GET")) {
+            client.get(request.route, null);
+        } else if (request.method.equals("DELETE")) {
+            client.deleteRecord(request.route);
+        } else {
+            skippedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Method to make up a json body of about the same size as the recorded one. Batch imports
+     * are split into records so the stub server sees about the same number of records
+     *
+     * @param route
+     * @param size
+     * @return
+     */
+    public static String makeBody(String route, int size) {
+        if (!route.contains("/batch_imports")) {
+            return makeRecord(route, 0, size);
+        }
+
+        int recordCount = Math.max(1, size / BATCH_RECORD_SIZE);
+        StringBuilder sb = new StringBuilder(size + 64);
+
+        sb.append('[');
+
+        for (int i = 0; i < recordCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(makeRecord(route, i, size / recordCount));
+        }
+
+        sb.append(']');
+
+        return sb.toString();
+    }
+
+    /**
+     * Method to make up a single json record padded out to about the given size
+     *
+     * @param route
+     * @param index
+     * @param size
+     * @return
+     */
+    private static String makeRecord(String route, int index, int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+
+        sb.append("{\"jsonmodel_type\":\"replay\",\"uri\":\"/replay/import_").append(index).
+                append("\",\"title\":\"Replay record ").append(index).append("\",\"padding\":\"");
+
+        while (sb.length() < size - 2) {
+            sb.append('x');
+        }
+
+        sb.append("\"}");
+
+        return sb.toString();
+    }
+
+    /**
+     * Class used to send a request on one of the worker threads
+     */
+    private class ReplayTask implements Runnable {
+        private TrafficRecorder.Request request;
+
+        public ReplayTask(TrafficRecorder.Request request) {
+            this.request = request;
+        }
+
+        public void run() {
+            try {
+                sendRequest(request);
+            } catch (Exception e) {
+                errorCount.incrementAndGet();
+            } finally {
+                queueSlots.release();
+            }
+        }
+    }
+
+    /**
+     * Main method for running the replay from the command line
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: TrafficReplay <capture file> [host] [speed] [threads]");
+            System.exit(1);
+        }
+
+        File captureFile = new File(args[0]);
+        String host = (args.length > 1) ? args[1] : "";
+        double speed = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : 0;
+
+        ASpaceStubServer stubServer = null;
+        boolean passed = false;
+
+        try {
+            if (host.isEmpty()) {
+                stubServer = new ASpaceStubServer(8089);
+                stubServer.start();
+                host = stubServer.getHost();
+
+                System.out.println("Started stub server at " + host);
+            }
+
+            TrafficReplay replay = new TrafficReplay(captureFile, host, speed, threads);
+            replay.run();
+
+            if (stubServer != null) {
+                System.out.println("\n" + stubServer.getStatistics());
+            }
+
+            passed = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (stubServer != null) stubServer.stop();
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,83 @@
+package org.archiviststoolkit.plugin.utils.aspace;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used to create the threads which post the records to the backend. On a JDK with virtual threads
+ * (21 or later) these can be virtual threads, which are cheap enough that the number of clients can be
+ * raised into the hundreds, since the threads spend nearly all their time waiting on the backend. The
+ * number of requests sent at the same time is still limited by the number of clients.
+ *
+ * The virtual threads are created by reflection so the code still compiles and runs on older JDKs, where
+ * platform threads are used instead. Note that before JDK 24, a virtual thread blocked on I/O inside a
+ * synchronized block, which commons-httpclient does, holds on to its carrier thread.
+ */
+public class VirtualThreads {
+    /**
+     * Method to see whether the JDK supports virtual threads
+     *
+     * @return
+     */
+    public static boolean isAvailable() {
+        return getVirtualThreadFactory("check") != null;
+    }
+
+    /**
+     * Method to return a factory for the threads used to post the records
+     *
+     * @param name the name given to the threads, followed by a number
+     * @param useVirtualThreads whether to use virtual threads if the JDK supports them
+     * @return
+     */
+    public static ThreadFactory getThreadFactory(String name, boolean useVirtualThreads) {
+        if (useVirtualThreads) {
+            ThreadFactory threadFactory = getVirtualThreadFactory(name);
+
+            if (threadFactory != null) {
+                return threadFactory;
+            }
+
+            System.out.println("Virtual threads need JDK 21 or later, using platform threads ...");
+        }
+
+        return getPlatformThreadFactory(name);
+    }
+
+    /**
+     * Method to return a factory for platform threads
+     *
+     * @param name
+     * @return
+     */
+    public static ThreadFactory getPlatformThreadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            }
+        };
+    }
+
+    /**
+     * Method to return a factory for virtual threads, i.e. Thread.ofVirtual().name(name + "-", 1).factory()
+     *
+     * @param name
+     * @return the factory or null if the JDK doesn't support virtual threads
+     */
+    private static ThreadFactory getVirtualThreadFactory(String name) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}